@@ -14,6 +14,12 @@ import javax.validation.Valid;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -25,6 +31,9 @@ import java.util.stream.Collectors;
 public class CommentResource {
 
     private static final Logger LOG = LogManager.getLogger(CommentResource.class.getName());
+    private static final int MAX_EXPORT_DOC_IDS = 1000;
+    private static final int MAX_DIGEST_RANGES = 1000;
+    private static final int MAX_DIGEST_BUCKETS = 256;
 
     @Inject
     private CommentService commentService;
@@ -146,6 +155,88 @@ public class CommentResource {
         }
     }
 
+    /**
+     * Comment counts per line of a range of documents, or of the documents given as docId,
+     * as CSV (docId,lineNumber,count,lineVersion), streamed for docs-service to rebuild or
+     * repair its line count table
+     */
+    @GET
+    @Path("/line-counts")
+    @Produces("text/csv")
+    public Response exportLineCounts(@QueryParam("fromDocId") @DefaultValue("0") long fromDocId,
+                                     @QueryParam("toDocId") @DefaultValue("9223372036854775807") long toDocId,
+                                     @QueryParam("docId") List<String> docIds) {
+        if (docIds != null && !docIds.isEmpty()) {
+            if (docIds.size() > MAX_EXPORT_DOC_IDS) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(Map.of("error", "At most " + MAX_EXPORT_DOC_IDS + " docIds per request"))
+                    .build();
+            }
+            StreamingOutput stream = output -> {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+                commentService.writeLineCounts(docIds, writer);
+            };
+            return Response.ok(stream).build();
+        }
+
+        if (fromDocId >= toDocId) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .type(MediaType.APPLICATION_JSON)
+                .entity(Map.of("error", "fromDocId must be less than toDocId"))
+                .build();
+        }
+        LOG.info("Exporting line counts for docIds [{}, {})", fromDocId, toDocId);
+
+        StreamingOutput stream = output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            commentService.writeLineCounts(fromDocId, toDocId, writer);
+        };
+        return Response.ok(stream).build();
+    }
+
+    /**
+     * Digests of the line comment counts of docId ranges, for docs-service to find the
+     * documents whose counts drifted without transferring the counts
+     */
+    @POST
+    @Path("/line-counts/digests")
+    public Response getLineCountDigests(LineCountDigestRequest request) {
+        if (request == null || request.getRanges() == null || request.getRanges().isEmpty()
+                || request.getRanges().size() > MAX_DIGEST_RANGES) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(Map.of("error", "Between 1 and " + MAX_DIGEST_RANGES + " ranges are required"))
+                .build();
+        }
+        if (request.getBuckets() < 2 || request.getBuckets() > MAX_DIGEST_BUCKETS) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(Map.of("error", "buckets must be between 2 and " + MAX_DIGEST_BUCKETS))
+                .build();
+        }
+
+        List<long[]> ranges = new ArrayList<>();
+        long previousTo = Long.MIN_VALUE;
+        for (List<Long> range : request.getRanges()) {
+            if (range == null || range.size() != 2 || range.get(0) == null || range.get(1) == null
+                    || range.get(0) >= range.get(1) || range.get(0) < previousTo) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(Map.of("error", "Ranges must be sorted, disjoint [fromDocId, toDocId) pairs"))
+                    .build();
+            }
+            ranges.add(new long[]{range.get(0), range.get(1)});
+            previousTo = range.get(1);
+        }
+
+        try {
+            return Response.ok(Map.of("digests", commentService.getLineCountDigests(ranges, request.getBuckets()))).build();
+        } catch (Exception e) {
+            LOG.error("Failed to compute line count digests", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(Map.of("error", "Failed to compute line count digests"))
+                .build();
+        }
+    }
+
     @POST
     @Path("/{commentId}/like")
     public Response likeComment(@PathParam("commentId") String commentId) {
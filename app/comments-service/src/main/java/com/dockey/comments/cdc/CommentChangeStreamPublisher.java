@@ -0,0 +1,574 @@
+package com.dockey.comments.cdc;
+
+import com.dockey.comments.events.CommentEvent;
+import com.dockey.comments.events.CommentEventType;
+import com.dockey.comments.producers.KafkaCommentProducer;
+import com.dockey.comments.services.CommentPurgeService;
+import com.dockey.comments.services.CommentService;
+import com.kumuluz.ee.configuration.utils.ConfigurationUtil;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoServerException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.result.UpdateResult;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes comment events and line counts from a MongoDB change stream on the comments
+ * collection instead of from the request path (kafka.change-stream.enabled).
+ *
+ * Every write to the collection is picked up, including ones from admin scripts. Pre- and
+ * post-images of each change tell what happened: a comment becoming visible is an add, one
+ * disappearing (soft or hard delete) a delete, a line number change a move, and changes to
+ * likedByUserIds likes and unlikes. Changes are taken in batches; each document whose line
+ * counts changed in a batch gets one new version and one count query, and the batch's events
+ * are sent together.
+ *
+ * The resume token is saved in Mongo (change_streams) only once Kafka acknowledged the
+ * batch, so a restart re-publishes at most the last batch, and consumers drop what they have
+ * already applied by version. One replica watches at a time, holding a lease on the same
+ * document that it renews with every save, and while a batch is being counted and sent. A
+ * replica that loses the lease stops publishing before its batch is done. Requires a replica
+ * set; without one the request path keeps publishing. Other setup failures are retried, and
+ * fail the startup if they persist, so replicas never disagree on where events come from.
+ */
+@ApplicationScoped
+public class CommentChangeStreamPublisher {
+
+    private static final Logger LOG = LogManager.getLogger(CommentChangeStreamPublisher.class.getName());
+    private static final String DATABASE_NAME = "commentsdb";
+    private static final String COLLECTION_NAME = "comments";
+    private static final String STREAM_COLLECTION_NAME = "change_streams"; // Resume token and lease per stream
+    private static final String STREAM_ID = "comments-events";
+    private static final long LEASE_MS = 30000;
+    private static final long RETRY_BACKOFF_MS = 5000;
+    private static final int SETUP_ATTEMPTS = 12;
+    // Mongo error codes
+    private static final int NAMESPACE_NOT_FOUND = 26;
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+    @Inject
+    private MongoClient mongoClient;
+
+    @Inject
+    private CommentService commentService;
+
+    @Inject
+    private CommentPurgeService commentPurgeService;
+
+    @Inject
+    private KafkaCommentProducer kafkaProducer;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    private boolean enabled;
+    private int batchSize;
+    private String owner;
+    private ExecutorService executor;
+    private volatile boolean running = false;
+    private final AtomicLong lastClusterTimeSeconds = new AtomicLong();
+    private long leaseRenewedAt; // Only used by the watch thread
+    private Counter changesCounter;
+
+    @PostConstruct
+    public void setup() {
+        ConfigurationUtil config = ConfigurationUtil.getInstance();
+        batchSize = config.getInteger("kafka.change-stream.batch-size").orElse(500);
+        owner = resolveOwner();
+        enabled = config.getBoolean("kafka.change-stream.enabled").orElse(false) && prepareCollectionWithRetry();
+    }
+
+    /**
+     * True if comment events are published from the change stream, so the request path must
+     * not publish them
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        if (!enabled) {
+            LOG.info("Comment events are published from the request path");
+            return;
+        }
+        changesCounter = metricRegistry.counter(Metadata.builder()
+                .withName("comment_change_stream_changes_total")
+                .withDescription("Changes to the comments collection read from the change stream")
+                .withType(MetricType.COUNTER)
+                .build());
+        metricRegistry.register(Metadata.builder()
+                .withName("comment_change_stream_lag_seconds")
+                .withDescription("Seconds since the last change published from the change stream was made")
+                .withType(MetricType.GAUGE)
+                .withUnit(MetricUnits.SECONDS)
+                .build(), (Gauge<Long>) () -> {
+            long last = lastClusterTimeSeconds.get();
+            return last == 0 ? 0 : Math.max(0, System.currentTimeMillis() / 1000 - last);
+        });
+
+        running = true;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "comment-change-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::watch);
+
+        LOG.info("Comment events are published from the change stream on {}. Replica: {} batch size: {}",
+            COLLECTION_NAME, owner, batchSize);
+    }
+
+    /**
+     * {@link #prepareCollection()}, retried while MongoDB cannot be reached
+     *
+     * @throws IllegalStateException if it still fails after SETUP_ATTEMPTS
+     */
+    private boolean prepareCollectionWithRetry() {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return prepareCollection();
+            } catch (Exception e) {
+                if (attempt >= SETUP_ATTEMPTS) {
+                    throw new IllegalStateException("Failed to set up change stream publishing", e);
+                }
+                LOG.warn("Failed to set up change stream publishing, attempt {} of {}, retrying", attempt, SETUP_ATTEMPTS, e);
+                sleepQuietly(RETRY_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * Check for a replica set and turn on pre- and post-images for the comments collection
+     *
+     * @return false without a replica set
+     */
+    private boolean prepareCollection() {
+        MongoDatabase database = mongoClient.getDatabase(DATABASE_NAME);
+        Document hello = database.runCommand(new Document("hello", 1));
+        if (hello.getString("setName") == null) {
+            LOG.error("Change stream publishing needs a MongoDB replica set, publishing from the request path");
+            return false;
+        }
+        Document collMod = new Document("collMod", COLLECTION_NAME)
+            .append("changeStreamPreAndPostImages", new Document("enabled", true));
+        try {
+            database.runCommand(collMod);
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != NAMESPACE_NOT_FOUND) {
+                throw e;
+            }
+            database.createCollection(COLLECTION_NAME);
+            database.runCommand(collMod);
+        }
+        return true;
+    }
+
+    private void watch() {
+        MongoCollection<Document> streams = mongoClient.getDatabase(DATABASE_NAME).getCollection(STREAM_COLLECTION_NAME);
+        while (running) {
+            try {
+                if (!acquireLease(streams)) {
+                    TimeUnit.MILLISECONDS.sleep(LEASE_MS / 3);
+                    continue;
+                }
+                Document stream = streams.find(Filters.eq("_id", STREAM_ID)).first();
+                Document token = stream != null ? stream.get("resumeToken", Document.class) : null;
+                LOG.info("Watching {} on replica {} {}", COLLECTION_NAME, owner,
+                    token != null ? "from the saved resume token" : "from now");
+                publishChanges(streams, token != null ? BsonDocument.parse(token.toJson()) : null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (MongoServerException e) {
+                if (e.getCode() == CHANGE_STREAM_HISTORY_LOST) {
+                    // The oplog no longer reaches back to the token; changes in between are not
+                    // published, the line count reconciliation in docs-service repairs the counts
+                    LOG.error("Change stream resume token is older than the oplog, continuing from now", e);
+                    streams.updateOne(Filters.and(Filters.eq("_id", STREAM_ID), Filters.eq("owner", owner)),
+                        Updates.unset("resumeToken"));
+                } else if (running) {
+                    LOG.error("Change stream failed, resuming", e);
+                    sleepQuietly(RETRY_BACKOFF_MS);
+                }
+            } catch (Exception e) {
+                if (running) {
+                    LOG.error("Change stream failed, resuming", e);
+                    sleepQuietly(RETRY_BACKOFF_MS);
+                }
+            }
+        }
+        LOG.info("Stopped watching {}", COLLECTION_NAME);
+    }
+
+    /**
+     * Publish batches of changes until the lease is lost or the service stops
+     */
+    private void publishChanges(MongoCollection<Document> streams, BsonDocument token) throws Exception {
+        ChangeStreamIterable<Document> changes = mongoClient.getDatabase(DATABASE_NAME).getCollection(COLLECTION_NAME)
+            .watch()
+            .fullDocument(FullDocument.WHEN_AVAILABLE)
+            .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+            .batchSize(batchSize)
+            .maxAwaitTime(500, TimeUnit.MILLISECONDS);
+        if (token != null) {
+            // startAfter, unlike resumeAfter, also accepts the token of an invalidate event
+            changes = changes.startAfter(token);
+        }
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changes.cursor()) {
+            while (running) {
+                List<ChangeStreamDocument<Document>> batch = new ArrayList<>();
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                while (change != null) {
+                    batch.add(change);
+                    if (change.getOperationType() == OperationType.INVALIDATE || batch.size() >= batchSize) {
+                        break;
+                    }
+                    change = cursor.tryNext();
+                }
+
+                if (!batch.isEmpty()) {
+                    publish(streams, batch);
+                }
+                // The cursor's token moves on even without changes, so a restart does not rescan idle history
+                BsonDocument resumeToken = batch.isEmpty() ? cursor.getResumeToken()
+                    : batch.get(batch.size() - 1).getResumeToken();
+                if (!saveResumeToken(streams, resumeToken)) {
+                    LOG.warn("Lost the change stream lease on replica {}", owner);
+                    return;
+                }
+                if (!batch.isEmpty() && batch.get(batch.size() - 1).getOperationType() == OperationType.INVALIDATE) {
+                    LOG.warn("Change stream on {} was invalidated, restarting after it", COLLECTION_NAME);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Turn a batch of changes into comment events and line counts, send them and wait until
+     * Kafka acknowledged all of them, renewing the lease meanwhile
+     *
+     * @throws IllegalStateException if the lease was lost
+     */
+    private void publish(MongoCollection<Document> streams, List<ChangeStreamDocument<Document>> batch) throws Exception {
+        List<PendingEvent> events = new ArrayList<>();
+        Map<String, Set<Integer>> changedLines = new LinkedHashMap<>();
+        for (ChangeStreamDocument<Document> change : batch) {
+            translate(change, events, changedLines);
+            if (change.getClusterTime() != null) {
+                lastClusterTimeSeconds.set(change.getClusterTime().getTime());
+            }
+        }
+        changesCounter.inc(batch.size());
+
+        // Deletes of purged comments of deleted documents are not published, their line
+        // counts are tombstoned once the purge is done. Finished purges stay recorded, so
+        // this also holds when the stream lags behind the purge; no version is taken for
+        // them either, which would recreate their line_versions record
+        Set<String> docIds = new HashSet<>(changedLines.keySet());
+        events.forEach(pending -> docIds.add(pending.docId));
+        Set<String> purging = commentPurgeService.getPurging(docIds);
+        if (!purging.isEmpty()) {
+            events.removeIf(pending -> purging.contains(pending.docId));
+            changedLines.keySet().removeAll(purging);
+        }
+
+        // One version and one count query per document, shared by all its events in the batch
+        Map<String, Long> versions = new LinkedHashMap<>();
+        Map<String, Map<Integer, Integer>> counts = new LinkedHashMap<>();
+        for (String docId : changedLines.keySet()) {
+            keepLease(streams);
+            versions.put(docId, commentService.nextLineVersion(docId));
+            counts.put(docId, commentService.getLineCommentCounts(docId));
+        }
+
+        List<Future<RecordMetadata>> sends = new ArrayList<>();
+        for (PendingEvent pending : events) {
+            if (pending.counted) {
+                pending.event
+                    .setNewCommentCount(counts.get(pending.docId).getOrDefault(pending.lineNumber, 0))
+                    .setLineVersion(versions.get(pending.docId));
+            }
+            sends.add(kafkaProducer.sendCommentEvent(pending.event));
+        }
+        for (Map.Entry<String, Set<Integer>> lines : changedLines.entrySet()) {
+            String docId = lines.getKey();
+            for (Integer line : lines.getValue()) {
+                sends.add(kafkaProducer.sendLineCount(docId, line, counts.get(docId).getOrDefault(line, 0), versions.get(docId)));
+            }
+        }
+        for (Future<RecordMetadata> send : sends) {
+            // Bounded waits, so the lease is renewed while Kafka retries a send
+            while (true) {
+                try {
+                    send.get(LEASE_MS / 3, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    keepLease(streams);
+                }
+            }
+        }
+
+        LOG.info("Published {} comment events and line counts of {} documents from {} changes",
+            events.size(), changedLines.size(), batch.size());
+    }
+
+    /**
+     * Events and changed lines of one change, from its pre- and post-image
+     */
+    private void translate(ChangeStreamDocument<Document> change, List<PendingEvent> events,
+                           Map<String, Set<Integer>> changedLines) {
+        OperationType type = change.getOperationType();
+        if (type != OperationType.INSERT && type != OperationType.UPDATE
+                && type != OperationType.REPLACE && type != OperationType.DELETE) {
+            return;
+        }
+        Document before = type == OperationType.INSERT ? null : change.getFullDocumentBeforeChange();
+        Document after = type == OperationType.DELETE ? null : change.getFullDocument();
+        if ((before != null && !isComment(before)) || (after != null && !isComment(after))) {
+            LOG.warn("Skipping change of {} without docId or lineNumber", change.getDocumentKey());
+            return;
+        }
+        if (type != OperationType.INSERT && before == null) {
+            // Without a pre-image (images expired, or the change predates them) only the new
+            // state is known: republish the count of its line
+            if (after != null) {
+                changedLine(changedLines, after);
+            }
+            LOG.warn("No pre-image for change of comment {}, republishing its line count", change.getDocumentKey());
+            return;
+        }
+
+        boolean visibleBefore = isVisible(before);
+        boolean visibleAfter = isVisible(after);
+        if (!visibleBefore && visibleAfter) {
+            events.add(PendingEvent.counted(newEvent(CommentEventType.COMMENT_ADDED, after, after.getString("userId"))
+                .setTimestamp(KafkaCommentProducer.toTimestamp(createdAt(after)))));
+            changedLine(changedLines, after);
+        } else if (visibleBefore && !visibleAfter) {
+            events.add(PendingEvent.counted(newEvent(CommentEventType.COMMENT_DELETED, before, before.getString("userId"))));
+            changedLine(changedLines, before);
+        } else if (visibleBefore && !Objects.equals(before.getInteger("lineNumber"), after.getInteger("lineNumber"))) {
+            changedLine(changedLines, before);
+            changedLine(changedLines, after);
+        }
+
+        if (visibleBefore && visibleAfter) {
+            List<String> likedBefore = before.getList("likedByUserIds", String.class, Collections.emptyList());
+            List<String> likedAfter = after.getList("likedByUserIds", String.class, Collections.emptyList());
+            for (String userId : likedAfter) {
+                if (!likedBefore.contains(userId)) {
+                    events.add(PendingEvent.uncounted(newEvent(CommentEventType.COMMENT_LIKED, after, userId)
+                        .setLikeCount(after.getInteger("likeCount", 0))));
+                }
+            }
+            for (String userId : likedBefore) {
+                if (!likedAfter.contains(userId)) {
+                    events.add(PendingEvent.uncounted(newEvent(CommentEventType.COMMENT_UNLIKED, after, userId)
+                        .setLikeCount(after.getInteger("likeCount", 0))));
+                }
+            }
+        }
+    }
+
+    private static boolean isComment(Document document) {
+        return document.getString("docId") != null && document.getInteger("lineNumber") != null;
+    }
+
+    private static boolean isVisible(Document comment) {
+        return comment != null && !comment.getBoolean("isDeleted", false);
+    }
+
+    private static void changedLine(Map<String, Set<Integer>> changedLines, Document comment) {
+        changedLines.computeIfAbsent(comment.getString("docId"), k -> new HashSet<>()).add(comment.getInteger("lineNumber"));
+    }
+
+    private static LocalDateTime createdAt(Document comment) {
+        Date createdAt = comment.getDate("createdAt");
+        return LocalDateTime.ofInstant((createdAt != null ? createdAt : new Date()).toInstant(), ZoneOffset.UTC);
+    }
+
+    private static CommentEvent.Builder newEvent(CommentEventType type, Document comment, String userId) {
+        CommentEvent.Builder event = CommentEvent.newBuilder()
+            .setType(type)
+            .setCommentId(comment.getObjectId("_id").toHexString())
+            .setDocId(comment.getString("docId"))
+            .setLineNumber(comment.getInteger("lineNumber"))
+            .setUserId(userId != null ? userId : "");
+        if (type == CommentEventType.COMMENT_ADDED) {
+            if (comment.getString("userName") != null) {
+                event.setUserName(comment.getString("userName"));
+            }
+            if (comment.getString("content") != null) {
+                event.setContent(comment.getString("content"));
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Renew the lease if a third of it has passed since it was last renewed
+     *
+     * @throws IllegalStateException if another replica took it
+     */
+    private void keepLease(MongoCollection<Document> streams) {
+        if (System.currentTimeMillis() - leaseRenewedAt < LEASE_MS / 3) {
+            return;
+        }
+        if (!saveResumeToken(streams, null)) {
+            throw new IllegalStateException("Lost the change stream lease on replica " + owner);
+        }
+    }
+
+    /**
+     * Take or renew the lease. Fails with a duplicate key while another replica holds it.
+     */
+    private boolean acquireLease(MongoCollection<Document> streams) {
+        Date now = new Date();
+        try {
+            streams.updateOne(
+                Filters.and(Filters.eq("_id", STREAM_ID),
+                    Filters.or(Filters.eq("owner", owner), Filters.lt("leaseUntil", now), Filters.exists("leaseUntil", false))),
+                Updates.combine(Updates.set("owner", owner), Updates.set("leaseUntil", new Date(now.getTime() + LEASE_MS))),
+                new UpdateOptions().upsert(true)
+            );
+            leaseRenewedAt = now.getTime();
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Save the token and renew the lease, only while this replica still holds it
+     */
+    private boolean saveResumeToken(MongoCollection<Document> streams, BsonDocument token) {
+        Date now = new Date();
+        List<Bson> updates = new ArrayList<>();
+        if (token != null) {
+            updates.add(Updates.set("resumeToken", token));
+        }
+        updates.add(Updates.set("updatedAt", now));
+        updates.add(Updates.set("leaseUntil", new Date(now.getTime() + LEASE_MS)));
+        UpdateResult result = streams.updateOne(
+            Filters.and(Filters.eq("_id", STREAM_ID), Filters.eq("owner", owner)), Updates.combine(updates));
+        if (result.getMatchedCount() != 1) {
+            return false;
+        }
+        leaseRenewedAt = now.getTime();
+        return true;
+    }
+
+    private static String resolveOwner() {
+        try {
+            return InetAddress.getLocalHost().getHostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        } catch (Exception e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An event whose count and version are filled in once the batch is counted
+     */
+    private static final class PendingEvent {
+        final CommentEvent.Builder event;
+        final String docId;
+        final int lineNumber;
+        final boolean counted;
+
+        private PendingEvent(CommentEvent.Builder event, boolean counted) {
+            this.event = event;
+            this.docId = event.getDocId();
+            this.lineNumber = event.getLineNumber();
+            this.counted = counted;
+        }
+
+        static PendingEvent counted(CommentEvent.Builder event) {
+            return new PendingEvent(event, true);
+        }
+
+        static PendingEvent uncounted(CommentEvent.Builder event) {
+            return new PendingEvent(event, false);
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        running = false;
+
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            LOG.info("Change stream executor shutdown");
+        }
+    }
+}
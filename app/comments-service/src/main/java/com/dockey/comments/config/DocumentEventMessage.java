@@ -0,0 +1,122 @@
+package com.dockey.comments.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Event consumed from the dockey-documents topic (published by docs-service)
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DocumentEventMessage {
+    private String eventType; // LINES_REMAPPED, DOCUMENT_DELETED
+    private String docId;
+    private Integer revision; // Document revision the event brings consumers to
+    private List<LineRange> lineMappings; // Set on LINES_REMAPPED
+    private LocalDateTime timestamp;
+
+    public DocumentEventMessage() {
+        this.timestamp = LocalDateTime.now();
+    }
+
+    public DocumentEventMessage(String eventType, String docId, Integer revision) {
+        this();
+        this.eventType = eventType;
+        this.docId = docId;
+        this.revision = revision;
+    }
+
+    // Getters and Setters
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public String getDocId() {
+        return docId;
+    }
+
+    public void setDocId(String docId) {
+        this.docId = docId;
+    }
+
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+
+    public List<LineRange> getLineMappings() {
+        return lineMappings;
+    }
+
+    public void setLineMappings(List<LineRange> lineMappings) {
+        this.lineMappings = lineMappings;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(LocalDateTime timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Old lines from..to (1-based, inclusive) move by shift, or onto target when shift is null
+     */
+    public static class LineRange {
+        private int from;
+        private int to;
+        private Integer shift;
+        private Integer target;
+
+        public LineRange() {
+        }
+
+        public LineRange(int from, int to, Integer shift, Integer target) {
+            this.from = from;
+            this.to = to;
+            this.shift = shift;
+            this.target = target;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public void setFrom(int from) {
+            this.from = from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        public void setTo(int to) {
+            this.to = to;
+        }
+
+        public Integer getShift() {
+            return shift;
+        }
+
+        public void setShift(Integer shift) {
+            this.shift = shift;
+        }
+
+        public Integer getTarget() {
+            return target;
+        }
+
+        public void setTarget(Integer target) {
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.dockey.comments.consumers;
+
+import com.dockey.comments.config.DocumentEventMessage;
+import com.dockey.comments.services.CommentPurgeService;
+import com.dockey.comments.services.CommentService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumes document events from docs-service and applies them to the stored comments.
+ *
+ * Offsets are committed only after an event was applied. An event that fails is retried in
+ * place with a growing backoff: the partition is rewound to it and polling goes on, so a
+ * LINES_REMAPPED is never skipped and later remaps always run on the right base. Records that
+ * cannot be decoded can never succeed and go to dockey-documents-dlq instead.
+ */
+@ApplicationScoped
+public class DocumentEventConsumer {
+
+    private static final Logger LOG = LogManager.getLogger(DocumentEventConsumer.class.getName());
+    private static final String TOPIC = "dockey-documents";
+    private static final String DLQ_TOPIC = "dockey-documents-dlq";
+    private static final String GROUP_ID = "comments-service-group";
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final long MAX_RETRY_BACKOFF_MS = 30000;
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+
+    @Inject
+    private CommentService commentService;
+
+    @Inject
+    private CommentPurgeService commentPurgeService;
+
+    private KafkaConsumer<String, String> consumer;
+    private Producer<String, String> deadLetterProducer;
+    private ObjectMapper objectMapper;
+    private ExecutorService executor;
+    private volatile boolean running = false;
+    private int failures = 0;
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        Properties props = new Properties();
+        String bootstrapServers = System.getenv().getOrDefault("KAFKA_BOOTSTRAP_SERVERS", "localhost:9092");
+
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, GROUP_ID);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+
+        Properties producerProps = new Properties();
+        producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        producerProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        producerProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        deadLetterProducer = new KafkaProducer<>(producerProps);
+
+        consumer = new KafkaConsumer<>(props);
+        consumer.subscribe(Collections.singletonList(TOPIC));
+
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+
+        running = true;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "document-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::consumeMessages);
+
+        LOG.info("Kafka Document Event Consumer initialized. Topic: {} Group: {} Bootstrap: {}",
+            TOPIC, GROUP_ID, bootstrapServers);
+    }
+
+    private void consumeMessages() {
+        LOG.info("Started consuming document events from topic: {}", TOPIC);
+
+        while (running) {
+            try {
+                ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(1000));
+                for (TopicPartition partition : records.partitions()) {
+                    if (!consumePartition(partition, records.records(partition))) {
+                        backoff();
+                        break;
+                    }
+                }
+            } catch (WakeupException e) {
+                // Shutting down
+            } catch (Exception e) {
+                if (running) {
+                    LOG.error("Error polling messages", e);
+                    backoff();
+                }
+            }
+        }
+
+        consumer.close();
+        deadLetterProducer.close(Duration.ofSeconds(5));
+        LOG.info("Stopped consuming document events");
+    }
+
+    /**
+     * Apply the records of one partition in order, committing each once applied
+     *
+     * @return false if a record failed; the partition is rewound to it
+     */
+    private boolean consumePartition(TopicPartition partition, List<ConsumerRecord<String, String>> records) {
+        for (ConsumerRecord<String, String> record : records) {
+            try {
+                DocumentEventMessage event;
+                try {
+                    event = objectMapper.readValue(record.value(), DocumentEventMessage.class);
+                } catch (JsonProcessingException | IllegalArgumentException e) {
+                    deadLetter(record, e);
+                    event = null;
+                }
+                if (event != null) {
+                    processMessage(event);
+                }
+                consumer.commitSync(Collections.singletonMap(partition, new OffsetAndMetadata(record.offset() + 1)));
+                failures = 0;
+            } catch (WakeupException e) {
+                throw e;
+            } catch (Exception e) {
+                failures++;
+                LOG.error("Failed to apply document event from partition {} offset {} (attempt {}), retrying",
+                    partition, record.offset(), failures, e);
+                // Other partitions of this poll are redelivered from their committed offsets
+                Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(consumer.assignment());
+                committed.forEach((assigned, offset) -> {
+                    if (offset != null) {
+                        consumer.seek(assigned, offset.offset());
+                    }
+                });
+                consumer.seek(partition, record.offset());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void processMessage(DocumentEventMessage event) {
+        LOG.debug("Received document event: type={} docId={} revision={}",
+            event.getEventType(), event.getDocId(), event.getRevision());
+
+        switch (event.getEventType() != null ? event.getEventType() : "") {
+            case "LINES_REMAPPED":
+                commentService.remapLines(event.getDocId(), event.getRevision(), event.getLineMappings());
+                break;
+
+            case "DOCUMENT_DELETED":
+                commentPurgeService.requestPurge(event.getDocId());
+                break;
+
+            default:
+                // Event types added later: ignore
+                LOG.warn("Unknown event type: {}", event.getEventType());
+        }
+    }
+
+    /**
+     * Send a record that can never be decoded to the dead letter topic, with where it came
+     * from and why, and wait until Kafka has it
+     */
+    private void deadLetter(ConsumerRecord<String, String> record, Exception error) throws Exception {
+        ProducerRecord<String, String> copy = new ProducerRecord<>(DLQ_TOPIC, record.key(), record.value());
+        copy.headers().add("dlq.original.topic", record.topic().getBytes(StandardCharsets.UTF_8));
+        copy.headers().add("dlq.original.partition", String.valueOf(record.partition()).getBytes(StandardCharsets.UTF_8));
+        copy.headers().add("dlq.original.offset", String.valueOf(record.offset()).getBytes(StandardCharsets.UTF_8));
+        copy.headers().add("dlq.error", String.valueOf(error.getMessage()).getBytes(StandardCharsets.UTF_8));
+        deadLetterProducer.send(copy).get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        LOG.error("Undecodable document event from partition {} offset {} dead-lettered: {}",
+            record.partition(), record.offset(), error.getMessage());
+    }
+
+    private void backoff() {
+        long wait = Math.min(MAX_RETRY_BACKOFF_MS, RETRY_BACKOFF_MS << Math.min(Math.max(failures, 1) - 1, 5));
+        try {
+            TimeUnit.MILLISECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        running = false;
+
+        if (consumer != null) {
+            consumer.wakeup();
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            LOG.info("Consumer executor shutdown");
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.dockey.comments.dto;
+
+import java.util.List;
+
+public class LineCountDigestRequest {
+    private List<List<Long>> ranges; // [fromDocId, toDocId) pairs, sorted and disjoint
+    private int buckets;
+
+    public LineCountDigestRequest() {
+    }
+
+    public List<List<Long>> getRanges() {
+        return ranges;
+    }
+
+    public void setRanges(List<List<Long>> ranges) {
+        this.ranges = ranges;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public void setBuckets(int buckets) {
+        this.buckets = buckets;
+    }
+}
@@ -1,72 +1,302 @@
 package com.dockey.comments.producers;
 
-import com.dockey.comments.config.CommentEventMessage;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.dockey.comments.events.CommentEvent;
+import com.dockey.comments.events.LineCommentCount;
+import com.google.protobuf.Timestamp;
+import com.kumuluz.ee.configuration.utils.ConfigurationUtil;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.AlterConfigOp;
+import org.apache.kafka.clients.admin.ConfigEntry;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.config.ConfigResource;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Publishes comment events to the dockey-comments topic, and the current count of every
+ * line they change to the compacted dockey-line-counts topic.
+ *
+ * Batching, compression, buffer memory and delivery timeout come from the kafka.producer
+ * config keys, so each environment can trade latency for throughput. Send-to-ack latency,
+ * errors and records in flight are exported on /metrics, next to the client's own batch
+ * size, compression ratio and queue time.
+ */
 @ApplicationScoped
 public class KafkaCommentProducer {
 
     private static final Logger LOG = LogManager.getLogger(KafkaCommentProducer.class.getName());
     private static final String TOPIC = "dockey-comments";
+    private static final String LINE_COUNTS_TOPIC = "dockey-line-counts";
+    // Version of events/comment_events.proto written into every event
+    private static final int SCHEMA_VERSION = 2;
 
-    private Producer<String, String> producer;
-    private ObjectMapper objectMapper;
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    private Producer<String, byte[]> producer;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private Histogram ackLatency;
+    private Counter sentCounter;
+    private Counter errorCounter;
 
     @PostConstruct
     public void init() {
+        ConfigurationUtil config = ConfigurationUtil.getInstance();
         Properties props = new Properties();
         String bootstrapServers = System.getenv().getOrDefault("KAFKA_BOOTSTRAP_SERVERS", "localhost:9092");
+        String compressionType = config.get("kafka.producer.compression-type").orElse("lz4");
+        int lingerMs = config.getInteger("kafka.producer.linger-ms").orElse(5);
+        int batchSize = config.getInteger("kafka.producer.batch-size").orElse(65536);
+        String acks = config.get("kafka.producer.acks").orElse("all");
+        if (!Arrays.asList("all", "-1", "1", "0").contains(acks)) {
+            throw new IllegalArgumentException("kafka.producer.acks must be all, -1, 1 or 0, got: " + acks);
+        }
+        // Kafka only allows idempotence with acks from all in-sync replicas
+        boolean idempotent = "all".equals(acks) || "-1".equals(acks);
         
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.put(ProducerConfig.ACKS_CONFIG, "all");
-        props.put(ProducerConfig.RETRIES_CONFIG, 3);
-        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.ACKS_CONFIG, acks);
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, String.valueOf(idempotent));
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, config.getLong("kafka.producer.buffer-memory").orElse(33554432L));
+        props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, config.getLong("kafka.producer.max-block-ms").orElse(5000L));
+        // Retries are bounded by the delivery timeout rather than a count
+        props.put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, config.getInteger("kafka.producer.delivery-timeout-ms").orElse(120000));
+        props.put(ProducerConfig.REQUEST_TIMEOUT_MS_CONFIG, config.getInteger("kafka.producer.request-timeout-ms").orElse(30000));
+        // At most 5 keeps ordering per partition with idempotence; without it a retried batch
+        // could overtake a later one, so only one request is in flight
+        props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION,
+            idempotent ? Math.min(5, config.getInteger("kafka.producer.max-in-flight-requests").orElse(5)) : 1);
 
         producer = new KafkaProducer<>(props);
+        registerMetrics();
+        ensureLineCountsTopic(bootstrapServers);
         
-        objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule());
-        
-        LOG.info("Kafka Comment Producer initialized with bootstrap servers: " + bootstrapServers);
+        LOG.info("Kafka Comment Producer initialized. Bootstrap: {} acks: {} idempotent: {} compression: {} linger: {}ms batch size: {}",
+            bootstrapServers, acks, idempotent, compressionType, lingerMs, batchSize);
     }
 
-    public void sendCommentEvent(CommentEventMessage message) {
+    /**
+     * Stamp the schema version, and the current time unless the event has one, and send
+     *
+     * @return completes when Kafka acknowledged the event
+     */
+    public Future<RecordMetadata> sendCommentEvent(CommentEvent.Builder event) {
         try {
-            String jsonMessage = objectMapper.writeValueAsString(message);
+            if (!event.hasTimestamp()) {
+                event.setTimestamp(toTimestamp(Instant.now()));
+            }
+            CommentEvent message = event.setSchemaVersion(SCHEMA_VERSION).build();
             // Use docId as key to ensure all events for same doc go to same partition
-            ProducerRecord<String, String> record = new ProducerRecord<>(TOPIC, message.getDocId(), jsonMessage);
-            
-            producer.send(record, (metadata, exception) -> {
+            return send(new ProducerRecord<>(TOPIC, message.getDocId(), message.toByteArray()),
+                "comment event type=" + message.getType() + " docId=" + message.getDocId()
+                    + " line=" + message.getLineNumber());
+        } catch (Exception e) {
+            LOG.error("Failed to serialize or send comment event", e);
+            throw new RuntimeException("Failed to send comment event to Kafka", e);
+        }
+    }
+
+    /**
+     * Publish the current comment count of a line to the compacted dockey-line-counts topic
+     *
+     * @return completes when Kafka acknowledged the count
+     */
+    public Future<RecordMetadata> sendLineCount(String docId, int lineNumber, int commentCount, long lineVersion) {
+        try {
+            LineCommentCount count = LineCommentCount.newBuilder()
+                .setDocId(docId)
+                .setLineNumber(lineNumber)
+                .setCommentCount(commentCount)
+                .setLineVersion(lineVersion)
+                .build();
+            return send(new ProducerRecord<>(LINE_COUNTS_TOPIC, docId + ":" + lineNumber, count.toByteArray()),
+                "line count docId=" + docId + " line=" + lineNumber + " count=" + commentCount);
+        } catch (Exception e) {
+            LOG.error("Failed to send line count", e);
+            throw new RuntimeException("Failed to send line count to Kafka", e);
+        }
+    }
+
+    /**
+     * Remove a line from the compacted dockey-line-counts topic, for a deleted document
+     *
+     * @return completes when Kafka acknowledged the tombstone
+     */
+    public Future<RecordMetadata> sendLineCountTombstone(String docId, int lineNumber) {
+        return send(new ProducerRecord<>(LINE_COUNTS_TOPIC, docId + ":" + lineNumber, null),
+            "line count tombstone docId=" + docId + " line=" + lineNumber);
+    }
+
+    private Future<RecordMetadata> send(ProducerRecord<String, byte[]> record, String description) {
+        long startedAt = System.nanoTime();
+        inFlight.incrementAndGet();
+        try {
+            // Runs on the producer's I/O thread, so keep it short
+            return producer.send(record, (metadata, exception) -> {
+                inFlight.decrementAndGet();
                 if (exception != null) {
-                    LOG.error("Error sending comment event to Kafka", exception);
+                    errorCounter.inc();
+                    LOG.error("Error sending {} to Kafka", description, exception);
                 } else {
-                    LOG.info("Comment event sent: type={} docId={} line={} topic={} partition={} offset={}", 
-                        message.getEventType(), message.getDocId(), message.getLineNumber(),
-                        metadata.topic(), metadata.partition(), metadata.offset());
+                    sentCounter.inc();
+                    ackLatency.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt));
+                    LOG.debug("Sent {} topic={} partition={} offset={}",
+                        description, metadata.topic(), metadata.partition(), metadata.offset());
                 }
             });
-            
         } catch (Exception e) {
-            LOG.error("Failed to serialize or send comment event", e);
-            throw new RuntimeException("Failed to send comment event to Kafka", e);
+            // Not handed to the producer (buffer full past max-block-ms, or closed)
+            inFlight.decrementAndGet();
+            errorCounter.inc();
+            throw e;
         }
     }
 
+    /**
+     * Create dockey-line-counts as a compacted topic, or make it compacted if it was created
+     * with the broker defaults. Short segments let compaction reach recent records, which
+     * keeps replays of the topic short.
+     */
+    private void ensureLineCountsTopic(String bootstrapServers) {
+        Properties props = new Properties();
+        props.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        Map<String, String> configs = Map.of(
+            TopicConfig.CLEANUP_POLICY_CONFIG, TopicConfig.CLEANUP_POLICY_COMPACT,
+            TopicConfig.SEGMENT_MS_CONFIG, String.valueOf(TimeUnit.HOURS.toMillis(1)),
+            TopicConfig.MIN_CLEANABLE_DIRTY_RATIO_CONFIG, "0.1");
+
+        try (Admin admin = Admin.create(props)) {
+            try {
+                admin.createTopics(Collections.singletonList(
+                    new NewTopic(LINE_COUNTS_TOPIC, Optional.empty(), Optional.empty()).configs(configs)))
+                    .all().get(30, TimeUnit.SECONDS);
+                LOG.info("Created compacted topic {}", LINE_COUNTS_TOPIC);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof TopicExistsException)) {
+                    throw e;
+                }
+                List<AlterConfigOp> ops = new ArrayList<>();
+                configs.forEach((name, value) -> ops.add(new AlterConfigOp(new ConfigEntry(name, value), AlterConfigOp.OpType.SET)));
+                admin.incrementalAlterConfigs(Collections.singletonMap(
+                    new ConfigResource(ConfigResource.Type.TOPIC, LINE_COUNTS_TOPIC), ops))
+                    .all().get(30, TimeUnit.SECONDS);
+            }
+        } catch (Exception e) {
+            // Counts are still published; the topic just grows until compaction is set up
+            LOG.error("Failed to set up compacted topic {}", LINE_COUNTS_TOPIC, e);
+        }
+    }
+
+    private void registerMetrics() {
+        ackLatency = metricRegistry.histogram(Metadata.builder()
+                .withName("comment_events_ack_latency")
+                .withDescription("Time from handing a comment event or line count to the producer until Kafka acknowledged it")
+                .withType(MetricType.HISTOGRAM)
+                .withUnit(MetricUnits.MICROSECONDS)
+                .build());
+        sentCounter = metricRegistry.counter(Metadata.builder()
+                .withName("comment_events_sent_total")
+                .withDescription("Comment events and line counts acknowledged by Kafka")
+                .withType(MetricType.COUNTER)
+                .build());
+        errorCounter = metricRegistry.counter(Metadata.builder()
+                .withName("comment_events_send_errors_total")
+                .withDescription("Comment events and line counts that could not be sent")
+                .withType(MetricType.COUNTER)
+                .build());
+        metricRegistry.register(Metadata.builder()
+                .withName("comment_events_in_flight")
+                .withDescription("Comment events and line counts sent but not yet acknowledged")
+                .withType(MetricType.GAUGE)
+                .build(), (Gauge<Integer>) inFlight::get);
+
+        registerProducerMetric("comment_producer_batch_size_avg", "batch-size-avg",
+            "Average bytes per batch sent to Kafka", MetricUnits.BYTES);
+        registerProducerMetric("comment_producer_compression_rate_avg", "compression-rate-avg",
+            "Average compressed to uncompressed batch size", MetricUnits.NONE);
+        registerProducerMetric("comment_producer_record_queue_time_avg", "record-queue-time-avg",
+            "Average time a batch waited in the producer buffer", MetricUnits.MILLISECONDS);
+        registerProducerMetric("comment_producer_buffer_available_bytes", "buffer-available-bytes",
+            "Producer buffer memory not in use", MetricUnits.BYTES);
+    }
+
+    /**
+     * Expose one of the Kafka client's own producer-metrics
+     */
+    private void registerProducerMetric(String name, String kafkaName, String description, String unit) {
+        metricRegistry.register(Metadata.builder()
+                .withName(name)
+                .withDescription(description)
+                .withType(MetricType.GAUGE)
+                .withUnit(unit)
+                .build(), (Gauge<Double>) () -> {
+            for (Metric metric : producer.metrics().values()) {
+                if (metric.metricName().name().equals(kafkaName)
+                        && metric.metricName().group().equals("producer-metrics")) {
+                    Object value = metric.metricValue();
+                    return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+                }
+            }
+            return Double.NaN;
+        });
+    }
+
+    /**
+     * Comment times are stored as UTC local date-times
+     */
+    public static Timestamp toTimestamp(LocalDateTime utcDateTime) {
+        return toTimestamp(utcDateTime.toInstant(ZoneOffset.UTC));
+    }
+
+    private static Timestamp toTimestamp(Instant instant) {
+        return Timestamp.newBuilder()
+            .setSeconds(instant.getEpochSecond())
+            .setNanos(instant.getNano())
+            .build();
+    }
+
     @PreDestroy
     public void cleanup() {
         if (producer != null) {
@@ -3,12 +3,8 @@ package com.dockey.comments.security;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
-import javax.json.Json;
 import javax.json.JsonObject;
-import javax.json.JsonReader;
-import java.io.StringReader;
 import java.security.Principal;
-import java.util.Base64;
 import java.util.Optional;
 
 /**
@@ -20,31 +16,14 @@ public class AuthenticationService {
     @Inject
     private HttpServletRequest httpServletRequest;
 
+    @Inject
+    private JwtClaimsHolder claimsHolder;
+
     /**
-     * Parse JWT token from Authorization header
+     * Verified JWT claims, parsed once per request by the claims holder
      */
     private Optional<JsonObject> parseJwtToken() {
-        String authHeader = httpServletRequest.getHeader("Authorization");
-        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-            return Optional.empty();
-        }
-
-        try {
-            String token = authHeader.substring(7);
-            String[] parts = token.split("\\.");
-            if (parts.length < 2) {
-                return Optional.empty();
-            }
-
-            // Decode payload (second part of JWT)
-            String payload = new String(Base64.getUrlDecoder().decode(parts[1]));
-            JsonReader jsonReader = Json.createReader(new StringReader(payload));
-            JsonObject jsonObject = jsonReader.readObject();
-            return Optional.of(jsonObject);
-
-        } catch (Exception e) {
-            return Optional.empty();
-        }
+        return claimsHolder.getClaims();
     }
 
     /**
@@ -0,0 +1,163 @@
+package com.dockey.comments.security;
+
+import com.kumuluz.ee.configuration.utils.ConfigurationUtil;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the realm signing keys published by Keycloak (JWKS) so tokens can be
+ * verified locally. Keys are refreshed in the background. A token with an unknown key id
+ * is rejected and schedules an early (rate-limited) background refresh to pick up a
+ * rotation, so no request ever waits on Keycloak.
+ */
+@ApplicationScoped
+public class JwksKeyProvider {
+
+    private static final Logger LOG = LogManager.getLogger(JwksKeyProvider.class.getName());
+
+    private Client client;
+    private ScheduledExecutorService scheduler;
+    private String jwksUrl;
+    private long minRefreshIntervalMs;
+    private String expectedIssuer;
+    private Set<String> audiences;
+
+    private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+    private final AtomicLong lastRefreshAttempt = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        ConfigurationUtil config = ConfigurationUtil.getInstance();
+        String authServerUrl = config.get("keycloak.auth-server-url").orElse("http://keycloak:8080");
+        String realm = config.get("keycloak.realm").orElse("dockey");
+        long refreshIntervalSeconds = config.getLong("keycloak.jwks.refresh-interval-seconds").orElse(300L);
+        minRefreshIntervalMs = config.getLong("keycloak.jwks.min-refresh-interval-seconds").orElse(30L) * 1000;
+
+        expectedIssuer = config.get("keycloak.issuer").orElse(authServerUrl + "/realms/" + realm);
+        audiences = new LinkedHashSet<>(Arrays.asList(
+                config.get("keycloak.audiences").orElse("dockey-user-service,dockey-frontend").split("\\s*,\\s*")));
+
+        jwksUrl = authServerUrl + "/realms/" + realm + "/protocol/openid-connect/certs";
+        client = ClientBuilder.newClient();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // First fetch runs immediately in the background so startup does not wait on Keycloak
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalSeconds, TimeUnit.SECONDS);
+
+        LOG.info("JWKS key provider initialized. URL: {} refresh interval: {}s issuer: {} audiences: {}",
+                jwksUrl, refreshIntervalSeconds, expectedIssuer, audiences);
+    }
+
+    /**
+     * Get the public key for the given key id, or null if it is unknown. An unknown id schedules
+     * a refresh of the key set, at most once per keycloak.jwks.min-refresh-interval-seconds.
+     */
+    public PublicKey getKey(String kid) {
+        PublicKey key = keys.get(kid);
+        if (key == null) {
+            long last = lastRefreshAttempt.get();
+            long now = System.currentTimeMillis();
+            if (now - last >= minRefreshIntervalMs && lastRefreshAttempt.compareAndSet(last, now)) {
+                scheduler.execute(this::refresh);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Issuer that tokens must carry (keycloak.issuer, by default the realm URL)
+     */
+    public String getExpectedIssuer() {
+        return expectedIssuer;
+    }
+
+    /**
+     * Clients a token must be issued for, as its azp or one of its aud (keycloak.audiences)
+     */
+    public Set<String> getAudiences() {
+        return audiences;
+    }
+
+    void refresh() {
+        lastRefreshAttempt.set(System.currentTimeMillis());
+        try {
+            Response response = client.target(jwksUrl)
+                    .request(MediaType.APPLICATION_JSON)
+                    .get();
+
+            if (response.getStatus() != 200) {
+                response.close();
+                LOG.warn("Failed to fetch JWKS from {}. Status: {}", jwksUrl, response.getStatus());
+                return;
+            }
+
+            String jsonResponse = response.readEntity(String.class);
+            response.close();
+
+            JsonReader jsonReader = Json.createReader(new StringReader(jsonResponse));
+            JsonObject jwks = jsonReader.readObject();
+
+            Map<String, PublicKey> refreshed = new HashMap<>();
+            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+            for (JsonValue value : jwks.getJsonArray("keys")) {
+                JsonObject jwk = value.asJsonObject();
+                if (!"RSA".equals(jwk.getString("kty", null)) || "enc".equals(jwk.getString("use", null))) {
+                    continue;
+                }
+                BigInteger modulus = new BigInteger(1, Base64.getUrlDecoder().decode(jwk.getString("n")));
+                BigInteger exponent = new BigInteger(1, Base64.getUrlDecoder().decode(jwk.getString("e")));
+                refreshed.put(jwk.getString("kid", ""), keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+            }
+
+            // Keep the previous keys if Keycloak returned nothing usable
+            if (!refreshed.isEmpty()) {
+                keys = Collections.unmodifiableMap(refreshed);
+                LOG.debug("Loaded {} signing key(s) from JWKS", refreshed.size());
+            }
+        } catch (Exception e) {
+            LOG.warn("Error refreshing JWKS from {}: {}", jwksUrl, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (client != null) {
+            client.close();
+        }
+    }
+}
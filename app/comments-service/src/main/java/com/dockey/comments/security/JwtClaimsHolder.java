@@ -0,0 +1,140 @@
+package com.dockey.comments.security;
+
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.servlet.http.HttpServletRequest;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Request-scoped holder for the verified claims of the bearer token.
+ * The token is parsed and its signature, expiry, issuer and audience are checked at most once per request;
+ * every accessor in {@link AuthenticationService} reads the cached result.
+ */
+@RequestScoped
+public class JwtClaimsHolder {
+
+    private static final Logger LOG = LogManager.getLogger(JwtClaimsHolder.class.getName());
+    private static final long CLOCK_SKEW_SECONDS = 30;
+
+    @Inject
+    private HttpServletRequest httpServletRequest;
+
+    @Inject
+    private JwksKeyProvider keyProvider;
+
+    private Optional<JsonObject> claims;
+
+    /**
+     * Get the claims of a valid token, or empty if there is no token or it fails verification
+     */
+    public Optional<JsonObject> getClaims() {
+        if (claims == null) {
+            claims = verify();
+        }
+        return claims;
+    }
+
+    private Optional<JsonObject> verify() {
+        String authHeader = httpServletRequest.getHeader("Authorization");
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return Optional.empty();
+        }
+
+        try {
+            String token = authHeader.substring(7);
+            String[] parts = token.split("\\.");
+            if (parts.length != 3) {
+                return Optional.empty();
+            }
+
+            JsonObject header = decodeJson(parts[0]);
+            if (!"RS256".equals(header.getString("alg", null))) {
+                LOG.warn("Rejected token with unsupported algorithm: {}", header.getString("alg", null));
+                return Optional.empty();
+            }
+
+            PublicKey key = keyProvider.getKey(header.getString("kid", ""));
+            if (key == null) {
+                LOG.warn("Rejected token signed with unknown key id: {}", header.getString("kid", ""));
+                return Optional.empty();
+            }
+
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initVerify(key);
+            signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!signature.verify(Base64.getUrlDecoder().decode(parts[2]))) {
+                LOG.warn("Rejected token with invalid signature");
+                return Optional.empty();
+            }
+
+            JsonObject payload = decodeJson(parts[1]);
+            long now = System.currentTimeMillis() / 1000;
+            JsonNumber exp = payload.getJsonNumber("exp");
+            if (exp == null || exp.longValue() + CLOCK_SKEW_SECONDS < now) {
+                return Optional.empty();
+            }
+            JsonNumber nbf = payload.getJsonNumber("nbf");
+            if (nbf != null && nbf.longValue() - CLOCK_SKEW_SECONDS > now) {
+                return Optional.empty();
+            }
+
+            if (!keyProvider.getExpectedIssuer().equals(payload.getString("iss", null))) {
+                LOG.warn("Rejected token from unexpected issuer: {}", payload.getString("iss", null));
+                return Optional.empty();
+            }
+            if (!isForAudience(payload, keyProvider.getAudiences())) {
+                LOG.warn("Rejected token issued for another client: {}", payload.getString("azp", null));
+                return Optional.empty();
+            }
+
+            return Optional.of(payload);
+
+        } catch (Exception e) {
+            LOG.warn("Failed to verify token: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Whether the token was issued to (azp) or for (aud) one of the given clients
+     */
+    private static boolean isForAudience(JsonObject payload, Set<String> audiences) {
+        if (audiences.contains(payload.getString("azp", null))) {
+            return true;
+        }
+        JsonValue aud = payload.get("aud");
+        if (aud instanceof JsonString) {
+            return audiences.contains(((JsonString) aud).getString());
+        }
+        if (aud instanceof JsonArray) {
+            for (JsonValue value : (JsonArray) aud) {
+                if (value instanceof JsonString && audiences.contains(((JsonString) value).getString())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static JsonObject decodeJson(String part) {
+        String json = new String(Base64.getUrlDecoder().decode(part), StandardCharsets.UTF_8);
+        JsonReader jsonReader = Json.createReader(new StringReader(json));
+        return jsonReader.readObject();
+    }
+}
@@ -0,0 +1,248 @@
+package com.dockey.comments.services;
+
+import com.dockey.comments.producers.KafkaCommentProducer;
+import com.kumuluz.ee.configuration.utils.ConfigurationUtil;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the comments of documents deleted in docs-service, in the background.
+ *
+ * A purge is recorded in comment_purges when the DOCUMENT_DELETED event arrives, so it
+ * survives restarts. Once done it is marked purgedAt and kept for PURGED_RETENTION, expired by
+ * a TTL index, so a lagging change stream still recognizes the deletes it made. Comments are deleted in batches of
+ * comments.purge.batch-size, paced to at most comments.purge.max-deletes-per-second, so a
+ * large document does not flood the oplog or starve requests. Afterwards its lines are
+ * tombstoned in dockey-line-counts and its line version and remap records are dropped.
+ * Replicas claim purges for a while before working on them, so each runs on one replica.
+ */
+@ApplicationScoped
+public class CommentPurgeService {
+
+    private static final Logger LOG = LogManager.getLogger(CommentPurgeService.class.getName());
+    private static final String DATABASE_NAME = "commentsdb";
+    private static final String COLLECTION_NAME = "comments";
+    private static final String PURGE_COLLECTION_NAME = "comment_purges"; // Documents whose comments are being purged
+    private static final String REMAP_COLLECTION_NAME = "line_remaps";
+    private static final String LINE_VERSION_COLLECTION_NAME = "line_versions";
+    private static final long CLAIM_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long IDLE_POLL_SECONDS = 30;
+    // Far longer than the change stream can lag behind, which is bounded by the oplog
+    private static final long PURGED_RETENTION_DAYS = 7;
+
+    @Inject
+    private MongoClient mongoClient;
+
+    @Inject
+    private KafkaCommentProducer kafkaProducer;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    private int batchSize;
+    private int maxDeletesPerSecond;
+    private ExecutorService executor;
+    private volatile boolean running = false;
+    private final LinkedBlockingQueue<String> requested = new LinkedBlockingQueue<>();
+    private Counter purgedCounter;
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        ConfigurationUtil config = ConfigurationUtil.getInstance();
+        batchSize = config.getInteger("comments.purge.batch-size").orElse(500);
+        maxDeletesPerSecond = config.getInteger("comments.purge.max-deletes-per-second").orElse(2000);
+        purgedCounter = metricRegistry.counter(Metadata.builder()
+                .withName("comments_purged_total")
+                .withDescription("Comments deleted because their document was deleted")
+                .withType(MetricType.COUNTER)
+                .build());
+
+        try {
+            getPurges().createIndex(Indexes.ascending("purgedAt"),
+                new IndexOptions().expireAfter(PURGED_RETENTION_DAYS, TimeUnit.DAYS));
+        } catch (Exception e) {
+            LOG.error("Failed to create the TTL index of {}, finished purges are kept", PURGE_COLLECTION_NAME, e);
+        }
+
+        running = true;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "comment-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::purgeRequested);
+
+        LOG.info("Comment purge initialized. Batch size: {} max deletes per second: {}", batchSize, maxDeletesPerSecond);
+    }
+
+    /**
+     * Record that the comments of a document are to be deleted. Repeated requests are
+     * recorded once; a request for a finished purge runs it again, for comments left behind.
+     */
+    public void requestPurge(String docId) {
+        getPurges().updateOne(Filters.eq("_id", docId),
+            Updates.combine(Updates.setOnInsert("requestedAt", new Date()), Updates.unset("purgedAt")),
+            new UpdateOptions().upsert(true));
+        requested.offer(docId);
+        LOG.info("Comment purge requested for docId: {}", docId);
+    }
+
+    /**
+     * Documents among docIds whose comments are being purged, or were purged within
+     * PURGED_RETENTION_DAYS
+     */
+    public Set<String> getPurging(Collection<String> docIds) {
+        Set<String> purging = new HashSet<>();
+        if (docIds.isEmpty()) {
+            return purging;
+        }
+        for (Document purge : getPurges().find(Filters.in("_id", docIds)).projection(Projections.include("_id"))) {
+            purging.add(purge.getString("_id"));
+        }
+        return purging;
+    }
+
+    private void purgeRequested() {
+        while (running) {
+            try {
+                Document purge = claimNext();
+                if (purge == null) {
+                    requested.poll(IDLE_POLL_SECONDS, TimeUnit.SECONDS);
+                    continue;
+                }
+                purge(purge.getString("_id"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (running) {
+                    LOG.error("Comment purge failed, retrying", e);
+                    try {
+                        TimeUnit.SECONDS.sleep(IDLE_POLL_SECONDS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+        LOG.info("Stopped purging comments");
+    }
+
+    /**
+     * Oldest purge not claimed by a replica, claimed for this one
+     */
+    private Document claimNext() {
+        Date now = new Date();
+        return getPurges().findOneAndUpdate(
+            Filters.and(Filters.exists("purgedAt", false),
+                Filters.or(Filters.exists("claimedUntil", false), Filters.lt("claimedUntil", now))),
+            Updates.set("claimedUntil", new Date(now.getTime() + CLAIM_MS)),
+            new FindOneAndUpdateOptions().sort(Sorts.ascending("requestedAt"))
+        );
+    }
+
+    private void purge(String docId) throws Exception {
+        MongoDatabase database = mongoClient.getDatabase(DATABASE_NAME);
+        MongoCollection<Document> comments = database.getCollection(COLLECTION_NAME);
+        List<Integer> lines = comments.distinct("lineNumber", Filters.eq("docId", docId), Integer.class)
+            .into(new ArrayList<>());
+
+        long batchMillis = maxDeletesPerSecond > 0 ? batchSize * 1000L / maxDeletesPerSecond : 0;
+        long deleted = 0;
+        while (running) {
+            long startedAt = System.currentTimeMillis();
+            List<ObjectId> ids = comments.find(Filters.eq("docId", docId))
+                .projection(Projections.include("_id"))
+                .limit(batchSize)
+                .map(comment -> comment.getObjectId("_id"))
+                .into(new ArrayList<>());
+            if (ids.isEmpty()) {
+                break;
+            }
+            long batchDeleted = comments.deleteMany(Filters.in("_id", ids)).getDeletedCount();
+            deleted += batchDeleted;
+            purgedCounter.inc(batchDeleted);
+            getPurges().updateOne(Filters.eq("_id", docId),
+                Updates.set("claimedUntil", new Date(System.currentTimeMillis() + CLAIM_MS)));
+
+            long wait = batchMillis - (System.currentTimeMillis() - startedAt);
+            if (wait > 0) {
+                TimeUnit.MILLISECONDS.sleep(wait);
+            }
+        }
+        if (!running) {
+            return;
+        }
+
+        List<Future<RecordMetadata>> tombstones = new ArrayList<>();
+        for (Integer line : lines) {
+            if (line != null) {
+                tombstones.add(kafkaProducer.sendLineCountTombstone(docId, line));
+            }
+        }
+        for (Future<RecordMetadata> tombstone : tombstones) {
+            tombstone.get();
+        }
+        database.getCollection(LINE_VERSION_COLLECTION_NAME).deleteOne(Filters.eq("_id", docId));
+        database.getCollection(REMAP_COLLECTION_NAME).deleteOne(Filters.eq("_id", docId));
+        // Kept, so change stream batches read after this still skip the document
+        getPurges().updateOne(Filters.eq("_id", docId),
+            Updates.combine(Updates.set("purgedAt", new Date()), Updates.unset("claimedUntil")));
+
+        LOG.info("Purged {} comments and {} line counts of deleted docId: {}", deleted, tombstones.size(), docId);
+    }
+
+    private MongoCollection<Document> getPurges() {
+        return mongoClient.getDatabase(DATABASE_NAME).getCollection(PURGE_COLLECTION_NAME);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        running = false;
+
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            LOG.info("Comment purge executor shutdown");
+        }
+    }
+}
@@ -1,21 +1,38 @@
 package com.dockey.comments.services;
 
-import com.dockey.comments.config.CommentEventMessage;
+import com.dockey.comments.cdc.CommentChangeStreamPublisher;
+import com.dockey.comments.config.DocumentEventMessage;
 import com.dockey.comments.entities.Comment;
+import com.dockey.comments.events.CommentEvent;
+import com.dockey.comments.events.CommentEventType;
 import com.dockey.comments.producers.KafkaCommentProducer;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.conversions.Bson;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
 import javax.inject.Inject;
+import java.io.IOException;
+import java.io.Writer;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
@@ -27,6 +44,8 @@ public class CommentService {
     private static final Logger LOG = LogManager.getLogger(CommentService.class.getName());
     private static final String DATABASE_NAME = "commentsdb";
     private static final String COLLECTION_NAME = "comments";
+    private static final String REMAP_COLLECTION_NAME = "line_remaps"; // Last remapped revision per document
+    private static final String LINE_VERSION_COLLECTION_NAME = "line_versions"; // Count change sequence per document
 
     @Inject
     private MongoClient mongoClient;
@@ -34,11 +53,44 @@ public class CommentService {
     @Inject
     private KafkaCommentProducer kafkaProducer;
 
+    @Inject
+    private CommentChangeStreamPublisher changeStreamPublisher;
+
+    /**
+     * Create the indexes that per-document and docId range reads use, and give comments
+     * stored before docNumber was added their numeric docId
+     */
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        try {
+            MongoCollection<Document> collection = getCollection();
+            collection.createIndex(Indexes.ascending("docId", "lineNumber"));
+            collection.createIndex(Indexes.ascending("docNumber", "lineNumber"));
+            Document asLong = new Document("$convert", new Document("input", "$docId")
+                .append("to", "long").append("onError", null).append("onNull", null));
+            UpdateResult backfilled = collection.updateMany(Filters.exists("docNumber", false),
+                Collections.singletonList(new Document("$set", new Document("docNumber", asLong))));
+            LOG.info("Comment indexes ready, docNumber set on {} comments", backfilled.getModifiedCount());
+        } catch (Exception e) {
+            LOG.error("Failed to prepare comment indexes, docId range reads scan the collection", e);
+        }
+    }
+
     private MongoCollection<Document> getCollection() {
         MongoDatabase database = mongoClient.getDatabase(DATABASE_NAME);
         return database.getCollection(COLLECTION_NAME);
     }
 
+    /**
+     * docId as a number, for range reads; null if it is not numeric
+     */
+    private static Long docNumber(String docId) {
+        try {
+            return docId != null ? Long.parseLong(docId) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     public Comment createComment(Comment comment) {
         try {
             MongoCollection<Document> collection = getCollection();
@@ -46,6 +98,7 @@ public class CommentService {
             // Store dates in UTC for consistent handling
             Document doc = new Document()
                 .append("docId", comment.getDocId())
+                .append("docNumber", docNumber(comment.getDocId()))
                 .append("lineNumber", comment.getLineNumber())
                 .append("userId", comment.getUserId())
                 .append("userName", comment.getUserName())
@@ -61,20 +114,28 @@ public class CommentService {
             
             LOG.info("Comment created with ID: {} for docId: {} line: {}", 
                 comment.getId(), comment.getDocId(), comment.getLineNumber());
+            if (changeStreamPublisher.isEnabled()) {
+                return comment;
+            }
 
             // Get updated count for this line
+            long lineVersion = nextLineVersion(comment.getDocId());
             int commentCount = getCommentCountForLine(comment.getDocId(), comment.getLineNumber());
 
             // Publish event to Kafka
-            CommentEventMessage event = new CommentEventMessage(
-                "COMMENT_ADDED",
-                comment.getId().toString(),
-                comment.getDocId(),
-                comment.getLineNumber(),
-                comment.getUserId(),
-                commentCount
-            );
+            CommentEvent.Builder event = newEvent(CommentEventType.COMMENT_ADDED, comment.getId().toString(),
+                comment, comment.getUserId())
+                .setNewCommentCount(commentCount)
+                .setLineVersion(lineVersion)
+                .setTimestamp(KafkaCommentProducer.toTimestamp(comment.getCreatedAt()));
+            if (comment.getUserName() != null) {
+                event.setUserName(comment.getUserName());
+            }
+            if (comment.getContent() != null) {
+                event.setContent(comment.getContent());
+            }
             kafkaProducer.sendCommentEvent(event);
+            kafkaProducer.sendLineCount(comment.getDocId(), comment.getLineNumber(), commentCount, lineVersion);
 
             LOG.info("Comment event published for docId: {} line: {} new count: {}", 
                 comment.getDocId(), comment.getLineNumber(), commentCount);
@@ -133,6 +194,115 @@ public class CommentService {
         return counts;
     }
 
+    /**
+     * Stream the comment count of every line of the documents with fromDocId <= docId <
+     * toDocId as CSV rows "docId,lineNumber,count,lineVersion", grouped server-side with
+     * $group over the docNumber index. Versions are read before counting, so a count is never older than its version
+     * and events after it still apply on top. A document with a version but no comments left
+     * gets a row "docId,0,0,lineVersion", so its version is carried too.
+     *
+     * @return number of rows written
+     */
+    public long writeLineCounts(long fromDocId, long toDocId, Writer out) throws IOException {
+        long rows = writeLineCounts(Filters.expr(docIdInRange("$_id", fromDocId, toDocId)),
+            docNumberInRange(fromDocId, toDocId), out);
+        LOG.info("Exported {} line counts for docIds [{}, {})", rows, fromDocId, toDocId);
+        return rows;
+    }
+
+    /**
+     * Same as {@link #writeLineCounts(long, long, Writer)} for a list of documents, looked up
+     * by the docId index
+     */
+    public long writeLineCounts(Collection<String> docIds, Writer out) throws IOException {
+        long rows = writeLineCounts(Filters.in("_id", docIds), Filters.in("docId", docIds), out);
+        LOG.info("Exported {} line counts for {} documents", rows, docIds.size());
+        return rows;
+    }
+
+    private long writeLineCounts(Bson versionFilter, Bson commentFilter, Writer out) throws IOException {
+        MongoDatabase database = mongoClient.getDatabase(DATABASE_NAME);
+
+        Map<String, Long> versions = new HashMap<>();
+        for (Document sequence : database.getCollection(LINE_VERSION_COLLECTION_NAME).find(versionFilter)) {
+            versions.put(sequence.getString("_id"), sequence.getLong("version"));
+        }
+
+        List<Bson> pipeline = Arrays.asList(
+            Aggregates.match(Filters.and(Filters.eq("isDeleted", false), commentFilter)),
+            Aggregates.group(new Document("docId", "$docId").append("lineNumber", "$lineNumber"),
+                Accumulators.sum("count", 1))
+        );
+
+        long rows = 0;
+        Set<String> counted = new HashSet<>();
+        for (Document group : getCollection().aggregate(pipeline).allowDiskUse(true).batchSize(1000)) {
+            Document key = group.get("_id", Document.class);
+            String docId = key.getString("docId");
+            out.write(docId + "," + key.getInteger("lineNumber") + "," + group.getInteger("count") + ","
+                + versions.getOrDefault(docId, 0L) + "\n");
+            counted.add(docId);
+            rows++;
+        }
+        for (Map.Entry<String, Long> version : versions.entrySet()) {
+            if (!counted.contains(version.getKey())) {
+                out.write(version.getKey() + ",0,0," + version.getValue() + "\n");
+                rows++;
+            }
+        }
+        out.flush();
+        return rows;
+    }
+
+    /**
+     * Bucket digests of the line comment counts of docId ranges, see {@link LineCountDigests}.
+     * All ranges are counted in one aggregation, each range read from the docNumber index.
+     *
+     * @param ranges  [from, to) docId ranges, sorted and disjoint
+     * @param buckets buckets per range
+     * @return digests per range, in the order of the ranges
+     */
+    public long[][] getLineCountDigests(List<long[]> ranges, int buckets) {
+        List<Bson> inRanges = new ArrayList<>();
+        for (long[] range : ranges) {
+            inRanges.add(docNumberInRange(range[0], range[1]));
+        }
+        List<Bson> pipeline = Arrays.asList(
+            Aggregates.match(Filters.and(Filters.eq("isDeleted", false), Filters.or(inRanges))),
+            Aggregates.group(new Document("docNumber", "$docNumber").append("lineNumber", "$lineNumber"),
+                Accumulators.sum("count", 1))
+        );
+
+        LineCountDigests digests = new LineCountDigests(ranges, buckets);
+        for (Document group : getCollection().aggregate(pipeline).allowDiskUse(true).batchSize(1000)) {
+            Document key = group.get("_id", Document.class);
+            digests.add(((Number) key.get("docNumber")).longValue(), key.getInteger("lineNumber"), group.getInteger("count"));
+        }
+
+        LOG.info("Computed line count digests of {} docId ranges", ranges.size());
+        return digests.getDigests();
+    }
+
+    /**
+     * Comments of the documents with a numeric docId in [from, to)
+     */
+    private static Bson docNumberInRange(long from, long to) {
+        return Filters.and(Filters.gte("docNumber", from), Filters.lt("docNumber", to));
+    }
+
+    /**
+     * $expr condition: the string field holds a numeric document id in [from, to). Cannot use
+     * an index; only for line_versions, keyed by docId with one record per document.
+     */
+    private static Document docIdInRange(String field, long from, long to) {
+        Document asLong = new Document("$convert", new Document("input", field)
+            .append("to", "long").append("onError", -1L).append("onNull", -1L));
+        return new Document("$and", Arrays.asList(
+            new Document("$gte", Arrays.asList(asLong, from)),
+            new Document("$lt", Arrays.asList(asLong, to))
+        ));
+    }
+
     private int getCommentCountForLine(String docId, int lineNumber) {
         MongoCollection<Document> collection = getCollection();
         return (int) collection.countDocuments(Filters.and(
@@ -177,15 +347,10 @@ public class CommentService {
             LOG.info("User {} liked comment {}", userId, commentId);
 
             // Publish like event
-            CommentEventMessage event = new CommentEventMessage(
-                "COMMENT_LIKED",
-                commentId,
-                comment.getDocId(),
-                comment.getLineNumber(),
-                userId,
-                null
-            );
-            kafkaProducer.sendCommentEvent(event);
+            if (!changeStreamPublisher.isEnabled()) {
+                kafkaProducer.sendCommentEvent(newEvent(CommentEventType.COMMENT_LIKED, commentId, comment, userId)
+                    .setLikeCount(comment.getLikeCount() != null ? comment.getLikeCount() : 0));
+            }
 
             return comment;
         } catch (IllegalArgumentException e) {
@@ -231,15 +396,10 @@ public class CommentService {
             LOG.info("User {} unliked comment {}", userId, commentId);
 
             // Publish unlike event
-            CommentEventMessage event = new CommentEventMessage(
-                "COMMENT_UNLIKED",
-                commentId,
-                comment.getDocId(),
-                comment.getLineNumber(),
-                userId,
-                null
-            );
-            kafkaProducer.sendCommentEvent(event);
+            if (!changeStreamPublisher.isEnabled()) {
+                kafkaProducer.sendCommentEvent(newEvent(CommentEventType.COMMENT_UNLIKED, commentId, comment, userId)
+                    .setLikeCount(comment.getLikeCount() != null ? comment.getLikeCount() : 0));
+            }
 
             return comment;
         } catch (IllegalArgumentException e) {
@@ -272,20 +432,20 @@ public class CommentService {
             );
 
             LOG.info("Comment {} soft deleted", commentId);
+            if (changeStreamPublisher.isEnabled()) {
+                return true;
+            }
 
             // Get updated count for this line
+            long lineVersion = nextLineVersion(comment.getDocId());
             int commentCount = getCommentCountForLine(comment.getDocId(), comment.getLineNumber());
 
             // Publish delete event
-            CommentEventMessage event = new CommentEventMessage(
-                "COMMENT_DELETED",
-                commentId,
-                comment.getDocId(),
-                comment.getLineNumber(),
-                comment.getUserId(),
-                commentCount
-            );
-            kafkaProducer.sendCommentEvent(event);
+            kafkaProducer.sendCommentEvent(newEvent(CommentEventType.COMMENT_DELETED, commentId, comment,
+                comment.getUserId())
+                .setNewCommentCount(commentCount)
+                .setLineVersion(lineVersion));
+            kafkaProducer.sendLineCount(comment.getDocId(), comment.getLineNumber(), commentCount, lineVersion);
 
             return true;
         } catch (Exception e) {
@@ -294,6 +454,125 @@ public class CommentService {
         }
     }
 
+    /**
+     * Move comment anchors after a document edit with a single updateMany. The mapping is a
+     * list of old line ranges that shift by a fixed amount or collapse onto a target line;
+     * it is applied server-side with a pipeline update, so the cost does not depend on how
+     * many comments move. Each moved comment is stamped with the document revision, and the
+     * revision is recorded per document once the update succeeded, so a redelivered event
+     * neither moves a comment twice nor is skipped after a failed attempt.
+     *
+     * @return number of comments moved
+     */
+    public long remapLines(String docId, Integer revision, List<DocumentEventMessage.LineRange> ranges) {
+        if (ranges == null || ranges.isEmpty()) {
+            return 0;
+        }
+
+        MongoCollection<Document> remaps = mongoClient.getDatabase(DATABASE_NAME).getCollection(REMAP_COLLECTION_NAME);
+        if (revision != null) {
+            Document applied = remaps.find(Filters.eq("_id", docId)).first();
+            if (applied != null && applied.getInteger("revision", 0) >= revision) {
+                LOG.info("Line remap for docId: {} revision: {} already applied", docId, revision);
+                return 0;
+            }
+        }
+
+        List<Document> branches = new ArrayList<>();
+        List<Bson> rangeFilters = new ArrayList<>();
+        for (DocumentEventMessage.LineRange range : ranges) {
+            Document inRange = new Document("$and", Arrays.asList(
+                new Document("$gte", Arrays.asList("$lineNumber", range.getFrom())),
+                new Document("$lte", Arrays.asList("$lineNumber", range.getTo()))
+            ));
+            Object newLine = range.getShift() != null
+                ? new Document("$add", Arrays.asList("$lineNumber", range.getShift()))
+                : range.getTarget();
+            branches.add(new Document("case", inRange).append("then", newLine));
+            rangeFilters.add(Filters.and(Filters.gte("lineNumber", range.getFrom()), Filters.lte("lineNumber", range.getTo())));
+        }
+
+        Document remap = new Document("$switch", new Document("branches", branches).append("default", "$lineNumber"));
+        Document set = new Document("lineNumber", remap);
+        Bson filter = Filters.and(Filters.eq("docId", docId), Filters.or(rangeFilters));
+        if (revision != null) {
+            // Each comment records the revision it was remapped to, so a redelivered event
+            // skips the comments it already moved and the update can safely be repeated
+            set.append("remapRevision", revision);
+            filter = Filters.and(filter, Filters.or(Filters.exists("remapRevision", false), Filters.lt("remapRevision", revision)));
+        }
+        Map<Integer, Integer> countsBefore = getLineCommentCounts(docId);
+        UpdateResult result = getCollection().updateMany(filter, Collections.singletonList(new Document("$set", set)));
+        if (result.getModifiedCount() > 0 && !changeStreamPublisher.isEnabled()) {
+            publishChangedLineCounts(docId, countsBefore);
+        }
+
+        if (revision != null) {
+            // Recorded only once the comments are moved, so a failed remap is retried on
+            // redelivery. Matches only if this revision is newer; otherwise the upsert hits
+            // the existing _id
+            try {
+                remaps.updateOne(
+                    Filters.and(Filters.eq("_id", docId), Filters.lt("revision", revision)),
+                    Updates.set("revision", revision),
+                    new UpdateOptions().upsert(true)
+                );
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+        }
+
+        LOG.info("Remapped {} comments for docId: {} revision: {} using {} ranges",
+            result.getModifiedCount(), docId, revision, ranges.size());
+        return result.getModifiedCount();
+    }
+
+    /**
+     * Publish the count of every line of a document whose count differs from countsBefore,
+     * 0 for lines left without comments, all at one new version
+     */
+    private void publishChangedLineCounts(String docId, Map<Integer, Integer> countsBefore) {
+        long lineVersion = nextLineVersion(docId);
+        Map<Integer, Integer> countsAfter = getLineCommentCounts(docId);
+        Set<Integer> lines = new HashSet<>(countsBefore.keySet());
+        lines.addAll(countsAfter.keySet());
+        for (Integer line : lines) {
+            int count = countsAfter.getOrDefault(line, 0);
+            if (!Objects.equals(countsBefore.get(line), count)) {
+                kafkaProducer.sendLineCount(docId, line, count, lineVersion);
+            }
+        }
+    }
+
+    /**
+     * Next count change sequence number of a document. Taken after the comment write and
+     * before counting, so an event with a higher version never carries an older count for
+     * the same line; consumers drop events older than the version they have applied.
+     */
+    public long nextLineVersion(String docId) {
+        Document sequence = mongoClient.getDatabase(DATABASE_NAME).getCollection(LINE_VERSION_COLLECTION_NAME)
+            .findOneAndUpdate(
+                Filters.eq("_id", docId),
+                Updates.inc("version", 1L),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER)
+            );
+        return sequence.getLong("version");
+    }
+
+    /**
+     * Event for a comment, with the fields every event type carries
+     */
+    private CommentEvent.Builder newEvent(CommentEventType type, String commentId, Comment comment, String userId) {
+        return CommentEvent.newBuilder()
+            .setType(type)
+            .setCommentId(commentId)
+            .setDocId(comment.getDocId())
+            .setLineNumber(comment.getLineNumber())
+            .setUserId(userId);
+    }
+
     private Comment documentToComment(Document doc) {
         Comment comment = new Comment();
         comment.setId(doc.getObjectId("_id"));
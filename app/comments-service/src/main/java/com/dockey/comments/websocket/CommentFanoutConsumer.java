@@ -0,0 +1,139 @@
+package com.dockey.comments.websocket;
+
+import com.dockey.comments.events.CommentEvent;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reads every comment event from the dockey-comments topic and hands it to the local
+ * {@link CommentSubscriptionRegistry}, so a comment written on any replica reaches the
+ * sockets held by this one.
+ *
+ * Each replica must see all events, so instead of joining a consumer group it assigns
+ * itself every partition and starts from the end: WebSocket clients only need live changes.
+ */
+@ApplicationScoped
+public class CommentFanoutConsumer {
+
+    private static final Logger LOG = LogManager.getLogger(CommentFanoutConsumer.class.getName());
+    private static final String TOPIC = "dockey-comments";
+
+    @Inject
+    private CommentSubscriptionRegistry registry;
+
+    private KafkaConsumer<String, byte[]> consumer;
+    private ExecutorService executor;
+    private volatile boolean running = false;
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        Properties props = new Properties();
+        String bootstrapServers = System.getenv().getOrDefault("KAFKA_BOOTSTRAP_SERVERS", "localhost:9092");
+
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+
+        consumer = new KafkaConsumer<>(props);
+
+        running = true;
+        executor = Executors.newSingleThreadExecutor();
+        executor.submit(this::consumeMessages);
+
+        LOG.info("Comment fan-out consumer initialized. Topic: {} Bootstrap: {}", TOPIC, bootstrapServers);
+    }
+
+    private void consumeMessages() {
+        try {
+            if (!assignAllPartitions()) {
+                return;
+            }
+
+            while (running) {
+                ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofMillis(1000));
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    try {
+                        registry.broadcast(CommentEvent.parseFrom(record.value()));
+                    } catch (Exception e) {
+                        LOG.error("Failed to fan out comment event at partition {} offset {}",
+                            record.partition(), record.offset(), e);
+                    }
+                }
+            }
+        } catch (WakeupException e) {
+            // Shutting down
+        } catch (Exception e) {
+            if (running) {
+                LOG.error("Comment fan-out consumer stopped", e);
+            }
+        } finally {
+            consumer.close();
+        }
+        LOG.info("Stopped comment fan-out consumer");
+    }
+
+    /**
+     * The topic may not exist yet on a fresh cluster, so keep asking until it does
+     */
+    private boolean assignAllPartitions() throws InterruptedException {
+        while (running) {
+            List<PartitionInfo> partitions = consumer.partitionsFor(TOPIC);
+            if (partitions != null && !partitions.isEmpty()) {
+                List<TopicPartition> topicPartitions = partitions.stream()
+                    .map(p -> new TopicPartition(p.topic(), p.partition()))
+                    .collect(Collectors.toList());
+                consumer.assign(topicPartitions);
+                consumer.seekToEnd(topicPartitions);
+                LOG.info("Comment fan-out consumer assigned {} partitions", topicPartitions.size());
+                return true;
+            }
+            TimeUnit.SECONDS.sleep(5);
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        running = false;
+
+        if (consumer != null) {
+            consumer.wakeup();
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            LOG.info("Comment fan-out executor shutdown");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.dockey.comments.websocket;
+
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+
+import javax.enterprise.inject.spi.CDI;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WebSocket endpoint for live comment updates.
+ *
+ * Clients connect to /api/comments/ws?docId=..&fromLine=..&toLine=.. (line bounds optional)
+ * and may later change the subscription by sending
+ * {"action":"subscribe","docId":"..","fromLine":1,"toLine":50}. Sending "ping" returns "pong".
+ */
+@ServerEndpoint("/api/comments/ws")
+public class CommentSocketEndpoint {
+
+    private static final Logger LOG = LogManager.getLogger(CommentSocketEndpoint.class.getName());
+
+    private CommentSubscriptionRegistry registry() {
+        return CDI.current().select(CommentSubscriptionRegistry.class).get();
+    }
+
+    @OnOpen
+    public void onOpen(Session session) {
+        Map<String, List<String>> params = session.getRequestParameterMap();
+        String docId = firstParam(params, "docId");
+        if (docId == null) {
+            return;
+        }
+        try {
+            registry().subscribe(session, docId,
+                parseLine(firstParam(params, "fromLine")), parseLine(firstParam(params, "toLine")));
+        } catch (NumberFormatException e) {
+            closeQuietly(session, "Invalid line range");
+        }
+    }
+
+    @OnMessage
+    public void onMessage(String message, Session session) {
+        if ("ping".equals(message)) {
+            session.getAsyncRemote().sendText("pong");
+            return;
+        }
+        try (JsonReader reader = Json.createReader(new StringReader(message))) {
+            JsonObject json = reader.readObject();
+            String action = json.getString("action", "");
+            switch (action) {
+                case "subscribe":
+                    registry().subscribe(session, json.getString("docId"),
+                        json.containsKey("fromLine") && !json.isNull("fromLine") ? json.getInt("fromLine") : null,
+                        json.containsKey("toLine") && !json.isNull("toLine") ? json.getInt("toLine") : null);
+                    break;
+                case "unsubscribe":
+                    registry().unsubscribe(session);
+                    break;
+                default:
+                    LOG.debug("Unknown WebSocket action: {}", action);
+            }
+        } catch (Exception e) {
+            LOG.debug("Invalid WebSocket message from session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        registry().unsubscribe(session);
+    }
+
+    @OnError
+    public void onError(Session session, Throwable error) {
+        LOG.debug("WebSocket error on session {}: {}", session.getId(), error.getMessage());
+        registry().unsubscribe(session);
+    }
+
+    private static String firstParam(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static Integer parseLine(String value) {
+        return value == null || value.isEmpty() ? null : Integer.parseInt(value);
+    }
+
+    private static void closeQuietly(Session session, String reason) {
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, reason));
+        } catch (Exception e) {
+            // Session already gone
+        }
+    }
+}
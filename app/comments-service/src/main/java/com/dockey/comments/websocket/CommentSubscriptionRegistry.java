@@ -0,0 +1,188 @@
+package com.dockey.comments.websocket;
+
+import com.dockey.comments.events.CommentEvent;
+import com.dockey.comments.events.CommentEventType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.kumuluz.ee.configuration.utils.ConfigurationUtil;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the WebSocket subscriptions of this replica, indexed by document, and pushes
+ * comment deltas to the sessions whose (docId, line range) matches.
+ *
+ * Sends are asynchronous. A session that falls more than max-pending-messages behind is
+ * closed instead of buffering without limit; the client reconnects and reloads.
+ */
+@ApplicationScoped
+public class CommentSubscriptionRegistry {
+
+    private static final Logger LOG = LogManager.getLogger(CommentSubscriptionRegistry.class.getName());
+
+    private final Map<String, Set<Subscription>> subscriptionsByDoc = new ConcurrentHashMap<>();
+    private final Map<String, Subscription> subscriptionsBySession = new ConcurrentHashMap<>();
+    private ObjectMapper objectMapper;
+    private int maxPendingMessages;
+
+    @PostConstruct
+    public void init() {
+        maxPendingMessages = ConfigurationUtil.getInstance().getInteger("websocket.max-pending-messages").orElse(64);
+
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+    }
+
+    /**
+     * Subscribe a session to a document, replacing its previous subscription.
+     * A null bound means the range is open on that side.
+     */
+    public void subscribe(Session session, String docId, Integer fromLine, Integer toLine) {
+        unsubscribe(session);
+        Subscription subscription = new Subscription(session, docId, fromLine, toLine);
+        subscriptionsBySession.put(session.getId(), subscription);
+        subscriptionsByDoc.computeIfAbsent(docId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+        LOG.debug("WebSocket session {} subscribed to docId={} lines {}-{}", session.getId(), docId, fromLine, toLine);
+    }
+
+    public void unsubscribe(Session session) {
+        Subscription subscription = subscriptionsBySession.remove(session.getId());
+        if (subscription != null) {
+            subscriptionsByDoc.computeIfPresent(subscription.docId, (id, set) -> {
+                set.remove(subscription);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    public int getSessionCount() {
+        return subscriptionsBySession.size();
+    }
+
+    /**
+     * Push an event to every local session subscribed to its document and line
+     */
+    public void broadcast(CommentEvent event) {
+        Set<Subscription> subscriptions = subscriptionsByDoc.get(event.getDocId());
+        if (subscriptions == null || subscriptions.isEmpty()) {
+            return;
+        }
+
+        String payload = null;
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.matches(event.getLineNumber())) {
+                continue;
+            }
+            if (payload == null) {
+                try {
+                    payload = objectMapper.writeValueAsString(toDelta(event));
+                } catch (Exception e) {
+                    LOG.error("Failed to serialize comment delta for docId={}", event.getDocId(), e);
+                    return;
+                }
+            }
+            send(subscription, payload);
+        }
+    }
+
+    private void send(Subscription subscription, String payload) {
+        Session session = subscription.session;
+        if (!session.isOpen()) {
+            unsubscribe(session);
+            return;
+        }
+        if (subscription.pending.incrementAndGet() > maxPendingMessages) {
+            subscription.pending.decrementAndGet();
+            LOG.warn("Closing slow WebSocket session {} for docId={}", session.getId(), subscription.docId);
+            unsubscribe(session);
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Too many pending messages"));
+            } catch (Exception e) {
+                // Session already gone
+            }
+            return;
+        }
+        try {
+            session.getAsyncRemote().sendText(payload, result -> {
+                subscription.pending.decrementAndGet();
+                if (!result.isOK()) {
+                    unsubscribe(session);
+                }
+            });
+        } catch (Exception e) {
+            subscription.pending.decrementAndGet();
+            unsubscribe(session);
+        }
+    }
+
+    /**
+     * Compact client-facing form of an event. COMMENT_ADDED carries the new comment so the
+     * client can render it without a fetch.
+     */
+    private Map<String, Object> toDelta(CommentEvent event) {
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("type", event.getType().name());
+        delta.put("commentId", event.getCommentId());
+        delta.put("docId", event.getDocId());
+        delta.put("lineNumber", event.getLineNumber());
+        delta.put("userId", event.getUserId());
+        if (event.hasNewCommentCount()) {
+            delta.put("lineCommentCount", event.getNewCommentCount());
+        }
+        if (event.hasLikeCount()) {
+            delta.put("likeCount", event.getLikeCount());
+        }
+        if (event.getType() == CommentEventType.COMMENT_ADDED) {
+            // Comment times are UTC local date-times, as returned by the REST API
+            LocalDateTime createdAt = LocalDateTime.ofEpochSecond(event.getTimestamp().getSeconds(),
+                event.getTimestamp().getNanos(), ZoneOffset.UTC);
+            Map<String, Object> comment = new LinkedHashMap<>();
+            comment.put("id", event.getCommentId());
+            comment.put("docId", event.getDocId());
+            comment.put("lineNumber", event.getLineNumber());
+            comment.put("userId", event.getUserId());
+            comment.put("userName", event.getUserName());
+            comment.put("content", event.getContent());
+            comment.put("createdAt", createdAt);
+            comment.put("updatedAt", createdAt);
+            comment.put("likeCount", 0);
+            comment.put("likedByCurrentUser", false);
+            delta.put("comment", comment);
+        }
+        return delta;
+    }
+
+    private static class Subscription {
+        private final Session session;
+        private final String docId;
+        private final Integer fromLine;
+        private final Integer toLine;
+        private final AtomicInteger pending = new AtomicInteger();
+
+        Subscription(Session session, String docId, Integer fromLine, Integer toLine) {
+            this.session = session;
+            this.docId = docId;
+            this.fromLine = fromLine;
+            this.toLine = toLine;
+        }
+
+        boolean matches(Integer lineNumber) {
+            if (lineNumber == null) {
+                return true;
+            }
+            return (fromLine == null || lineNumber >= fromLine) && (toLine == null || lineNumber <= toLine);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.dockey.docs.api;
+
+import com.dockey.docs.kafka.CommentEventRetryTopics;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+@RequestScoped
+@Path("/comment-events")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+@Tag(name = "Comment Events", description = "Comment event retry and dead letter endpoints")
+public class CommentEventResource {
+
+    private static final Logger LOG = LogManager.getLogger(CommentEventResource.class.getName());
+
+    @Inject
+    private CommentEventRetryTopics retryTopics;
+
+    @POST
+    @Path("/dlq/replay")
+    @Operation(summary = "Replay dead-lettered comment events",
+        description = "Move comment events from the dead letter topic back to the first retry tier, " +
+            "where they are applied at once. Replays continue where the previous one stopped.")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Number of events replayed"),
+        @APIResponse(responseCode = "503", description = "Kafka is not reachable")
+    })
+    public Response replayDeadLetters(
+        @Parameter(description = "Maximum number of events to replay")
+        @QueryParam("limit") @DefaultValue("1000") int limit
+    ) {
+        int boundedLimit = Math.max(1, Math.min(limit, 10000));
+        LOG.info("POST request to replay up to {} dead-lettered comment events", boundedLimit);
+
+        try {
+            int replayed = retryTopics.replayDeadLetters(boundedLimit);
+            return Response.ok(Map.of("replayed", replayed)).build();
+        } catch (Exception e) {
+            LOG.error("Failed to replay dead-lettered comment events", e);
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity(Map.of("error", "Failed to replay dead-lettered comment events: " + e.getMessage()))
+                .build();
+        }
+    }
+}
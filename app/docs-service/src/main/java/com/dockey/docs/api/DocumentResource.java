@@ -1,11 +1,27 @@
 package com.dockey.docs.api;
 
+import com.dockey.docs.autosave.DraftAutosaveBuffer;
+import com.dockey.docs.diff.LineDiff;
+import com.dockey.docs.dto.BulkImportStatus;
+import com.dockey.docs.dto.DocumentDiffResponse;
+import com.dockey.docs.dto.DocumentPatchRequest;
 import com.dockey.docs.dto.DocumentResponse;
+import com.dockey.docs.dto.DocumentRevisionResponse;
+import com.dockey.docs.dto.DocumentSearchResponse;
+import com.dockey.docs.dto.DocumentSuggestion;
+import com.dockey.docs.dto.DraftAutosaveRequest;
 import com.dockey.docs.entities.Document;
+import com.dockey.docs.services.DocGroupService;
+import com.dockey.docs.services.DocumentBulkImportService;
+import com.dockey.docs.services.DocumentExportService;
+import com.dockey.docs.services.DocumentSearchService;
 import com.dockey.docs.services.DocumentService;
 import com.dockey.docs.services.DocumentLineCommentService;
+import com.dockey.docs.services.DocumentRevisionService;
 import com.dockey.docs.kafka.CommentEventConsumer;
 import com.dockey.docs.grpc.CheckerClient;
+import com.dockey.docs.sse.LineCountStreamRegistry;
+import com.dockey.docs.suggest.SuggestionIndex;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
 import org.eclipse.microprofile.openapi.annotations.Operation;
@@ -18,11 +34,21 @@ import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
+import javax.persistence.OptimisticLockException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+import java.util.stream.Collectors;
 
 @RequestScoped
 @Path("/documents")
@@ -39,8 +65,32 @@ public class DocumentResource {
     @Inject
     private DocumentLineCommentService documentLineCommentService;
 
+    @Inject
+    private DocumentRevisionService documentRevisionService;
+
     @Inject
     private CheckerClient checkerClient;
+
+    @Inject
+    private LineCountStreamRegistry lineCountStreamRegistry;
+
+    @Inject
+    private DraftAutosaveBuffer draftAutosaveBuffer;
+
+    @Inject
+    private DocumentBulkImportService documentBulkImportService;
+
+    @Inject
+    private DocumentExportService documentExportService;
+
+    @Inject
+    private DocGroupService docGroupService;
+
+    @Inject
+    private DocumentSearchService documentSearchService;
+
+    @Inject
+    private SuggestionIndex suggestionIndex;
     
     // Injecting to ensure Kafka consumer starts at application startup
     @Inject
@@ -80,6 +130,110 @@ public class DocumentResource {
         return Response.ok(documents).build();
     }
     
+    @GET
+    @Path("/search")
+    @Operation(summary = "Search documents",
+        description = "Full-text search over titles and content, best match first, with highlighted matching lines. " +
+            "Supports quoted phrases, OR and -exclusion. Pass nextCursor as cursor for the next page.")
+    @APIResponses({
+        @APIResponse(
+            responseCode = "200",
+            description = "Search results",
+            content = @Content(schema = @Schema(implementation = DocumentSearchResponse.class))
+        ),
+        @APIResponse(responseCode = "400", description = "Missing query or invalid cursor")
+    })
+    public Response searchDocuments(
+        @Parameter(description = "Search query", required = true)
+        @QueryParam("q") String query,
+        @Parameter(description = "Only search this group")
+        @QueryParam("groupId") Long groupId,
+        @Parameter(description = "Cursor from the previous page")
+        @QueryParam("cursor") String cursor,
+        @Parameter(description = "Page size (1-100)")
+        @QueryParam("limit") @DefaultValue("20") int limit
+    ) {
+        LOG.info("GET request to search documents: '{}'", query);
+
+        if (query == null || query.isBlank()) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity("{\"error\": \"Query parameter 'q' is required\"}")
+                .build();
+        }
+
+        try {
+            DocumentSearchResponse results = documentSearchService.search(query.trim(), groupId, cursor,
+                Math.max(1, Math.min(limit, 100)));
+            return Response.ok(results).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(Map.of("error", e.getMessage()))
+                .build();
+        }
+    }
+
+    @GET
+    @Path("/suggest")
+    @Operation(summary = "Suggest documents and groups",
+        description = "Typeahead: documents and groups with a word in their title or name starting with the prefix, " +
+            "most popular first")
+    @APIResponses({
+        @APIResponse(
+            responseCode = "200",
+            description = "Suggestions",
+            content = @Content(schema = @Schema(implementation = DocumentSuggestion.class))
+        )
+    })
+    public Response suggestDocuments(
+        @Parameter(description = "Typed prefix", required = true)
+        @QueryParam("prefix") String prefix,
+        @Parameter(description = "Maximum number of suggestions (1-50)")
+        @QueryParam("limit") @DefaultValue("10") int limit
+    ) {
+        List<DocumentSuggestion> suggestions = suggestionIndex.suggest(prefix, Math.max(1, Math.min(limit, 50)));
+        return Response.ok(suggestions).build();
+    }
+
+    @GET
+    @Path("/export")
+    @Produces({"application/x-ndjson", "application/gzip"})
+    @Operation(summary = "Export documents",
+        description = "Stream all documents, or those of one group, as newline-delimited JSON with content and " +
+            "line comment counts. The output can be fed back to /documents/bulk.")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Export stream"),
+        @APIResponse(responseCode = "404", description = "Group not found")
+    })
+    public Response exportDocuments(
+        @Parameter(description = "Only export documents of this group")
+        @QueryParam("groupId") Long groupId,
+        @Parameter(description = "Gzip-compress the output")
+        @QueryParam("gzip") @DefaultValue("false") boolean gzip
+    ) {
+        LOG.info("GET request to export documents (group: {}, gzip: {})", groupId, gzip);
+
+        if (groupId != null && docGroupService.getGroupById(groupId) == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .type(MediaType.APPLICATION_JSON)
+                .entity("{\"error\": \"Group not found\"}")
+                .build();
+        }
+
+        StreamingOutput stream = output -> {
+            if (gzip) {
+                try (GZIPOutputStream compressed = new GZIPOutputStream(output, 64 * 1024)) {
+                    documentExportService.export(groupId, compressed);
+                }
+            } else {
+                documentExportService.export(groupId, output);
+            }
+        };
+        String fileName = "documents" + (groupId != null ? "-group-" + groupId : "") + (gzip ? ".ndjson.gz" : ".ndjson");
+        return Response.ok(stream, gzip ? "application/gzip" : "application/x-ndjson")
+            .header("Content-Disposition", "attachment; filename=\"" + fileName + "\"")
+            .build();
+    }
+
     @GET
     @Path("/{id}")
     @Operation(summary = "Get document by ID", description = "Retrieve a specific document by its ID with line comment counts")
@@ -100,8 +254,18 @@ public class DocumentResource {
         
         if (document != null) {
             // Fetch line comment counts
-            Map<Integer, Integer> lineCommentCounts = documentLineCommentService.getLineCommentCountsMap(id);
+            Map<Integer, Integer> lineCommentCounts = documentLineCommentService.getLineCommentCountsMap(id, document.getLinesRemappedAt());
             DocumentResponse response = new DocumentResponse(document, lineCommentCounts);
+
+            // Show autosaved edits that are still buffered, so a reloaded editor does not lose them
+            DraftAutosaveRequest draft = draftAutosaveBuffer.getPendingDraft(id);
+            if (draft != null) {
+                if (draft.getTitle() != null) {
+                    response.setTitle(draft.getTitle());
+                }
+                response.setContent(draft.getContent());
+                response.setDraftPending(true);
+            }
             return Response.ok(response).build();
         }
         
@@ -158,6 +322,67 @@ public class DocumentResource {
         return Response.status(Response.Status.CREATED).entity(created).build();
     }
     
+    @POST
+    @Path("/bulk")
+    @Consumes({"application/x-ndjson", MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM})
+    @Operation(summary = "Bulk import documents",
+        description = "Import newline-delimited JSON, one document per line (title, source, content, userId, " +
+            "groupId, status). Invalid or rejected lines are reported and skipped. Pass importId to poll " +
+            "progress at /documents/bulk/{importId} while the upload runs.")
+    @APIResponses({
+        @APIResponse(
+            responseCode = "200",
+            description = "Import finished",
+            content = @Content(schema = @Schema(implementation = BulkImportStatus.class))
+        ),
+        @APIResponse(responseCode = "409", description = "An import with this id is already running"),
+        @APIResponse(responseCode = "500", description = "Import stopped; lastCommittedLine tells where to resume")
+    })
+    public Response bulkImport(
+        @Parameter(description = "Client-chosen id for polling progress")
+        @QueryParam("importId") String importId,
+        InputStream body
+    ) {
+        String id = importId != null && !importId.isBlank() ? importId : UUID.randomUUID().toString();
+        LOG.info("POST request for bulk import: {}", id);
+
+        try {
+            BulkImportStatus status = documentBulkImportService.importDocuments(id, body);
+            Response.Status code = "FAILED".equals(status.getState())
+                ? Response.Status.INTERNAL_SERVER_ERROR
+                : Response.Status.OK;
+            return Response.status(code).entity(status).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT)
+                .entity(Map.of("error", e.getMessage()))
+                .build();
+        }
+    }
+
+    @GET
+    @Path("/bulk/{importId}")
+    @Operation(summary = "Get bulk import progress", description = "Progress of a running or recent bulk import")
+    @APIResponses({
+        @APIResponse(
+            responseCode = "200",
+            description = "Import status retrieved successfully",
+            content = @Content(schema = @Schema(implementation = BulkImportStatus.class))
+        ),
+        @APIResponse(responseCode = "404", description = "Import not found")
+    })
+    public Response getBulkImportStatus(
+        @Parameter(description = "Import ID", required = true)
+        @PathParam("importId") String importId
+    ) {
+        BulkImportStatus status = documentBulkImportService.getStatus(importId);
+        if (status == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity("{\"error\": \"Import not found\"}")
+                .build();
+        }
+        return Response.ok(status).build();
+    }
+
     @PUT
     @Path("/{id}")
     @Operation(summary = "Update a document", description = "Update an existing document")
@@ -175,6 +400,8 @@ public class DocumentResource {
         Document document
     ) {
         LOG.info("PUT request to update document with id: {}", id);
+        // The full document supersedes any buffered autosave
+        draftAutosaveBuffer.discard(id);
         Document updated = documentService.updateDocument(id, document);
         
         if (updated != null) {
@@ -186,6 +413,123 @@ public class DocumentResource {
             .build();
     }
     
+    @PATCH
+    @Path("/{id}")
+    @Operation(summary = "Patch a document",
+        description = "Apply line-range edits or a unified diff against baseRevision. Only the changed lines are checked.")
+    @APIResponses({
+        @APIResponse(
+            responseCode = "200",
+            description = "Document patched successfully",
+            content = @Content(schema = @Schema(implementation = Document.class))
+        ),
+        @APIResponse(responseCode = "400", description = "Invalid patch or inappropriate content"),
+        @APIResponse(responseCode = "404", description = "Document not found"),
+        @APIResponse(responseCode = "409", description = "Document changed since baseRevision")
+    })
+    public Response patchDocument(
+        @Parameter(description = "Document ID", required = true)
+        @PathParam("id") Long id,
+        DocumentPatchRequest patch
+    ) {
+        LOG.info("PATCH request to update document with id: {}", id);
+
+        if (patch == null) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity("{\"error\": \"Patch body is required\"}")
+                .build();
+        }
+
+        // Buffered autosaves become a revision first, so the patch applies on top of them
+        draftAutosaveBuffer.flush(id);
+
+        Document document = documentService.getDocument(id);
+        if (document == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity("{\"error\": \"Document not found\"}")
+                .build();
+        }
+
+        try {
+            List<LineDiff.Hunk> hunks = documentService.preparePatch(document, patch);
+
+            String changedText = hunks.stream()
+                .flatMap(hunk -> hunk.getNewLines().stream())
+                .collect(Collectors.joining("\n"));
+            if (!changedText.isBlank() && !checkerClient.checkText(changedText)) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("{\"error\": \"Document may contain inappropriate content\"}")
+                    .build();
+            }
+
+            Document updated = documentService.patchDocument(id, patch.getBaseRevision(), hunks,
+                patch.getTitle(), patch.getStatus());
+            if (updated == null) {
+                return Response.status(Response.Status.NOT_FOUND)
+                    .entity("{\"error\": \"Document not found\"}")
+                    .build();
+            }
+            return Response.ok(updated).build();
+        } catch (OptimisticLockException e) {
+            return Response.status(Response.Status.CONFLICT)
+                .entity(Map.of("error", e.getMessage()))
+                .build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(Map.of("error", e.getMessage()))
+                .build();
+        }
+    }
+    
+    @PUT
+    @Path("/{id}/draft")
+    @Operation(summary = "Autosave a draft",
+        description = "Buffer the editor's current title and content of a draft. Buffered edits are written " +
+            "as one revision per flush interval, and before the document is patched or published.")
+    @APIResponses({
+        @APIResponse(responseCode = "202", description = "Draft buffered"),
+        @APIResponse(responseCode = "200", description = "Draft written immediately"),
+        @APIResponse(responseCode = "400", description = "Missing content"),
+        @APIResponse(responseCode = "404", description = "Document not found"),
+        @APIResponse(responseCode = "409", description = "Document is not a draft")
+    })
+    public Response autosaveDraft(
+        @Parameter(description = "Document ID", required = true)
+        @PathParam("id") Long id,
+        DraftAutosaveRequest draft
+    ) {
+        LOG.debug("PUT request to autosave draft of document: {}", id);
+
+        if (draft == null || draft.getContent() == null) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity("{\"error\": \"Content is required\"}")
+                .build();
+        }
+
+        // A buffered document was already checked to be a draft
+        if (!draftAutosaveBuffer.isPending(id)) {
+            Document document = documentService.getDocument(id);
+            if (document == null) {
+                return Response.status(Response.Status.NOT_FOUND)
+                    .entity("{\"error\": \"Document not found\"}")
+                    .build();
+            }
+            if (!"DRAFT".equals(document.getStatus())) {
+                return Response.status(Response.Status.CONFLICT)
+                    .entity("{\"error\": \"Only drafts can be autosaved\"}")
+                    .build();
+            }
+        }
+
+        Instant flushBy = draftAutosaveBuffer.buffer(id, draft.getTitle(), draft.getContent());
+        if (flushBy == null) {
+            return Response.ok(Map.of("documentId", id, "buffered", false)).build();
+        }
+        return Response.status(Response.Status.ACCEPTED)
+            .entity(Map.of("documentId", id, "buffered", true, "flushBy", flushBy.toString()))
+            .build();
+    }
+
     @DELETE
     @Path("/{id}")
     @Operation(summary = "Delete a document", description = "Delete a document by its ID")
@@ -198,6 +542,7 @@ public class DocumentResource {
         @PathParam("id") Long id
     ) {
         LOG.info("DELETE request for document with id: {}", id);
+        draftAutosaveBuffer.discard(id);
         boolean deleted = documentService.deleteDocument(id);
         
         if (deleted) {
@@ -233,10 +578,132 @@ public class DocumentResource {
                 .build();
         }
         
-        Map<Integer, Integer> lineCommentCounts = documentLineCommentService.getLineCommentCountsMap(id);
+        Map<Integer, Integer> lineCommentCounts = documentLineCommentService.getLineCommentCountsMap(id, document.getLinesRemappedAt());
         return Response.ok(Map.of(
             "documentId", id,
             "lineCommentCounts", lineCommentCounts
         )).build();
     }
+
+    @GET
+    @Path("/{id}/revisions")
+    @Operation(summary = "List document revisions", description = "Revision history of a document, newest first")
+    @APIResponses({
+        @APIResponse(
+            responseCode = "200",
+            description = "Revisions retrieved successfully",
+            content = @Content(schema = @Schema(implementation = DocumentRevisionResponse.class))
+        ),
+        @APIResponse(responseCode = "404", description = "Document not found")
+    })
+    public Response getRevisions(
+        @Parameter(description = "Document ID", required = true)
+        @PathParam("id") Long id
+    ) {
+        LOG.info("GET request for revisions of document: {}", id);
+
+        if (documentService.getDocument(id) == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity("{\"error\": \"Document not found\"}")
+                .build();
+        }
+
+        List<DocumentRevisionResponse> revisions = documentRevisionService.listRevisions(id);
+        return Response.ok(revisions).build();
+    }
+
+    @GET
+    @Path("/{id}/revisions/{revision}")
+    @Operation(summary = "Get document revision", description = "Content of a document as of the given revision")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Revision content retrieved successfully"),
+        @APIResponse(responseCode = "404", description = "Document or revision not found")
+    })
+    public Response getRevision(
+        @Parameter(description = "Document ID", required = true)
+        @PathParam("id") Long id,
+        @Parameter(description = "Revision number", required = true)
+        @PathParam("revision") Integer revision
+    ) {
+        LOG.info("GET request for revision {} of document: {}", revision, id);
+
+        String content = documentRevisionService.getContentAtRevision(id, revision);
+        if (content == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity("{\"error\": \"Revision not found\"}")
+                .build();
+        }
+
+        return Response.ok(Map.of(
+            "documentId", id,
+            "revision", revision,
+            "content", content
+        )).build();
+    }
+
+    @GET
+    @Path("/{id}/diff")
+    @Operation(summary = "Diff two revisions", description = "Line diff between two revisions of a document")
+    @APIResponses({
+        @APIResponse(
+            responseCode = "200",
+            description = "Diff computed successfully",
+            content = @Content(schema = @Schema(implementation = DocumentDiffResponse.class))
+        ),
+        @APIResponse(responseCode = "400", description = "Missing revision parameters"),
+        @APIResponse(responseCode = "404", description = "Document or revision not found")
+    })
+    public Response diffRevisions(
+        @Parameter(description = "Document ID", required = true)
+        @PathParam("id") Long id,
+        @Parameter(description = "Base revision", required = true)
+        @QueryParam("from") Integer fromRevision,
+        @Parameter(description = "Target revision", required = true)
+        @QueryParam("to") Integer toRevision
+    ) {
+        LOG.info("GET request for diff of document {} from revision {} to {}", id, fromRevision, toRevision);
+
+        if (fromRevision == null || toRevision == null) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity("{\"error\": \"Query parameters 'from' and 'to' are required\"}")
+                .build();
+        }
+
+        DocumentDiffResponse diff = documentRevisionService.diff(id, fromRevision, toRevision);
+        if (diff == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity("{\"error\": \"Revision not found\"}")
+                .build();
+        }
+
+        return Response.ok(diff).build();
+    }
+
+    @GET
+    @Path("/{id}/events")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @Operation(summary = "Stream line comment count changes",
+        description = "Server-Sent Events stream of line comment count changes for a document. " +
+            "'line-counts' events carry changed lines only; on 'resync' the client should reload the counts.")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Event stream opened"),
+        @APIResponse(responseCode = "404", description = "Document not found")
+    })
+    public void streamLineCommentCounts(
+        @Parameter(description = "Document ID", required = true)
+        @PathParam("id") Long id,
+        @Context SseEventSink eventSink,
+        @Context Sse sse
+    ) {
+        LOG.info("SSE subscription for line comment counts of document: {}", id);
+
+        if (documentService.getDocument(id) == null) {
+            throw new NotFoundException(Response.status(Response.Status.NOT_FOUND)
+                .type(MediaType.APPLICATION_JSON)
+                .entity("{\"error\": \"Document not found\"}")
+                .build());
+        }
+
+        lineCountStreamRegistry.subscribe(id, eventSink, sse);
+    }
 }
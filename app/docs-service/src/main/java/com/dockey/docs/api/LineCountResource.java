@@ -0,0 +1,119 @@
+package com.dockey.docs.api;
+
+import com.dockey.docs.dto.LineCountRebuildStatus;
+import com.dockey.docs.dto.LineCountReconcileStatus;
+import com.dockey.docs.services.LineCountRebuildService;
+import com.dockey.docs.services.LineCountReconciliationService;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+@RequestScoped
+@Path("/line-counts")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+@Tag(name = "Line Counts", description = "Line comment count maintenance endpoints")
+public class LineCountResource {
+
+    private static final Logger LOG = LogManager.getLogger(LineCountResource.class.getName());
+
+    @Inject
+    private LineCountRebuildService lineCountRebuildService;
+
+    @Inject
+    private LineCountReconciliationService lineCountReconciliationService;
+
+    @POST
+    @Path("/rebuild")
+    @Operation(summary = "Rebuild line comment counts",
+        description = "Rebuild the line comment counts of all documents from comments-service in the background. " +
+            "Comment events are held until the rebuilt counts are swapped in and applied afterwards.")
+    @APIResponses({
+        @APIResponse(responseCode = "202", description = "Rebuild started"),
+        @APIResponse(responseCode = "409", description = "A rebuild is already running")
+    })
+    public Response startRebuild(
+        @Parameter(description = "Number of document id ranges to load in parallel")
+        @QueryParam("partitions") @DefaultValue("8") int partitions
+    ) {
+        int boundedPartitions = Math.max(1, Math.min(partitions, 256));
+        LOG.info("POST request to rebuild line comment counts with {} partitions", boundedPartitions);
+
+        try {
+            LineCountRebuildStatus status = lineCountRebuildService.start(boundedPartitions);
+            return Response.accepted(status).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT)
+                .entity(Map.of("error", e.getMessage()))
+                .build();
+        }
+    }
+
+    @GET
+    @Path("/rebuild")
+    @Operation(summary = "Get rebuild status", description = "Progress of the running or last line comment count rebuild")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Rebuild status"),
+        @APIResponse(responseCode = "404", description = "No rebuild has run")
+    })
+    public Response getRebuildStatus() {
+        LineCountRebuildStatus status = lineCountRebuildService.getStatus();
+        if (status == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(Map.of("error", "No rebuild has run"))
+                .build();
+        }
+        return Response.ok(status).build();
+    }
+
+    @POST
+    @Path("/reconcile")
+    @Operation(summary = "Reconcile line comment counts",
+        description = "Compare digests of the line comment counts with comments-service and repair only the " +
+            "documents that differ. Also runs on a schedule; only one replica reconciles at a time.")
+    @APIResponses({
+        @APIResponse(responseCode = "202", description = "Reconciliation started"),
+        @APIResponse(responseCode = "409", description = "A reconciliation is already running on this replica")
+    })
+    public Response startReconcile() {
+        LOG.info("POST request to reconcile line comment counts");
+
+        try {
+            LineCountReconcileStatus status = lineCountReconciliationService.start();
+            return Response.accepted(status).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT)
+                .entity(Map.of("error", e.getMessage()))
+                .build();
+        }
+    }
+
+    @GET
+    @Path("/reconcile")
+    @Operation(summary = "Get reconciliation status",
+        description = "Outcome of the running or last line comment count reconciliation on this replica")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Reconciliation status"),
+        @APIResponse(responseCode = "404", description = "No reconciliation has run on this replica")
+    })
+    public Response getReconcileStatus() {
+        LineCountReconcileStatus status = lineCountReconciliationService.getStatus();
+        if (status == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(Map.of("error", "No reconciliation has run"))
+                .build();
+        }
+        return Response.ok(status).build();
+    }
+}
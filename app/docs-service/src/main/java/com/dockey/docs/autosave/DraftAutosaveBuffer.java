@@ -0,0 +1,339 @@
+package com.dockey.docs.autosave;
+
+import com.dockey.docs.dto.DraftAutosaveRequest;
+import com.dockey.docs.entities.Document;
+import com.dockey.docs.services.DocumentService;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Timer;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind buffer for draft autosave.
+ *
+ * Each autosave replaces the document's entry in memory (last write wins) after it has been
+ * appended to a local journal, and the flusher writes an entry to the database once it is
+ * flush-interval old, so a draft being typed into costs one transaction per interval instead
+ * of one per keystroke batch. Publishing or patching a document flushes its entry first; a
+ * full update or delete discards it. Entries left in the journal by a crash are buffered again
+ * on startup. Autosaves of different documents only share the journal's group commit.
+ *
+ * Buffers are per replica. The ingress routes a client to one replica, so its reads see the
+ * drafts it buffered; a flush is skipped if the stored content was saved after the draft, so
+ * a stale draft left on another replica never overwrites a newer one.
+ *
+ * If the journal is unavailable or the buffer is over max-buffered-bytes, edits are written
+ * through instead of buffered.
+ */
+@ApplicationScoped
+public class DraftAutosaveBuffer {
+
+    private static final Logger LOG = LogManager.getLogger(DraftAutosaveBuffer.class.getName());
+    private static final int LOCK_STRIPES = 64;
+
+    @Inject
+    private DocumentService documentService;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "documents.autosave.flush-interval-seconds", defaultValue = "10")
+    private int flushIntervalSeconds;
+
+    @Inject
+    @ConfigProperty(name = "documents.autosave.journal-path", defaultValue = "autosave/drafts.journal")
+    private String journalPath;
+
+    @Inject
+    @ConfigProperty(name = "documents.autosave.journal-fsync", defaultValue = "true")
+    private boolean journalFsync;
+
+    @Inject
+    @ConfigProperty(name = "documents.autosave.max-buffered-bytes", defaultValue = "67108864")
+    private long maxBufferedBytes;
+
+    private final Map<Long, PendingDraft> pending = new ConcurrentHashMap<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    // The journal order of a document's records must match its buffer order, so both change
+    // under the document's journal lock
+    private final Object[] journalLocks = new Object[LOCK_STRIPES];
+    // A flush of a document must not interleave with a discard or another flush of it
+    private final Object[] documentLocks = new Object[LOCK_STRIPES];
+
+    private DraftJournal journal;
+    private ScheduledExecutorService flusher;
+    private Timer flushTimer;
+    private Counter autosaveCounter;
+    private Counter flushCounter;
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            journalLocks[i] = new Object();
+            documentLocks[i] = new Object();
+        }
+        registerMetrics();
+
+        DraftJournal opened = new DraftJournal(Paths.get(journalPath), journalFsync);
+        try {
+            Map<Long, PendingDraft> recovered = opened.open();
+            for (PendingDraft draft : recovered.values()) {
+                pending.put(draft.getDocumentId(), draft);
+                bufferedBytes.addAndGet(draft.getSizeBytes());
+            }
+            sequence.set(opened.getMaxSequence());
+            journal = opened;
+            if (!recovered.isEmpty()) {
+                LOG.info("Recovered {} buffered drafts from autosave journal", recovered.size());
+            }
+        } catch (IOException e) {
+            LOG.error("Autosave journal {} is unavailable, drafts will be written through", journalPath, e);
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "autosave-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushDue, 1, 1, TimeUnit.SECONDS);
+
+        LOG.info("Draft autosave buffer initialized. Flush interval: {}s journal: {} fsync: {}",
+            flushIntervalSeconds, journalPath, journalFsync);
+    }
+
+    /**
+     * Buffer the latest title and content of a draft
+     *
+     * @return when the draft will be written at the latest, or null if it was written through
+     */
+    public Instant buffer(Long documentId, String title, String content) {
+        autosaveCounter.inc();
+        long savedAt = System.currentTimeMillis();
+        if (journal != null && bufferedBytes.get() < maxBufferedBytes) {
+            try {
+                PendingDraft draft = journalDraft(documentId, title, content, savedAt);
+                return Instant.ofEpochMilli(draft.getFirstBufferedAt() + flushIntervalSeconds * 1000L);
+            } catch (IOException e) {
+                LOG.error("Failed to journal draft for docId={}, writing through", documentId, e);
+            }
+        }
+
+        synchronized (lockFor(documentId)) {
+            removePending(documentId);
+            writeDraft(documentId, title, content, savedAt);
+        }
+        return null;
+    }
+
+    /**
+     * Buffer a draft and append it to the journal, then wait until the journal is on disk.
+     * It is buffered first, so a compaction running in between keeps it.
+     */
+    private PendingDraft journalDraft(Long documentId, String title, String content, long savedAt) throws IOException {
+        PendingDraft draft;
+        long position;
+        synchronized (journalLockFor(documentId)) {
+            PendingDraft previous = pending.get(documentId);
+            long firstBufferedAt = previous != null ? previous.getFirstBufferedAt() : savedAt;
+            draft = new PendingDraft(documentId, sequence.incrementAndGet(), title, content, firstBufferedAt, savedAt);
+            pending.put(documentId, draft);
+            bufferedBytes.addAndGet(draft.getSizeBytes() - (previous != null ? previous.getSizeBytes() : 0));
+            position = journal.appendDraft(draft);
+        }
+        journal.sync(position);
+        return draft;
+    }
+
+    /**
+     * Write the buffered draft of a document now, e.g. before it is published or patched
+     *
+     * @return true if there was a draft and it is no longer buffered
+     */
+    public boolean flush(Long documentId) {
+        synchronized (lockFor(documentId)) {
+            PendingDraft draft = pending.get(documentId);
+            if (draft == null) {
+                return false;
+            }
+            try {
+                if (writeDraft(documentId, draft.getTitle(), draft.getContent(), draft.getSavedAt()) == null) {
+                    LOG.warn("Dropping buffered draft for docId={}: document is gone, no longer a draft or saved since", documentId);
+                }
+            } catch (Exception e) {
+                // Stays buffered and journaled, the flusher retries it
+                LOG.error("Failed to flush buffered draft for docId={}", documentId, e);
+                return false;
+            }
+            synchronized (journalLockFor(documentId)) {
+                if (pending.remove(documentId, draft)) {
+                    bufferedBytes.addAndGet(-draft.getSizeBytes());
+                }
+                appendFlushed(documentId, draft.getSequence());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Drop the buffered draft of a document that is being replaced or deleted
+     */
+    public void discard(Long documentId) {
+        synchronized (lockFor(documentId)) {
+            removePending(documentId);
+        }
+    }
+
+    /**
+     * The buffered title and content of a document, or null if nothing is buffered
+     */
+    public DraftAutosaveRequest getPendingDraft(Long documentId) {
+        PendingDraft draft = pending.get(documentId);
+        if (draft == null) {
+            return null;
+        }
+        DraftAutosaveRequest copy = new DraftAutosaveRequest();
+        copy.setTitle(draft.getTitle());
+        copy.setContent(draft.getContent());
+        return copy;
+    }
+
+    public boolean isPending(Long documentId) {
+        return pending.containsKey(documentId);
+    }
+
+    private void flushDue() {
+        long cutoff = System.currentTimeMillis() - flushIntervalSeconds * 1000L;
+        for (PendingDraft draft : new ArrayList<>(pending.values())) {
+            if (draft.getFirstBufferedAt() <= cutoff) {
+                flush(draft.getDocumentId());
+            }
+        }
+
+        if (journal != null) {
+            try {
+                journal.compactIfNeeded(pending.values(), bufferedBytes.get());
+            } catch (IOException e) {
+                LOG.error("Failed to compact autosave journal", e);
+            }
+        }
+    }
+
+    private Document writeDraft(Long documentId, String title, String content, long savedAt) {
+        Timer.Context timer = flushTimer.time();
+        try {
+            Document saved = documentService.saveDraftAsync(documentId, title, content, Instant.ofEpochMilli(savedAt));
+            flushCounter.inc();
+            return saved;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private void removePending(Long documentId) {
+        synchronized (journalLockFor(documentId)) {
+            PendingDraft draft = pending.remove(documentId);
+            if (draft != null) {
+                bufferedBytes.addAndGet(-draft.getSizeBytes());
+                appendFlushed(documentId, draft.getSequence());
+            }
+        }
+    }
+
+    // Not synced: if the record is lost, the replayed draft is older than the stored content
+    // and its flush is skipped
+    private void appendFlushed(Long documentId, long draftSequence) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.appendFlushed(documentId, draftSequence);
+        } catch (IOException e) {
+            LOG.error("Failed to journal flush of docId={}", documentId, e);
+        }
+    }
+
+    private Object lockFor(Long documentId) {
+        return documentLocks[Math.floorMod(documentId.hashCode(), LOCK_STRIPES)];
+    }
+
+    private Object journalLockFor(Long documentId) {
+        return journalLocks[Math.floorMod(documentId.hashCode(), LOCK_STRIPES)];
+    }
+
+    private void registerMetrics() {
+        metricRegistry.register(Metadata.builder()
+                .withName("autosave_buffered_bytes")
+                .withDescription("Bytes of draft content waiting to be written to the database")
+                .withType(MetricType.GAUGE)
+                .withUnit(MetricUnits.BYTES)
+                .build(), (Gauge<Long>) bufferedBytes::get);
+        metricRegistry.register(Metadata.builder()
+                .withName("autosave_buffered_documents")
+                .withDescription("Drafts waiting to be written to the database")
+                .withType(MetricType.GAUGE)
+                .build(), (Gauge<Integer>) pending::size);
+        flushTimer = metricRegistry.timer(Metadata.builder()
+                .withName("autosave_flush_latency")
+                .withDescription("Time to write one draft to the database")
+                .withType(MetricType.TIMER)
+                .withUnit(MetricUnits.NANOSECONDS)
+                .build());
+        autosaveCounter = metricRegistry.counter(Metadata.builder()
+                .withName("autosave_requests_total")
+                .withDescription("Autosave requests received")
+                .withType(MetricType.COUNTER)
+                .build());
+        flushCounter = metricRegistry.counter(Metadata.builder()
+                .withName("autosave_writes_total")
+                .withDescription("Draft writes to the database")
+                .withType(MetricType.COUNTER)
+                .build());
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                if (!flusher.awaitTermination(5, TimeUnit.SECONDS)) {
+                    flusher.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                flusher.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Best effort; whatever fails stays in the journal for the next start
+        for (Long documentId : new ArrayList<>(pending.keySet())) {
+            flush(documentId);
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        LOG.info("Draft autosave buffer shut down, {} drafts left in journal", pending.size());
+    }
+}
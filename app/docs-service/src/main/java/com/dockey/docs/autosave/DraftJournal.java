@@ -0,0 +1,222 @@
+package com.dockey.docs.autosave;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only local journal of buffered drafts, one JSON record per line.
+ *
+ * A "draft" record is written before an edit is acknowledged and a "flushed" record after it
+ * reached the database; on startup the drafts without a later flush are buffered again.
+ * A torn last line from a crash is ignored. The file is rewritten with only the pending
+ * drafts once it has grown well past them.
+ *
+ * Appends are serialized but do not wait for the disk. {@link #sync(long)} does, as a group
+ * commit: one caller forces the file while the others wait, and every record appended before
+ * the force started is covered by it, so concurrent autosaves share one fsync.
+ */
+final class DraftJournal {
+
+    private static final Logger LOG = LogManager.getLogger(DraftJournal.class.getName());
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    private final Path path;
+    private final boolean fsync;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Held while forcing, and by compaction so the channel is not swapped during a force
+    private final Object syncLock = new Object();
+    private FileChannel channel;
+    private long maxSequence;
+    private long appended; // Bytes appended since open, guarded by this
+    private volatile long synced; // Appended bytes known to be on disk
+
+    DraftJournal(Path path, boolean fsync) {
+        this.path = path;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Read the pending drafts left by a previous run and open the journal for appending
+     */
+    Map<Long, PendingDraft> open() throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Map<Long, PendingDraft> pending = new LinkedHashMap<>();
+        if (Files.exists(path)) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replay(line, pending);
+                }
+            }
+        }
+        boolean torn = endsWithTornRecord();
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (torn) {
+            channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+        return pending;
+    }
+
+    /**
+     * @return position to pass to {@link #sync(long)} before the draft is acknowledged
+     */
+    synchronized long appendDraft(PendingDraft draft) throws IOException {
+        appended += write(channel, draftRecord(draft));
+        return appended;
+    }
+
+    synchronized long appendFlushed(Long documentId, long sequence) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("t", "flushed");
+        record.put("id", documentId);
+        record.put("seq", sequence);
+        appended += write(channel, record);
+        return appended;
+    }
+
+    /**
+     * Wait until everything appended up to position is on disk, if the journal fsyncs
+     */
+    void sync(long position) throws IOException {
+        if (!fsync) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return; // Covered by the force of a caller that went first
+            }
+            FileChannel target;
+            long upTo;
+            synchronized (this) {
+                target = channel;
+                upTo = appended;
+            }
+            target.force(false);
+            synced = upTo;
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the given drafts if it has grown to more than twice their size
+     */
+    void compactIfNeeded(Collection<PendingDraft> pending, long pendingBytes) throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (channel.size() < Math.max(MIN_COMPACT_BYTES, pendingBytes * 2)) {
+                    return;
+                }
+                Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+                try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    for (PendingDraft draft : pending) {
+                        write(out, draftRecord(draft));
+                    }
+                    out.force(true);
+                }
+                channel.close();
+                Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                synced = appended;
+                LOG.info("Compacted autosave journal to {} pending drafts", pending.size());
+            }
+        }
+    }
+
+    /**
+     * Highest sequence number seen while replaying, so new records continue after it
+     */
+    long getMaxSequence() {
+        return maxSequence;
+    }
+
+    synchronized void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to close autosave journal", e);
+        }
+    }
+
+    // A record cut short by a crash must be terminated, or it swallows the first record appended after it
+    private boolean endsWithTornRecord() throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = reader.size();
+            if (size == 0) {
+                return false;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            reader.read(last, size - 1);
+            return last.get(0) != '\n';
+        }
+    }
+
+    private Map<String, Object> draftRecord(PendingDraft draft) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("t", "draft");
+        record.put("id", draft.getDocumentId());
+        record.put("seq", draft.getSequence());
+        record.put("title", draft.getTitle());
+        record.put("content", draft.getContent());
+        record.put("at", draft.getFirstBufferedAt());
+        record.put("saved", draft.getSavedAt());
+        return record;
+    }
+
+    private int write(FileChannel target, Map<String, Object> record) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            target.write(bytes);
+        }
+        return bytes.capacity();
+    }
+
+    private void replay(String line, Map<Long, PendingDraft> pending) {
+        JsonNode record;
+        try {
+            record = objectMapper.readTree(line);
+        } catch (IOException e) {
+            LOG.warn("Skipping unreadable autosave journal record");
+            return;
+        }
+        if (record == null || !record.hasNonNull("id")) {
+            return;
+        }
+        Long documentId = record.get("id").asLong();
+        long sequence = record.path("seq").asLong();
+        maxSequence = Math.max(maxSequence, sequence);
+        if ("draft".equals(record.path("t").asText())) {
+            long firstBufferedAt = record.path("at").asLong(System.currentTimeMillis());
+            pending.put(documentId, new PendingDraft(documentId, sequence,
+                record.hasNonNull("title") ? record.get("title").asText() : null,
+                record.path("content").asText(""),
+                firstBufferedAt, record.path("saved").asLong(firstBufferedAt)));
+        } else {
+            PendingDraft draft = pending.get(documentId);
+            if (draft != null && draft.getSequence() <= sequence) {
+                pending.remove(documentId);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.dockey.docs.autosave;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Latest unsaved title and content of a draft. Immutable; a newer edit replaces the whole entry
+ * but keeps firstBufferedAt, so a document being typed into is still written every interval.
+ * savedAt is when the edit was received; a flush is skipped if the stored content is newer.
+ */
+final class PendingDraft {
+
+    private final Long documentId;
+    private final long sequence;
+    private final String title;
+    private final String content;
+    private final long firstBufferedAt;
+    private final long savedAt;
+    private final long sizeBytes;
+
+    PendingDraft(Long documentId, long sequence, String title, String content, long firstBufferedAt, long savedAt) {
+        this.documentId = documentId;
+        this.sequence = sequence;
+        this.title = title;
+        this.content = content;
+        this.firstBufferedAt = firstBufferedAt;
+        this.savedAt = savedAt;
+        this.sizeBytes = (content != null ? content.getBytes(StandardCharsets.UTF_8).length : 0)
+            + (title != null ? title.getBytes(StandardCharsets.UTF_8).length : 0);
+    }
+
+    Long getDocumentId() {
+        return documentId;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    String getContent() {
+        return content;
+    }
+
+    long getFirstBufferedAt() {
+        return firstBufferedAt;
+    }
+
+    long getSavedAt() {
+        return savedAt;
+    }
+
+    long getSizeBytes() {
+        return sizeBytes;
+    }
+}
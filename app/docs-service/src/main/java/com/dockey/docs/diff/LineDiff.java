@@ -0,0 +1,216 @@
+package com.dockey.docs.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Line-based diff (Myers' O(ND) algorithm) and patch application.
+ *
+ * A diff is a list of {@link Hunk}s in ascending order; each replaces oldCount lines starting
+ * at oldStart (0-based) of the old text with newLines. Common prefix and suffix are trimmed
+ * first, so typical edits cost time proportional to the changed region. Pathological inputs
+ * whose edit distance exceeds MAX_EDIT_DISTANCE fall back to a single replacing hunk, which
+ * is still a correct diff, just not a minimal one.
+ */
+public final class LineDiff {
+
+    private static final int MAX_EDIT_DISTANCE = 2000;
+
+    private LineDiff() {
+    }
+
+    /**
+     * Split content into lines. Round-trips exactly with {@link #joinLines(List)}.
+     */
+    public static List<String> splitLines(String content) {
+        if (content == null) {
+            return new ArrayList<>(Collections.singletonList(""));
+        }
+        return new ArrayList<>(Arrays.asList(content.split("\n", -1)));
+    }
+
+    public static String joinLines(List<String> lines) {
+        return String.join("\n", lines);
+    }
+
+    public static List<Hunk> diff(List<String> oldLines, List<String> newLines) {
+        int prefix = 0;
+        while (prefix < oldLines.size() && prefix < newLines.size()
+                && oldLines.get(prefix).equals(newLines.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldLines.size() - prefix && suffix < newLines.size() - prefix
+                && oldLines.get(oldLines.size() - 1 - suffix).equals(newLines.get(newLines.size() - 1 - suffix))) {
+            suffix++;
+        }
+
+        int n = oldLines.size() - prefix - suffix;
+        int m = newLines.size() - prefix - suffix;
+        List<Hunk> hunks = new ArrayList<>();
+        if (n == 0 && m == 0) {
+            return hunks;
+        }
+        if (n == 0 || m == 0) {
+            hunks.add(new Hunk(prefix, n, prefix, copy(newLines, prefix, prefix + m)));
+            return hunks;
+        }
+
+        List<String> a = oldLines.subList(prefix, prefix + n);
+        List<String> b = newLines.subList(prefix, prefix + m);
+        List<int[]> matches = matchingLines(a, b);
+        if (matches == null) {
+            hunks.add(new Hunk(prefix, n, prefix, copy(newLines, prefix, prefix + m)));
+            return hunks;
+        }
+
+        // Gaps between consecutive matched lines are the hunks; (n, m) closes the last gap
+        matches.add(new int[]{n, m});
+        int i = 0;
+        int j = 0;
+        for (int[] match : matches) {
+            if (match[0] > i || match[1] > j) {
+                hunks.add(new Hunk(prefix + i, match[0] - i, prefix + j, copy(b, j, match[1])));
+            }
+            i = match[0] + 1;
+            j = match[1] + 1;
+        }
+        return hunks;
+    }
+
+    /**
+     * Apply hunks produced by {@link #diff(List, List)} to the old lines
+     *
+     * @throws IllegalArgumentException if the hunks do not fit the given lines
+     */
+    public static List<String> apply(List<String> oldLines, List<Hunk> hunks) {
+        List<String> result = new ArrayList<>(oldLines.size());
+        int position = 0;
+        for (Hunk hunk : hunks) {
+            if (hunk.getOldStart() < position || hunk.getOldStart() + hunk.getOldCount() > oldLines.size()) {
+                throw new IllegalArgumentException("Hunk at line " + (hunk.getOldStart() + 1) + " does not apply");
+            }
+            result.addAll(oldLines.subList(position, hunk.getOldStart()));
+            result.addAll(hunk.getNewLines());
+            position = hunk.getOldStart() + hunk.getOldCount();
+        }
+        result.addAll(oldLines.subList(position, oldLines.size()));
+        return result;
+    }
+
+    /**
+     * Myers forward search followed by a backtrack over the saved frontiers.
+     * Returns matched (oldIndex, newIndex) pairs in ascending order, or null if the
+     * edit distance exceeds MAX_EDIT_DISTANCE.
+     */
+    private static List<int[]> matchingLines(List<String> a, List<String> b) {
+        int n = a.size();
+        int m = b.size();
+        int limit = Math.min(n + m, MAX_EDIT_DISTANCE);
+        int offset = limit + 1;
+        int[] v = new int[2 * limit + 3];
+        // trace.get(d) holds the frontier for diagonals -d..d before round d
+        List<int[]> trace = new ArrayList<>();
+
+        int distance = -1;
+        search:
+        for (int d = 0; d <= limit; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    distance = d;
+                    break search;
+                }
+            }
+        }
+        if (distance < 0) {
+            return null;
+        }
+
+        List<int[]> matches = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = distance; d > 0; d--) {
+            int[] frontier = trace.get(d);
+            int k = x - y;
+            int prevK;
+            if (k == -d || (k != d && frontier[k - 1 + d] < frontier[k + 1 + d])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = frontier[prevK + d];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                matches.add(new int[]{x, y});
+            }
+            x = prevX;
+            y = prevY;
+        }
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            matches.add(new int[]{x, y});
+        }
+        Collections.reverse(matches);
+        return matches;
+    }
+
+    private static List<String> copy(List<String> lines, int from, int to) {
+        return new ArrayList<>(lines.subList(from, to));
+    }
+
+    /**
+     * Replace oldCount lines at oldStart (0-based, in the old text) with newLines,
+     * which start at newStart in the new text
+     */
+    public static final class Hunk {
+        private final int oldStart;
+        private final int oldCount;
+        private final int newStart;
+        private final List<String> newLines;
+
+        public Hunk(int oldStart, int oldCount, int newStart, List<String> newLines) {
+            this.oldStart = oldStart;
+            this.oldCount = oldCount;
+            this.newStart = newStart;
+            this.newLines = newLines;
+        }
+
+        public int getOldStart() {
+            return oldStart;
+        }
+
+        public int getOldCount() {
+            return oldCount;
+        }
+
+        public int getNewStart() {
+            return newStart;
+        }
+
+        public int getNewCount() {
+            return newLines.size();
+        }
+
+        public List<String> getNewLines() {
+            return newLines;
+        }
+    }
+}
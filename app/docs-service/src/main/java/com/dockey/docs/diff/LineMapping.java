@@ -0,0 +1,140 @@
+package com.dockey.docs.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maps 1-based line numbers of an old text to the new text, as a compact table of ranges.
+ *
+ * Unchanged lines move by the shift of the region they are in. Inside a changed hunk the old
+ * lines are paired with the replacement lines in order; surplus old lines (deletions) collapse
+ * onto the last replacement line, or onto the line that follows a pure deletion, so anchored
+ * discussions always land next to the text that replaced theirs. Lines that do not move are
+ * not in the table.
+ */
+public final class LineMapping {
+
+    private final List<Range> ranges;
+
+    private LineMapping(List<Range> ranges) {
+        this.ranges = Collections.unmodifiableList(ranges);
+    }
+
+    /**
+     * Build the mapping from the hunks of {@link LineDiff#diff(List, List)}
+     *
+     * @param newLineCount number of lines in the new text
+     */
+    public static LineMapping fromHunks(List<LineDiff.Hunk> hunks, int newLineCount) {
+        List<Range> ranges = new ArrayList<>();
+        int position = 0; // 0-based old index after the previous hunk
+        int shift = 0;
+        for (LineDiff.Hunk hunk : hunks) {
+            if (hunk.getOldStart() > position && shift != 0) {
+                addShift(ranges, position + 1, hunk.getOldStart(), shift);
+            }
+
+            int hunkShift = hunk.getNewStart() - hunk.getOldStart();
+            int paired = Math.min(hunk.getOldCount(), hunk.getNewCount());
+            if (paired > 0 && hunkShift != 0) {
+                addShift(ranges, hunk.getOldStart() + 1, hunk.getOldStart() + paired, hunkShift);
+            }
+            if (hunk.getOldCount() > paired) {
+                int target = hunk.getNewCount() > 0
+                    ? hunk.getNewStart() + hunk.getNewCount()
+                    : Math.max(1, Math.min(hunk.getNewStart() + 1, newLineCount));
+                ranges.add(Range.target(hunk.getOldStart() + paired + 1, hunk.getOldStart() + hunk.getOldCount(), target));
+            }
+
+            position = hunk.getOldStart() + hunk.getOldCount();
+            shift = hunk.getNewStart() + hunk.getNewCount() - position;
+        }
+        if (shift != 0) {
+            // Open-ended, so counts recorded past the old end still follow the text
+            addShift(ranges, position + 1, Integer.MAX_VALUE, shift);
+        }
+        return new LineMapping(ranges);
+    }
+
+    private static void addShift(List<Range> ranges, int from, int to, int shift) {
+        if (!ranges.isEmpty()) {
+            Range last = ranges.get(ranges.size() - 1);
+            if (last.getShift() != null && last.getShift() == shift && last.getTo() + 1 == from) {
+                ranges.set(ranges.size() - 1, Range.shift(last.getFrom(), to, shift));
+                return;
+            }
+        }
+        ranges.add(Range.shift(from, to, shift));
+    }
+
+    public boolean isIdentity() {
+        return ranges.isEmpty();
+    }
+
+    public List<Range> getRanges() {
+        return ranges;
+    }
+
+    public int map(int oldLine) {
+        int low = 0;
+        int high = ranges.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Range range = ranges.get(mid);
+            if (oldLine < range.getFrom()) {
+                high = mid - 1;
+            } else if (oldLine > range.getTo()) {
+                low = mid + 1;
+            } else {
+                return range.apply(oldLine);
+            }
+        }
+        return oldLine;
+    }
+
+    /**
+     * Old lines from..to (inclusive) move either by shift or onto a fixed target line
+     */
+    public static final class Range {
+        private final int from;
+        private final int to;
+        private final Integer shift;
+        private final Integer target;
+
+        private Range(int from, int to, Integer shift, Integer target) {
+            this.from = from;
+            this.to = to;
+            this.shift = shift;
+            this.target = target;
+        }
+
+        public static Range shift(int from, int to, int shift) {
+            return new Range(from, to, shift, null);
+        }
+
+        public static Range target(int from, int to, int target) {
+            return new Range(from, to, null, target);
+        }
+
+        public int apply(int line) {
+            return target != null ? target : line + shift;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        public Integer getShift() {
+            return shift;
+        }
+
+        public Integer getTarget() {
+            return target;
+        }
+    }
+}
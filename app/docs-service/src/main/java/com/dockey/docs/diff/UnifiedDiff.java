@@ -0,0 +1,128 @@
+package com.dockey.docs.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser for unified diffs (as produced by diff -u / git diff) against a single text
+ */
+public final class UnifiedDiff {
+
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@.*");
+
+    private UnifiedDiff() {
+    }
+
+    /**
+     * Parse a unified diff into hunks for {@link LineDiff#apply(List, List)}. Context and removed
+     * lines are checked against the base, so a diff made from other content is rejected. The
+     * hunks hold changed lines only, as those of {@link LineDiff#diff(List, List)} do.
+     *
+     * @throws IllegalArgumentException if the diff is malformed or does not match the base
+     */
+    public static List<LineDiff.Hunk> parse(String diff, List<String> baseLines) {
+        List<LineDiff.Hunk> hunks = new ArrayList<>();
+        String[] lines = diff.split("\n", -1);
+        int i = 0;
+        int lastOldEnd = 0;
+        boolean sawHunk = false;
+
+        while (i < lines.length) {
+            Matcher header = HUNK_HEADER.matcher(lines[i]);
+            if (!header.matches()) {
+                // File headers (---/+++), git metadata and trailing blank line; hunk lines
+                // here are left over from a hunk longer than its header
+                String line = lines[i++];
+                if (line.startsWith(" ") || (line.startsWith("+") && !line.startsWith("+++"))
+                        || (line.startsWith("-") && !line.startsWith("---"))) {
+                    throw new IllegalArgumentException("Line outside a hunk: " + line);
+                }
+                continue;
+            }
+            int oldStartLine = Integer.parseInt(header.group(1));
+            int oldCount = header.group(2) != null ? Integer.parseInt(header.group(2)) : 1;
+            int newStartLine = Integer.parseInt(header.group(3));
+            int newCount = header.group(4) != null ? Integer.parseInt(header.group(4)) : 1;
+            i++;
+            sawHunk = true;
+
+            // For an empty range the header names the line before it
+            int oldStart = oldCount == 0 ? oldStartLine : oldStartLine - 1;
+            int newStart = newCount == 0 ? newStartLine : newStartLine - 1;
+            if (oldStart < lastOldEnd || oldStart + oldCount > baseLines.size()) {
+                throw new IllegalArgumentException("Hunk at line " + oldStartLine + " is out of range");
+            }
+
+            // Context lines are unchanged, so the hunk is split at them into hunks of changed
+            // lines only; otherwise lines after an insertion or deletion would be paired with
+            // the wrong new lines
+            int oldSeen = 0;
+            int newSeen = 0;
+            int changeOldStart = -1;
+            int changeNewStart = -1;
+            List<String> changeLines = new ArrayList<>();
+            while (oldSeen < oldCount || newSeen < newCount) {
+                if (i >= lines.length) {
+                    throw new IllegalArgumentException("Hunk at line " + oldStartLine + " is truncated");
+                }
+                String line = lines[i++];
+                if (line.startsWith("\\")) {
+                    continue; // "\ No newline at end of file"
+                }
+                char kind = line.isEmpty() ? ' ' : line.charAt(0);
+                String text = line.isEmpty() ? "" : line.substring(1);
+                switch (kind) {
+                    case ' ':
+                        expect(baseLines, oldStart + oldSeen, text);
+                        if (changeOldStart >= 0) {
+                            hunks.add(changeHunk(changeOldStart, oldStart + oldSeen, changeNewStart, changeLines));
+                            changeOldStart = -1;
+                            changeLines = new ArrayList<>();
+                        }
+                        oldSeen++;
+                        newSeen++;
+                        break;
+                    case '-':
+                    case '+':
+                        if (changeOldStart < 0) {
+                            changeOldStart = oldStart + oldSeen;
+                            changeNewStart = newStart + newSeen;
+                        }
+                        if (kind == '-') {
+                            expect(baseLines, oldStart + oldSeen++, text);
+                        } else {
+                            changeLines.add(text);
+                            newSeen++;
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected line in hunk: " + line);
+                }
+            }
+            if (oldSeen != oldCount || newSeen != newCount) {
+                throw new IllegalArgumentException("Hunk at line " + oldStartLine + " does not match its header");
+            }
+            if (changeOldStart >= 0) {
+                hunks.add(changeHunk(changeOldStart, oldStart + oldSeen, changeNewStart, changeLines));
+            }
+            lastOldEnd = oldStart + oldCount;
+        }
+
+        if (!sawHunk) {
+            throw new IllegalArgumentException("Diff contains no hunks");
+        }
+        return hunks;
+    }
+
+    private static LineDiff.Hunk changeHunk(int oldStart, int oldEnd, int newStart, List<String> newLines) {
+        return new LineDiff.Hunk(oldStart, oldEnd - oldStart, newStart, newLines);
+    }
+
+    private static void expect(List<String> baseLines, int index, String text) {
+        if (index >= baseLines.size() || !baseLines.get(index).equals(text)) {
+            throw new IllegalArgumentException("Diff does not match line " + (index + 1) + " of the base revision");
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.dockey.docs.dto;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress of a bulk import. Counters are updated while the import runs, so the status
+ * can be polled; lastCommittedLine tells a client where to resume after a failure.
+ */
+public class BulkImportStatus {
+
+    private String importId;
+    private String state; // RUNNING, COMPLETED, FAILED
+    private long linesRead;
+    private long imported;
+    private long rejected;
+    private long lastCommittedLine;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error;
+    private List<LineError> errors = new ArrayList<>();
+
+    public BulkImportStatus() {
+    }
+
+    public BulkImportStatus(String importId) {
+        this.importId = importId;
+        this.state = "RUNNING";
+        this.startedAt = Instant.now();
+    }
+
+    // Getters and Setters
+
+    public String getImportId() {
+        return importId;
+    }
+
+    public void setImportId(String importId) {
+        this.importId = importId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    public void setLinesRead(long linesRead) {
+        this.linesRead = linesRead;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public void setImported(long imported) {
+        this.imported = imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    public long getLastCommittedLine() {
+        return lastCommittedLine;
+    }
+
+    public void setLastCommittedLine(long lastCommittedLine) {
+        this.lastCommittedLine = lastCommittedLine;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public List<LineError> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<LineError> errors) {
+        this.errors = errors;
+    }
+
+    /**
+     * A rejected line of the input (1-based)
+     */
+    public static class LineError {
+        private long line;
+        private String error;
+
+        public LineError() {
+        }
+
+        public LineError(long line, String error) {
+            this.line = line;
+            this.error = error;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public void setLine(long line) {
+            this.line = line;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public void setError(String error) {
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.dockey.docs.dto;
+
+import java.util.List;
+
+public class DocumentDiffResponse {
+
+    private Long documentId;
+    private Integer fromRevision;
+    private Integer toRevision;
+    private List<Hunk> hunks;
+
+    public DocumentDiffResponse() {
+    }
+
+    public DocumentDiffResponse(Long documentId, Integer fromRevision, Integer toRevision, List<Hunk> hunks) {
+        this.documentId = documentId;
+        this.fromRevision = fromRevision;
+        this.toRevision = toRevision;
+        this.hunks = hunks;
+    }
+
+    // Getters and Setters
+
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(Long documentId) {
+        this.documentId = documentId;
+    }
+
+    public Integer getFromRevision() {
+        return fromRevision;
+    }
+
+    public void setFromRevision(Integer fromRevision) {
+        this.fromRevision = fromRevision;
+    }
+
+    public Integer getToRevision() {
+        return toRevision;
+    }
+
+    public void setToRevision(Integer toRevision) {
+        this.toRevision = toRevision;
+    }
+
+    public List<Hunk> getHunks() {
+        return hunks;
+    }
+
+    public void setHunks(List<Hunk> hunks) {
+        this.hunks = hunks;
+    }
+
+    /**
+     * A changed region. Line numbers are 1-based; a count of 0 means a pure insertion or deletion.
+     */
+    public static class Hunk {
+        private int oldStart;
+        private int oldCount;
+        private int newStart;
+        private int newCount;
+        private List<String> removed;
+        private List<String> added;
+
+        public Hunk() {
+        }
+
+        public Hunk(int oldStart, int oldCount, int newStart, int newCount, List<String> removed, List<String> added) {
+            this.oldStart = oldStart;
+            this.oldCount = oldCount;
+            this.newStart = newStart;
+            this.newCount = newCount;
+            this.removed = removed;
+            this.added = added;
+        }
+
+        public int getOldStart() {
+            return oldStart;
+        }
+
+        public void setOldStart(int oldStart) {
+            this.oldStart = oldStart;
+        }
+
+        public int getOldCount() {
+            return oldCount;
+        }
+
+        public void setOldCount(int oldCount) {
+            this.oldCount = oldCount;
+        }
+
+        public int getNewStart() {
+            return newStart;
+        }
+
+        public void setNewStart(int newStart) {
+            this.newStart = newStart;
+        }
+
+        public int getNewCount() {
+            return newCount;
+        }
+
+        public void setNewCount(int newCount) {
+            this.newCount = newCount;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public void setRemoved(List<String> removed) {
+            this.removed = removed;
+        }
+
+        public List<String> getAdded() {
+            return added;
+        }
+
+        public void setAdded(List<String> added) {
+            this.added = added;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.dockey.docs.dto;
+
+import java.util.List;
+
+/**
+ * Partial document update. Content changes are given either as line-range edits or as a
+ * unified diff, both against baseRevision; the patch is rejected if the document has moved on.
+ */
+public class DocumentPatchRequest {
+
+    private Integer baseRevision;
+    private String title;
+    private String status;
+    private List<LineEdit> edits;
+    private String diff;
+
+    public DocumentPatchRequest() {
+    }
+
+    // Getters and Setters
+
+    public Integer getBaseRevision() {
+        return baseRevision;
+    }
+
+    public void setBaseRevision(Integer baseRevision) {
+        this.baseRevision = baseRevision;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public List<LineEdit> getEdits() {
+        return edits;
+    }
+
+    public void setEdits(List<LineEdit> edits) {
+        this.edits = edits;
+    }
+
+    public String getDiff() {
+        return diff;
+    }
+
+    public void setDiff(String diff) {
+        this.diff = diff;
+    }
+
+    /**
+     * Replace lines startLine..endLine (1-based, inclusive) with lines.
+     * Use endLine = startLine - 1 to insert before startLine, and an empty lines list to delete.
+     */
+    public static class LineEdit {
+        private Integer startLine;
+        private Integer endLine;
+        private List<String> lines;
+
+        public LineEdit() {
+        }
+
+        public Integer getStartLine() {
+            return startLine;
+        }
+
+        public void setStartLine(Integer startLine) {
+            this.startLine = startLine;
+        }
+
+        public Integer getEndLine() {
+            return endLine;
+        }
+
+        public void setEndLine(Integer endLine) {
+            this.endLine = endLine;
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+
+        public void setLines(List<String> lines) {
+            this.lines = lines;
+        }
+    }
+}
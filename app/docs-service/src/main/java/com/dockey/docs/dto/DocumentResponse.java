@@ -17,6 +17,8 @@ public class DocumentResponse {
     private Instant createdAt;
     private Instant updatedAt;
     private String status;
+    private Integer revision;
+    private boolean draftPending; // title/content include autosaved edits not yet in revision
     private Map<Integer, Integer> lineCommentCounts;
 
     public DocumentResponse() {
@@ -39,6 +41,7 @@ public class DocumentResponse {
         this.createdAt = document.getCreatedAt();
         this.updatedAt = document.getUpdatedAt();
         this.status = document.getStatus();
+        this.revision = document.getRevision();
         this.lineCommentCounts = lineCommentCounts;
     }
 
@@ -138,4 +141,20 @@ public class DocumentResponse {
     public void setLineCommentCounts(Map<Integer, Integer> lineCommentCounts) {
         this.lineCommentCounts = lineCommentCounts;
     }
+
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+
+    public boolean isDraftPending() {
+        return draftPending;
+    }
+
+    public void setDraftPending(boolean draftPending) {
+        this.draftPending = draftPending;
+    }
 }
@@ -0,0 +1,76 @@
+package com.dockey.docs.dto;
+
+import java.time.Instant;
+
+public class DocumentRevisionResponse {
+
+    private Integer revision;
+    private boolean snapshot;
+    private Integer linesAdded;
+    private Integer linesRemoved;
+    private Integer sizeBytes; // Stored size: full content for snapshots, delta size otherwise
+    private Instant createdAt;
+
+    public DocumentRevisionResponse() {
+    }
+
+    public DocumentRevisionResponse(Integer revision, boolean snapshot, Integer linesAdded,
+                                    Integer linesRemoved, Integer sizeBytes, Instant createdAt) {
+        this.revision = revision;
+        this.snapshot = snapshot;
+        this.linesAdded = linesAdded;
+        this.linesRemoved = linesRemoved;
+        this.sizeBytes = sizeBytes;
+        this.createdAt = createdAt;
+    }
+
+    // Getters and Setters
+
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public Integer getLinesAdded() {
+        return linesAdded;
+    }
+
+    public void setLinesAdded(Integer linesAdded) {
+        this.linesAdded = linesAdded;
+    }
+
+    public Integer getLinesRemoved() {
+        return linesRemoved;
+    }
+
+    public void setLinesRemoved(Integer linesRemoved) {
+        this.linesRemoved = linesRemoved;
+    }
+
+    public Integer getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public void setSizeBytes(Integer sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,150 @@
+package com.dockey.docs.dto;
+
+import java.util.List;
+
+/**
+ * One page of full-text search results, best match first. nextCursor is null on the last page.
+ */
+public class DocumentSearchResponse {
+
+    private String query;
+    private List<Result> results;
+    private String nextCursor;
+
+    public DocumentSearchResponse() {
+    }
+
+    public DocumentSearchResponse(String query, List<Result> results, String nextCursor) {
+        this.query = query;
+        this.results = results;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and Setters
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    public void setResults(List<Result> results) {
+        this.results = results;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public static class Result {
+        private Long id;
+        private String title;
+        private Long groupId;
+        private String status;
+        private float rank;
+        private List<Snippet> snippets;
+
+        public Result() {
+        }
+
+        public Result(Long id, String title, Long groupId, String status, float rank, List<Snippet> snippets) {
+            this.id = id;
+            this.title = title;
+            this.groupId = groupId;
+            this.status = status;
+            this.rank = rank;
+            this.snippets = snippets;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public Long getGroupId() {
+            return groupId;
+        }
+
+        public void setGroupId(Long groupId) {
+            this.groupId = groupId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public void setStatus(String status) {
+            this.status = status;
+        }
+
+        public float getRank() {
+            return rank;
+        }
+
+        public void setRank(float rank) {
+            this.rank = rank;
+        }
+
+        public List<Snippet> getSnippets() {
+            return snippets;
+        }
+
+        public void setSnippets(List<Snippet> snippets) {
+            this.snippets = snippets;
+        }
+    }
+
+    /**
+     * A matching line (1-based) with the matched words wrapped in &lt;mark&gt; tags.
+     * The rest of the text is not escaped.
+     */
+    public static class Snippet {
+        private Integer lineNumber;
+        private String text;
+
+        public Snippet() {
+        }
+
+        public Snippet(Integer lineNumber, String text) {
+            this.lineNumber = lineNumber;
+            this.text = text;
+        }
+
+        public Integer getLineNumber() {
+            return lineNumber;
+        }
+
+        public void setLineNumber(Integer lineNumber) {
+            this.lineNumber = lineNumber;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public void setText(String text) {
+            this.text = text;
+        }
+    }
+}
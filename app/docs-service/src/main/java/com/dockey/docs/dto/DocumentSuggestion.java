@@ -0,0 +1,66 @@
+package com.dockey.docs.dto;
+
+/**
+ * Typeahead entry: a document title or a group display name
+ */
+public class DocumentSuggestion {
+
+    private String type; // DOCUMENT, GROUP
+    private Long id;
+    private String label;
+    private Long groupId; // Documents only
+    private long popularity; // Documents: line comments, groups: documents
+
+    public DocumentSuggestion() {
+    }
+
+    public DocumentSuggestion(String type, Long id, String label, Long groupId, long popularity) {
+        this.type = type;
+        this.id = id;
+        this.label = label;
+        this.groupId = groupId;
+        this.popularity = popularity;
+    }
+
+    // Getters and Setters
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public Long getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(Long groupId) {
+        this.groupId = groupId;
+    }
+
+    public long getPopularity() {
+        return popularity;
+    }
+
+    public void setPopularity(long popularity) {
+        this.popularity = popularity;
+    }
+}
@@ -0,0 +1,31 @@
+package com.dockey.docs.dto;
+
+/**
+ * Full title and content of a draft as currently shown in the editor
+ */
+public class DraftAutosaveRequest {
+
+    private String title;
+    private String content;
+
+    public DraftAutosaveRequest() {
+    }
+
+    // Getters and Setters
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+}
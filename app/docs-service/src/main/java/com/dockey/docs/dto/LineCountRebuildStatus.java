@@ -0,0 +1,107 @@
+package com.dockey.docs.dto;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Progress of a rebuild of the line comment counts from comments-service. Counters are
+ * updated while the rebuild runs, so the status can be polled.
+ */
+public class LineCountRebuildStatus {
+
+    private String rebuildId;
+    private String state; // RUNNING, COMPLETED, FAILED
+    private int partitions;
+    private int partitionsDone;
+    private long rowsLoaded;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error;
+
+    public LineCountRebuildStatus() {
+    }
+
+    public LineCountRebuildStatus(String rebuildId, int partitions) {
+        this.rebuildId = rebuildId;
+        this.partitions = partitions;
+        this.state = "RUNNING";
+        this.startedAt = Instant.now();
+    }
+
+    // Getters and Setters
+
+    public String getRebuildId() {
+        return rebuildId;
+    }
+
+    public void setRebuildId(String rebuildId) {
+        this.rebuildId = rebuildId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    public int getPartitionsDone() {
+        return partitionsDone;
+    }
+
+    public void setPartitionsDone(int partitionsDone) {
+        this.partitionsDone = partitionsDone;
+    }
+
+    public long getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    public void setRowsLoaded(long rowsLoaded) {
+        this.rowsLoaded = rowsLoaded;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * Rows loaded per second since the start, up to the end once finished
+     */
+    public long getRowsPerSecond() {
+        if (startedAt == null) {
+            return 0;
+        }
+        long millis = Duration.between(startedAt, finishedAt != null ? finishedAt : Instant.now()).toMillis();
+        return millis > 0 ? rowsLoaded * 1000 / millis : 0;
+    }
+}
@@ -0,0 +1,102 @@
+package com.dockey.docs.dto;
+
+import java.time.Instant;
+
+/**
+ * Outcome of a reconciliation of the line comment counts with comments-service
+ */
+public class LineCountReconcileStatus {
+
+    private String reconcileId;
+    private String state; // RUNNING, COMPLETED, FAILED, SKIPPED
+    private int rangesCompared;
+    private int documentsMismatched;
+    private int documentsRepaired;
+    private long bytesExchanged;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error;
+
+    public LineCountReconcileStatus() {
+    }
+
+    public LineCountReconcileStatus(String reconcileId) {
+        this.reconcileId = reconcileId;
+        this.state = "RUNNING";
+        this.startedAt = Instant.now();
+    }
+
+    // Getters and Setters
+
+    public String getReconcileId() {
+        return reconcileId;
+    }
+
+    public void setReconcileId(String reconcileId) {
+        this.reconcileId = reconcileId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public int getRangesCompared() {
+        return rangesCompared;
+    }
+
+    public void setRangesCompared(int rangesCompared) {
+        this.rangesCompared = rangesCompared;
+    }
+
+    public int getDocumentsMismatched() {
+        return documentsMismatched;
+    }
+
+    public void setDocumentsMismatched(int documentsMismatched) {
+        this.documentsMismatched = documentsMismatched;
+    }
+
+    public int getDocumentsRepaired() {
+        return documentsRepaired;
+    }
+
+    public void setDocumentsRepaired(int documentsRepaired) {
+        this.documentsRepaired = documentsRepaired;
+    }
+
+    public long getBytesExchanged() {
+        return bytesExchanged;
+    }
+
+    public void setBytesExchanged(long bytesExchanged) {
+        this.bytesExchanged = bytesExchanged;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,79 @@
+package com.dockey.docs.entities;
+
+import javax.persistence.*;
+
+/**
+ * Next Kafka offset to read per consumer group and partition, written in the same
+ * transaction as the changes the consumed records made, so they are applied exactly once.
+ */
+@Entity
+@Table(name = "consumer_offsets",
+    uniqueConstraints = @UniqueConstraint(columnNames = {"consumer_group", "topic", "kafka_partition"}))
+@NamedQueries({
+    @NamedQuery(
+        name = "ConsumerOffset.findByGroupAndTopic",
+        query = "SELECT o FROM ConsumerOffset o WHERE o.consumerGroup = :consumerGroup AND o.topic = :topic"
+    )
+})
+public class ConsumerOffset {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "consumer_group", nullable = false, length = 100)
+    private String consumerGroup;
+
+    @Column(nullable = false, length = 200)
+    private String topic;
+
+    @Column(name = "kafka_partition", nullable = false)
+    private Integer partition;
+
+    @Column(name = "next_offset", nullable = false)
+    private Long nextOffset;
+
+    public ConsumerOffset() {
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+    public void setConsumerGroup(String consumerGroup) {
+        this.consumerGroup = consumerGroup;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public Integer getPartition() {
+        return partition;
+    }
+
+    public void setPartition(Integer partition) {
+        this.partition = partition;
+    }
+
+    public Long getNextOffset() {
+        return nextOffset;
+    }
+
+    public void setNextOffset(Long nextOffset) {
+        this.nextOffset = nextOffset;
+    }
+}
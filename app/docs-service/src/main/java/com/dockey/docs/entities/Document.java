@@ -21,8 +21,11 @@ import java.time.Instant;
 })
 public class Document {
     
+    // Sequence ids (allocated 50 at a time) let Hibernate batch inserts; the column default keeps plain SQL inserts working
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "documents_id_seq")
+    @SequenceGenerator(name = "documents_id_seq", sequenceName = "documents_id_seq", allocationSize = 50)
+    @Column(columnDefinition = "bigint default nextval('documents_id_seq')")
     private Long id;
 
     @ManyToOne(fetch = FetchType.EAGER)
@@ -49,6 +52,15 @@ public class Document {
     
     @Column(nullable = false)
     private String status; // DRAFT, PUBLISHED, ARCHIVED
+
+    @Column
+    private Integer revision; // Latest entry in document_revisions, null for documents without history
+
+    @Column(name = "content_saved_at")
+    private Instant contentSavedAt; // When the stored title and content were last edited by a client
+
+    @Column(name = "lines_remapped_at")
+    private Instant linesRemappedAt; // When an edit last moved line comment counts to other lines
     
     @PrePersist
     protected void onCreate() {
@@ -136,4 +148,28 @@ public class Document {
     public void setStatus(String status) {
         this.status = status;
     }
+
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+
+    public Instant getContentSavedAt() {
+        return contentSavedAt;
+    }
+
+    public void setContentSavedAt(Instant contentSavedAt) {
+        this.contentSavedAt = contentSavedAt;
+    }
+
+    public Instant getLinesRemappedAt() {
+        return linesRemappedAt;
+    }
+
+    public void setLinesRemappedAt(Instant linesRemappedAt) {
+        this.linesRemappedAt = linesRemappedAt;
+    }
 }
@@ -0,0 +1,95 @@
+package com.dockey.docs.entities;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * A document event waiting to be published to dockey-documents. Written in the transaction of
+ * the change it describes, so an event exists exactly when its change was committed, and
+ * deleted once Kafka has acknowledged it.
+ */
+@Entity
+@Table(name = "document_event_outbox")
+@NamedQueries({
+    @NamedQuery(
+        name = "DocumentEventOutbox.findOldest",
+        query = "SELECT e FROM DocumentEventOutbox e ORDER BY e.id"
+    ),
+    @NamedQuery(
+        name = "DocumentEventOutbox.deleteByIds",
+        query = "DELETE FROM DocumentEventOutbox e WHERE e.id IN :ids"
+    )
+})
+public class DocumentEventOutbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "document_id", nullable = false)
+    private Long documentId;
+
+    @Column(name = "event_type", nullable = false, length = 50)
+    private String eventType;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    public DocumentEventOutbox() {
+    }
+
+    public DocumentEventOutbox(Long documentId, String eventType, String payload) {
+        this.documentId = documentId;
+        this.eventType = eventType;
+        this.payload = payload;
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = Instant.now();
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(Long documentId) {
+        this.documentId = documentId;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -8,7 +8,7 @@ import javax.persistence.*;
 @NamedQueries({
     @NamedQuery(
         name = "DocumentLineComment.findByDocumentId",
-        query = "SELECT dlc FROM DocumentLineComment dlc WHERE dlc.documentId = :documentId ORDER BY dlc.lineNumber"
+        query = "SELECT dlc FROM DocumentLineComment dlc WHERE dlc.documentId = :documentId AND dlc.commentCount > 0 ORDER BY dlc.lineNumber"
     ),
     @NamedQuery(
         name = "DocumentLineComment.findByDocumentIdAndLine",
@@ -34,14 +34,21 @@ public class DocumentLineComment {
     @Column(name = "comment_count", nullable = false)
     private Integer commentCount;
 
+    // Comment event version the count came from. Rows whose count dropped to 0 are kept with
+    // their version, so an older event arriving late cannot bring the count back.
+    @Column(name = "line_version", nullable = false)
+    private Long lineVersion;
+
     public DocumentLineComment() {
         this.commentCount = 0;
+        this.lineVersion = 0L;
     }
 
     public DocumentLineComment(Long documentId, Integer lineNumber, Integer commentCount) {
         this.documentId = documentId;
         this.lineNumber = lineNumber;
         this.commentCount = commentCount;
+        this.lineVersion = 0L;
     }
 
     // Getters and Setters
@@ -76,4 +83,12 @@ public class DocumentLineComment {
     public void setCommentCount(Integer commentCount) {
         this.commentCount = commentCount;
     }
+
+    public Long getLineVersion() {
+        return lineVersion;
+    }
+
+    public void setLineVersion(Long lineVersion) {
+        this.lineVersion = lineVersion;
+    }
 }
@@ -0,0 +1,144 @@
+package com.dockey.docs.entities;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * One revision of a document. Snapshots hold the full content; the revisions in between
+ * hold only the line delta from the previous revision (JSON hunks, see DocumentRevisionService).
+ */
+@Entity
+@Table(name = "document_revisions",
+    uniqueConstraints = @UniqueConstraint(columnNames = {"document_id", "revision"}))
+@NamedQueries({
+    @NamedQuery(
+        name = "DocumentRevision.listByDocumentId",
+        query = "SELECT NEW com.dockey.docs.dto.DocumentRevisionResponse(r.revision, r.snapshot, r.linesAdded, " +
+                "r.linesRemoved, r.sizeBytes, r.createdAt) " +
+                "FROM DocumentRevision r WHERE r.documentId = :documentId ORDER BY r.revision DESC"
+    ),
+    @NamedQuery(
+        name = "DocumentRevision.findLatestSnapshotRevision",
+        query = "SELECT MAX(r.revision) FROM DocumentRevision r " +
+                "WHERE r.documentId = :documentId AND r.snapshot = true AND r.revision <= :revision"
+    ),
+    @NamedQuery(
+        name = "DocumentRevision.findRange",
+        query = "SELECT r FROM DocumentRevision r WHERE r.documentId = :documentId " +
+                "AND r.revision BETWEEN :fromRevision AND :toRevision ORDER BY r.revision"
+    ),
+    @NamedQuery(
+        name = "DocumentRevision.deleteByDocumentId",
+        query = "DELETE FROM DocumentRevision r WHERE r.documentId = :documentId"
+    )
+})
+public class DocumentRevision {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "document_revisions_id_seq")
+    @SequenceGenerator(name = "document_revisions_id_seq", sequenceName = "document_revisions_id_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "document_id", nullable = false)
+    private Long documentId;
+
+    @Column(nullable = false)
+    private Integer revision;
+
+    @Column(nullable = false)
+    private boolean snapshot; // true: data is the full content, false: data is a delta
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String data;
+
+    @Column(name = "lines_added", nullable = false)
+    private Integer linesAdded;
+
+    @Column(name = "lines_removed", nullable = false)
+    private Integer linesRemoved;
+
+    @Column(name = "size_bytes", nullable = false)
+    private Integer sizeBytes;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = Instant.now();
+    }
+
+    // Getters and Setters
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(Long documentId) {
+        this.documentId = documentId;
+    }
+
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public void setData(String data) {
+        this.data = data;
+    }
+
+    public Integer getLinesAdded() {
+        return linesAdded;
+    }
+
+    public void setLinesAdded(Integer linesAdded) {
+        this.linesAdded = linesAdded;
+    }
+
+    public Integer getLinesRemoved() {
+        return linesRemoved;
+    }
+
+    public void setLinesRemoved(Integer linesRemoved) {
+        this.linesRemoved = linesRemoved;
+    }
+
+    public Integer getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public void setSizeBytes(Integer sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -30,8 +30,15 @@ public class CheckerClient {
     public boolean checkText(Document document) {
         logger.info("Checking document with id: {}", document.getId());
 
-        Text txtreq = Text.newBuilder().setContents(document.getContent()).build();
+        return checkText(document.getContent());
+    }
+
+    /**
+     * Check a piece of text, e.g. only the lines changed by a patch
+     */
+    public boolean checkText(String contents) {
+        Text txtreq = Text.newBuilder().setContents(contents != null ? contents : "").build();
 
-        return (blockingStub.checkText(txtreq).getResult() != "profane");
+        return !"profane".equals(blockingStub.checkText(txtreq).getResult());
     }
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.dockey.docs.health;
+
+import com.dockey.docs.kafka.CommentEventConsumer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Not ready while the comment event consumer is further behind than kafka.consumer.ready-max-lag,
+ * since line comment counts served in the meantime are visibly stale.
+ *
+ * Only checked once the consumer has caught up after starting. consumer_offsets is recreated
+ * with the schema, so a new instance reads dockey-comments from the beginning and would
+ * otherwise stay unready for as long as that takes.
+ */
+@Readiness
+@ApplicationScoped
+public class CommentConsumerLagHealthCheck implements HealthCheck {
+
+    @Inject
+    private CommentEventConsumer commentEventConsumer;
+
+    @Inject
+    @ConfigProperty(name = "kafka.consumer.ready-max-lag", defaultValue = "10000")
+    private long readyMaxLag;
+
+    private volatile boolean caughtUp = false;
+
+    @Override
+    public HealthCheckResponse call() {
+        long lag = commentEventConsumer.getLag();
+        if (!caughtUp && commentEventConsumer.isLagKnown() && lag <= readyMaxLag) {
+            caughtUp = true;
+        }
+        return HealthCheckResponse.named("comment-consumer-lag")
+            .withData("lag", lag)
+            .withData("max-lag", readyMaxLag)
+            .withData("caught-up", caughtUp)
+            .state(!caughtUp || lag <= readyMaxLag)
+            .build();
+    }
+}
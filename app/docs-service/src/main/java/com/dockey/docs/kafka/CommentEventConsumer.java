@@ -1,157 +1,356 @@
 package com.dockey.docs.kafka;
 
-import com.dockey.docs.services.DocumentLineCommentService;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.dockey.docs.services.DocumentLineCommentService.LineCount;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Meter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricID;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.time.Duration;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Applies the line comment counts of the dockey-comments topic to document_line_comments.
+ *
+ * Each poll is applied in one transaction together with the next offset of every partition it
+ * read (consumer_offsets), and partitions are positioned from those offsets when assigned, so
+ * every event is applied exactly once even across crashes and rebalances. Counts also carry a
+ * version, and an older count never overwrites a newer one. Offsets are committed to Kafka
+ * too, but only so lag shows up in Kafka tooling.
+ *
+ * Events that fail are handed to {@link CommentEventRetryTopics} and retried out of band by
+ * {@link CommentEventRetryConsumer}. While Postgres cannot be reached nothing is handed on,
+ * since every record would fail; the poll is retried instead, backing off up to
+ * MAX_RETRY_BACKOFF_MS.
+ *
+ * Lag, throughput, poll sizes and end-to-end latency are exported on /metrics; lag also
+ * drives {@link com.dockey.docs.health.CommentConsumerLagHealthCheck}.
+ */
 @ApplicationScoped
 public class CommentEventConsumer {
 
     private static final Logger LOG = LogManager.getLogger(CommentEventConsumer.class.getName());
-    private static final String TOPIC = "dockey-comments";
+    private static final String TOPIC = CommentEventRetryTopics.MAIN_TOPIC;
     private static final String GROUP_ID = "docs-service-group";
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final long MAX_RETRY_BACKOFF_MS = 30000;
 
     @Inject
-    private DocumentLineCommentService documentLineCommentService;
+    private CommentEventProcessor commentEventProcessor;
 
-    private KafkaConsumer<String, String> consumer;
-    private ObjectMapper objectMapper;
+    @Inject
+    private CommentEventRetryTopics retryTopics;
+
+    @Inject
+    private ConsumerOffsetStore consumerOffsetStore;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    private KafkaConsumer<String, byte[]> consumer;
     private ExecutorService executor;
     private volatile boolean running = false;
 
+    // Records between the position and the end of each assigned partition, after the last poll
+    private final Map<TopicPartition, Long> partitionLag = new ConcurrentHashMap<>();
+    private Meter consumedMeter;
+    private Histogram batchSizeHistogram;
+    private Histogram endToEndLatencyHistogram;
+
     @PostConstruct
     public void init() {
         Properties props = new Properties();
         String bootstrapServers = System.getenv().getOrDefault("KAFKA_BOOTSTRAP_SERVERS", "localhost:9092");
-        
+
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, GROUP_ID);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "true");
-        props.put(ConsumerConfig.AUTO_COMMIT_INTERVAL_MS_CONFIG, "1000");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
 
         consumer = new KafkaConsumer<>(props);
-        consumer.subscribe(Collections.singletonList(TOPIC));
-        
-        objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule());
-        
+        consumer.subscribe(Collections.singletonList(TOPIC), new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                // Offsets are saved with every applied poll, nothing to flush
+                for (TopicPartition partition : partitions) {
+                    partitionLag.remove(partition);
+                    metricRegistry.remove(new MetricID("comment_events_partition_lag", partitionTag(partition)));
+                }
+            }
+
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                int stored = consumerOffsetStore.seek(consumer, GROUP_ID, partitions);
+                LOG.info("Assigned {} partitions of {}, {} from stored offsets", partitions.size(), TOPIC, stored);
+                for (TopicPartition partition : partitions) {
+                    metricRegistry.remove(new MetricID("comment_events_partition_lag", partitionTag(partition)));
+                    metricRegistry.register(Metadata.builder()
+                            .withName("comment_events_partition_lag")
+                            .withDescription("Comment events not yet read from one partition of dockey-comments")
+                            .withType(MetricType.GAUGE)
+                            .build(),
+                        (Gauge<Long>) () -> partitionLag.getOrDefault(partition, 0L), partitionTag(partition));
+                }
+            }
+        });
+        registerMetrics();
+
         running = true;
         executor = Executors.newSingleThreadExecutor();
         executor.submit(this::consumeMessages);
-        
-        LOG.info("Kafka Comment Event Consumer initialized. Topic: {} Group: {} Bootstrap: {}", 
+
+        LOG.info("Kafka Comment Event Consumer initialized. Topic: {} Group: {} Bootstrap: {}",
             TOPIC, GROUP_ID, bootstrapServers);
     }
 
     private void consumeMessages() {
         LOG.info("Started consuming comment events from topic: {}", TOPIC);
-        
-        while (running) {
-            try {
-                ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(1000));
-                
-                for (ConsumerRecord<String, String> record : records) {
-                    try {
-                        processMessage(record.value());
-                    } catch (Exception e) {
-                        LOG.error("Error processing message: {}", record.value(), e);
-                    }
+
+        int failures = 0;
+        try {
+            while (running) {
+                holdWhileSuspended();
+                ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofMillis(1000));
+                updateLag();
+                if (records.isEmpty()) {
+                    continue;
                 }
-            } catch (Exception e) {
-                if (running) {
-                    LOG.error("Error polling messages", e);
+                try {
+                    applyRecords(records);
+                    failures = 0;
+                } catch (Exception e) {
+                    if (commentEventProcessor.isSuspended()) {
+                        // Held by a rebuild; read again once writes resume
+                        rewind(records);
+                        continue;
+                    }
+                    long backoff = Math.min(RETRY_BACKOFF_MS << Math.min(failures, 5), MAX_RETRY_BACKOFF_MS);
+                    failures++;
+                    LOG.error("Failed to apply {} comment events, retrying in {} ms", records.count(), backoff, e);
+                    rewind(records);
+                    TimeUnit.MILLISECONDS.sleep(backoff);
                 }
             }
+        } catch (WakeupException e) {
+            // Shutting down
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (running) {
+                LOG.error("Comment event consumer stopped", e);
+            }
+        } finally {
+            consumer.close();
         }
-        
+
         LOG.info("Stopped consuming comment events");
     }
 
-    private void processMessage(String messageJson) {
-        try {
-            CommentEventMessage event = objectMapper.readValue(messageJson, CommentEventMessage.class);
-            
-            LOG.info("Received comment event: type={} docId={} line={} count={}", 
-                event.getEventType(), event.getDocId(), event.getLineNumber(), event.getNewCommentCount());
-
-            switch (event.getEventType()) {
-                case "COMMENT_ADDED":
-                case "COMMENT_DELETED":
-                    handleCommentCountChange(event);
-                    break;
-                    
-                case "COMMENT_LIKED":
-                case "COMMENT_UNLIKED":
-                    // Optional: Track engagement metrics
-                    LOG.debug("Comment {} event for commentId: {}", event.getEventType(), event.getCommentId());
-                    break;
-                    
-                default:
-                    LOG.warn("Unknown event type: {}", event.getEventType());
+    /**
+     * Apply the counts of one poll and save the offsets after it in a single transaction.
+     * If that fails, the records are applied one by one and those that still fail are sent
+     * to the first retry tier, so one bad record or a short outage does not hold up the
+     * partition. Records that can never be applied go straight to the dead letter topic.
+     * Records are handed on only once the poll's offsets are saved, so a poll that fails and
+     * is read again does not send them to the retry or dead letter topics twice.
+     */
+    private void applyRecords(ConsumerRecords<String, byte[]> records) {
+        // Latest count per (document, line); partitions keep each document's events in order
+        Map<String, LineCount> counts = new LinkedHashMap<>();
+        Map<LineCount, ConsumerRecord<String, byte[]>> sources = new IdentityHashMap<>();
+        Map<TopicPartition, Long> nextOffsets = new HashMap<>();
+        Map<TopicPartition, OffsetAndMetadata> kafkaOffsets = new HashMap<>();
+        Map<ConsumerRecord<String, byte[]>, Exception> unparseable = new LinkedHashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            try {
+                LineCount count = commentEventProcessor.toLineCount(record);
+                if (count != null) {
+                    sources.put(count, record);
+                    String key = count.getDocumentId() + ":" + count.getLineNumber();
+                    LineCount previous = counts.get(key);
+                    if (previous == null || count.getLineVersion() == 0
+                            || count.getLineVersion() >= previous.getLineVersion()) {
+                        counts.put(key, count);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                unparseable.put(record, e);
             }
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            nextOffsets.put(partition, record.offset() + 1);
+            kafkaOffsets.put(partition, new OffsetAndMetadata(record.offset() + 1));
+        }
+
+        Map<ConsumerRecord<String, byte[]>, Exception> failed = new LinkedHashMap<>();
+        int applied;
+        try {
+            applied = commentEventProcessor.apply(GROUP_ID, counts.values(), nextOffsets).size();
         } catch (Exception e) {
-            LOG.error("Failed to process comment event message", e);
+            if (commentEventProcessor.isSuspended()) {
+                // Suspended mid-poll; rewound and read again once writes resume
+                throw e;
+            }
+            if (!consumerOffsetStore.isReachable()) {
+                throw e;
+            }
+            LOG.warn("Failed to apply {} comment events together, applying them one by one", records.count(), e);
+            applied = 0;
+            for (LineCount count : counts.values()) {
+                try {
+                    applied += commentEventProcessor.apply(GROUP_ID, Collections.singletonList(count),
+                        Collections.emptyMap()).size();
+                } catch (Exception recordError) {
+                    if (!consumerOffsetStore.isReachable()) {
+                        // Went down mid-poll; the counts applied so far are versioned
+                        throw recordError;
+                    }
+                    failed.put(sources.get(count), recordError);
+                }
+            }
+            // Counts are versioned, so if this fails and the poll is retried nothing is applied twice
+            commentEventProcessor.apply(GROUP_ID, Collections.emptyList(), nextOffsets);
+        }
+        // If a send fails, the poll is read again: counts are versioned and the offsets saved again
+        unparseable.forEach(retryTopics::deadLetter);
+        failed.forEach(retryTopics::retry);
+        consumer.commitAsync(kafkaOffsets, null);
+
+        long committedAt = System.currentTimeMillis();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            endToEndLatencyHistogram.update(Math.max(0, committedAt - record.timestamp()));
         }
+        consumedMeter.mark(records.count());
+        batchSizeHistogram.update(records.count());
+
+        LOG.info("Processed {} comment events: {} line counts applied, {} stale, unchanged or retried later",
+            records.count(), applied, counts.size() - applied);
     }
 
-    private void handleCommentCountChange(CommentEventMessage event) {
-        try {
-            // Parse docId as Long (assuming it's the database ID)
-            Long documentId = Long.parseLong(event.getDocId());
-            Integer lineNumber = event.getLineNumber();
-            Integer newCount = event.getNewCommentCount();
-
-            // Use async methods that manage their own EntityManager and transaction
-            // This is required because we're in a background thread
-            if (newCount != null && newCount > 0) {
-                // Update or create line comment count
-                documentLineCommentService.updateLineCommentCountAsync(documentId, lineNumber, newCount);
-            } else if (newCount != null && newCount == 0) {
-                // Delete line comment count when no comments left
-                documentLineCommentService.deleteLineCommentCountAsync(documentId, lineNumber);
+    /**
+     * Stop fetching while line count writes are suspended, and start again after. Paused
+     * partitions keep their assignment, so the group does not rebalance.
+     */
+    private void holdWhileSuspended() {
+        if (commentEventProcessor.isSuspended()) {
+            consumer.pause(consumer.assignment());
+        } else if (!consumer.paused().isEmpty()) {
+            consumer.resume(consumer.paused());
+        }
+    }
+
+    /**
+     * Total comment events not yet read from the assigned partitions, as of the last poll;
+     * 0 before partitions are assigned
+     */
+    public long getLag() {
+        long lag = 0;
+        for (Long partition : partitionLag.values()) {
+            lag += partition;
+        }
+        return lag;
+    }
+
+    /**
+     * Whether a poll has returned the lag of any assigned partition yet
+     */
+    public boolean isLagKnown() {
+        return !partitionLag.isEmpty();
+    }
+
+    /**
+     * Refresh the lag of every assigned partition from the end offsets the last fetch returned.
+     * Partitions with no fetch yet keep their previous value.
+     */
+    private void updateLag() {
+        for (TopicPartition partition : consumer.assignment()) {
+            OptionalLong lag = consumer.currentLag(partition);
+            if (lag.isPresent()) {
+                partitionLag.put(partition, lag.getAsLong());
             }
-            
-            LOG.info("Processed comment count change for docId={} line={} newCount={}", 
-                documentId, lineNumber, newCount);
-                
-        } catch (NumberFormatException e) {
-            LOG.error("Invalid docId format: {}", event.getDocId(), e);
-        } catch (Exception e) {
-            LOG.error("Failed to handle comment count change", e);
+        }
+    }
+
+    private void registerMetrics() {
+        metricRegistry.register(Metadata.builder()
+                .withName("comment_events_consumer_lag")
+                .withDescription("Comment events not yet read from the partitions of dockey-comments assigned to this instance")
+                .withType(MetricType.GAUGE)
+                .build(), (Gauge<Long>) this::getLag);
+        consumedMeter = metricRegistry.meter(Metadata.builder()
+                .withName("comment_events_consumed")
+                .withDescription("Comment events read from dockey-comments and applied or handed to a retry topic")
+                .withType(MetricType.METERED)
+                .build());
+        batchSizeHistogram = metricRegistry.histogram(Metadata.builder()
+                .withName("comment_events_batch_size")
+                .withDescription("Comment events per applied poll")
+                .withType(MetricType.HISTOGRAM)
+                .build());
+        endToEndLatencyHistogram = metricRegistry.histogram(Metadata.builder()
+                .withName("comment_events_end_to_end_latency")
+                .withDescription("Time from a comment event's timestamp to the commit of the poll that read it")
+                .withType(MetricType.HISTOGRAM)
+                .withUnit(MetricUnits.MILLISECONDS)
+                .build());
+    }
+
+    private static Tag partitionTag(TopicPartition partition) {
+        return new Tag("partition", String.valueOf(partition.partition()));
+    }
+
+    /**
+     * Go back to the first record of a poll that was not applied, so the next poll retries it
+     */
+    private void rewind(ConsumerRecords<String, byte[]> records) {
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<String, byte[]>> partitionRecords = records.records(partition);
+            consumer.seek(partition, partitionRecords.get(0).offset());
         }
     }
 
     @PreDestroy
     public void cleanup() {
         running = false;
-        
+
         if (consumer != null) {
             consumer.wakeup();
-            consumer.close();
-            LOG.info("Kafka consumer closed");
         }
-        
+
         if (executor != null) {
             executor.shutdown();
             try {
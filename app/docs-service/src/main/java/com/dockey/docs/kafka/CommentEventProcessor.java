@@ -0,0 +1,230 @@
+package com.dockey.docs.kafka;
+
+import com.dockey.docs.events.CommentEvent;
+import com.dockey.docs.services.AdvisoryLocks;
+import com.dockey.docs.services.DocumentLineCommentService;
+import com.dockey.docs.services.DocumentLineCommentService.LineCount;
+import com.dockey.docs.sse.LineCountStreamRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnit;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Turns comment events into line counts and applies them, shared by the consumer of the
+ * main topic and the consumer of the retry topics.
+ *
+ * Every apply holds the shared advisory lock {@link #WRITE_LOCK} for its transaction. A
+ * rebuild takes it exclusively, which stops the writes of every replica, not just its own;
+ * a replica that finds it taken reports itself suspended for SUSPENDED_RECHECK_MS and then
+ * tries again.
+ */
+@ApplicationScoped
+public class CommentEventProcessor {
+
+    private static final Logger LOG = LogManager.getLogger(CommentEventProcessor.class.getName());
+    // Newest events/comment_events.proto version this service knows
+    private static final int SCHEMA_VERSION = 2;
+    private static final long SUSPENDED_RECHECK_MS = 5000;
+
+    // Advisory lock held shared by every line count write and exclusively by a rebuild
+    public static final String WRITE_LOCK = "line-count-writes";
+
+    @Inject
+    private DocumentLineCommentService documentLineCommentService;
+
+    @Inject
+    private LineCountStreamRegistry lineCountStreamRegistry;
+
+    @Inject
+    private ConsumerOffsetStore consumerOffsetStore;
+
+    @Inject
+    private AdvisoryLocks advisoryLocks;
+
+    @PersistenceUnit(unitName = "docs-jpa-unit")
+    private EntityManagerFactory emf;
+
+    // Applies hold the read lock; suspendWrites takes the write lock to wait them out
+    private final ReentrantReadWriteLock writeGate = new ReentrantReadWriteLock();
+    private volatile boolean suspended = false;
+    private volatile long suspendedElsewhereUntil = 0;
+
+    /**
+     * The line count an event carries, or null if it carries none
+     *
+     * @throws IllegalArgumentException if the event can never be applied: unreadable, or not
+     *                                  about a document of this service
+     */
+    public LineCount toLineCount(ConsumerRecord<String, byte[]> record) {
+        CommentEvent event;
+        try {
+            event = CommentEvent.parseFrom(record.value());
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Unreadable comment event: " + e.getMessage());
+        }
+
+        LOG.debug("Received comment event: type={} docId={} line={} version={}",
+            event.getType(), event.getDocId(), event.getLineNumber(), event.getLineVersion());
+        if (event.getSchemaVersion() > SCHEMA_VERSION) {
+            LOG.debug("Comment event has schema version {}, newer fields are ignored", event.getSchemaVersion());
+        }
+
+        switch (event.getType()) {
+            case COMMENT_ADDED:
+            case COMMENT_DELETED:
+                if (!event.hasNewCommentCount()) {
+                    return null;
+                }
+                try {
+                    // docId is the database ID of the document
+                    return new LineCount(Long.parseLong(event.getDocId()), event.getLineNumber(),
+                        event.getNewCommentCount(), event.getLineVersion());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid docId format: " + event.getDocId());
+                }
+
+            case COMMENT_LIKED:
+            case COMMENT_UNLIKED:
+                // Optional: Track engagement metrics
+                return null;
+
+            default:
+                // UNSPECIFIED, or UNRECOGNIZED for types added after this service was built
+                LOG.warn("Unknown event type: {}", event.getTypeValue());
+                return null;
+        }
+    }
+
+    /**
+     * Apply counts and save the offsets after the records they came from in one transaction,
+     * then push the counts that changed to open document viewers.
+     *
+     * @param counts      at most one per (document, line)
+     * @param nextOffsets next offset to read per partition, saved for consumerGroup
+     * @return the counts that were applied; older than the stored ones are not
+     * @throws IllegalStateException while writes are suspended, here or by another replica
+     */
+    public List<LineCount> apply(String consumerGroup, Collection<LineCount> counts,
+                                 Map<TopicPartition, Long> nextOffsets) {
+        List<LineCount> applied;
+        writeGate.readLock().lock();
+        try {
+            if (suspended) {
+                throw new IllegalStateException("Line count writes are suspended");
+            }
+            EntityManager localEm = emf.createEntityManager();
+            EntityTransaction tx = localEm.getTransaction();
+            try {
+                tx.begin();
+                holdWriteLock(localEm);
+                applied = documentLineCommentService.applyLineCounts(localEm, counts);
+                consumerOffsetStore.save(localEm, consumerGroup, nextOffsets);
+                tx.commit();
+            } catch (Exception e) {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+                throw e;
+            } finally {
+                localEm.close();
+            }
+        } finally {
+            writeGate.readLock().unlock();
+        }
+
+        for (LineCount count : applied) {
+            lineCountStreamRegistry.publish(count.getDocumentId(), count.getLineNumber(), count.getCommentCount());
+        }
+        return applied;
+    }
+
+    /**
+     * Replace the counts of a document with ones recounted from its comments, in one
+     * transaction, and push the lines that changed to open document viewers
+     *
+     * @return the counts that were written, empty if they already matched or are newer
+     * @throws IllegalStateException while writes are suspended, here or by another replica
+     * @see DocumentLineCommentService#replaceLineCounts
+     */
+    public List<LineCount> repair(Long documentId, Map<Integer, Integer> counts, long version) {
+        List<LineCount> written;
+        writeGate.readLock().lock();
+        try {
+            if (suspended) {
+                throw new IllegalStateException("Line count writes are suspended");
+            }
+            EntityManager localEm = emf.createEntityManager();
+            EntityTransaction tx = localEm.getTransaction();
+            try {
+                tx.begin();
+                holdWriteLock(localEm);
+                written = documentLineCommentService.replaceLineCounts(localEm, documentId, counts, version);
+                tx.commit();
+            } catch (Exception e) {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+                throw e;
+            } finally {
+                localEm.close();
+            }
+        } finally {
+            writeGate.readLock().unlock();
+        }
+
+        for (LineCount count : written) {
+            lineCountStreamRegistry.publish(count.getDocumentId(), count.getLineNumber(), count.getCommentCount());
+        }
+        return written;
+    }
+
+    /**
+     * Take the shared write lock for the rest of the transaction
+     *
+     * @throws IllegalStateException if a rebuild holds it
+     */
+    private void holdWriteLock(EntityManager txEm) {
+        if (!advisoryLocks.tryLockShared(txEm, WRITE_LOCK)) {
+            suspendedElsewhereUntil = System.currentTimeMillis() + SUSPENDED_RECHECK_MS;
+            throw new IllegalStateException("Line count writes are suspended by a rebuild on another replica");
+        }
+    }
+
+    /**
+     * Stop applying counts, for a rebuild of document_line_comments. Returns once applies in
+     * progress have finished; consumers hold their partitions until resumeWrites.
+     */
+    public void suspendWrites() {
+        writeGate.writeLock().lock();
+        try {
+            suspended = true;
+        } finally {
+            writeGate.writeLock().unlock();
+        }
+    }
+
+    public void resumeWrites() {
+        suspended = false;
+    }
+
+    /**
+     * Whether writes are suspended here, or were found suspended by another replica within
+     * the last SUSPENDED_RECHECK_MS
+     */
+    public boolean isSuspended() {
+        return suspended || System.currentTimeMillis() < suspendedElsewhereUntil;
+    }
+}
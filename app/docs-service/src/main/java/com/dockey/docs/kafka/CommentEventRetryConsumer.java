@@ -0,0 +1,224 @@
+package com.dockey.docs.kafka;
+
+import com.dockey.docs.services.DocumentLineCommentService.LineCount;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the comment events of the retry topics once their delay has passed.
+ *
+ * A partition whose next record is not due yet is paused until it is, so waiting never blocks
+ * the other partitions or the main consumer. Records are applied one at a time, each in one
+ * transaction with its offset (consumer_offsets) like {@link CommentEventConsumer}; a record
+ * that fails again moves on to the next tier.
+ */
+@ApplicationScoped
+public class CommentEventRetryConsumer {
+
+    private static final Logger LOG = LogManager.getLogger(CommentEventRetryConsumer.class.getName());
+    private static final List<String> TOPICS = Arrays.asList(
+        CommentEventRetryTopics.RETRY_1M_TOPIC, CommentEventRetryTopics.RETRY_10M_TOPIC);
+    private static final String GROUP_ID = "docs-service-retry-group";
+    private static final long RETRY_BACKOFF_MS = 1000;
+
+    @Inject
+    private CommentEventProcessor commentEventProcessor;
+
+    @Inject
+    private CommentEventRetryTopics retryTopics;
+
+    @Inject
+    private ConsumerOffsetStore consumerOffsetStore;
+
+    private KafkaConsumer<String, byte[]> consumer;
+    private ExecutorService executor;
+    private volatile boolean running = false;
+    // Paused partitions and when to resume them, only touched by the consumer thread
+    private final Map<TopicPartition, Long> pausedUntil = new HashMap<>();
+    private boolean holding = false; // all partitions paused while line count writes are suspended
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        Properties props = new Properties();
+        String bootstrapServers = System.getenv().getOrDefault("KAFKA_BOOTSTRAP_SERVERS", "localhost:9092");
+
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, GROUP_ID);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+
+        consumer = new KafkaConsumer<>(props);
+        consumer.subscribe(TOPICS, new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                partitions.forEach(pausedUntil::remove);
+            }
+
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                int stored = consumerOffsetStore.seek(consumer, GROUP_ID, partitions);
+                LOG.info("Assigned {} retry partitions, {} from stored offsets", partitions.size(), stored);
+            }
+        });
+
+        running = true;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "comment-event-retry-consumer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::consumeMessages);
+
+        LOG.info("Kafka Comment Event Retry Consumer initialized. Topics: {} Group: {}", TOPICS, GROUP_ID);
+    }
+
+    private void consumeMessages() {
+        try {
+            while (running) {
+                if (commentEventProcessor.isSuspended()) {
+                    // Partitions waiting for their delay stay paused on resume
+                    consumer.pause(consumer.assignment());
+                    holding = true;
+                } else if (holding) {
+                    List<TopicPartition> held = new ArrayList<>(consumer.paused());
+                    held.removeAll(pausedUntil.keySet());
+                    consumer.resume(held);
+                    holding = false;
+                }
+                if (!holding) {
+                    resumeDuePartitions();
+                }
+                ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofMillis(1000));
+                for (TopicPartition partition : records.partitions()) {
+                    for (ConsumerRecord<String, byte[]> record : records.records(partition)) {
+                        long notBefore = CommentEventRetryTopics.notBefore(record);
+                        if (notBefore > System.currentTimeMillis()) {
+                            pauseAt(record, notBefore);
+                            break;
+                        }
+                        try {
+                            retryRecord(record);
+                        } catch (Exception e) {
+                            LOG.error("Failed to retry comment event from {} partition {} offset {}, retrying",
+                                record.topic(), record.partition(), record.offset(), e);
+                            pauseAt(record, System.currentTimeMillis() + RETRY_BACKOFF_MS);
+                            break;
+                        }
+                    }
+                }
+            }
+        } catch (WakeupException e) {
+            // Shutting down
+        } catch (Exception e) {
+            if (running) {
+                LOG.error("Comment event retry consumer stopped", e);
+            }
+        } finally {
+            consumer.close();
+        }
+
+        LOG.info("Stopped consuming comment event retries");
+    }
+
+    /**
+     * Apply one record, or pass it on to the next tier, and save the offset after it
+     */
+    private void retryRecord(ConsumerRecord<String, byte[]> record) {
+        Map<TopicPartition, Long> nextOffset = Collections.singletonMap(
+            new TopicPartition(record.topic(), record.partition()), record.offset() + 1);
+
+        LineCount count;
+        try {
+            count = commentEventProcessor.toLineCount(record);
+        } catch (IllegalArgumentException e) {
+            retryTopics.deadLetter(record, e);
+            commentEventProcessor.apply(GROUP_ID, Collections.emptyList(), nextOffset);
+            return;
+        }
+
+        try {
+            commentEventProcessor.apply(GROUP_ID,
+                count != null ? Collections.singletonList(count) : Collections.emptyList(), nextOffset);
+        } catch (Exception e) {
+            if (commentEventProcessor.isSuspended() || !consumerOffsetStore.isReachable()) {
+                // Not the record's fault; try it again here instead of using up its tiers
+                throw e;
+            }
+            retryTopics.retry(record, e);
+            commentEventProcessor.apply(GROUP_ID, Collections.emptyList(), nextOffset);
+        }
+    }
+
+    /**
+     * Stop reading a partition until resumeAt, starting again from record
+     */
+    private void pauseAt(ConsumerRecord<String, byte[]> record, long resumeAt) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        consumer.seek(partition, record.offset());
+        consumer.pause(Collections.singletonList(partition));
+        pausedUntil.put(partition, resumeAt);
+    }
+
+    private void resumeDuePartitions() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<TopicPartition, Long>> paused = pausedUntil.entrySet().iterator();
+        while (paused.hasNext()) {
+            Map.Entry<TopicPartition, Long> entry = paused.next();
+            if (entry.getValue() <= now) {
+                consumer.resume(Collections.singletonList(entry.getKey()));
+                paused.remove();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        running = false;
+
+        if (consumer != null) {
+            consumer.wakeup();
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            LOG.info("Retry consumer executor shutdown");
+        }
+    }
+}
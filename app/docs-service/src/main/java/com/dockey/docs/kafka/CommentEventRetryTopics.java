@@ -0,0 +1,279 @@
+package com.dockey.docs.kafka;
+
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Retry tiers for comment events that could not be applied.
+ *
+ * A failed record of dockey-comments goes to dockey-comments-retry-1m, one that fails there
+ * goes to dockey-comments-retry-10m, and one that fails there too, or can never be applied,
+ * goes to dockey-comments-dlq. Each copy keeps the key and value and carries headers with the
+ * original position, the last error and the time before which it must not be retried.
+ */
+@ApplicationScoped
+public class CommentEventRetryTopics {
+
+    private static final Logger LOG = LogManager.getLogger(CommentEventRetryTopics.class.getName());
+
+    public static final String MAIN_TOPIC = "dockey-comments";
+    public static final String RETRY_1M_TOPIC = "dockey-comments-retry-1m";
+    public static final String RETRY_10M_TOPIC = "dockey-comments-retry-10m";
+    public static final String DLQ_TOPIC = "dockey-comments-dlq";
+
+    public static final String HEADER_NOT_BEFORE = "dockey-retry-not-before";
+    private static final String HEADER_ORIGINAL_TOPIC = "dockey-original-topic";
+    private static final String HEADER_ORIGINAL_PARTITION = "dockey-original-partition";
+    private static final String HEADER_ORIGINAL_OFFSET = "dockey-original-offset";
+    private static final String HEADER_ERROR = "dockey-error";
+
+    private static final String REPLAY_GROUP_ID = "docs-service-dlq-replay";
+    private static final int MAX_ERROR_LENGTH = 500;
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+    private static final long REPLAY_TIMEOUT_MS = 30000;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    private Producer<String, byte[]> producer;
+    private String bootstrapServers;
+    private Counter retriedCounter;
+    private Counter deadLetteredCounter;
+    private Counter replayedCounter;
+
+    @PostConstruct
+    public void init() {
+        Properties props = new Properties();
+        bootstrapServers = System.getenv().getOrDefault("KAFKA_BOOTSTRAP_SERVERS", "localhost:9092");
+
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+
+        producer = new KafkaProducer<>(props);
+
+        retriedCounter = metricRegistry.counter(Metadata.builder()
+                .withName("comment_events_retried_total")
+                .withDescription("Comment events sent to a retry topic")
+                .withType(MetricType.COUNTER)
+                .build());
+        deadLetteredCounter = metricRegistry.counter(Metadata.builder()
+                .withName("comment_events_dead_lettered_total")
+                .withDescription("Comment events sent to the dead letter topic")
+                .withType(MetricType.COUNTER)
+                .build());
+        replayedCounter = metricRegistry.counter(Metadata.builder()
+                .withName("comment_events_replayed_total")
+                .withDescription("Comment events replayed from the dead letter topic")
+                .withType(MetricType.COUNTER)
+                .build());
+
+        LOG.info("Comment event retry topics initialized: {}, {}, {}", RETRY_1M_TOPIC, RETRY_10M_TOPIC, DLQ_TOPIC);
+    }
+
+    /**
+     * Send a record that failed to the next tier after the topic it was read from. Returns
+     * once the copy is stored, so the caller can then skip the record.
+     */
+    public void retry(ConsumerRecord<String, byte[]> record, Exception error) {
+        switch (record.topic()) {
+            case MAIN_TOPIC:
+                send(RETRY_1M_TOPIC, record, TimeUnit.MINUTES.toMillis(1), error);
+                retriedCounter.inc();
+                break;
+            case RETRY_1M_TOPIC:
+                send(RETRY_10M_TOPIC, record, TimeUnit.MINUTES.toMillis(10), error);
+                retriedCounter.inc();
+                break;
+            default:
+                deadLetter(record, error);
+        }
+    }
+
+    /**
+     * Send a record that can never be applied straight to the dead letter topic
+     */
+    public void deadLetter(ConsumerRecord<String, byte[]> record, Exception error) {
+        send(DLQ_TOPIC, record, 0, error);
+        deadLetteredCounter.inc();
+        LOG.error("Comment event from {} partition {} offset {} dead-lettered: {}",
+            record.topic(), record.partition(), record.offset(), error.getMessage());
+    }
+
+    /**
+     * Move up to limit records from the dead letter topic back to the first retry tier, due
+     * at once. Records are replayed in order from where the previous replay stopped, up to
+     * the end of the topic when the replay starts.
+     *
+     * @return number of records replayed
+     */
+    public synchronized int replayDeadLetters(int limit) {
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, REPLAY_GROUP_ID);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Math.min(limit, 500));
+
+        try (KafkaConsumer<String, byte[]> replayConsumer = new KafkaConsumer<>(props)) {
+            List<PartitionInfo> partitionInfos = replayConsumer.partitionsFor(DLQ_TOPIC);
+            if (partitionInfos == null || partitionInfos.isEmpty()) {
+                return 0;
+            }
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (PartitionInfo info : partitionInfos) {
+                partitions.add(new TopicPartition(info.topic(), info.partition()));
+            }
+            replayConsumer.assign(partitions);
+            Map<TopicPartition, Long> endOffsets = replayConsumer.endOffsets(partitions);
+
+            Map<TopicPartition, OffsetAndMetadata> replayedOffsets = new HashMap<>();
+            List<Future<RecordMetadata>> sends = new ArrayList<>();
+            long deadline = System.currentTimeMillis() + REPLAY_TIMEOUT_MS;
+            while (sends.size() < limit && System.currentTimeMillis() < deadline
+                    && behind(replayConsumer, partitions, endOffsets)) {
+                for (ConsumerRecord<String, byte[]> record : replayConsumer.poll(Duration.ofMillis(500))) {
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    if (sends.size() >= limit || record.offset() >= endOffsets.get(partition)) {
+                        continue;
+                    }
+                    ProducerRecord<String, byte[]> copy = new ProducerRecord<>(RETRY_1M_TOPIC, record.key(), record.value());
+                    copyHeaders(record.headers(), copy.headers(), HEADER_NOT_BEFORE);
+                    copy.headers().add(HEADER_NOT_BEFORE, bytes(String.valueOf(System.currentTimeMillis())));
+                    sends.add(producer.send(copy));
+                    replayedOffsets.put(partition, new OffsetAndMetadata(record.offset() + 1));
+                }
+            }
+
+            for (Future<RecordMetadata> send : sends) {
+                await(send);
+            }
+            if (!replayedOffsets.isEmpty()) {
+                replayConsumer.commitSync(replayedOffsets);
+            }
+            replayedCounter.inc(sends.size());
+            LOG.info("Replayed {} comment events from {} to {}", sends.size(), DLQ_TOPIC, RETRY_1M_TOPIC);
+            return sends.size();
+        }
+    }
+
+    private void send(String topic, ConsumerRecord<String, byte[]> record, long delayMs, Exception error) {
+        ProducerRecord<String, byte[]> copy = new ProducerRecord<>(topic, record.key(), record.value());
+        Headers headers = copy.headers();
+        copyHeaders(record.headers(), headers, HEADER_NOT_BEFORE, HEADER_ERROR);
+        if (record.headers().lastHeader(HEADER_ORIGINAL_TOPIC) == null) {
+            headers.add(HEADER_ORIGINAL_TOPIC, bytes(record.topic()));
+            headers.add(HEADER_ORIGINAL_PARTITION, bytes(String.valueOf(record.partition())));
+            headers.add(HEADER_ORIGINAL_OFFSET, bytes(String.valueOf(record.offset())));
+        }
+        headers.add(HEADER_NOT_BEFORE, bytes(String.valueOf(System.currentTimeMillis() + delayMs)));
+        headers.add(HEADER_ERROR, bytes(describe(error)));
+        await(producer.send(copy));
+    }
+
+    /**
+     * Epoch millis before which a retry record must not be applied, 0 if it has none
+     */
+    public static long notBefore(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(HEADER_NOT_BEFORE);
+        if (header == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(header.value(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean behind(KafkaConsumer<?, ?> consumer, List<TopicPartition> partitions,
+                                  Map<TopicPartition, Long> endOffsets) {
+        for (TopicPartition partition : partitions) {
+            if (consumer.position(partition) < endOffsets.get(partition)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void copyHeaders(Headers from, Headers to, String... skipped) {
+        for (Header header : from) {
+            boolean skip = false;
+            for (String key : skipped) {
+                skip |= key.equals(header.key());
+            }
+            if (!skip) {
+                to.add(header.key(), header.value());
+            }
+        }
+    }
+
+    private static void await(Future<RecordMetadata> send) {
+        try {
+            send.get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sending comment event to a retry topic", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new RuntimeException("Failed to send comment event to a retry topic", e);
+        }
+    }
+
+    private static String describe(Exception error) {
+        String description = error.getClass().getSimpleName() + ": " + error.getMessage();
+        return description.length() > MAX_ERROR_LENGTH ? description.substring(0, MAX_ERROR_LENGTH) : description;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (producer != null) {
+            producer.close(Duration.ofSeconds(5));
+            LOG.info("Comment event retry producer closed");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.dockey.docs.kafka;
+
+import com.dockey.docs.entities.ConsumerOffset;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kafka consumer positions kept in Postgres (consumer_offsets) instead of in Kafka, so a
+ * consumer can save them in the same transaction as the writes of the records it read.
+ */
+@ApplicationScoped
+public class ConsumerOffsetStore {
+
+    @PersistenceUnit(unitName = "docs-jpa-unit")
+    private EntityManagerFactory emf;
+
+    /**
+     * @return next offset to read per partition; partitions never saved are missing
+     */
+    public Map<Integer, Long> load(String consumerGroup, String topic) {
+        EntityManager localEm = emf.createEntityManager();
+        try {
+            Map<Integer, Long> offsets = new HashMap<>();
+            for (ConsumerOffset offset : localEm.createNamedQuery("ConsumerOffset.findByGroupAndTopic", ConsumerOffset.class)
+                    .setParameter("consumerGroup", consumerGroup)
+                    .setParameter("topic", topic)
+                    .getResultList()) {
+                offsets.put(offset.getPartition(), offset.getNextOffset());
+            }
+            return offsets;
+        } finally {
+            localEm.close();
+        }
+    }
+
+    /**
+     * Record the next offset to read per partition. Must run inside the caller's transaction.
+     */
+    public void save(EntityManager txEm, String consumerGroup, Map<TopicPartition, Long> nextOffsets) {
+        for (Map.Entry<TopicPartition, Long> offset : nextOffsets.entrySet()) {
+            txEm.createNativeQuery(
+                "INSERT INTO consumer_offsets (consumer_group, topic, kafka_partition, next_offset) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (consumer_group, topic, kafka_partition) DO UPDATE SET next_offset = EXCLUDED.next_offset")
+                .setParameter(1, consumerGroup)
+                .setParameter(2, offset.getKey().topic())
+                .setParameter(3, offset.getKey().partition())
+                .setParameter(4, offset.getValue())
+                .executeUpdate();
+        }
+    }
+
+    /**
+     * Whether Postgres answers at all. Tells a record that fails to apply apart from an
+     * outage, in which every record would fail.
+     */
+    public boolean isReachable() {
+        EntityManager localEm = null;
+        try {
+            localEm = emf.createEntityManager();
+            localEm.createNativeQuery("SELECT 1").getSingleResult();
+            return true;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            if (localEm != null) {
+                localEm.close();
+            }
+        }
+    }
+
+    /**
+     * Start newly assigned partitions at their saved offsets. Partitions with no saved offset
+     * have nothing applied yet and are read from the beginning. Call from
+     * ConsumerRebalanceListener.onPartitionsAssigned.
+     *
+     * @return number of partitions positioned from saved offsets
+     */
+    public int seek(Consumer<?, ?> consumer, String consumerGroup, Collection<TopicPartition> partitions) {
+        Map<String, Map<Integer, Long>> stored = new HashMap<>();
+        List<TopicPartition> unseen = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            Long offset = stored.computeIfAbsent(partition.topic(), topic -> load(consumerGroup, topic))
+                .get(partition.partition());
+            if (offset != null) {
+                consumer.seek(partition, offset);
+            } else {
+                unseen.add(partition);
+            }
+        }
+        if (!unseen.isEmpty()) {
+            consumer.seekToBeginning(unseen);
+        }
+        return partitions.size() - unseen.size();
+    }
+}
@@ -0,0 +1,222 @@
+package com.dockey.docs.kafka;
+
+import com.dockey.docs.diff.LineMapping;
+import com.dockey.docs.entities.DocumentEventOutbox;
+import com.dockey.docs.services.AdvisoryLocks;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Publishes document events to dockey-documents through a transactional outbox.
+ *
+ * Events are written to document_event_outbox in the transaction of the change they describe,
+ * so an event is never lost after its change was committed nor sent for a change that was
+ * rolled back. A relay sends them in id order, waits for Kafka to acknowledge each batch and only
+ * then deletes it; a batch that fails is sent again on the next run. One replica relays at a
+ * time, under a Postgres advisory lock ({@link AdvisoryLocks}), so events of a document keep
+ * their order. Callers wake the relay once their transaction is committed; it also runs every
+ * kafka.producer.outbox-poll-interval-ms for events committed by other replicas.
+ */
+@ApplicationScoped
+public class DocumentEventProducer {
+
+    private static final Logger LOG = LogManager.getLogger(DocumentEventProducer.class.getName());
+    private static final String TOPIC = "dockey-documents";
+    private static final String LOCK_NAME = "document-event-outbox";
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+
+    @PersistenceUnit(unitName = "docs-jpa-unit")
+    private EntityManagerFactory emf;
+
+    @Inject
+    private AdvisoryLocks advisoryLocks;
+
+    @Inject
+    @ConfigProperty(name = "kafka.producer.outbox-poll-interval-ms", defaultValue = "1000")
+    private long pollIntervalMs;
+
+    @Inject
+    @ConfigProperty(name = "kafka.producer.outbox-batch-size", defaultValue = "100")
+    private int batchSize;
+
+    private Producer<String, String> producer;
+    private ObjectMapper objectMapper;
+    private ScheduledExecutorService relay;
+    private final AtomicBoolean relayQueued = new AtomicBoolean();
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        Properties props = new Properties();
+        String bootstrapServers = System.getenv().getOrDefault("KAFKA_BOOTSTRAP_SERVERS", "localhost:9092");
+
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.RETRIES_CONFIG, 3);
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+
+        producer = new KafkaProducer<>(props);
+
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+
+        relay = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "document-event-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        relay.scheduleWithFixedDelay(this::relayPending, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+
+        LOG.info("Kafka Document Event Producer initialized with bootstrap servers: {} outbox poll interval: {}ms",
+            bootstrapServers, pollIntervalMs);
+    }
+
+    /**
+     * Queue the line mapping of a document edit so comment anchors can be moved in bulk.
+     * Must run inside the transaction that made the edit.
+     */
+    public void enqueueLinesRemapped(EntityManager txEm, Long documentId, Integer revision, LineMapping mapping) {
+        DocumentEventMessage message = new DocumentEventMessage("LINES_REMAPPED", documentId.toString(), revision);
+        message.setLineMappings(mapping.getRanges().stream()
+            .map(range -> new DocumentEventMessage.LineRange(
+                range.getFrom(), range.getTo(), range.getShift(), range.getTarget()))
+            .collect(Collectors.toList()));
+        enqueue(txEm, documentId, message);
+    }
+
+    /**
+     * Queue the deletion of a document so its comments can be purged.
+     * Must run inside the transaction that deleted it.
+     */
+    public void enqueueDocumentDeleted(EntityManager txEm, Long documentId) {
+        enqueue(txEm, documentId, new DocumentEventMessage("DOCUMENT_DELETED", documentId.toString(), null));
+    }
+
+    private void enqueue(EntityManager txEm, Long documentId, DocumentEventMessage message) {
+        try {
+            txEm.persist(new DocumentEventOutbox(documentId, message.getEventType(),
+                objectMapper.writeValueAsString(message)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize document event", e);
+        }
+    }
+
+    /**
+     * Send the queued events soon. Call once the transaction that queued them is committed.
+     */
+    public void publishPending() {
+        if (relay != null && relayQueued.compareAndSet(false, true)) {
+            relay.execute(this::relayPending);
+        }
+    }
+
+    private void relayPending() {
+        relayQueued.set(false);
+        AdvisoryLocks.Held lock = null;
+        try {
+            lock = advisoryLocks.tryLock(LOCK_NAME);
+            if (lock == null) {
+                return; // Another replica is relaying
+            }
+            int sent;
+            do {
+                sent = relayBatch();
+            } while (sent == batchSize);
+        } catch (Exception e) {
+            LOG.error("Failed to relay document events, retrying in {}ms", pollIntervalMs, e);
+        } finally {
+            if (lock != null) {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * Send the oldest queued events and delete them once Kafka has all of them
+     *
+     * @return the number of events sent
+     */
+    private int relayBatch() throws Exception {
+        List<DocumentEventOutbox> events;
+        EntityManager localEm = emf.createEntityManager();
+        try {
+            events = localEm.createNamedQuery("DocumentEventOutbox.findOldest", DocumentEventOutbox.class)
+                .setMaxResults(batchSize)
+                .getResultList();
+        } finally {
+            localEm.close();
+        }
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        // docId as key so events for the same document stay in order
+        List<Future<RecordMetadata>> sends = new ArrayList<>(events.size());
+        for (DocumentEventOutbox event : events) {
+            sends.add(producer.send(new ProducerRecord<>(TOPIC, event.getDocumentId().toString(), event.getPayload())));
+        }
+        for (Future<RecordMetadata> send : sends) {
+            send.get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        List<Long> ids = events.stream().map(DocumentEventOutbox::getId).collect(Collectors.toList());
+        localEm = emf.createEntityManager();
+        EntityTransaction tx = localEm.getTransaction();
+        try {
+            tx.begin();
+            localEm.createNamedQuery("DocumentEventOutbox.deleteByIds")
+                .setParameter("ids", ids)
+                .executeUpdate();
+            tx.commit();
+        } catch (Exception e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            localEm.close();
+        }
+        LOG.debug("Relayed {} document events", events.size());
+        return events.size();
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (relay != null) {
+            relay.shutdownNow();
+        }
+        if (producer != null) {
+            producer.close();
+            LOG.info("Kafka Document Event Producer closed");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.dockey.docs.kafka;
+
+import com.dockey.docs.events.LineCommentCount;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory line comment counts of every document, materialized from the compacted
+ * dockey-line-counts topic.
+ *
+ * Every replica reads all partitions from the beginning without a consumer group, so each
+ * holds the full view and serves count reads without touching Postgres. Until the replay has
+ * reached the end offsets seen at startup the view is not ready, and callers read the
+ * document_line_comments table instead. The time of the newest record per document is kept
+ * too, so callers can tell whether the view has caught up with a change made elsewhere.
+ */
+@ApplicationScoped
+public class LineCountView {
+
+    private static final Logger LOG = LogManager.getLogger(LineCountView.class.getName());
+    private static final String TOPIC = "dockey-line-counts";
+
+    @Inject
+    @ConfigProperty(name = "documents.line-counts.view-enabled", defaultValue = "true")
+    private boolean enabled;
+
+    private final Map<Long, Map<Integer, Entry>> counts = new ConcurrentHashMap<>();
+    private final Map<Long, Long> lastRecordAt = new ConcurrentHashMap<>();
+    private KafkaConsumer<String, byte[]> consumer;
+    private ExecutorService executor;
+    private volatile boolean running = false;
+    private volatile boolean ready = false;
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        if (!enabled) {
+            LOG.info("Line count view disabled, counts are read from the database");
+            return;
+        }
+        Properties props = new Properties();
+        String bootstrapServers = System.getenv().getOrDefault("KAFKA_BOOTSTRAP_SERVERS", "localhost:9092");
+
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        // comments-service creates the topic as compacted; an auto-created one would not be
+        props.put(ConsumerConfig.ALLOW_AUTO_CREATE_TOPICS_CONFIG, "false");
+        // Large fetches for the startup replay
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 5000);
+        props.put(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, 4 * 1024 * 1024);
+
+        consumer = new KafkaConsumer<>(props);
+
+        running = true;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "line-count-view");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::consumeMessages);
+
+        LOG.info("Line count view initialized. Topic: {} Bootstrap: {}", TOPIC, bootstrapServers);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Lines of a document with at least one comment and their counts, or null while the view
+     * is still replaying the topic or has no record of the document from notBefore on
+     *
+     * @param notBefore time of a change the counts must include, or null
+     */
+    public Map<Integer, Integer> getLineCounts(Long documentId, Instant notBefore) {
+        if (!ready) {
+            return null;
+        }
+        if (notBefore != null && lastRecordAt.getOrDefault(documentId, Long.MIN_VALUE) < notBefore.toEpochMilli()) {
+            return null;
+        }
+        Map<Integer, Integer> result = new HashMap<>();
+        Map<Integer, Entry> lines = counts.get(documentId);
+        if (lines != null) {
+            lines.forEach((line, entry) -> {
+                if (entry.count > 0) {
+                    result.put(line, entry.count);
+                }
+            });
+        }
+        return result;
+    }
+
+    private void consumeMessages() {
+        try {
+            List<TopicPartition> partitions = awaitPartitions();
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> replayEnd = consumer.endOffsets(partitions);
+            long startedAt = System.currentTimeMillis();
+            long replayed = 0;
+
+            while (running) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(1000))) {
+                    apply(record);
+                    replayed++;
+                }
+                if (!ready && caughtUp(partitions, replayEnd)) {
+                    ready = true;
+                    LOG.info("Line count view replayed {} records for {} documents in {}ms",
+                        replayed, counts.size(), System.currentTimeMillis() - startedAt);
+                }
+            }
+        } catch (WakeupException e) {
+            // Shutting down
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (running) {
+                LOG.error("Line count view stopped, counts are read from the database", e);
+            }
+        } finally {
+            ready = false;
+            consumer.close();
+        }
+    }
+
+    /**
+     * Keep the newest count per line. Records without a version always apply, a tombstone
+     * drops the line.
+     */
+    private void apply(ConsumerRecord<String, byte[]> record) {
+        if (record.value() == null) {
+            String[] key = record.key() != null ? record.key().split(":") : new String[0];
+            if (key.length == 2) {
+                try {
+                    lastRecordAt.merge(Long.parseLong(key[0]), record.timestamp(), Math::max);
+                    Map<Integer, Entry> lines = counts.get(Long.parseLong(key[0]));
+                    if (lines != null) {
+                        lines.remove(Integer.parseInt(key[1]));
+                        if (lines.isEmpty()) {
+                            counts.remove(Long.parseLong(key[0]), lines);
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    LOG.warn("Skipping tombstone with invalid key {}", record.key());
+                }
+            }
+            return;
+        }
+
+        LineCommentCount count;
+        long documentId;
+        try {
+            count = LineCommentCount.parseFrom(record.value());
+            documentId = Long.parseLong(count.getDocId());
+        } catch (Exception e) {
+            LOG.warn("Skipping unreadable line count at partition {} offset {}", record.partition(), record.offset());
+            return;
+        }
+        lastRecordAt.merge(documentId, record.timestamp(), Math::max);
+        counts.computeIfAbsent(documentId, id -> new ConcurrentHashMap<>())
+            .merge(count.getLineNumber(), new Entry(count.getCommentCount(), count.getLineVersion()),
+                (current, next) -> next.version == 0 || next.version >= current.version ? next : current);
+    }
+
+    private List<TopicPartition> awaitPartitions() throws InterruptedException {
+        while (running) {
+            List<PartitionInfo> infos = consumer.partitionsFor(TOPIC);
+            if (infos != null && !infos.isEmpty()) {
+                List<TopicPartition> partitions = new ArrayList<>();
+                for (PartitionInfo info : infos) {
+                    partitions.add(new TopicPartition(info.topic(), info.partition()));
+                }
+                return partitions;
+            }
+            LOG.info("Waiting for topic {} to be created", TOPIC);
+            TimeUnit.SECONDS.sleep(10);
+        }
+        return Collections.emptyList();
+    }
+
+    private boolean caughtUp(List<TopicPartition> partitions, Map<TopicPartition, Long> replayEnd) {
+        for (TopicPartition partition : partitions) {
+            if (consumer.position(partition) < replayEnd.get(partition)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        final int count;
+        final long version;
+
+        Entry(int count, long version) {
+            this.count = count;
+            this.version = version;
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        running = false;
+
+        if (consumer != null) {
+            consumer.wakeup();
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            LOG.info("Line count view executor shutdown");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.dockey.docs.services;
+
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Postgres advisory locks shared by the replicas of this service.
+ *
+ * Locks are named. A name is hashed into the second key of a two-key lock whose first key is
+ * fixed, so it cannot collide with other advisory lock users of the database. Exclusive locks
+ * are session-level and held on a pooled connection of their own, outside any transaction, so
+ * a long run keeps no connection idle in transaction; a replica that dies releases them with
+ * its connection. Shared locks are transaction-level and end with the caller's transaction.
+ */
+@ApplicationScoped
+public class AdvisoryLocks {
+
+    private static final Logger LOG = LogManager.getLogger(AdvisoryLocks.class.getName());
+    private static final int NAMESPACE = 0x444F4353; // "DOCS"
+    private static final String DATASOURCE = "jdbc/DocsDS";
+
+    private volatile DataSource dataSource;
+
+    /**
+     * Wait for the exclusive lock
+     *
+     * @return the held lock, released on close
+     */
+    public Held lock(String name) {
+        return acquire(name, true);
+    }
+
+    /**
+     * Take the exclusive lock if no other session holds it
+     *
+     * @return the held lock, released on close, or null if it is held elsewhere
+     */
+    public Held tryLock(String name) {
+        return acquire(name, false);
+    }
+
+    /**
+     * Take the lock shared until the caller's transaction ends, unless a session holds or
+     * waits for it exclusively. Must run inside the caller's transaction.
+     */
+    public boolean tryLockShared(EntityManager txEm, String name) {
+        Object acquired = txEm.createNativeQuery("SELECT pg_try_advisory_xact_lock_shared(?, hashtext(?))")
+            .setParameter(1, NAMESPACE)
+            .setParameter(2, name)
+            .getSingleResult();
+        return Boolean.TRUE.equals(acquired);
+    }
+
+    private Held acquire(String name, boolean wait) {
+        Connection connection = null;
+        try {
+            connection = dataSource().getConnection();
+            connection.setAutoCommit(true);
+            try (PreparedStatement statement = connection.prepareStatement(wait
+                    ? "SELECT pg_advisory_lock(?, hashtext(?)) IS NULL"
+                    : "SELECT pg_try_advisory_lock(?, hashtext(?))")) {
+                statement.setInt(1, NAMESPACE);
+                statement.setString(2, name);
+                try (ResultSet result = statement.executeQuery()) {
+                    result.next();
+                    if (wait || result.getBoolean(1)) {
+                        return new Held(connection, name);
+                    }
+                }
+            }
+            connection.close();
+            return null;
+        } catch (SQLException e) {
+            if (connection != null) {
+                discard(connection);
+            }
+            throw new PersistenceException("Failed to take advisory lock " + name, e);
+        }
+    }
+
+    private DataSource dataSource() {
+        if (dataSource == null) {
+            try {
+                dataSource = (DataSource) new InitialContext().lookup(DATASOURCE);
+            } catch (NamingException e) {
+                throw new PersistenceException("Data source " + DATASOURCE + " not found", e);
+            }
+        }
+        return dataSource;
+    }
+
+    /**
+     * Close a connection that may still hold a lock, so the pool evicts it instead of handing
+     * the lock on to its next user
+     */
+    private static void discard(Connection connection) {
+        try {
+            connection.abort(Runnable::run);
+        } catch (SQLException e) {
+            LOG.warn("Failed to abort advisory lock connection", e);
+        }
+    }
+
+    /**
+     * An exclusive lock held on its own connection
+     */
+    public static final class Held implements AutoCloseable {
+        private final Connection connection;
+        private final String name;
+
+        private Held(Connection connection, String name) {
+            this.connection = connection;
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(?, hashtext(?))")) {
+                statement.setInt(1, NAMESPACE);
+                statement.setString(2, name);
+                statement.executeQuery().close();
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Failed to release advisory lock {}, dropping its connection", name, e);
+                discard(connection);
+            }
+        }
+    }
+}
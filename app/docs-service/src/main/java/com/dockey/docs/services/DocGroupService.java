@@ -1,10 +1,12 @@
 package com.dockey.docs.services;
 
 import com.dockey.docs.entities.DocGroup;
+import com.dockey.docs.suggest.SuggestionIndex;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
@@ -18,6 +20,9 @@ public class DocGroupService {
     
     @PersistenceContext(unitName = "docs-jpa-unit")
     private EntityManager em;
+
+    @Inject
+    private SuggestionIndex suggestionIndex;
     
     /**
      * Get all document groups ordered by display name
@@ -68,6 +73,7 @@ public class DocGroupService {
         em.persist(group);
         em.flush();
         LOG.info("Created group with id: {}", group.getId());
+        suggestionIndex.groupSaved(group);
         return group;
     }
     
@@ -103,6 +109,7 @@ public class DocGroupService {
         em.merge(existingGroup);
         em.flush();
         LOG.info("Updated group with id: {}", id);
+        suggestionIndex.groupSaved(existingGroup);
         return existingGroup;
     }
     
@@ -123,6 +130,7 @@ public class DocGroupService {
         em.remove(group);
         em.flush();
         LOG.info("Deleted group with id: {}", id);
+        suggestionIndex.groupDeleted(id);
         return true;
     }
     
@@ -0,0 +1,334 @@
+package com.dockey.docs.services;
+
+import com.dockey.docs.dto.BulkDocumentRecord;
+import com.dockey.docs.dto.BulkImportStatus;
+import com.dockey.docs.entities.DocGroup;
+import com.dockey.docs.entities.Document;
+import com.dockey.docs.grpc.CheckerClient;
+import com.dockey.docs.suggest.SuggestionIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnit;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bulk import of documents from NDJSON.
+ *
+ * Lines are parsed as they arrive and their content checks run in parallel; every batch-size
+ * accepted documents are inserted in one transaction, which Hibernate sends as JDBC batches
+ * (sequence ids, hibernate.jdbc.batch_size). Rejected lines are reported but do not stop the
+ * import. Progress is kept per import id so it can be polled while the request runs.
+ */
+@ApplicationScoped
+public class DocumentBulkImportService {
+
+    private static final Logger LOG = LogManager.getLogger(DocumentBulkImportService.class.getName());
+    private static final int MAX_TRACKED_IMPORTS = 100;
+    private static final Set<String> STATUSES = Set.of("DRAFT", "PUBLISHED", "ARCHIVED");
+
+    @PersistenceUnit(unitName = "docs-jpa-unit")
+    private EntityManagerFactory emf;
+
+    @Inject
+    private DocumentRevisionService documentRevisionService;
+
+    @Inject
+    private CheckerClient checkerClient;
+
+    @Inject
+    private SuggestionIndex suggestionIndex;
+
+    @Inject
+    @ConfigProperty(name = "documents.bulk.batch-size", defaultValue = "500")
+    private int batchSize;
+
+    @Inject
+    @ConfigProperty(name = "documents.bulk.check-threads", defaultValue = "8")
+    private int checkThreads;
+
+    @Inject
+    @ConfigProperty(name = "documents.bulk.max-errors", defaultValue = "100")
+    private int maxErrors;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Most recent imports, oldest evicted first
+    private final Map<String, BulkImportStatus> imports = new LinkedHashMap<String, BulkImportStatus>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BulkImportStatus> eldest) {
+            return size() > MAX_TRACKED_IMPORTS;
+        }
+    };
+    private ExecutorService checkExecutor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        checkExecutor = Executors.newFixedThreadPool(checkThreads, r -> {
+            Thread thread = new Thread(r, "bulk-import-check-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOG.info("Bulk import service initialized. Batch size: {} check threads: {}", batchSize, checkThreads);
+    }
+
+    /**
+     * Import every line of the input, blocking until the input is consumed
+     *
+     * @return the final status of the import
+     * @throws IllegalStateException if an import with this id is still running
+     */
+    public BulkImportStatus importDocuments(String importId, InputStream input) {
+        BulkImportStatus status = new BulkImportStatus(importId);
+        synchronized (imports) {
+            BulkImportStatus existing = imports.get(importId);
+            if (existing != null && "RUNNING".equals(existing.getState())) {
+                throw new IllegalStateException("Import " + importId + " is already running");
+            }
+            imports.put(importId, status);
+        }
+        LOG.info("Starting bulk import {}", importId);
+
+        Set<Long> groupIds = loadGroupIds();
+        List<PendingRecord> batch = new ArrayList<>(batchSize);
+        long lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                synchronized (status) {
+                    status.setLinesRead(lineNumber);
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                BulkDocumentRecord record;
+                try {
+                    record = objectMapper.readValue(line, BulkDocumentRecord.class);
+                } catch (IOException e) {
+                    reject(status, lineNumber, "Invalid JSON");
+                    continue;
+                }
+                String invalid = validate(record, groupIds);
+                if (invalid != null) {
+                    reject(status, lineNumber, invalid);
+                    continue;
+                }
+
+                batch.add(new PendingRecord(lineNumber, record,
+                    checkExecutor.submit(() -> checkerClient.checkText(record.getContent()))));
+                if (batch.size() >= batchSize) {
+                    insertBatch(status, batch, lineNumber);
+                    batch.clear();
+                }
+            }
+            insertBatch(status, batch, lineNumber);
+            batch.clear();
+
+            synchronized (status) {
+                status.setState("COMPLETED");
+            }
+        } catch (Exception e) {
+            LOG.error("Bulk import {} failed at line {}", importId, lineNumber, e);
+            batch.forEach(pending -> pending.check.cancel(true));
+            synchronized (status) {
+                status.setState("FAILED");
+                status.setError(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (status) {
+            status.setFinishedAt(Instant.now());
+            LOG.info("Bulk import {} {}: {} imported, {} rejected, {} lines",
+                importId, status.getState(), status.getImported(), status.getRejected(), status.getLinesRead());
+            return copyOf(status);
+        }
+    }
+
+    /**
+     * Current progress of an import, or null if the id is unknown
+     */
+    public BulkImportStatus getStatus(String importId) {
+        BulkImportStatus status;
+        synchronized (imports) {
+            status = imports.get(importId);
+        }
+        if (status == null) {
+            return null;
+        }
+        synchronized (status) {
+            return copyOf(status);
+        }
+    }
+
+    /**
+     * Wait for the checks of a batch and insert the accepted documents in one transaction
+     *
+     * @param throughLine last input line covered by this batch
+     */
+    private void insertBatch(BulkImportStatus status, List<PendingRecord> batch, long throughLine)
+            throws InterruptedException {
+        List<PendingRecord> accepted = new ArrayList<>(batch.size());
+        for (PendingRecord pending : batch) {
+            try {
+                if (pending.check.get()) {
+                    accepted.add(pending);
+                } else {
+                    reject(status, pending.line, "Document may contain inappropriate content");
+                }
+            } catch (ExecutionException e) {
+                LOG.warn("Content check failed for bulk import line {}", pending.line, e.getCause());
+                reject(status, pending.line, "Content check failed");
+            }
+        }
+
+        if (!accepted.isEmpty()) {
+            EntityManager localEm = emf.createEntityManager();
+            EntityTransaction tx = localEm.getTransaction();
+            List<Document> inserted = new ArrayList<>(accepted.size());
+            try {
+                tx.begin();
+                for (PendingRecord pending : accepted) {
+                    Document document = toDocument(localEm, pending.record);
+                    localEm.persist(document);
+                    documentRevisionService.recordInitialRevision(localEm, document);
+                    inserted.add(document);
+                }
+                tx.commit();
+                suggestionIndex.documentsSaved(inserted);
+            } catch (Exception e) {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+                throw e;
+            } finally {
+                localEm.close();
+            }
+        }
+
+        synchronized (status) {
+            status.setImported(status.getImported() + accepted.size());
+            status.setLastCommittedLine(throughLine);
+        }
+        LOG.debug("Bulk import {} committed {} documents through line {}",
+            status.getImportId(), accepted.size(), throughLine);
+    }
+
+    private Document toDocument(EntityManager txEm, BulkDocumentRecord record) {
+        Document document = new Document();
+        document.setTitle(record.getTitle());
+        document.setSource(record.getSource());
+        document.setContent(record.getContent());
+        document.setUserId(record.getUserId());
+        document.setStatus(record.getStatus());
+        if (record.getGroupId() != null) {
+            document.setDocGroup(txEm.getReference(DocGroup.class, record.getGroupId()));
+        }
+        // Set before persist so the insert carries it instead of a follow-up update
+        document.setRevision(1);
+        return document;
+    }
+
+    private String validate(BulkDocumentRecord record, Set<Long> groupIds) {
+        if (record == null || record.getTitle() == null || record.getUserId() == null) {
+            return "Title and userId are required";
+        }
+        if (record.getGroupId() != null && !groupIds.contains(record.getGroupId())) {
+            return "Unknown groupId " + record.getGroupId();
+        }
+        if (record.getStatus() != null && !STATUSES.contains(record.getStatus())) {
+            return "Invalid status " + record.getStatus();
+        }
+        return null;
+    }
+
+    private void reject(BulkImportStatus status, long line, String error) {
+        synchronized (status) {
+            status.setRejected(status.getRejected() + 1);
+            if (status.getErrors().size() < maxErrors) {
+                status.getErrors().add(new BulkImportStatus.LineError(line, error));
+            }
+        }
+    }
+
+    private Set<Long> loadGroupIds() {
+        EntityManager localEm = emf.createEntityManager();
+        try {
+            return new HashSet<>(localEm.createQuery("SELECT g.id FROM DocGroup g", Long.class).getResultList());
+        } finally {
+            localEm.close();
+        }
+    }
+
+    private static BulkImportStatus copyOf(BulkImportStatus status) {
+        BulkImportStatus copy = new BulkImportStatus();
+        copy.setImportId(status.getImportId());
+        copy.setState(status.getState());
+        copy.setLinesRead(status.getLinesRead());
+        copy.setImported(status.getImported());
+        copy.setRejected(status.getRejected());
+        copy.setLastCommittedLine(status.getLastCommittedLine());
+        copy.setStartedAt(status.getStartedAt());
+        copy.setFinishedAt(status.getFinishedAt());
+        copy.setError(status.getError());
+        copy.setErrors(new ArrayList<>(status.getErrors()));
+        return copy;
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (checkExecutor != null) {
+            checkExecutor.shutdown();
+            try {
+                if (!checkExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    checkExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                checkExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class PendingRecord {
+        private final long line;
+        private final BulkDocumentRecord record;
+        private final Future<Boolean> check;
+
+        private PendingRecord(long line, BulkDocumentRecord record, Future<Boolean> check) {
+            this.line = line;
+            this.record = record;
+            this.check = check;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.dockey.docs.services;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.Session;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnit;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/**
+ * Streams documents as NDJSON straight from a forward-only JDBC cursor.
+ *
+ * Rows are fetched fetch-size at a time and written as they arrive, without entities or a
+ * persistence context, so memory use does not depend on the size of the export. The export
+ * runs in a read-only repeatable-read transaction and so is a consistent snapshot. Records use
+ * the same field names as the bulk import and can be imported again as they are.
+ */
+@ApplicationScoped
+public class DocumentExportService {
+
+    private static final Logger LOG = LogManager.getLogger(DocumentExportService.class.getName());
+
+    private static final String EXPORT_SQL =
+        "SELECT d.id, d.group_id, g.name AS group_name, d.title, d.source, d.status, d.user_id, d.revision, " +
+        "d.created_at, d.updated_at, d.content, " +
+        "(SELECT json_object_agg(c.line_number, c.comment_count ORDER BY c.line_number) " +
+        " FROM document_line_comments c WHERE c.document_id = d.id AND c.comment_count > 0) AS line_comment_counts " +
+        "FROM documents d LEFT JOIN doc_groups g ON g.id = d.group_id ";
+
+    @PersistenceUnit(unitName = "docs-jpa-unit")
+    private EntityManagerFactory emf;
+
+    @Inject
+    @ConfigProperty(name = "documents.export.fetch-size", defaultValue = "200")
+    private int fetchSize;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Write every document (of one group, if groupId is given) to out, one JSON object per line
+     *
+     * @return number of documents written
+     */
+    public long export(Long groupId, OutputStream out) throws IOException {
+        String sql = EXPORT_SQL + (groupId != null ? "WHERE d.group_id = ? " : "") + "ORDER BY d.id";
+        long[] written = new long[1];
+
+        EntityManager localEm = emf.createEntityManager();
+        EntityTransaction tx = localEm.getTransaction();
+        try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.setRootValueSeparator(null);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+            tx.begin();
+            localEm.unwrap(Session.class).doWork(connection -> {
+                try (Statement setup = connection.createStatement()) {
+                    setup.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+                }
+                // The driver only streams with a fetch size inside a transaction (autocommit off)
+                try (PreparedStatement statement = connection.prepareStatement(sql,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    statement.setFetchSize(fetchSize);
+                    if (groupId != null) {
+                        statement.setLong(1, groupId);
+                    }
+                    try (ResultSet rows = statement.executeQuery()) {
+                        while (rows.next()) {
+                            writeRecord(generator, rows);
+                            written[0]++;
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            tx.commit();
+        } catch (UncheckedIOException e) {
+            // Client went away mid-stream
+            throw e.getCause();
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            localEm.close();
+        }
+
+        LOG.info("Exported {} documents{}", written[0], groupId != null ? " of group " + groupId : "");
+        return written[0];
+    }
+
+    private void writeRecord(JsonGenerator generator, ResultSet rows) throws SQLException, IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", rows.getLong("id"));
+        writeLong(generator, "groupId", rows, "group_id");
+        generator.writeStringField("groupName", rows.getString("group_name"));
+        generator.writeStringField("title", rows.getString("title"));
+        generator.writeStringField("source", rows.getString("source"));
+        generator.writeStringField("status", rows.getString("status"));
+        writeLong(generator, "userId", rows, "user_id");
+        writeLong(generator, "revision", rows, "revision");
+        writeTimestamp(generator, "createdAt", rows.getTimestamp("created_at"));
+        writeTimestamp(generator, "updatedAt", rows.getTimestamp("updated_at"));
+        generator.writeStringField("content", rows.getString("content"));
+
+        String lineCommentCounts = rows.getString("line_comment_counts");
+        generator.writeFieldName("lineCommentCounts");
+        generator.writeRawValue(lineCommentCounts != null ? lineCommentCounts : "{}");
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private static void writeLong(JsonGenerator generator, String field, ResultSet rows, String column)
+            throws SQLException, IOException {
+        long value = rows.getLong(column);
+        if (rows.wasNull()) {
+            generator.writeNullField(field);
+        } else {
+            generator.writeNumberField(field, value);
+        }
+    }
+
+    private static void writeTimestamp(JsonGenerator generator, String field, Timestamp value) throws IOException {
+        if (value == null) {
+            generator.writeNullField(field);
+        } else {
+            generator.writeStringField(field, value.toInstant().toString());
+        }
+    }
+}
@@ -1,20 +1,28 @@
 package com.dockey.docs.services;
 
+import com.dockey.docs.diff.LineMapping;
 import com.dockey.docs.entities.DocumentLineComment;
+import com.dockey.docs.kafka.LineCountView;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
+import org.hibernate.Session;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.EntityTransaction;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
-import javax.persistence.PersistenceUnit;
-import javax.transaction.Transactional;
+import javax.persistence.Query;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @ApplicationScoped
 public class DocumentLineCommentService {
@@ -24,86 +32,117 @@ public class DocumentLineCommentService {
     @PersistenceContext(unitName = "docs-jpa-unit")
     private EntityManager em;
 
-    @PersistenceUnit(unitName = "docs-jpa-unit")
-    private EntityManagerFactory emf;
+    @Inject
+    private LineCountView lineCountView;
 
     /**
-     * Update or create a line comment count entry using a NEW EntityManager.
-     * This method manages its own transaction and is safe to call from background threads.
+     * Apply line counts from comment events in one statement. A count replaces the stored one
+     * only if its version is newer, so late or replayed events are dropped; a count of 0 is
+     * stored rather than deleted to keep its version. Events without a version (0) always
+     * apply, and counts of documents that no longer exist are dropped. Must run inside the
+     * caller's transaction.
+     *
+     * @param counts at most one per (document, line)
+     * @return the counts that were applied
      */
-    public void updateLineCommentCountAsync(Long documentId, Integer lineNumber, Integer newCount) {
-        EntityManager localEm = emf.createEntityManager();
-        EntityTransaction tx = localEm.getTransaction();
-        try {
-            tx.begin();
-            
-            // Use native SQL for guaranteed fresh execution
-            int updated = localEm.createNativeQuery(
-                "UPDATE document_line_comments SET comment_count = ? " +
-                "WHERE document_id = ? AND line_number = ?")
-                .setParameter(1, newCount)
-                .setParameter(2, documentId)
-                .setParameter(3, lineNumber)
-                .executeUpdate();
-            
-            if (updated == 0) {
-                // No existing entry, insert new one
-                localEm.createNativeQuery(
-                    "INSERT INTO document_line_comments (document_id, line_number, comment_count) VALUES (?, ?, ?)")
-                    .setParameter(1, documentId)
-                    .setParameter(2, lineNumber)
-                    .setParameter(3, newCount)
-                    .executeUpdate();
-                LOG.info("Created line comment entry: docId={} line={} count={}", documentId, lineNumber, newCount);
-            } else {
-                LOG.info("Updated line comment count: docId={} line={} count={}", documentId, lineNumber, newCount);
-            }
-            
-            tx.commit();
-        } catch (Exception e) {
-            if (tx.isActive()) {
-                tx.rollback();
-            }
-            LOG.error("Failed to update line comment count for docId={} line={}", documentId, lineNumber, e);
-            throw e;
-        } finally {
-            localEm.close();
+    public List<LineCount> applyLineCounts(EntityManager txEm, Collection<LineCount> counts) {
+        if (counts.isEmpty()) {
+            return new ArrayList<>();
         }
+        List<LineCount> applied = upsertLineCounts(txEm, counts,
+            "document_line_comments.line_version < EXCLUDED.line_version OR EXCLUDED.line_version = 0");
+
+        LOG.info("Applied {} of {} line comment counts", applied.size(), counts.size());
+        return applied;
     }
 
     /**
-     * Delete a line comment count entry using a NEW EntityManager.
-     * This method manages its own transaction and is safe to call from background threads.
+     * Make the stored counts of a document equal to counts as of version, from the comments
+     * themselves: lines missing from counts are set to 0. Nothing is written if a newer
+     * version was applied in the meantime. Must run inside the caller's transaction.
+     *
+     * @param counts comment count per line, lines without comments may be left out
+     * @return the counts that were written, empty if none differed
      */
-    public void deleteLineCommentCountAsync(Long documentId, Integer lineNumber) {
-        EntityManager localEm = emf.createEntityManager();
-        EntityTransaction tx = localEm.getTransaction();
-        try {
-            tx.begin();
-            
-            // Use native SQL for guaranteed fresh execution
-            int deleted = localEm.createNativeQuery(
-                "DELETE FROM document_line_comments WHERE document_id = ? AND line_number = ?")
-                .setParameter(1, documentId)
-                .setParameter(2, lineNumber)
-                .executeUpdate();
-            
-            if (deleted > 0) {
-                LOG.info("Deleted line comment entry: docId={} line={}", documentId, lineNumber);
-            } else {
-                LOG.info("No line comment entry to delete: docId={} line={}", documentId, lineNumber);
+    @SuppressWarnings("unchecked")
+    public List<LineCount> replaceLineCounts(EntityManager txEm, Long documentId, Map<Integer, Integer> counts,
+                                             long version) {
+        List<Object[]> rows = txEm.createNativeQuery(
+            "SELECT line_number, comment_count, line_version FROM document_line_comments WHERE document_id = ? FOR UPDATE")
+            .setParameter(1, documentId)
+            .getResultList();
+
+        Map<Integer, Integer> stored = new HashMap<>();
+        for (Object[] row : rows) {
+            if (((Number) row[2]).longValue() > version) {
+                LOG.info("Skipping line count repair of docId={}: stored counts are newer than version {}",
+                    documentId, version);
+                return new ArrayList<>();
             }
-            
-            tx.commit();
-        } catch (Exception e) {
-            if (tx.isActive()) {
-                tx.rollback();
+            stored.put(((Number) row[0]).intValue(), ((Number) row[1]).intValue());
+        }
+
+        List<LineCount> changes = new ArrayList<>();
+        counts.forEach((line, count) -> {
+            if (!count.equals(stored.getOrDefault(line, 0))) {
+                changes.add(new LineCount(documentId, line, count, version));
             }
-            LOG.error("Failed to delete line comment count for docId={} line={}", documentId, lineNumber, e);
-            throw e;
-        } finally {
-            localEm.close();
+        });
+        stored.forEach((line, count) -> {
+            if (count > 0 && !counts.containsKey(line)) {
+                changes.add(new LineCount(documentId, line, 0, version));
+            }
+        });
+        if (changes.isEmpty()) {
+            return changes;
         }
+
+        List<LineCount> written = upsertLineCounts(txEm, changes, "document_line_comments.line_version <= EXCLUDED.line_version");
+        LOG.info("Repaired {} line comment counts of docId={} at version {}", written.size(), documentId, version);
+        return written;
+    }
+
+    /**
+     * Insert counts, or update the stored ones where updateCondition holds
+     */
+    private List<LineCount> upsertLineCounts(EntityManager txEm, Collection<LineCount> counts, String updateCondition) {
+        Long[] documentIds = new Long[counts.size()];
+        Integer[] lineNumbers = new Integer[counts.size()];
+        Integer[] commentCounts = new Integer[counts.size()];
+        Long[] lineVersions = new Long[counts.size()];
+        int i = 0;
+        for (LineCount count : counts) {
+            documentIds[i] = count.getDocumentId();
+            lineNumbers[i] = count.getLineNumber();
+            commentCounts[i] = count.getCommentCount();
+            lineVersions[i] = count.getLineVersion();
+            i++;
+        }
+
+        return txEm.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO document_line_comments (document_id, line_number, comment_count, line_version) " +
+                    "SELECT u.* FROM unnest(?::bigint[], ?::integer[], ?::integer[], ?::bigint[]) " +
+                    "AS u(document_id, line_number, comment_count, line_version) " +
+                    // Key share lock: a concurrent document delete waits for this insert and then removes its rows
+                    "WHERE EXISTS (SELECT 1 FROM documents d WHERE d.id = u.document_id FOR KEY SHARE) " +
+                    "ON CONFLICT (document_id, line_number) DO UPDATE " +
+                    "SET comment_count = EXCLUDED.comment_count, line_version = EXCLUDED.line_version " +
+                    "WHERE " + updateCondition + " " +
+                    "RETURNING document_id, line_number, comment_count, line_version")) {
+                statement.setArray(1, connection.createArrayOf("bigint", documentIds));
+                statement.setArray(2, connection.createArrayOf("integer", lineNumbers));
+                statement.setArray(3, connection.createArrayOf("integer", commentCounts));
+                statement.setArray(4, connection.createArrayOf("bigint", lineVersions));
+                List<LineCount> rows = new ArrayList<>();
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        rows.add(new LineCount(result.getLong(1), result.getInt(2), result.getInt(3), result.getLong(4)));
+                    }
+                }
+                return rows;
+            }
+        });
     }
 
     /**
@@ -182,12 +221,25 @@ public class DocumentLineCommentService {
             .getResultList();
     }
 
+    /**
+     * Comment counts per line of a document, from the line count view once it has caught up
+     * with dockey-line-counts, otherwise from the database. Edits move the counts in the
+     * database right away but in the view only once comments-service has moved the comments,
+     * so the database is also read until the view has counts newer than the last such move.
+     *
+     * @param linesRemappedAt when an edit last moved the document's counts, or null
+     */
     @SuppressWarnings("unchecked")
-    public Map<Integer, Integer> getLineCommentCountsMap(Long documentId) {
+    public Map<Integer, Integer> getLineCommentCountsMap(Long documentId, Instant linesRemappedAt) {
+        Map<Integer, Integer> viewCounts = lineCountView.getLineCounts(documentId, linesRemappedAt);
+        if (viewCounts != null) {
+            return viewCounts;
+        }
+
         // Use native SQL query to completely bypass JPA caching
         // This ensures we always get fresh data from the database
         List<Object[]> results = em.createNativeQuery(
-            "SELECT line_number, comment_count FROM document_line_comments WHERE document_id = ?")
+            "SELECT line_number, comment_count FROM document_line_comments WHERE document_id = ? AND comment_count > 0")
             .setParameter(1, documentId)
             .getResultList();
         
@@ -202,16 +254,148 @@ public class DocumentLineCommentService {
         return countsMap;
     }
 
-    @Transactional
-    public void deleteAllForDocument(Long documentId) {
+    /**
+     * Move the line counts of a document to their new lines after an edit. Counts whose lines
+     * collapse onto the same new line are summed and keep the newest of their versions.
+     * Must run inside the caller's transaction.
+     *
+     * Set-based, independent of the number of rows: one DELETE for rows merged away, one
+     * batched UPDATE that writes the new positions negated (so shifted rows never collide
+     * with the (document_id, line_number) unique constraint mid-statement), and one UPDATE
+     * that flips them back.
+     *
+     * @return number of rows moved or merged
+     */
+    @SuppressWarnings("unchecked")
+    public int remapLines(EntityManager txEm, Long documentId, LineMapping mapping) {
+        List<Object[]> rows = txEm.createNativeQuery(
+            "SELECT line_number, comment_count, line_version FROM document_line_comments WHERE document_id = ? FOR UPDATE")
+            .setParameter(1, documentId)
+            .getResultList();
+
+        // New line -> old lines that land on it
+        Map<Integer, List<long[]>> groups = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            int oldLine = ((Number) row[0]).intValue();
+            int count = ((Number) row[1]).intValue();
+            long version = ((Number) row[2]).longValue();
+            groups.computeIfAbsent(mapping.map(oldLine), k -> new ArrayList<>()).add(new long[]{oldLine, count, version});
+        }
+
+        List<long[]> updates = new ArrayList<>(); // {oldLine, newLine, newCount, newVersion}
+        List<Integer> merged = new ArrayList<>();
+        for (Map.Entry<Integer, List<long[]>> group : groups.entrySet()) {
+            int newLine = group.getKey();
+            List<long[]> members = group.getValue();
+            // Keep the row already on the target line if there is one, so it does not have to move
+            long[] keeper = members.stream().filter(m -> m[0] == newLine).findFirst().orElse(members.get(0));
+            long total = members.stream().mapToLong(m -> m[1]).sum();
+            long version = members.stream().mapToLong(m -> m[2]).max().getAsLong();
+            for (long[] member : members) {
+                if (member != keeper) {
+                    merged.add((int) member[0]);
+                }
+            }
+            if (keeper[0] != newLine || keeper[1] != total || keeper[2] != version) {
+                updates.add(new long[]{keeper[0], newLine, total, version});
+            }
+        }
+
+        if (updates.isEmpty() && merged.isEmpty()) {
+            return 0;
+        }
+
+        if (!merged.isEmpty()) {
+            Query delete = txEm.createNativeQuery(
+                "DELETE FROM document_line_comments WHERE document_id = ? AND line_number IN (" +
+                    merged.stream().map(line -> "?").collect(Collectors.joining(", ")) + ")");
+            delete.setParameter(1, documentId);
+            for (int i = 0; i < merged.size(); i++) {
+                delete.setParameter(i + 2, merged.get(i));
+            }
+            delete.executeUpdate();
+        }
+
+        if (!updates.isEmpty()) {
+            Query update = txEm.createNativeQuery(
+                "UPDATE document_line_comments d " +
+                "SET line_number = -m.new_line, comment_count = m.new_count, line_version = m.new_version " +
+                "FROM (VALUES " +
+                    updates.stream().map(u -> "(CAST(? AS integer), CAST(? AS integer), CAST(? AS integer), CAST(? AS bigint))")
+                        .collect(Collectors.joining(", ")) +
+                ") AS m(old_line, new_line, new_count, new_version) " +
+                "WHERE d.document_id = ? AND d.line_number = m.old_line");
+            int position = 1;
+            for (long[] u : updates) {
+                update.setParameter(position++, (int) u[0]);
+                update.setParameter(position++, (int) u[1]);
+                update.setParameter(position++, (int) u[2]);
+                update.setParameter(position++, u[3]);
+            }
+            update.setParameter(position, documentId);
+            update.executeUpdate();
+
+            txEm.createNativeQuery(
+                "UPDATE document_line_comments SET line_number = -line_number " +
+                "WHERE document_id = ? AND line_number < 0")
+                .setParameter(1, documentId)
+                .executeUpdate();
+        }
+
+        LOG.info("Remapped line comment counts for docId={}: {} moved, {} merged",
+            documentId, updates.size(), merged.size());
+        return updates.size() + merged.size();
+    }
+
+    /**
+     * Delete the line counts of a deleted document. Must run inside the caller's transaction,
+     * after the document row is deleted, so counts applied meanwhile are deleted too.
+     *
+     * @return number of rows deleted
+     */
+    public int deleteAllForDocument(EntityManager txEm, Long documentId) {
         try {
-            int deleted = em.createNamedQuery("DocumentLineComment.deleteByDocumentId")
+            int deleted = txEm.createNamedQuery("DocumentLineComment.deleteByDocumentId")
                 .setParameter("documentId", documentId)
                 .executeUpdate();
             LOG.info("Deleted {} line comment entries for docId={}", deleted, documentId);
+            return deleted;
         } catch (Exception e) {
             LOG.error("Failed to delete line comment entries for docId={}", documentId, e);
             throw e;
         }
     }
+
+    /**
+     * Comment count of one document line, at the comment event version it came from
+     */
+    public static class LineCount {
+        private final Long documentId;
+        private final Integer lineNumber;
+        private final Integer commentCount;
+        private final Long lineVersion;
+
+        public LineCount(Long documentId, Integer lineNumber, Integer commentCount, Long lineVersion) {
+            this.documentId = documentId;
+            this.lineNumber = lineNumber;
+            this.commentCount = commentCount;
+            this.lineVersion = lineVersion;
+        }
+
+        public Long getDocumentId() {
+            return documentId;
+        }
+
+        public Integer getLineNumber() {
+            return lineNumber;
+        }
+
+        public Integer getCommentCount() {
+            return commentCount;
+        }
+
+        public Long getLineVersion() {
+            return lineVersion;
+        }
+    }
 }
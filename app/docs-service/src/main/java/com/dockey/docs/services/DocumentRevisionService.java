@@ -0,0 +1,241 @@
+package com.dockey.docs.services;
+
+import com.dockey.docs.diff.LineDiff;
+import com.dockey.docs.dto.DocumentDiffResponse;
+import com.dockey.docs.dto.DocumentRevisionResponse;
+import com.dockey.docs.entities.Document;
+import com.dockey.docs.entities.DocumentRevision;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Revision history for documents.
+ *
+ * Every snapshot-interval revisions (and whenever a delta would be larger than the content)
+ * the full content is stored; the revisions in between store only the line hunks against the
+ * previous revision, so history grows with the size of the edits. Any revision is rebuilt by
+ * applying the deltas after the nearest snapshot at or before it.
+ */
+@ApplicationScoped
+public class DocumentRevisionService {
+
+    private static final Logger LOG = LogManager.getLogger(DocumentRevisionService.class.getName());
+
+    @PersistenceContext(unitName = "docs-jpa-unit")
+    private EntityManager em;
+
+    @Inject
+    @ConfigProperty(name = "documents.revisions.snapshot-interval", defaultValue = "20")
+    private int snapshotInterval;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public DocumentRevisionService() {
+    }
+
+    DocumentRevisionService(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Store revision 1 of a newly created document. Must run inside the caller's transaction.
+     */
+    public void recordInitialRevision(EntityManager txEm, Document document) {
+        String content = document.getContent() != null ? document.getContent() : "";
+        txEm.persist(newRevision(document.getId(), 1, true, content,
+            LineDiff.splitLines(content).size(), 0));
+        document.setRevision(1);
+    }
+
+    /**
+     * Store a new revision for a document whose content changed from previousContent to its
+     * current content, and bump document.revision. Must run inside the caller's transaction.
+     * Documents that predate revision tracking first get their previous content as revision 1.
+     *
+     * @return the line hunks between the previous and the new content (empty if unchanged)
+     */
+    public List<LineDiff.Hunk> recordRevision(EntityManager txEm, Document document, String previousContent) {
+        return recordRevision(txEm, document, previousContent, null);
+    }
+
+    /**
+     * Same as {@link #recordRevision(EntityManager, Document, String)} for callers that already
+     * know the hunks (e.g. an applied patch), which skips diffing the two versions.
+     */
+    public List<LineDiff.Hunk> recordRevision(EntityManager txEm, Document document, String previousContent,
+                                              List<LineDiff.Hunk> knownHunks) {
+        String oldContent = previousContent != null ? previousContent : "";
+        String newContent = document.getContent() != null ? document.getContent() : "";
+
+        int current = document.getRevision() != null ? document.getRevision() : 0;
+        if (current == 0) {
+            txEm.persist(newRevision(document.getId(), 1, true, oldContent,
+                LineDiff.splitLines(oldContent).size(), 0));
+            current = 1;
+            document.setRevision(current);
+        }
+
+        if (oldContent.equals(newContent)) {
+            return new ArrayList<>();
+        }
+
+        List<LineDiff.Hunk> hunks = knownHunks != null
+            ? knownHunks
+            : LineDiff.diff(LineDiff.splitLines(oldContent), LineDiff.splitLines(newContent));
+        int linesAdded = hunks.stream().mapToInt(LineDiff.Hunk::getNewCount).sum();
+        int linesRemoved = hunks.stream().mapToInt(LineDiff.Hunk::getOldCount).sum();
+
+        int next = current + 1;
+        String delta = serializeHunks(hunks);
+        boolean snapshot = (next - 1) % snapshotInterval == 0 || delta.length() >= newContent.length();
+
+        txEm.persist(newRevision(document.getId(), next, snapshot, snapshot ? newContent : delta,
+            linesAdded, linesRemoved));
+        document.setRevision(next);
+
+        LOG.info("Recorded revision {} for docId={} ({}): +{} -{} lines",
+            next, document.getId(), snapshot ? "snapshot" : "delta", linesAdded, linesRemoved);
+        return hunks;
+    }
+
+    public List<DocumentRevisionResponse> listRevisions(Long documentId) {
+        return em.createNamedQuery("DocumentRevision.listByDocumentId", DocumentRevisionResponse.class)
+            .setParameter("documentId", documentId)
+            .getResultList();
+    }
+
+    /**
+     * Rebuild the content of a revision
+     *
+     * @return the content, or null if the revision does not exist
+     */
+    public String getContentAtRevision(Long documentId, int revision) {
+        List<String> lines = getLinesAtRevision(documentId, revision);
+        return lines != null ? LineDiff.joinLines(lines) : null;
+    }
+
+    /**
+     * Line diff between two revisions of a document
+     *
+     * @return the diff, or null if either revision does not exist
+     */
+    public DocumentDiffResponse diff(Long documentId, int fromRevision, int toRevision) {
+        List<String> fromLines = getLinesAtRevision(documentId, fromRevision);
+        List<String> toLines = getLinesAtRevision(documentId, toRevision);
+        if (fromLines == null || toLines == null) {
+            return null;
+        }
+
+        List<DocumentDiffResponse.Hunk> hunks = new ArrayList<>();
+        for (LineDiff.Hunk hunk : LineDiff.diff(fromLines, toLines)) {
+            hunks.add(new DocumentDiffResponse.Hunk(
+                hunk.getOldStart() + 1,
+                hunk.getOldCount(),
+                hunk.getNewStart() + 1,
+                hunk.getNewCount(),
+                new ArrayList<>(fromLines.subList(hunk.getOldStart(), hunk.getOldStart() + hunk.getOldCount())),
+                hunk.getNewLines()
+            ));
+        }
+        return new DocumentDiffResponse(documentId, fromRevision, toRevision, hunks);
+    }
+
+    /**
+     * Remove the history of a document. Must run inside the caller's transaction.
+     */
+    public void deleteRevisions(EntityManager txEm, Long documentId) {
+        txEm.createNamedQuery("DocumentRevision.deleteByDocumentId")
+            .setParameter("documentId", documentId)
+            .executeUpdate();
+    }
+
+    private List<String> getLinesAtRevision(Long documentId, int revision) {
+        Integer snapshotRevision = em.createNamedQuery("DocumentRevision.findLatestSnapshotRevision", Integer.class)
+            .setParameter("documentId", documentId)
+            .setParameter("revision", revision)
+            .getSingleResult();
+        if (snapshotRevision == null) {
+            return null;
+        }
+
+        List<DocumentRevision> chain = em.createNamedQuery("DocumentRevision.findRange", DocumentRevision.class)
+            .setParameter("documentId", documentId)
+            .setParameter("fromRevision", snapshotRevision)
+            .setParameter("toRevision", revision)
+            .getResultList();
+        if (chain.isEmpty() || chain.get(chain.size() - 1).getRevision() != revision) {
+            return null;
+        }
+        return rebuildLines(chain);
+    }
+
+    /**
+     * Lines of the last revision of a chain that starts at its latest snapshot, by applying
+     * the deltas after it in turn
+     */
+    List<String> rebuildLines(List<DocumentRevision> chain) {
+        List<String> lines = LineDiff.splitLines(chain.get(0).getData());
+        for (DocumentRevision step : chain.subList(1, chain.size())) {
+            lines = LineDiff.apply(lines, deserializeHunks(step.getData()));
+        }
+        return lines;
+    }
+
+    private DocumentRevision newRevision(Long documentId, int revision, boolean snapshot, String data,
+                                         int linesAdded, int linesRemoved) {
+        DocumentRevision entry = new DocumentRevision();
+        entry.setDocumentId(documentId);
+        entry.setRevision(revision);
+        entry.setSnapshot(snapshot);
+        entry.setData(data);
+        entry.setLinesAdded(linesAdded);
+        entry.setLinesRemoved(linesRemoved);
+        entry.setSizeBytes(data.getBytes(StandardCharsets.UTF_8).length);
+        return entry;
+    }
+
+    // Delta format: [{"o": oldStart, "d": oldCount, "n": newStart, "l": [new lines]}, ...]
+    private String serializeHunks(List<LineDiff.Hunk> hunks) {
+        List<Map<String, Object>> out = new ArrayList<>(hunks.size());
+        for (LineDiff.Hunk hunk : hunks) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("o", hunk.getOldStart());
+            entry.put("d", hunk.getOldCount());
+            entry.put("n", hunk.getNewStart());
+            entry.put("l", hunk.getNewLines());
+            out.add(entry);
+        }
+        try {
+            return objectMapper.writeValueAsString(out);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to serialize revision delta", e);
+        }
+    }
+
+    private List<LineDiff.Hunk> deserializeHunks(String data) {
+        try {
+            List<LineDiff.Hunk> hunks = new ArrayList<>();
+            for (JsonNode entry : objectMapper.readTree(data)) {
+                List<String> lines = new ArrayList<>();
+                entry.get("l").forEach(line -> lines.add(line.asText()));
+                hunks.add(new LineDiff.Hunk(entry.get("o").asInt(), entry.get("d").asInt(), entry.get("n").asInt(), lines));
+            }
+            return hunks;
+        } catch (Exception e) {
+            throw new IllegalStateException("Corrupt revision delta", e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.dockey.docs.services;
+
+import com.dockey.docs.dto.DocumentSearchResponse;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Full-text search over document titles and content.
+ *
+ * Matches come from the generated documents.search_vector column and its GIN index
+ * (sql/search.sql), ranked with ts_rank. Pages are cut with a keyset cursor on (rank, id), so
+ * later pages cost the same as the first, and snippets are computed only for the documents
+ * of the returned page: the lines of their content that match the query, with line numbers.
+ */
+@ApplicationScoped
+public class DocumentSearchService {
+
+    private static final Logger LOG = LogManager.getLogger(DocumentSearchService.class.getName());
+    private static final String HEADLINE_OPTIONS = "StartSel=<mark>, StopSel=</mark>, MaxWords=35, MinWords=15";
+
+    @PersistenceContext(unitName = "docs-jpa-unit")
+    private EntityManager em;
+
+    @Inject
+    @ConfigProperty(name = "documents.search.snippets-per-document", defaultValue = "3")
+    private int snippetsPerDocument;
+
+    /**
+     * @param groupId only search this group, if given
+     * @param cursor nextCursor of the previous page, or null for the first page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    @SuppressWarnings("unchecked")
+    public DocumentSearchResponse search(String queryText, Long groupId, String cursor, int limit) {
+        float afterRank = 0;
+        long afterId = 0;
+        if (cursor != null) {
+            String[] parts = decodeCursor(cursor);
+            afterRank = Float.parseFloat(parts[0]);
+            afterId = Long.parseLong(parts[1]);
+        }
+
+        Query query = em.createNativeQuery(
+            "SELECT r.id, r.title, r.group_id, r.status, r.rank FROM (" +
+            "SELECT d.id, d.title, d.group_id, d.status, ts_rank(d.search_vector, q.query, 1) AS rank " +
+            "FROM documents d, websearch_to_tsquery('english', ?) AS q(query) " +
+            "WHERE d.search_vector @@ q.query" +
+            (groupId != null ? " AND d.group_id = ?" : "") +
+            ") r " +
+            (cursor != null ? "WHERE r.rank < ? OR (r.rank = ? AND r.id > ?) " : "") +
+            "ORDER BY r.rank DESC, r.id LIMIT ?");
+        int position = 1;
+        query.setParameter(position++, queryText);
+        if (groupId != null) {
+            query.setParameter(position++, groupId);
+        }
+        if (cursor != null) {
+            query.setParameter(position++, afterRank);
+            query.setParameter(position++, afterRank);
+            query.setParameter(position++, afterId);
+        }
+        // One extra row tells whether there is a next page
+        query.setParameter(position, limit + 1);
+
+        List<Object[]> rows = query.getResultList();
+        boolean hasMore = rows.size() > limit;
+        if (hasMore) {
+            rows = rows.subList(0, limit);
+        }
+
+        List<Long> ids = rows.stream().map(row -> ((Number) row[0]).longValue()).collect(Collectors.toList());
+        Map<Long, List<DocumentSearchResponse.Snippet>> snippets = findSnippets(queryText, ids);
+
+        List<DocumentSearchResponse.Result> results = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Long id = ((Number) row[0]).longValue();
+            results.add(new DocumentSearchResponse.Result(
+                id,
+                (String) row[1],
+                row[2] != null ? ((Number) row[2]).longValue() : null,
+                (String) row[3],
+                ((Number) row[4]).floatValue(),
+                snippets.getOrDefault(id, new ArrayList<>())
+            ));
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            DocumentSearchResponse.Result last = results.get(results.size() - 1);
+            nextCursor = encodeCursor(last.getRank(), last.getId());
+        }
+
+        LOG.info("Search '{}' returned {} results{}", queryText, results.size(), hasMore ? " (more available)" : "");
+        return new DocumentSearchResponse(queryText, results, nextCursor);
+    }
+
+    /**
+     * Highlighted matching lines of the given documents, first snippets-per-document per document
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Long, List<DocumentSearchResponse.Snippet>> findSnippets(String queryText, List<Long> ids) {
+        Map<Long, List<DocumentSearchResponse.Snippet>> snippets = new HashMap<>();
+        if (ids.isEmpty()) {
+            return snippets;
+        }
+
+        Query query = em.createNativeQuery(
+            "SELECT m.id, m.line_number, ts_headline('english', m.line, q.query, ?) " +
+            "FROM websearch_to_tsquery('english', ?) AS q(query) " +
+            "CROSS JOIN LATERAL (" +
+            "SELECT d.id, l.line, CAST(l.line_number AS integer) AS line_number, " +
+            "row_number() OVER (PARTITION BY d.id ORDER BY l.line_number) AS n " +
+            "FROM documents d " +
+            "CROSS JOIN LATERAL regexp_split_to_table(coalesce(d.content, ''), E'\\n') " +
+            "WITH ORDINALITY AS l(line, line_number) " +
+            "WHERE d.id IN (" + ids.stream().map(id -> "?").collect(Collectors.joining(", ")) + ") " +
+            "AND to_tsvector('english', l.line) @@ q.query" +
+            ") m " +
+            "WHERE m.n <= ? " +
+            "ORDER BY m.id, m.line_number");
+        int position = 1;
+        query.setParameter(position++, HEADLINE_OPTIONS);
+        query.setParameter(position++, queryText);
+        for (Long id : ids) {
+            query.setParameter(position++, id);
+        }
+        query.setParameter(position, snippetsPerDocument);
+
+        for (Object[] row : (List<Object[]>) query.getResultList()) {
+            snippets.computeIfAbsent(((Number) row[0]).longValue(), k -> new ArrayList<>())
+                .add(new DocumentSearchResponse.Snippet(((Number) row[1]).intValue(), (String) row[2]));
+        }
+        return snippets;
+    }
+
+    private static String encodeCursor(float rank, Long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((rank + ":" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodeCursor(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            Float.parseFloat(parts[0]);
+            Long.parseLong(parts[1]);
+            return parts;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
@@ -1,14 +1,30 @@
 package com.dockey.docs.services;
 
+import com.dockey.docs.diff.LineDiff;
+import com.dockey.docs.diff.LineMapping;
+import com.dockey.docs.diff.UnifiedDiff;
 import com.dockey.docs.dto.DocumentMetadataResponse;
+import com.dockey.docs.dto.DocumentPatchRequest;
 import com.dockey.docs.entities.Document;
+import com.dockey.docs.kafka.DocumentEventProducer;
+import com.dockey.docs.sse.LineCountStreamRegistry;
+import com.dockey.docs.suggest.SuggestionIndex;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.LockModeType;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceUnit;
 import javax.persistence.TypedQuery;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 @ApplicationScoped
@@ -18,6 +34,24 @@ public class DocumentService {
     
     @PersistenceContext(unitName = "docs-jpa-unit")
     private EntityManager em;
+
+    @PersistenceUnit(unitName = "docs-jpa-unit")
+    private EntityManagerFactory emf;
+
+    @Inject
+    private DocumentRevisionService documentRevisionService;
+
+    @Inject
+    private DocumentLineCommentService documentLineCommentService;
+
+    @Inject
+    private DocumentEventProducer documentEventProducer;
+
+    @Inject
+    private LineCountStreamRegistry lineCountStreamRegistry;
+
+    @Inject
+    private SuggestionIndex suggestionIndex;
     
     public List<Document> getAllDocuments() {
         LOG.info("Fetching all documents");
@@ -54,7 +88,9 @@ public class DocumentService {
         try {
             em.persist(document);
             em.flush();
+            documentRevisionService.recordInitialRevision(em, document);
             em.getTransaction().commit();
+            suggestionIndex.documentSaved(document);
             return document;
         } catch (Exception e) {
             em.getTransaction().rollback();
@@ -66,14 +102,20 @@ public class DocumentService {
         LOG.info("Updating document with id: {}", id);
         em.getTransaction().begin();
         try {
-            Document document = em.find(Document.class, id);
+            Document document = findForUpdate(em, id);
             
             if (document != null) {
+                String previousContent = document.getContent();
                 document.setTitle(updatedDocument.getTitle());
                 document.setContent(updatedDocument.getContent());
                 document.setStatus(updatedDocument.getStatus());
+                document.setContentSavedAt(Instant.now());
+                LineMapping mapping = applyContentChange(em, document, previousContent, null);
                 em.merge(document);
                 em.getTransaction().commit();
+
+                afterContentChange(document, mapping);
+                suggestionIndex.documentSaved(document);
                 return document;
             }
             
@@ -84,24 +126,241 @@ public class DocumentService {
             throw e;
         }
     }
+
+    /**
+     * Write a buffered draft using a NEW EntityManager, for the autosave flusher thread.
+     * Only documents that are still drafts are written, and only if their content was not
+     * saved after the draft was, e.g. by a newer draft buffered on another replica or a patch.
+     *
+     * @param savedAt when the draft was received
+     * @return the updated document, or null if it does not exist, is no longer a draft or is newer
+     */
+    public Document saveDraftAsync(Long id, String title, String content, Instant savedAt) {
+        EntityManager localEm = emf.createEntityManager();
+        EntityTransaction tx = localEm.getTransaction();
+        try {
+            tx.begin();
+            Document document = findForUpdate(localEm, id);
+            if (document == null || !"DRAFT".equals(document.getStatus())) {
+                tx.rollback();
+                return null;
+            }
+            if (document.getContentSavedAt() != null && !savedAt.isAfter(document.getContentSavedAt())) {
+                LOG.info("Skipping draft of document {} saved at {}, content was saved at {}",
+                    id, savedAt, document.getContentSavedAt());
+                tx.rollback();
+                return null;
+            }
+
+            String previousContent = document.getContent();
+            if (title != null) {
+                document.setTitle(title);
+            }
+            document.setContent(content);
+            document.setContentSavedAt(savedAt);
+            LineMapping mapping = applyContentChange(localEm, document, previousContent, null);
+            tx.commit();
+
+            afterContentChange(document, mapping);
+            suggestionIndex.documentSaved(document);
+            return document;
+        } catch (Exception e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            localEm.close();
+        }
+    }
+
+    /**
+     * Turn the edits or unified diff of a patch into hunks against the document's content.
+     *
+     * @throws OptimisticLockException if baseRevision is not the document's current revision
+     * @throws IllegalArgumentException if the patch is malformed or does not apply
+     */
+    public List<LineDiff.Hunk> preparePatch(Document document, DocumentPatchRequest patch) {
+        if (patch.getBaseRevision() == null) {
+            throw new IllegalArgumentException("baseRevision is required");
+        }
+        if (currentRevision(document) != patch.getBaseRevision()) {
+            throw new OptimisticLockException("Document is at revision " + currentRevision(document)
+                + ", patch is based on revision " + patch.getBaseRevision());
+        }
+        if (patch.getEdits() != null && patch.getDiff() != null) {
+            throw new IllegalArgumentException("Provide either edits or diff, not both");
+        }
+
+        List<String> baseLines = LineDiff.splitLines(document.getContent());
+        List<LineDiff.Hunk> hunks;
+        if (patch.getDiff() != null) {
+            hunks = UnifiedDiff.parse(patch.getDiff(), baseLines);
+        } else if (patch.getEdits() != null) {
+            hunks = editsToHunks(patch.getEdits(), baseLines.size());
+        } else {
+            return new ArrayList<>();
+        }
+        return withNewStarts(hunks);
+    }
+
+    /**
+     * Apply prepared hunks to the document if it is still at baseRevision
+     *
+     * @return the updated document, or null if it does not exist
+     * @throws OptimisticLockException if the document changed since the patch was prepared
+     */
+    public Document patchDocument(Long id, int baseRevision, List<LineDiff.Hunk> hunks, String title, String status) {
+        LOG.info("Patching document with id: {} ({} hunks on revision {})", id, hunks.size(), baseRevision);
+        em.getTransaction().begin();
+        try {
+            Document document = findForUpdate(em, id);
+            if (document == null) {
+                em.getTransaction().rollback();
+                return null;
+            }
+            if (currentRevision(document) != baseRevision) {
+                throw new OptimisticLockException("Document is at revision " + currentRevision(document)
+                    + ", patch is based on revision " + baseRevision);
+            }
+
+            if (title != null) {
+                document.setTitle(title);
+            }
+            if (status != null) {
+                document.setStatus(status);
+            }
+            document.setContentSavedAt(Instant.now());
+
+            LineMapping mapping = null;
+            if (!hunks.isEmpty()) {
+                String previousContent = document.getContent();
+                document.setContent(LineDiff.joinLines(LineDiff.apply(LineDiff.splitLines(previousContent), hunks)));
+                mapping = applyContentChange(em, document, previousContent, hunks);
+            }
+            em.merge(document);
+            em.getTransaction().commit();
+
+            if (mapping != null) {
+                afterContentChange(document, mapping);
+            }
+            suggestionIndex.documentSaved(document);
+            return document;
+        } catch (Exception e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            throw e;
+        }
+    }
+
+    // Row lock so concurrent writers get consecutive revisions; refresh so the content we diff against is current
+    private Document findForUpdate(EntityManager txEm, Long id) {
+        Document document = txEm.find(Document.class, id);
+        if (document != null) {
+            txEm.refresh(document, LockModeType.PESSIMISTIC_WRITE);
+        }
+        return document;
+    }
+
+    private static int currentRevision(Document document) {
+        return document.getRevision() != null ? document.getRevision() : 0;
+    }
+
+    /**
+     * Record the revision, move line-anchored comment counts and queue the remap for comments-service,
+     * inside the current transaction
+     */
+    private LineMapping applyContentChange(EntityManager txEm, Document document, String previousContent,
+                                           List<LineDiff.Hunk> knownHunks) {
+        List<LineDiff.Hunk> hunks = documentRevisionService.recordRevision(txEm, document, previousContent, knownHunks);
+
+        // Keep line-anchored comment counts on the text they were written for
+        LineMapping mapping = LineMapping.fromHunks(hunks, LineDiff.splitLines(document.getContent()).size());
+        if (!mapping.isIdentity()) {
+            if (documentLineCommentService.remapLines(txEm, document.getId(), mapping) > 0) {
+                // Line count views serve the table until comments-service has published the moved counts
+                document.setLinesRemappedAt(Instant.now());
+            }
+            documentEventProducer.enqueueLinesRemapped(txEm, document.getId(), document.getRevision(), mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * Send the queued remap to comments-service and resync open viewers, once the change is committed
+     */
+    private void afterContentChange(Document document, LineMapping mapping) {
+        if (!mapping.isIdentity()) {
+            documentEventProducer.publishPending();
+            lineCountStreamRegistry.resync(document.getId());
+        }
+    }
+
+    private static List<LineDiff.Hunk> editsToHunks(List<DocumentPatchRequest.LineEdit> edits, int lineCount) {
+        List<DocumentPatchRequest.LineEdit> sorted = new ArrayList<>(edits);
+        sorted.sort(Comparator.comparing(DocumentPatchRequest.LineEdit::getStartLine,
+            Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        List<LineDiff.Hunk> hunks = new ArrayList<>();
+        int previousEnd = 0;
+        for (DocumentPatchRequest.LineEdit edit : sorted) {
+            if (edit.getStartLine() == null || edit.getEndLine() == null) {
+                throw new IllegalArgumentException("Each edit needs startLine and endLine");
+            }
+            int oldStart = edit.getStartLine() - 1;
+            int oldCount = edit.getEndLine() - edit.getStartLine() + 1;
+            if (oldStart < previousEnd || oldCount < 0 || oldStart + oldCount > lineCount) {
+                throw new IllegalArgumentException("Edit of lines " + edit.getStartLine() + "-" + edit.getEndLine()
+                    + " is out of range or overlaps another edit");
+            }
+            List<String> lines = edit.getLines() != null ? new ArrayList<>(edit.getLines()) : new ArrayList<>();
+            hunks.add(new LineDiff.Hunk(oldStart, oldCount, 0, lines));
+            previousEnd = oldStart + oldCount;
+        }
+        return hunks;
+    }
+
+    // Position of each hunk in the new text follows from the hunks before it
+    private static List<LineDiff.Hunk> withNewStarts(List<LineDiff.Hunk> hunks) {
+        List<LineDiff.Hunk> result = new ArrayList<>(hunks.size());
+        int offset = 0;
+        for (LineDiff.Hunk hunk : hunks) {
+            result.add(new LineDiff.Hunk(hunk.getOldStart(), hunk.getOldCount(), hunk.getOldStart() + offset, hunk.getNewLines()));
+            offset += hunk.getNewCount() - hunk.getOldCount();
+        }
+        return result;
+    }
     
+    /**
+     * Delete a document and, in the same transaction, queue the request for comments-service
+     * to purge its comments
+     */
     public boolean deleteDocument(Long id) {
         LOG.info("Deleting document with id: {}", id);
         em.getTransaction().begin();
         try {
             Document document = em.find(Document.class, id);
             
-            if (document != null) {
-                em.remove(document);
-                em.getTransaction().commit();
-                return true;
+            if (document == null) {
+                em.getTransaction().rollback();
+                return false;
             }
-            
-            em.getTransaction().rollback();
-            return false;
+            documentRevisionService.deleteRevisions(em, id);
+            em.remove(document);
+            em.flush();
+            documentLineCommentService.deleteAllForDocument(em, id);
+            documentEventProducer.enqueueDocumentDeleted(em, id);
+            em.getTransaction().commit();
         } catch (Exception e) {
-            em.getTransaction().rollback();
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
             throw e;
         }
+
+        documentEventProducer.publishPending();
+        suggestionIndex.documentDeleted(id);
+        return true;
     }
 }
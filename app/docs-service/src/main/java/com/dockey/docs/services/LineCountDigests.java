@@ -0,0 +1,88 @@
+package com.dockey.docs.services;
+
+import java.util.List;
+
+/**
+ * Digests of the line comment counts of docId ranges, for reconciling the counts between
+ * comments-service and docs-service. Both services keep an identical copy of this class;
+ * change them together.
+ *
+ * A line with a count above 0 hashes (docId, line, count) to 64 bits, and a bucket's digest is
+ * the sum of the hashes of its lines. Sums do not depend on order, so rows can be added as
+ * they are read, and a bucket's digest is the sum of its documents' digests.
+ *
+ * Each range [from, to) is cut into buckets of ceil((to - from) / buckets) documents. Once a
+ * range holds no more documents than there are buckets, every bucket is a single document.
+ */
+public class LineCountDigests {
+
+    private final List<long[]> ranges;
+    private final int buckets;
+    private final long[][] digests;
+
+    /**
+     * @param ranges  [from, to) docId ranges, sorted and disjoint
+     * @param buckets buckets per range
+     */
+    public LineCountDigests(List<long[]> ranges, int buckets) {
+        this.ranges = ranges;
+        this.buckets = buckets;
+        this.digests = new long[ranges.size()][];
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            digests[i] = new long[bucketCount(range[0], range[1], buckets)];
+        }
+    }
+
+    /**
+     * Add one line; lines outside the ranges or without comments are ignored
+     */
+    public void add(long docId, int lineNumber, int count) {
+        if (count <= 0) {
+            return;
+        }
+        int low = 0;
+        int high = ranges.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long[] range = ranges.get(mid);
+            if (docId < range[0]) {
+                high = mid - 1;
+            } else if (docId >= range[1]) {
+                low = mid + 1;
+            } else {
+                int bucket = (int) ((docId - range[0]) / bucketSize(range[0], range[1], buckets));
+                digests[mid][bucket] += lineHash(docId, lineNumber, count);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Bucket digests per range, in the order of the ranges
+     */
+    public long[][] getDigests() {
+        return digests;
+    }
+
+    public static long bucketSize(long from, long to, int buckets) {
+        return Math.max(1, (to - from + buckets - 1) / buckets);
+    }
+
+    public static int bucketCount(long from, long to, int buckets) {
+        long size = bucketSize(from, to, buckets);
+        return (int) ((to - from + size - 1) / size);
+    }
+
+    static long lineHash(long docId, int lineNumber, int count) {
+        return mix(mix(docId) ^ ((long) lineNumber << 32 | (count & 0xffffffffL)));
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,438 @@
+package com.dockey.docs.services;
+
+import com.dockey.docs.dto.LineCountRebuildStatus;
+import com.dockey.docs.kafka.CommentEventProcessor;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.Session;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnit;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Full rebuild of document_line_comments from the comments in comments-service.
+ *
+ * The document id range is split into partitions that are streamed from comments-service
+ * in parallel, each as CSV straight into COPY on its own connection, into a staging table.
+ * Once all are loaded the staging table gets its indexes and replaces the live table in one
+ * short transaction. The rebuild holds {@link CommentEventProcessor#WRITE_LOCK} exclusively,
+ * so the comment event consumers of every replica are held for the whole rebuild and catch
+ * up from Kafka afterwards; counts carry versions, so nothing they apply goes backwards.
+ *
+ * Edits keep moving counts in the live table meanwhile, and comments-service may not have
+ * moved the comments yet when their documents are loaded. Documents whose lines were remapped
+ * since shortly before the rebuild started therefore keep their live rows in the swap, and
+ * documents deleted meanwhile are dropped from the staging table under the swap's lock.
+ */
+@ApplicationScoped
+public class LineCountRebuildService {
+
+    private static final Logger LOG = LogManager.getLogger(LineCountRebuildService.class.getName());
+    private static final String TABLE = "document_line_comments";
+    private static final String STAGING_TABLE = "document_line_comments_rebuild";
+    // Edits remapped this long before the start may not have reached comments-service yet
+    private static final Duration REMAP_GRACE = Duration.ofMinutes(5);
+
+    @PersistenceUnit(unitName = "docs-jpa-unit")
+    private EntityManagerFactory emf;
+
+    @Inject
+    private CommentEventProcessor commentEventProcessor;
+
+    @Inject
+    private AdvisoryLocks advisoryLocks;
+
+    @Inject
+    @ConfigProperty(name = "documents.line-counts.rebuild-threads", defaultValue = "4")
+    private int rebuildThreads;
+
+    @Inject
+    @ConfigProperty(name = "documents.line-counts.comments-url", defaultValue = "http://comments-service:8082/api/comments")
+    private String commentsUrl;
+
+    private HttpClient httpClient;
+    private ExecutorService rebuildExecutor;
+    private ExecutorService loadExecutor;
+    private LineCountRebuildStatus current; // guarded by this
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        rebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "line-count-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        loadExecutor = Executors.newFixedThreadPool(rebuildThreads, r -> {
+            Thread thread = new Thread(r, "line-count-rebuild-load-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start a rebuild in the background
+     *
+     * @param partitions number of document id ranges to load; up to rebuild-threads run at once
+     * @throws IllegalStateException if a rebuild is already running
+     */
+    public synchronized LineCountRebuildStatus start(int partitions) {
+        if (current != null && "RUNNING".equals(current.getState())) {
+            throw new IllegalStateException("Rebuild " + current.getRebuildId() + " is already running");
+        }
+        LineCountRebuildStatus status = new LineCountRebuildStatus(UUID.randomUUID().toString(), partitions);
+        current = status;
+        rebuildExecutor.submit(() -> rebuild(status));
+        LOG.info("Starting line count rebuild {} with {} partitions", status.getRebuildId(), partitions);
+        return copyOf(status);
+    }
+
+    /**
+     * Progress of the running or last rebuild, or null if there was none
+     */
+    public synchronized LineCountRebuildStatus getStatus() {
+        return current != null ? copyOf(current) : null;
+    }
+
+    private void rebuild(LineCountRebuildStatus status) {
+        List<Future<?>> loads = new ArrayList<>();
+        AdvisoryLocks.Held writeLock = null;
+        commentEventProcessor.suspendWrites();
+        try {
+            // Waits out the applies in progress on other replicas
+            writeLock = advisoryLocks.lock(CommentEventProcessor.WRITE_LOCK);
+            createStagingTable();
+
+            for (long[] range : partition(documentIdRange(), status.getPartitions())) {
+                loads.add(loadExecutor.submit(() -> {
+                    loadPartition(range[0], range[1], status);
+                    synchronized (this) {
+                        status.setPartitionsDone(status.getPartitionsDone() + 1);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> load : loads) {
+                load.get();
+            }
+
+            long rows = swapIn(status.getStartedAt().minus(REMAP_GRACE));
+            synchronized (this) {
+                status.setState("COMPLETED");
+                status.setFinishedAt(Instant.now());
+            }
+            LOG.info("Line count rebuild {} swapped in {} rows at {} rows/s",
+                status.getRebuildId(), rows, status.getRowsPerSecond());
+        } catch (Exception e) {
+            loads.forEach(load -> load.cancel(true));
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            LOG.error("Line count rebuild {} failed", status.getRebuildId(), cause);
+            dropStagingTable();
+            synchronized (this) {
+                status.setState("FAILED");
+                status.setError(cause.getMessage());
+                status.setFinishedAt(Instant.now());
+            }
+        } finally {
+            if (writeLock != null) {
+                writeLock.close();
+            }
+            commentEventProcessor.resumeWrites();
+        }
+    }
+
+    /**
+     * Smallest and largest document id, [0, 0] without documents
+     */
+    private long[] documentIdRange() {
+        EntityManager localEm = emf.createEntityManager();
+        try {
+            Object[] row = (Object[]) localEm.createNativeQuery(
+                "SELECT COALESCE(MIN(id), 0), COALESCE(MAX(id), 0) FROM documents")
+                .getSingleResult();
+            return new long[]{((Number) row[0]).longValue(), ((Number) row[1]).longValue()};
+        } finally {
+            localEm.close();
+        }
+    }
+
+    /**
+     * Split [min, max] into at most count contiguous [from, to) ranges
+     */
+    private static List<long[]> partition(long[] idRange, int count) {
+        long from = idRange[0];
+        long to = idRange[1] + 1;
+        long size = Math.max(1, (to - from + count - 1) / count);
+        List<long[]> ranges = new ArrayList<>();
+        for (long start = from; start < to; start += size) {
+            ranges.add(new long[]{start, Math.min(to, start + size)});
+        }
+        return ranges;
+    }
+
+    private void createStagingTable() {
+        execute("DROP TABLE IF EXISTS " + STAGING_TABLE,
+            "CREATE TABLE " + STAGING_TABLE + " (LIKE " + TABLE + " INCLUDING DEFAULTS INCLUDING IDENTITY)");
+    }
+
+    private void dropStagingTable() {
+        try {
+            execute("DROP TABLE IF EXISTS " + STAGING_TABLE);
+        } catch (Exception e) {
+            LOG.error("Failed to drop {}", STAGING_TABLE, e);
+        }
+    }
+
+    /**
+     * Stream the counts of documents [fromDocId, toDocId) from comments-service into the
+     * staging table with COPY, counting rows as they pass
+     */
+    private void loadPartition(long fromDocId, long toDocId, LineCountRebuildStatus status)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(
+                commentsUrl + "/comments/line-counts?fromDocId=" + fromDocId + "&toDocId=" + toDocId))
+            .GET()
+            .build();
+        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+        try (InputStream body = new RowCountingInputStream(response.body(), this, status)) {
+            if (response.statusCode() != 200) {
+                throw new IOException("comments-service returned " + response.statusCode()
+                    + " for docIds [" + fromDocId + ", " + toDocId + ")");
+            }
+            EntityManager localEm = emf.createEntityManager();
+            EntityTransaction tx = localEm.getTransaction();
+            try {
+                tx.begin();
+                localEm.unwrap(Session.class).doWork(connection -> {
+                    CopyManager copy = connection.unwrap(PGConnection.class).getCopyAPI();
+                    try {
+                        copy.copyIn("COPY " + STAGING_TABLE + " (document_id, line_number, comment_count, line_version) " +
+                            "FROM STDIN WITH (FORMAT csv)", body);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                tx.commit();
+            } catch (Exception e) {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+                throw e;
+            } finally {
+                localEm.close();
+            }
+        }
+        LOG.info("Loaded line counts for docIds [{}, {})", fromDocId, toDocId);
+    }
+
+    /**
+     * Index the staging table, outside any lock on the live one, then replace the live table
+     * with it in one transaction. Under the lock, documents deleted meanwhile are dropped and
+     * documents remapped since remappedSince keep their live rows.
+     *
+     * @return number of rows swapped in
+     */
+    private long swapIn(Instant remappedSince) {
+        execute("ALTER TABLE " + STAGING_TABLE + " ADD CONSTRAINT " + STAGING_TABLE + "_pkey PRIMARY KEY (id)",
+            "ALTER TABLE " + STAGING_TABLE + " ADD CONSTRAINT " + STAGING_TABLE + "_line_key UNIQUE (document_id, line_number)",
+            "ANALYZE " + STAGING_TABLE);
+
+        // A serial id's sequence belongs to the live table but is also the staging table's
+        // default, so it is handed over before the live table is dropped
+        String sequence = serialSequence();
+        EntityManager localEm = emf.createEntityManager();
+        EntityTransaction tx = localEm.getTransaction();
+        try {
+            tx.begin();
+            localEm.unwrap(Session.class).doWork(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LOCK TABLE " + TABLE + " IN ACCESS EXCLUSIVE MODE");
+                    statement.execute("DELETE FROM " + STAGING_TABLE + " s WHERE NOT EXISTS " +
+                        "(SELECT 1 FROM documents d WHERE d.id = s.document_id)");
+                }
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "DELETE FROM " + STAGING_TABLE + " s USING documents d " +
+                        "WHERE d.id = s.document_id AND d.lines_remapped_at >= ?")) {
+                    statement.setTimestamp(1, Timestamp.from(remappedSince));
+                    statement.executeUpdate();
+                }
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO " + STAGING_TABLE + " (document_id, line_number, comment_count, line_version) " +
+                        "SELECT c.document_id, c.line_number, c.comment_count, c.line_version FROM " + TABLE + " c " +
+                        "JOIN documents d ON d.id = c.document_id WHERE d.lines_remapped_at >= ?")) {
+                    statement.setTimestamp(1, Timestamp.from(remappedSince));
+                    int kept = statement.executeUpdate();
+                    if (kept > 0) {
+                        LOG.info("Kept {} live line counts of documents remapped during the rebuild", kept);
+                    }
+                }
+                try (Statement statement = connection.createStatement()) {
+                    if (sequence != null) {
+                        statement.execute("ALTER SEQUENCE " + sequence + " OWNED BY " + STAGING_TABLE + ".id");
+                    }
+                    statement.execute("DROP TABLE " + TABLE);
+                    statement.execute("ALTER TABLE " + STAGING_TABLE + " RENAME TO " + TABLE);
+                    statement.execute("ALTER TABLE " + TABLE + " RENAME CONSTRAINT " + STAGING_TABLE + "_pkey TO " + TABLE + "_pkey");
+                    statement.execute("ALTER TABLE " + TABLE + " RENAME CONSTRAINT " + STAGING_TABLE + "_line_key TO "
+                        + TABLE + "_document_id_line_number_key");
+                }
+            });
+            tx.commit();
+            return ((Number) localEm.createNativeQuery("SELECT COUNT(*) FROM " + TABLE).getSingleResult()).longValue();
+        } catch (Exception e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            localEm.close();
+        }
+    }
+
+    /**
+     * Sequence the live table's id is taken from when it is a serial column, shared with the
+     * staging table through INCLUDING DEFAULTS; null for an identity column, which the staging
+     * table got its own copy of
+     */
+    private String serialSequence() {
+        EntityManager localEm = emf.createEntityManager();
+        try {
+            Object[] row = (Object[]) localEm.createNativeQuery(
+                "SELECT pg_get_serial_sequence('" + TABLE + "', 'id'), pg_get_serial_sequence('" + STAGING_TABLE + "', 'id')")
+                .getSingleResult();
+            return row[0] != null && row[1] == null ? (String) row[0] : null;
+        } finally {
+            localEm.close();
+        }
+    }
+
+    /**
+     * Run statements in one transaction
+     */
+    private void execute(String... statements) {
+        EntityManager localEm = emf.createEntityManager();
+        EntityTransaction tx = localEm.getTransaction();
+        try {
+            tx.begin();
+            localEm.unwrap(Session.class).doWork(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    for (String sql : statements) {
+                        statement.execute(sql);
+                    }
+                }
+            });
+            tx.commit();
+        } catch (Exception e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            localEm.close();
+        }
+    }
+
+    private static LineCountRebuildStatus copyOf(LineCountRebuildStatus status) {
+        LineCountRebuildStatus copy = new LineCountRebuildStatus();
+        copy.setRebuildId(status.getRebuildId());
+        copy.setState(status.getState());
+        copy.setPartitions(status.getPartitions());
+        copy.setPartitionsDone(status.getPartitionsDone());
+        copy.setRowsLoaded(status.getRowsLoaded());
+        copy.setStartedAt(status.getStartedAt());
+        copy.setFinishedAt(status.getFinishedAt());
+        copy.setError(status.getError());
+        return copy;
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        rebuildExecutor.shutdownNow();
+        loadExecutor.shutdown();
+        try {
+            if (!loadExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                loadExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            loadExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds the CSV rows read to the rebuild's rowsLoaded
+     */
+    private static final class RowCountingInputStream extends FilterInputStream {
+        private final Object lock;
+        private final LineCountRebuildStatus status;
+
+        private RowCountingInputStream(InputStream in, Object lock, LineCountRebuildStatus status) {
+            super(in);
+            this.lock = lock;
+            this.status = status;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == '\n') {
+                addRows(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            int rows = 0;
+            for (int i = offset; i < offset + read; i++) {
+                if (buffer[i] == '\n') {
+                    rows++;
+                }
+            }
+            if (rows > 0) {
+                addRows(rows);
+            }
+            return read;
+        }
+
+        private void addRows(int rows) {
+            synchronized (lock) {
+                status.setRowsLoaded(status.getRowsLoaded() + rows);
+            }
+        }
+    }
+}
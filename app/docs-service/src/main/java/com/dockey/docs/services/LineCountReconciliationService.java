@@ -0,0 +1,448 @@
+package com.dockey.docs.services;
+
+import com.dockey.docs.dto.LineCountReconcileStatus;
+import com.dockey.docs.kafka.CommentEventProcessor;
+import com.dockey.docs.kafka.DocumentEventProducer;
+import com.dockey.docs.services.DocumentLineCommentService.LineCount;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.hibernate.Session;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnit;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Periodic reconciliation of document_line_comments with the comments in comments-service.
+ *
+ * Both sides hash their counts into bucket digests over docId ranges ({@link LineCountDigests}).
+ * Starting from the whole docId range, only buckets whose digests differ are split and compared
+ * again, one request per tree level, down to single documents. Only those documents' counts are
+ * fetched and written, so a run over millions of matching lines exchanges a few kilobytes.
+ *
+ * Documents deleted here whose comments comments-service still counts get their purge
+ * requested again through the document event outbox; a purge is safe to request twice.
+ *
+ * One replica runs at a time, under a session-level Postgres advisory lock held for the run
+ * on a connection of its own ({@link AdvisoryLocks}). Repairs go through
+ * {@link CommentEventProcessor#repair} and are skipped where comment events newer than the
+ * fetched counts were applied meanwhile.
+ */
+@ApplicationScoped
+public class LineCountReconciliationService {
+
+    private static final Logger LOG = LogManager.getLogger(LineCountReconciliationService.class.getName());
+    private static final String LOCK_NAME = "line-count-reconcile";
+    private static final int MAX_RANGES_PER_REQUEST = 1000;
+    private static final int REPAIR_BATCH_SIZE = 200;
+
+    @PersistenceUnit(unitName = "docs-jpa-unit")
+    private EntityManagerFactory emf;
+
+    @Inject
+    private CommentEventProcessor commentEventProcessor;
+
+    @Inject
+    private AdvisoryLocks advisoryLocks;
+
+    @Inject
+    private DocumentEventProducer documentEventProducer;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "documents.line-counts.reconcile-interval-minutes", defaultValue = "60")
+    private int intervalMinutes;
+
+    @Inject
+    @ConfigProperty(name = "documents.line-counts.reconcile-buckets", defaultValue = "16")
+    private int buckets;
+
+    @Inject
+    @ConfigProperty(name = "documents.line-counts.comments-url", defaultValue = "http://comments-service:8082/api/comments")
+    private String commentsUrl;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private HttpClient httpClient;
+    private ScheduledExecutorService scheduler;
+    private Counter repairedCounter;
+    private LineCountReconcileStatus current; // guarded by this
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        repairedCounter = metricRegistry.counter(Metadata.builder()
+                .withName("line_count_documents_repaired_total")
+                .withDescription("Documents whose line comment counts were repaired by reconciliation")
+                .withType(MetricType.COUNTER)
+                .build());
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "line-count-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (intervalMinutes > 0) {
+            scheduler.scheduleWithFixedDelay(this::scheduledRun, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+            LOG.info("Line count reconciliation scheduled every {} minutes", intervalMinutes);
+        } else {
+            LOG.info("Scheduled line count reconciliation disabled");
+        }
+    }
+
+    /**
+     * Start a reconciliation in the background
+     *
+     * @throws IllegalStateException if one is already running on this replica
+     */
+    public LineCountReconcileStatus start() {
+        LineCountReconcileStatus status = begin();
+        scheduler.submit(() -> reconcile(status));
+        return getStatus();
+    }
+
+    /**
+     * Outcome of the running or last reconciliation on this replica, or null if there was none
+     */
+    public synchronized LineCountReconcileStatus getStatus() {
+        return current != null ? copyOf(current) : null;
+    }
+
+    private synchronized LineCountReconcileStatus begin() {
+        if (current != null && "RUNNING".equals(current.getState())) {
+            throw new IllegalStateException("Reconciliation " + current.getReconcileId() + " is already running");
+        }
+        current = new LineCountReconcileStatus(UUID.randomUUID().toString());
+        return current;
+    }
+
+    private void scheduledRun() {
+        LineCountReconcileStatus status;
+        try {
+            status = begin();
+        } catch (IllegalStateException e) {
+            return;
+        }
+        reconcile(status);
+    }
+
+    private void reconcile(LineCountReconcileStatus status) {
+        AdvisoryLocks.Held lock = null;
+        try {
+            lock = advisoryLocks.tryLock(LOCK_NAME);
+            if (lock == null) {
+                finish(status, "SKIPPED", "Reconciliation is running on another replica");
+                return;
+            }
+            if (commentEventProcessor.isSuspended()) {
+                finish(status, "SKIPPED", "A line count rebuild is running");
+                return;
+            }
+
+            List<Long> mismatched = findMismatched(status);
+            repair(mismatched, status);
+            finish(status, "COMPLETED", null);
+            LOG.info("Line count reconciliation {} compared {} ranges, repaired {} of {} mismatched documents, exchanged {} bytes",
+                status.getReconcileId(), status.getRangesCompared(), status.getDocumentsRepaired(),
+                status.getDocumentsMismatched(), status.getBytesExchanged());
+        } catch (Exception e) {
+            LOG.error("Line count reconciliation {} failed", status.getReconcileId(), e);
+            finish(status, "FAILED", e.getMessage());
+        } finally {
+            if (lock != null) {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * Walk down the digest tree from the whole docId range to the documents whose counts differ
+     */
+    private List<Long> findMismatched(LineCountReconcileStatus status) throws IOException, InterruptedException {
+        long[] idRange = documentIdRange();
+        List<long[]> level = new ArrayList<>();
+        level.add(new long[]{idRange[0], idRange[1] + 1});
+        List<Long> mismatched = new ArrayList<>();
+
+        while (!level.isEmpty()) {
+            List<long[]> next = new ArrayList<>();
+            for (int start = 0; start < level.size(); start += MAX_RANGES_PER_REQUEST) {
+                List<long[]> ranges = level.subList(start, Math.min(level.size(), start + MAX_RANGES_PER_REQUEST));
+                long[][] remote = fetchDigests(ranges, status);
+                long[][] local = localDigests(ranges);
+                if (remote.length != local.length) {
+                    throw new IllegalStateException("comments-service returned digests for " + remote.length
+                        + " of " + local.length + " ranges");
+                }
+
+                for (int i = 0; i < ranges.size(); i++) {
+                    long[] range = ranges.get(i);
+                    if (remote[i].length != local[i].length) {
+                        throw new IllegalStateException("comments-service returned " + remote[i].length
+                            + " buckets for docIds [" + range[0] + ", " + range[1] + "), expected " + local[i].length);
+                    }
+                    long size = LineCountDigests.bucketSize(range[0], range[1], buckets);
+                    for (int bucket = 0; bucket < local[i].length; bucket++) {
+                        if (remote[i][bucket] == local[i][bucket]) {
+                            continue;
+                        }
+                        long from = range[0] + bucket * size;
+                        long to = Math.min(range[1], from + size);
+                        if (to - from == 1) {
+                            mismatched.add(from);
+                        } else {
+                            next.add(new long[]{from, to});
+                        }
+                    }
+                }
+                synchronized (this) {
+                    status.setRangesCompared(status.getRangesCompared() + ranges.size());
+                }
+            }
+            level = next;
+        }
+
+        synchronized (this) {
+            status.setDocumentsMismatched(mismatched.size());
+        }
+        return mismatched;
+    }
+
+    private long[][] fetchDigests(List<long[]> ranges, LineCountReconcileStatus status)
+            throws IOException, InterruptedException {
+        Map<String, Object> body = new HashMap<>();
+        body.put("ranges", ranges);
+        body.put("buckets", buckets);
+        byte[] requestBody = objectMapper.writeValueAsBytes(body);
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(commentsUrl + "/comments/line-counts/digests"))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(requestBody))
+            .build();
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("comments-service returned " + response.statusCode() + " for line count digests");
+        }
+        addBytes(status, requestBody.length + response.body().length);
+
+        return objectMapper.treeToValue(objectMapper.readTree(response.body()).get("digests"), long[][].class);
+    }
+
+    private long[][] localDigests(List<long[]> ranges) {
+        Long[] fromIds = new Long[ranges.size()];
+        Long[] toIds = new Long[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            fromIds[i] = ranges.get(i)[0];
+            toIds[i] = ranges.get(i)[1];
+        }
+        LineCountDigests digests = new LineCountDigests(ranges, buckets);
+
+        EntityManager localEm = emf.createEntityManager();
+        EntityTransaction tx = localEm.getTransaction();
+        try {
+            // The fetch size only streams rows inside a transaction
+            tx.begin();
+            localEm.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "SELECT c.document_id, c.line_number, c.comment_count " +
+                        "FROM unnest(?::bigint[], ?::bigint[]) AS r(from_id, to_id) " +
+                        "JOIN document_line_comments c ON c.document_id >= r.from_id AND c.document_id < r.to_id " +
+                        "WHERE c.comment_count > 0")) {
+                    statement.setArray(1, connection.createArrayOf("bigint", fromIds));
+                    statement.setArray(2, connection.createArrayOf("bigint", toIds));
+                    statement.setFetchSize(5000);
+                    try (ResultSet result = statement.executeQuery()) {
+                        while (result.next()) {
+                            digests.add(result.getLong(1), result.getInt(2), result.getInt(3));
+                        }
+                    }
+                }
+            });
+            tx.commit();
+        } catch (Exception e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            localEm.close();
+        }
+        return digests.getDigests();
+    }
+
+    /**
+     * Fetch the counts of the mismatched documents from comments-service and write them.
+     * For documents this service does not have, comments-service is asked again to purge
+     * their comments.
+     */
+    private void repair(List<Long> documentIds, LineCountReconcileStatus status) throws IOException, InterruptedException {
+        for (int start = 0; start < documentIds.size(); start += REPAIR_BATCH_SIZE) {
+            List<Long> batch = documentIds.subList(start, Math.min(documentIds.size(), start + REPAIR_BATCH_SIZE));
+            Set<Long> existing = existingDocuments(batch);
+
+            HttpRequest request = HttpRequest.newBuilder(URI.create(commentsUrl + "/comments/line-counts?"
+                    + batch.stream().map(id -> "docId=" + id).collect(Collectors.joining("&"))))
+                .GET()
+                .build();
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IOException("comments-service returned " + response.statusCode() + " for line counts");
+            }
+            addBytes(status, response.body().getBytes(StandardCharsets.UTF_8).length);
+
+            // docId,lineNumber,count,lineVersion
+            Map<Long, Map<Integer, Integer>> counts = new HashMap<>();
+            Map<Long, Long> versions = new HashMap<>();
+            for (String row : response.body().split("\n")) {
+                if (row.isEmpty()) {
+                    continue;
+                }
+                String[] fields = row.split(",");
+                long documentId = Long.parseLong(fields[0]);
+                counts.computeIfAbsent(documentId, id -> new HashMap<>())
+                    .put(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+                versions.merge(documentId, Long.parseLong(fields[3]), Math::max);
+            }
+
+            List<Long> purges = new ArrayList<>();
+            for (Long documentId : batch) {
+                if (!existing.contains(documentId)) {
+                    if (counts.getOrDefault(documentId, Collections.emptyMap()).values().stream().anyMatch(count -> count > 0)) {
+                        LOG.info("Comments of deleted docId={} are still counted, requesting their purge", documentId);
+                        purges.add(documentId);
+                    }
+                    continue;
+                }
+                List<LineCount> written = commentEventProcessor.repair(documentId,
+                    counts.getOrDefault(documentId, Collections.emptyMap()), versions.getOrDefault(documentId, 0L));
+                if (!written.isEmpty()) {
+                    repairedCounter.inc();
+                    synchronized (this) {
+                        status.setDocumentsRepaired(status.getDocumentsRepaired() + 1);
+                    }
+                }
+            }
+            requestPurges(purges);
+        }
+    }
+
+    private void requestPurges(List<Long> documentIds) {
+        if (documentIds.isEmpty()) {
+            return;
+        }
+        EntityManager localEm = emf.createEntityManager();
+        EntityTransaction tx = localEm.getTransaction();
+        try {
+            tx.begin();
+            for (Long documentId : documentIds) {
+                documentEventProducer.enqueueDocumentDeleted(localEm, documentId);
+            }
+            tx.commit();
+        } catch (Exception e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            localEm.close();
+        }
+        documentEventProducer.publishPending();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Long> existingDocuments(List<Long> documentIds) {
+        EntityManager localEm = emf.createEntityManager();
+        try {
+            List<Number> ids = localEm.createNativeQuery("SELECT id FROM documents WHERE id = ANY(CAST(? AS bigint[]))")
+                .setParameter(1, documentIds.stream().map(String::valueOf).collect(Collectors.joining(",", "{", "}")))
+                .getResultList();
+            Set<Long> existing = new HashSet<>();
+            for (Number id : ids) {
+                existing.add(id.longValue());
+            }
+            return existing;
+        } finally {
+            localEm.close();
+        }
+    }
+
+    /**
+     * Every document id handed out so far, deleted documents included: [1, largest id]
+     */
+    private long[] documentIdRange() {
+        EntityManager localEm = emf.createEntityManager();
+        try {
+            Object[] row = (Object[]) localEm.createNativeQuery(
+                "SELECT 1, GREATEST(COALESCE(MAX(id), 0), (SELECT last_value FROM documents_id_seq)) FROM documents")
+                .getSingleResult();
+            return new long[]{((Number) row[0]).longValue(), ((Number) row[1]).longValue()};
+        } finally {
+            localEm.close();
+        }
+    }
+
+    private synchronized void addBytes(LineCountReconcileStatus status, long bytes) {
+        status.setBytesExchanged(status.getBytesExchanged() + bytes);
+    }
+
+    private synchronized void finish(LineCountReconcileStatus status, String state, String error) {
+        status.setState(state);
+        status.setError(error);
+        status.setFinishedAt(Instant.now());
+    }
+
+    private static LineCountReconcileStatus copyOf(LineCountReconcileStatus status) {
+        LineCountReconcileStatus copy = new LineCountReconcileStatus();
+        copy.setReconcileId(status.getReconcileId());
+        copy.setState(status.getState());
+        copy.setRangesCompared(status.getRangesCompared());
+        copy.setDocumentsMismatched(status.getDocumentsMismatched());
+        copy.setDocumentsRepaired(status.getDocumentsRepaired());
+        copy.setBytesExchanged(status.getBytesExchanged());
+        copy.setStartedAt(status.getStartedAt());
+        copy.setFinishedAt(status.getFinishedAt());
+        copy.setError(status.getError());
+        return copy;
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.dockey.docs.sse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory registry of SSE subscribers per document.
+ *
+ * The Kafka consumer publishes (line, count) changes here; each subscriber keeps a bounded
+ * buffer of pending changes coalesced by line, so a slow client never holds more than
+ * max-pending-lines entries. When the buffer overflows it is dropped and the client gets a
+ * "resync" event telling it to reload the counts. A heartbeat detects dead connections and
+ * closes streams that have been idle for longer than the idle timeout.
+ */
+@ApplicationScoped
+public class LineCountStreamRegistry {
+
+    private static final Logger LOG = LogManager.getLogger(LineCountStreamRegistry.class.getName());
+    private static final long RECONNECT_DELAY_MS = 3000;
+
+    @Inject
+    @ConfigProperty(name = "sse.line-counts.max-pending-lines", defaultValue = "256")
+    private int maxPendingLines;
+
+    @Inject
+    @ConfigProperty(name = "sse.line-counts.heartbeat-seconds", defaultValue = "20")
+    private int heartbeatSeconds;
+
+    @Inject
+    @ConfigProperty(name = "sse.line-counts.idle-timeout-seconds", defaultValue = "900")
+    private int idleTimeoutSeconds;
+
+    @Inject
+    @ConfigProperty(name = "sse.line-counts.dispatch-threads", defaultValue = "4")
+    private int dispatchThreads;
+
+    private final Map<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ExecutorService dispatcher;
+    private ScheduledExecutorService heartbeat;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        dispatcher = Executors.newFixedThreadPool(dispatchThreads, r -> {
+            Thread thread = new Thread(r, "sse-dispatch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sse-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        LOG.info("Line count stream registry initialized. Max pending lines: {} heartbeat: {}s idle timeout: {}s",
+            maxPendingLines, heartbeatSeconds, idleTimeoutSeconds);
+    }
+
+    /**
+     * Register an SSE connection for the given document
+     */
+    public void subscribe(Long documentId, SseEventSink sink, Sse sse) {
+        Subscriber subscriber = new Subscriber(documentId, sink, sse);
+        subscribers.computeIfAbsent(documentId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        LOG.debug("SSE subscriber added for docId={}", documentId);
+
+        sink.send(sse.newEventBuilder()
+            .name("subscribed")
+            .reconnectDelay(RECONNECT_DELAY_MS)
+            .data(String.class, "{\"documentId\":" + documentId + "}")
+            .build())
+            .whenComplete((result, error) -> {
+                if (error != null) {
+                    remove(subscriber);
+                }
+            });
+    }
+
+    /**
+     * Push a line count change to every subscriber of the document. Never blocks on client I/O.
+     */
+    public void publish(Long documentId, int lineNumber, int count) {
+        Set<Subscriber> documentSubscribers = subscribers.get(documentId);
+        if (documentSubscribers == null || documentSubscribers.isEmpty()) {
+            return;
+        }
+        for (Subscriber subscriber : documentSubscribers) {
+            boolean schedule;
+            synchronized (subscriber) {
+                if (!subscriber.pending.containsKey(lineNumber) && subscriber.pending.size() >= maxPendingLines) {
+                    subscriber.pending.clear();
+                    subscriber.overflowed = true;
+                } else if (!subscriber.overflowed) {
+                    subscriber.pending.put(lineNumber, count);
+                }
+                schedule = !subscriber.sending;
+                subscriber.sending = true;
+            }
+            if (schedule) {
+                dispatcher.execute(() -> flush(subscriber));
+            }
+        }
+    }
+
+    /**
+     * Tell every subscriber of the document to reload all counts, e.g. after lines were remapped
+     */
+    public void resync(Long documentId) {
+        Set<Subscriber> documentSubscribers = subscribers.get(documentId);
+        if (documentSubscribers == null) {
+            return;
+        }
+        for (Subscriber subscriber : documentSubscribers) {
+            boolean schedule;
+            synchronized (subscriber) {
+                subscriber.pending.clear();
+                subscriber.overflowed = true;
+                schedule = !subscriber.sending;
+                subscriber.sending = true;
+            }
+            if (schedule) {
+                dispatcher.execute(() -> flush(subscriber));
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * Send everything pending for one subscriber as a single event.
+     * Only one send per subscriber is in flight at a time, so events arrive in order.
+     */
+    private void flush(Subscriber subscriber) {
+        Map<Integer, Integer> deltas;
+        boolean resync;
+        synchronized (subscriber) {
+            if (subscriber.pending.isEmpty() && !subscriber.overflowed) {
+                subscriber.sending = false;
+                return;
+            }
+            deltas = new LinkedHashMap<>(subscriber.pending);
+            resync = subscriber.overflowed;
+            subscriber.pending.clear();
+            subscriber.overflowed = false;
+        }
+
+        OutboundSseEvent event;
+        try {
+            if (resync) {
+                event = subscriber.sse.newEventBuilder()
+                    .name("resync")
+                    .data(String.class, "{\"documentId\":" + subscriber.documentId + "}")
+                    .build();
+            } else {
+                Map<String, Object> payload = new LinkedHashMap<>();
+                payload.put("documentId", subscriber.documentId);
+                payload.put("lineCommentCounts", deltas);
+                event = subscriber.sse.newEventBuilder()
+                    .name("line-counts")
+                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                    .data(String.class, objectMapper.writeValueAsString(payload))
+                    .build();
+            }
+        } catch (Exception e) {
+            LOG.error("Failed to build line count event for docId={}", subscriber.documentId, e);
+            synchronized (subscriber) {
+                subscriber.sending = false;
+            }
+            return;
+        }
+
+        subscriber.lastActivity = System.currentTimeMillis();
+        subscriber.sink.send(event).whenComplete((result, error) -> {
+            if (error != null) {
+                remove(subscriber);
+                return;
+            }
+            // More changes may have arrived while this event was being written
+            dispatcher.execute(() -> flush(subscriber));
+        });
+    }
+
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (Set<Subscriber> documentSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : documentSubscribers) {
+                try {
+                    if (subscriber.sink.isClosed()) {
+                        remove(subscriber);
+                    } else if (now - subscriber.lastActivity > idleTimeoutSeconds * 1000L) {
+                        LOG.debug("Closing idle SSE subscriber for docId={}", subscriber.documentId);
+                        subscriber.sink.close();
+                        remove(subscriber);
+                    } else {
+                        subscriber.sink.send(subscriber.sse.newEventBuilder().comment("heartbeat").build())
+                            .whenComplete((result, error) -> {
+                                if (error != null) {
+                                    remove(subscriber);
+                                }
+                            });
+                    }
+                } catch (Exception e) {
+                    remove(subscriber);
+                }
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.documentId, (id, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+        for (Set<Subscriber> documentSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : documentSubscribers) {
+                try {
+                    subscriber.sink.close();
+                } catch (Exception e) {
+                    // Connection already gone
+                }
+            }
+        }
+        subscribers.clear();
+    }
+
+    private static class Subscriber {
+        private final Long documentId;
+        private final SseEventSink sink;
+        private final Sse sse;
+        // Guarded by this
+        private final Map<Integer, Integer> pending = new LinkedHashMap<>();
+        private boolean overflowed;
+        private boolean sending;
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        Subscriber(Long documentId, SseEventSink sink, Sse sse) {
+            this.documentId = documentId;
+            this.sink = sink;
+            this.sse = sse;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.dockey.docs.suggest;
+
+import com.dockey.docs.dto.DocumentSuggestion;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Immutable prefix index over suggestion labels, as a sorted array of keys.
+ *
+ * Every label is indexed from the start of each of its words ("getting started with react",
+ * "started with react", ...), normalized to lower case without accents or punctuation, so
+ * a prefix matches any word of a label. Lookup is a binary search to the first key with the
+ * prefix and a scan over the keys that share it. Changes produce a new index by merging the
+ * sorted keys, so readers never lock and never see a half-updated index. A merge copies every
+ * key, so changes should be applied in batches rather than one at a time.
+ */
+final class PrefixIndex {
+
+    static final PrefixIndex EMPTY = new PrefixIndex(new String[0], new DocumentSuggestion[0], Collections.emptyMap());
+
+    // Keys are cut to this length to bound memory; longer prefixes are checked against the label
+    private static final int MAX_KEY_LENGTH = 40;
+
+    private static final Comparator<DocumentSuggestion> RANKING = Comparator
+        .comparingLong(DocumentSuggestion::getPopularity)
+        .thenComparing(DocumentSuggestion::getLabel, Comparator.reverseOrder())
+        .thenComparing(DocumentSuggestion::getId, Comparator.reverseOrder());
+
+    private final String[] keys;
+    private final DocumentSuggestion[] postings; // postings[i] is the entry keys[i] belongs to
+    private final Map<String, DocumentSuggestion> entries;
+
+    private PrefixIndex(String[] keys, DocumentSuggestion[] postings, Map<String, DocumentSuggestion> entries) {
+        this.keys = keys;
+        this.postings = postings;
+        this.entries = entries;
+    }
+
+    static PrefixIndex build(Collection<DocumentSuggestion> suggestions) {
+        return EMPTY.apply(suggestions, Collections.emptySet());
+    }
+
+    /**
+     * A copy of this index with the given entries added or replaced and the given entries removed
+     *
+     * @param removed entry ids, see {@link #entryId(String, Long)}
+     */
+    PrefixIndex apply(Collection<DocumentSuggestion> upserts, Collection<String> removed) {
+        // Old entries whose keys are left out of the copy
+        Set<DocumentSuggestion> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<String, DocumentSuggestion> nextEntries = new HashMap<>(entries);
+        for (String id : removed) {
+            DocumentSuggestion previous = nextEntries.remove(id);
+            if (previous != null) {
+                dropped.add(previous);
+            }
+        }
+
+        List<Object[]> added = new ArrayList<>(); // {key, suggestion}
+        for (DocumentSuggestion suggestion : upserts) {
+            DocumentSuggestion previous = nextEntries.put(entryId(suggestion.getType(), suggestion.getId()), suggestion);
+            if (previous != null) {
+                dropped.add(previous);
+            }
+            for (String key : keysFor(suggestion.getLabel())) {
+                added.add(new Object[]{key, suggestion});
+            }
+        }
+        added.sort(Comparator.comparing(entry -> (String) entry[0]));
+
+        // Merge the surviving old keys with the new ones, both already sorted
+        List<String> mergedKeys = new ArrayList<>(keys.length + added.size());
+        List<DocumentSuggestion> mergedPostings = new ArrayList<>(keys.length + added.size());
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < added.size()) {
+            if (i < keys.length && dropped.contains(postings[i])) {
+                i++;
+                continue;
+            }
+            if (j >= added.size() || (i < keys.length && keys[i].compareTo((String) added.get(j)[0]) <= 0)) {
+                mergedKeys.add(keys[i]);
+                mergedPostings.add(postings[i]);
+                i++;
+            } else {
+                mergedKeys.add((String) added.get(j)[0]);
+                mergedPostings.add((DocumentSuggestion) added.get(j)[1]);
+                j++;
+            }
+        }
+
+        return new PrefixIndex(mergedKeys.toArray(new String[0]),
+            mergedPostings.toArray(new DocumentSuggestion[0]), Collections.unmodifiableMap(nextEntries));
+    }
+
+    DocumentSuggestion get(String type, Long id) {
+        return entries.get(entryId(type, id));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * The k most popular entries with a word starting with prefix, most popular first
+     */
+    List<DocumentSuggestion> top(String prefix, int k) {
+        String normalized = normalize(prefix);
+        if (normalized.isEmpty() || k <= 0) {
+            return new ArrayList<>();
+        }
+        boolean truncated = normalized.length() > MAX_KEY_LENGTH;
+        String searchKey = truncated ? normalized.substring(0, MAX_KEY_LENGTH) : normalized;
+
+        PriorityQueue<DocumentSuggestion> best = new PriorityQueue<>(k + 1, RANKING);
+        Set<DocumentSuggestion> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = lowerBound(searchKey); i < keys.length && keys[i].startsWith(searchKey); i++) {
+            DocumentSuggestion candidate = postings[i];
+            if (!seen.add(candidate)) {
+                continue;
+            }
+            if (truncated && !(" " + normalize(candidate.getLabel())).contains(" " + normalized)) {
+                continue;
+            }
+            best.offer(candidate);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+
+        List<DocumentSuggestion> result = new ArrayList<>(best);
+        result.sort(RANKING.reversed());
+        return result;
+    }
+
+    static String entryId(String type, Long id) {
+        return type + ":" + id;
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String plain = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+        return plain.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+    }
+
+    private static List<String> keysFor(String label) {
+        String normalized = normalize(label);
+        List<String> result = new ArrayList<>();
+        if (normalized.isEmpty()) {
+            return result;
+        }
+        int start = 0;
+        while (start >= 0) {
+            String key = normalized.substring(start, Math.min(normalized.length(), start + MAX_KEY_LENGTH));
+            result.add(key);
+            int space = normalized.indexOf(' ', start);
+            start = space >= 0 ? space + 1 : -1;
+        }
+        return result;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,251 @@
+package com.dockey.docs.suggest;
+
+import com.dockey.docs.dto.DocumentSuggestion;
+import com.dockey.docs.entities.DocGroup;
+import com.dockey.docs.entities.Document;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typeahead over document titles and group display names.
+ *
+ * Lookups read the current {@link PrefixIndex} without locking. Saves and deletes are queued,
+ * latest per entry, and merged into an updated copy of the index merge-delay-ms later, so a
+ * burst of saves costs one copy of the index instead of one each; a lookup right after a save
+ * may not see it yet. A periodic rebuild from the database refreshes popularity: line comments
+ * per document, documents per group. Changes made while a rebuild is loading are replayed onto
+ * the rebuilt index before it is swapped in.
+ *
+ * Each replica has its own index and only sees its own saves directly; changes made on other
+ * replicas show up with the next rebuild, up to rebuild-interval-seconds later.
+ */
+@ApplicationScoped
+public class SuggestionIndex {
+
+    private static final Logger LOG = LogManager.getLogger(SuggestionIndex.class.getName());
+    private static final String DOCUMENT = "DOCUMENT";
+    private static final String GROUP = "GROUP";
+
+    @PersistenceUnit(unitName = "docs-jpa-unit")
+    private EntityManagerFactory emf;
+
+    @Inject
+    @ConfigProperty(name = "documents.suggest.rebuild-interval-seconds", defaultValue = "300")
+    private int rebuildIntervalSeconds;
+
+    @Inject
+    @ConfigProperty(name = "documents.suggest.merge-delay-ms", defaultValue = "200")
+    private int mergeDelayMs;
+
+    private volatile PrefixIndex index = PrefixIndex.EMPTY;
+    private final Object writeLock = new Object();
+    // Changes not merged into the index yet, latest per entry id
+    private Map<String, Change> pendingChanges = new LinkedHashMap<>();
+    private boolean mergeScheduled;
+    private Map<String, Change> changesDuringRebuild; // non-null while a rebuild is loading
+    private ScheduledExecutorService rebuilder;
+    private ScheduledExecutorService merger;
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        rebuilder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "suggestion-index-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        merger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "suggestion-index-merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuilder.scheduleWithFixedDelay(this::rebuild, 0, rebuildIntervalSeconds, TimeUnit.SECONDS);
+        LOG.info("Suggestion index initialized. Rebuild interval: {}s merge delay: {}ms",
+            rebuildIntervalSeconds, mergeDelayMs);
+    }
+
+    /**
+     * Documents and groups with a word starting with prefix, most popular first
+     */
+    public List<DocumentSuggestion> suggest(String prefix, int limit) {
+        return index.top(prefix, limit);
+    }
+
+    public void documentSaved(Document document) {
+        documentsSaved(Collections.singletonList(document));
+    }
+
+    /**
+     * Index new or changed documents. Popularity is kept until the next rebuild.
+     */
+    public void documentsSaved(Collection<Document> documents) {
+        List<Change> changes = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            changes.add(new Change(DOCUMENT, document.getId(), document.getTitle(),
+                document.getDocGroup() != null ? document.getDocGroup().getId() : null, false));
+        }
+        change(changes);
+    }
+
+    public void documentDeleted(Long documentId) {
+        change(Collections.singletonList(new Change(DOCUMENT, documentId, null, null, true)));
+    }
+
+    public void groupSaved(DocGroup group) {
+        change(Collections.singletonList(new Change(GROUP, group.getId(), group.getDisplayName(), null, false)));
+    }
+
+    public void groupDeleted(Long groupId) {
+        change(Collections.singletonList(new Change(GROUP, groupId, null, null, true)));
+    }
+
+    private void change(List<Change> changes) {
+        synchronized (writeLock) {
+            for (Change change : changes) {
+                pendingChanges.put(change.entryId(), change);
+                if (changesDuringRebuild != null) {
+                    changesDuringRebuild.put(change.entryId(), change);
+                }
+            }
+            if (merger == null) {
+                merge();
+            } else if (!mergeScheduled) {
+                mergeScheduled = true;
+                merger.schedule(this::merge, mergeDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void merge() {
+        synchronized (writeLock) {
+            mergeScheduled = false;
+            if (pendingChanges.isEmpty()) {
+                return;
+            }
+            index = applyChanges(index, pendingChanges.values());
+            pendingChanges = new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * The index with the changes applied in one merge. Unchanged labels keep the index as is.
+     */
+    private static PrefixIndex applyChanges(PrefixIndex current, Collection<Change> changes) {
+        List<DocumentSuggestion> upserts = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (Change change : changes) {
+            DocumentSuggestion previous = current.get(change.type, change.id);
+            if (change.deleted) {
+                if (previous != null) {
+                    removed.add(change.entryId());
+                }
+                continue;
+            }
+            if (previous != null && Objects.equals(previous.getLabel(), change.label)
+                    && Objects.equals(previous.getGroupId(), change.groupId)) {
+                continue;
+            }
+            upserts.add(new DocumentSuggestion(change.type, change.id, change.label, change.groupId,
+                previous != null ? previous.getPopularity() : 0));
+        }
+        return upserts.isEmpty() && removed.isEmpty() ? current : current.apply(upserts, removed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rebuild() {
+        synchronized (writeLock) {
+            changesDuringRebuild = new LinkedHashMap<>();
+        }
+        try {
+            List<DocumentSuggestion> suggestions = new ArrayList<>();
+            EntityManager localEm = emf.createEntityManager();
+            try {
+                List<Object[]> documents = localEm.createNativeQuery(
+                    "SELECT d.id, d.title, d.group_id, " +
+                    "COALESCE((SELECT SUM(c.comment_count) FROM document_line_comments c WHERE c.document_id = d.id), 0) " +
+                    "FROM documents d")
+                    .getResultList();
+                for (Object[] row : documents) {
+                    suggestions.add(new DocumentSuggestion(DOCUMENT, ((Number) row[0]).longValue(), (String) row[1],
+                        row[2] != null ? ((Number) row[2]).longValue() : null, ((Number) row[3]).longValue()));
+                }
+
+                List<Object[]> groups = localEm.createNativeQuery(
+                    "SELECT g.id, g.display_name, (SELECT COUNT(*) FROM documents d WHERE d.group_id = g.id) " +
+                    "FROM doc_groups g")
+                    .getResultList();
+                for (Object[] row : groups) {
+                    suggestions.add(new DocumentSuggestion(GROUP, ((Number) row[0]).longValue(), (String) row[1],
+                        null, ((Number) row[2]).longValue()));
+                }
+            } finally {
+                localEm.close();
+            }
+
+            PrefixIndex rebuilt = PrefixIndex.build(suggestions);
+            synchronized (writeLock) {
+                // Changes still pending are merged again later, which leaves their entries as they are
+                rebuilt = applyChanges(rebuilt, changesDuringRebuild.values());
+                index = rebuilt;
+                changesDuringRebuild = null;
+            }
+            LOG.info("Rebuilt suggestion index with {} entries", rebuilt.size());
+        } catch (Exception e) {
+            synchronized (writeLock) {
+                changesDuringRebuild = null;
+            }
+            LOG.error("Failed to rebuild suggestion index", e);
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (rebuilder != null) {
+            rebuilder.shutdownNow();
+        }
+        if (merger != null) {
+            merger.shutdownNow();
+        }
+    }
+
+    /**
+     * A saved or deleted document or group, waiting to be merged into the index
+     */
+    private static final class Change {
+        final String type;
+        final Long id;
+        final String label;
+        final Long groupId;
+        final boolean deleted;
+
+        Change(String type, Long id, String label, Long groupId, boolean deleted) {
+            this.type = type;
+            this.id = id;
+            this.label = label;
+            this.groupId = groupId;
+            this.deleted = deleted;
+        }
+
+        String entryId() {
+            return PrefixIndex.entryId(type, id);
+        }
+    }
+}
@@ -0,0 +1,4 @@
+-- Full-text search over documents (see DocumentSearchService). One statement per line.
+-- Generated column, so Postgres keeps it current on every insert and update; titles rank above content.
+ALTER TABLE documents ADD COLUMN search_vector tsvector GENERATED ALWAYS AS (setweight(to_tsvector('english', coalesce(title, '')), 'A') || setweight(to_tsvector('english', coalesce(content, '')), 'B')) STORED;
+CREATE INDEX idx_documents_search_vector ON documents USING GIN (search_vector);
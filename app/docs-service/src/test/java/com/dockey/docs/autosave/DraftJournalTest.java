@@ -0,0 +1,151 @@
+package com.dockey.docs.autosave;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DraftJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<DraftJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() {
+        opened.forEach(DraftJournal::close);
+    }
+
+    @Test
+    void draftsWithoutAFlushAreReplayed() throws IOException {
+        DraftJournal journal = open();
+        journal.sync(journal.appendDraft(new PendingDraft(1L, 1, "One", "first", 100, 110)));
+        journal.sync(journal.appendDraft(new PendingDraft(2L, 2, null, "second", 200, 210)));
+        journal.sync(journal.appendFlushed(1L, 1));
+        journal.close();
+
+        DraftJournal reopened = journal();
+        Map<Long, PendingDraft> pending = reopened.open();
+
+        assertEquals(List.of(2L), new ArrayList<>(pending.keySet()));
+        PendingDraft draft = pending.get(2L);
+        assertEquals(2, draft.getSequence());
+        assertNull(draft.getTitle());
+        assertEquals("second", draft.getContent());
+        assertEquals(200, draft.getFirstBufferedAt());
+        assertEquals(210, draft.getSavedAt());
+        assertEquals(2, reopened.getMaxSequence());
+    }
+
+    @Test
+    void latestDraftOfADocumentWins() throws IOException {
+        DraftJournal journal = open();
+        journal.appendDraft(new PendingDraft(1L, 1, "Title", "old", 100, 100));
+        journal.appendDraft(new PendingDraft(1L, 2, "Title", "new", 100, 150));
+        journal.close();
+
+        Map<Long, PendingDraft> pending = journal().open();
+
+        assertEquals(1, pending.size());
+        assertEquals("new", pending.get(1L).getContent());
+        assertEquals(2, pending.get(1L).getSequence());
+    }
+
+    @Test
+    void flushOfAnOlderEditKeepsTheNewerDraft() throws IOException {
+        DraftJournal journal = open();
+        journal.appendDraft(new PendingDraft(1L, 1, "Title", "old", 100, 100));
+        journal.appendDraft(new PendingDraft(1L, 3, "Title", "new", 100, 150));
+        journal.appendFlushed(1L, 1);
+        journal.close();
+
+        DraftJournal reopened = journal();
+        Map<Long, PendingDraft> pending = reopened.open();
+
+        assertEquals("new", pending.get(1L).getContent());
+        assertEquals(3, reopened.getMaxSequence());
+    }
+
+    @Test
+    void tornLastRecordIsSkippedAndDoesNotSwallowTheNextOne() throws IOException {
+        DraftJournal journal = open();
+        journal.appendDraft(new PendingDraft(1L, 1, "Title", "kept", 100, 100));
+        journal.close();
+        Files.write(path(), "{\"t\":\"draft\",\"id\":2,\"seq\":2,\"con".getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+
+        DraftJournal afterCrash = journal();
+        Map<Long, PendingDraft> pending = afterCrash.open();
+        afterCrash.appendDraft(new PendingDraft(3L, 3, "Title", "appended", 300, 300));
+        afterCrash.close();
+
+        assertEquals(List.of(1L), new ArrayList<>(pending.keySet()));
+        Map<Long, PendingDraft> replayed = journal().open();
+        assertEquals(2, replayed.size());
+        assertEquals("kept", replayed.get(1L).getContent());
+        assertEquals("appended", replayed.get(3L).getContent());
+    }
+
+    @Test
+    void compactionKeepsOnlyThePendingDrafts() throws IOException {
+        DraftJournal journal = open();
+        String large = "x".repeat(300 * 1024);
+        for (long sequence = 1; sequence <= 4; sequence++) {
+            journal.appendDraft(new PendingDraft(sequence, sequence, "Title", large, 100, 100));
+            journal.appendFlushed(sequence, sequence);
+        }
+        PendingDraft pending = new PendingDraft(5L, 5, "Title", "pending", 100, 100);
+        journal.appendDraft(pending);
+        long before = Files.size(path());
+
+        journal.compactIfNeeded(List.of(pending), pending.getSizeBytes());
+        journal.sync(journal.appendDraft(new PendingDraft(6L, 6, "Title", "after compaction", 100, 100)));
+        journal.close();
+
+        assertTrue(Files.size(path()) < before / 100);
+        Map<Long, PendingDraft> replayed = journal().open();
+        assertEquals(List.of(5L, 6L), new ArrayList<>(replayed.keySet()));
+        assertEquals("after compaction", replayed.get(6L).getContent());
+    }
+
+    @Test
+    void smallJournalIsNotCompacted() throws IOException {
+        DraftJournal journal = open();
+        journal.appendDraft(new PendingDraft(1L, 1, "Title", "flushed", 100, 100));
+        journal.appendFlushed(1L, 1);
+        long before = Files.size(path());
+
+        journal.compactIfNeeded(List.of(), 0);
+
+        assertEquals(before, Files.size(path()));
+    }
+
+    private DraftJournal open() throws IOException {
+        DraftJournal journal = journal();
+        journal.open();
+        return journal;
+    }
+
+    private DraftJournal journal() {
+        DraftJournal journal = new DraftJournal(path(), true);
+        opened.add(journal);
+        return journal;
+    }
+
+    private Path path() {
+        return dir.resolve("autosave").resolve("drafts.journal");
+    }
+}
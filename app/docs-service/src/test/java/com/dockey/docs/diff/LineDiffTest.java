@@ -0,0 +1,122 @@
+package com.dockey.docs.diff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LineDiffTest {
+
+    @Test
+    void splitAndJoinRoundTrip() {
+        for (String content : Arrays.asList("", "a", "a\n", "a\nb", "\n\n", "a\n\nb\n")) {
+            assertEquals(content, LineDiff.joinLines(LineDiff.splitLines(content)));
+        }
+        assertEquals(Collections.singletonList(""), LineDiff.splitLines(null));
+    }
+
+    @Test
+    void identicalTextsHaveNoHunks() {
+        List<String> lines = Arrays.asList("a", "b", "c");
+
+        assertTrue(LineDiff.diff(lines, new ArrayList<>(lines)).isEmpty());
+    }
+
+    @Test
+    void changedLineIsOneHunk() {
+        List<LineDiff.Hunk> hunks = LineDiff.diff(Arrays.asList("a", "b", "c"), Arrays.asList("a", "B", "c"));
+
+        assertEquals(1, hunks.size());
+        assertEquals(1, hunks.get(0).getOldStart());
+        assertEquals(1, hunks.get(0).getOldCount());
+        assertEquals(1, hunks.get(0).getNewStart());
+        assertEquals(Collections.singletonList("B"), hunks.get(0).getNewLines());
+    }
+
+    @Test
+    void diffIsMinimal() {
+        List<String> oldLines = Arrays.asList("a", "b", "c", "a", "b", "b", "a");
+        List<String> newLines = Arrays.asList("c", "b", "a", "b", "a", "c");
+
+        List<LineDiff.Hunk> hunks = LineDiff.diff(oldLines, newLines);
+
+        int edits = 0;
+        for (LineDiff.Hunk hunk : hunks) {
+            edits += hunk.getOldCount() + hunk.getNewCount();
+        }
+        assertEquals(5, edits);
+        assertEquals(newLines, LineDiff.apply(oldLines, hunks));
+    }
+
+    @Test
+    void applyReproducesRandomEdits() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            List<String> oldLines = randomLines(random, random.nextInt(30));
+            List<String> newLines = new ArrayList<>(oldLines);
+            int edits = random.nextInt(6);
+            for (int e = 0; e < edits; e++) {
+                int position = newLines.isEmpty() ? 0 : random.nextInt(newLines.size());
+                switch (random.nextInt(3)) {
+                    case 0:
+                        newLines.add(position, "n" + random.nextInt(5));
+                        break;
+                    case 1:
+                        if (!newLines.isEmpty()) {
+                            newLines.remove(position);
+                        }
+                        break;
+                    default:
+                        if (!newLines.isEmpty()) {
+                            newLines.set(position, "r" + random.nextInt(5));
+                        }
+                }
+            }
+
+            List<LineDiff.Hunk> hunks = LineDiff.diff(oldLines, newLines);
+
+            assertEquals(newLines, LineDiff.apply(oldLines, hunks), "round " + round);
+            int newPosition = 0;
+            int oldPosition = 0;
+            for (LineDiff.Hunk hunk : hunks) {
+                newPosition += hunk.getOldStart() - oldPosition;
+                assertEquals(newPosition, hunk.getNewStart(), "round " + round);
+                newPosition += hunk.getNewCount();
+                oldPosition = hunk.getOldStart() + hunk.getOldCount();
+            }
+        }
+    }
+
+    @Test
+    void applyRejectsHunksOutOfOrder() {
+        List<String> lines = Arrays.asList("a", "b", "c");
+        List<LineDiff.Hunk> hunks = Arrays.asList(
+            new LineDiff.Hunk(2, 1, 2, Collections.singletonList("C")),
+            new LineDiff.Hunk(0, 1, 0, Collections.singletonList("A"))
+        );
+
+        assertThrows(IllegalArgumentException.class, () -> LineDiff.apply(lines, hunks));
+    }
+
+    @Test
+    void applyRejectsHunkPastTheEnd() {
+        List<LineDiff.Hunk> hunks = Collections.singletonList(new LineDiff.Hunk(2, 2, 2, Collections.emptyList()));
+
+        assertThrows(IllegalArgumentException.class, () -> LineDiff.apply(Arrays.asList("a", "b", "c"), hunks));
+    }
+
+    private static List<String> randomLines(Random random, int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add("l" + random.nextInt(8));
+        }
+        return lines;
+    }
+}
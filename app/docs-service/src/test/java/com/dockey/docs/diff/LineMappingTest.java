@@ -0,0 +1,104 @@
+package com.dockey.docs.diff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LineMappingTest {
+
+    @Test
+    void noHunksIsIdentity() {
+        LineMapping mapping = LineMapping.fromHunks(Collections.emptyList(), 10);
+
+        assertTrue(mapping.isIdentity());
+        assertEquals(7, mapping.map(7));
+    }
+
+    @Test
+    void insertionShiftsLaterLinesOpenEnded() {
+        // Two lines inserted after line 2
+        List<LineDiff.Hunk> hunks = Collections.singletonList(new LineDiff.Hunk(2, 0, 2, Arrays.asList("x", "y")));
+
+        LineMapping mapping = LineMapping.fromHunks(hunks, 7);
+
+        assertEquals(1, mapping.map(1));
+        assertEquals(2, mapping.map(2));
+        assertEquals(5, mapping.map(3));
+        assertEquals(7, mapping.map(5));
+        assertEquals(102, mapping.map(100));
+        assertEquals(1, mapping.getRanges().size());
+    }
+
+    @Test
+    void deletedLinesCollapseOntoTheFollowingLine() {
+        // Lines 3-4 of 6 deleted
+        List<LineDiff.Hunk> hunks = Collections.singletonList(new LineDiff.Hunk(2, 2, 2, Collections.emptyList()));
+
+        LineMapping mapping = LineMapping.fromHunks(hunks, 4);
+
+        assertEquals(2, mapping.map(2));
+        assertEquals(3, mapping.map(3));
+        assertEquals(3, mapping.map(4));
+        assertEquals(3, mapping.map(5));
+        assertEquals(4, mapping.map(6));
+    }
+
+    @Test
+    void deletionAtTheEndCollapsesOntoTheLastLine() {
+        // Lines 4-5 of 5 deleted
+        List<LineDiff.Hunk> hunks = Collections.singletonList(new LineDiff.Hunk(3, 2, 3, Collections.emptyList()));
+
+        LineMapping mapping = LineMapping.fromHunks(hunks, 3);
+
+        assertEquals(3, mapping.map(4));
+        assertEquals(3, mapping.map(5));
+    }
+
+    @Test
+    void replacementPairsLinesAndCollapsesTheSurplus() {
+        // Lines 2-4 replaced by one line
+        List<LineDiff.Hunk> hunks = Collections.singletonList(new LineDiff.Hunk(1, 3, 1, Collections.singletonList("x")));
+
+        LineMapping mapping = LineMapping.fromHunks(hunks, 3);
+
+        assertEquals(1, mapping.map(1));
+        assertEquals(2, mapping.map(2));
+        assertEquals(2, mapping.map(3));
+        assertEquals(2, mapping.map(4));
+        assertEquals(3, mapping.map(5));
+    }
+
+    @Test
+    void shiftsOfSeveralHunksAccumulate() {
+        List<String> oldLines = Arrays.asList("a", "b", "c", "d", "e", "f");
+        List<String> newLines = Arrays.asList("x", "a", "b", "c", "e", "f", "y");
+
+        LineMapping mapping = LineMapping.fromHunks(LineDiff.diff(oldLines, newLines), newLines.size());
+
+        assertEquals(2, mapping.map(1));
+        assertEquals(4, mapping.map(3));
+        assertEquals(5, mapping.map(4));
+        assertEquals(5, mapping.map(5));
+        assertEquals(6, mapping.map(6));
+    }
+
+    @Test
+    void everyUnchangedLineMapsToItsCopy() {
+        List<String> oldLines = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i");
+        List<String> newLines = Arrays.asList("a", "X", "c", "d", "Y", "Z", "e", "g", "h", "i", "W");
+
+        LineMapping mapping = LineMapping.fromHunks(LineDiff.diff(oldLines, newLines), newLines.size());
+
+        for (int line = 1; line <= oldLines.size(); line++) {
+            String text = oldLines.get(line - 1);
+            if (newLines.contains(text)) {
+                assertEquals(newLines.indexOf(text) + 1, mapping.map(line), "line " + line);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.dockey.docs.diff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UnifiedDiffTest {
+
+    private static final List<String> BASE = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h");
+
+    @Test
+    void insertWithContextKeepsContextLinesInPlace() {
+        String diff = "--- a/doc\n"
+            + "+++ b/doc\n"
+            + "@@ -1,6 +1,7 @@\n"
+            + " a\n"
+            + " b\n"
+            + " c\n"
+            + "+X\n"
+            + " d\n"
+            + " e\n"
+            + " f\n";
+
+        List<LineDiff.Hunk> hunks = UnifiedDiff.parse(diff, BASE);
+
+        assertEquals(1, hunks.size());
+        LineDiff.Hunk hunk = hunks.get(0);
+        assertEquals(3, hunk.getOldStart());
+        assertEquals(0, hunk.getOldCount());
+        assertEquals(3, hunk.getNewStart());
+        assertEquals(Arrays.asList("X"), hunk.getNewLines());
+        assertEquals(Arrays.asList("a", "b", "c", "X", "d", "e", "f", "g", "h"), LineDiff.apply(BASE, hunks));
+
+        LineMapping mapping = LineMapping.fromHunks(hunks, 9);
+        assertEquals(3, mapping.map(3));
+        assertEquals(5, mapping.map(4));
+        assertEquals(6, mapping.map(5));
+        assertEquals(7, mapping.map(6));
+        assertEquals(9, mapping.map(8));
+    }
+
+    @Test
+    void hunkIsSplitAtEveryContextRun() {
+        String diff = "@@ -2,5 +2,5 @@\n"
+            + "-b\n"
+            + "+B\n"
+            + " c\n"
+            + " d\n"
+            + "-e\n"
+            + "-f\n"
+            + "+F\n"
+            + "+G\n";
+
+        List<LineDiff.Hunk> hunks = UnifiedDiff.parse(diff, BASE);
+
+        assertEquals(2, hunks.size());
+        assertEquals(1, hunks.get(0).getOldStart());
+        assertEquals(1, hunks.get(0).getOldCount());
+        assertEquals(Arrays.asList("B"), hunks.get(0).getNewLines());
+        assertEquals(4, hunks.get(1).getOldStart());
+        assertEquals(2, hunks.get(1).getOldCount());
+        assertEquals(4, hunks.get(1).getNewStart());
+        assertEquals(Arrays.asList("F", "G"), hunks.get(1).getNewLines());
+        assertEquals(Arrays.asList("a", "B", "c", "d", "F", "G", "g", "h"), LineDiff.apply(BASE, hunks));
+    }
+
+    @Test
+    void deletionShiftsFollowingContext() {
+        String diff = "@@ -3,4 +3,3 @@\n"
+            + " c\n"
+            + "-d\n"
+            + " e\n"
+            + " f\n";
+
+        List<LineDiff.Hunk> hunks = UnifiedDiff.parse(diff, BASE);
+
+        assertEquals(1, hunks.size());
+        assertEquals(3, hunks.get(0).getOldStart());
+        assertEquals(1, hunks.get(0).getOldCount());
+        assertEquals(0, hunks.get(0).getNewCount());
+
+        LineMapping mapping = LineMapping.fromHunks(hunks, 7);
+        assertEquals(3, mapping.map(3));
+        assertEquals(4, mapping.map(4));
+        assertEquals(4, mapping.map(5));
+        assertEquals(5, mapping.map(6));
+    }
+
+    @Test
+    void multipleHunksApplyInOrder() {
+        String diff = "@@ -1,2 +1,2 @@\n"
+            + "-a\n"
+            + "+A\n"
+            + " b\n"
+            + "@@ -7,2 +7,3 @@\n"
+            + " g\n"
+            + " h\n"
+            + "+i\n";
+
+        List<LineDiff.Hunk> hunks = UnifiedDiff.parse(diff, BASE);
+
+        assertEquals(2, hunks.size());
+        assertEquals(Arrays.asList("A", "b", "c", "d", "e", "f", "g", "h", "i"), LineDiff.apply(BASE, hunks));
+    }
+
+    @Test
+    void contextOnlyDiffHasNoHunks() {
+        List<LineDiff.Hunk> hunks = UnifiedDiff.parse("@@ -1,2 +1,2 @@\n a\n b\n", BASE);
+
+        assertTrue(hunks.isEmpty());
+    }
+
+    @Test
+    void noNewlineMarkerIsIgnored() {
+        String diff = "@@ -8 +8 @@\n"
+            + "-h\n"
+            + "\\ No newline at end of file\n"
+            + "+H\n"
+            + "\\ No newline at end of file\n";
+
+        List<LineDiff.Hunk> hunks = UnifiedDiff.parse(diff, BASE);
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f", "g", "H"), LineDiff.apply(BASE, hunks));
+    }
+
+    @Test
+    void rejectsContextThatDoesNotMatchBase() {
+        String diff = "@@ -1,2 +1,3 @@\n a\n+X\n c\n";
+
+        assertThrows(IllegalArgumentException.class, () -> UnifiedDiff.parse(diff, BASE));
+    }
+
+    @Test
+    void rejectsHunkLongerThanItsHeader() {
+        String diff = "@@ -1,2 +1,2 @@\n a\n-b\n+B\n+C\n";
+
+        assertThrows(IllegalArgumentException.class, () -> UnifiedDiff.parse(diff, BASE));
+    }
+
+    @Test
+    void rejectsTruncatedHunk() {
+        assertThrows(IllegalArgumentException.class, () -> UnifiedDiff.parse("@@ -1,3 +1,3 @@\n a\n b", BASE));
+    }
+
+    @Test
+    void rejectsOverlappingHunks() {
+        String diff = "@@ -2,1 +2,1 @@\n-b\n+B\n@@ -1,1 +1,1 @@\n-a\n+A\n";
+
+        assertThrows(IllegalArgumentException.class, () -> UnifiedDiff.parse(diff, BASE));
+    }
+
+    @Test
+    void rejectsDiffWithoutHunks() {
+        assertThrows(IllegalArgumentException.class, () -> UnifiedDiff.parse("--- a/doc\n+++ b/doc\n", BASE));
+    }
+}
@@ -0,0 +1,174 @@
+package com.dockey.docs.services;
+
+import com.dockey.docs.diff.LineDiff;
+import com.dockey.docs.entities.Document;
+import com.dockey.docs.entities.DocumentRevision;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentRevisionServiceTest {
+
+    private final List<DocumentRevision> stored = new ArrayList<>();
+    // Only persist is used when recording revisions
+    private final EntityManager txEm = (EntityManager) Proxy.newProxyInstance(
+        EntityManager.class.getClassLoader(), new Class<?>[]{EntityManager.class}, (proxy, method, args) -> {
+            if (!"persist".equals(method.getName())) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            stored.add((DocumentRevision) args[0]);
+            return null;
+        });
+
+    @Test
+    void everyRevisionIsRebuiltFromItsDeltas() {
+        DocumentRevisionService service = new DocumentRevisionService(20);
+        List<String> contents = new ArrayList<>();
+        List<String> lines = LineDiff.splitLines(lines(1, 30));
+        contents.add(LineDiff.joinLines(lines));
+        lines.add(5, "inserted");
+        contents.add(LineDiff.joinLines(lines));
+        lines.subList(10, 12).clear();
+        contents.add(LineDiff.joinLines(lines));
+        lines.set(17, "changed");
+        contents.add(LineDiff.joinLines(lines));
+        lines.add("appended");
+        contents.add(LineDiff.joinLines(lines));
+        lines.set(0, "replaced");
+        contents.add(LineDiff.joinLines(lines));
+
+        Document document = record(service, contents);
+
+        assertEquals(contents.size(), (int) document.getRevision());
+        for (int revision = 2; revision <= contents.size(); revision++) {
+            assertFalse(revision(revision).isSnapshot(), "revision " + revision + " is a delta");
+        }
+        for (int revision = 1; revision <= contents.size(); revision++) {
+            assertEquals(contents.get(revision - 1), contentAt(service, revision), "content of revision " + revision);
+        }
+    }
+
+    @Test
+    void snapshotIsStoredEverySnapshotInterval() {
+        DocumentRevisionService service = new DocumentRevisionService(3);
+        List<String> contents = new ArrayList<>();
+        List<String> lines = LineDiff.splitLines(lines(1, 30));
+        contents.add(LineDiff.joinLines(lines));
+        for (int edit = 1; edit <= 7; edit++) {
+            lines.set(edit * 3, "edit " + edit);
+            contents.add(LineDiff.joinLines(lines));
+        }
+
+        record(service, contents);
+
+        for (int revision = 1; revision <= contents.size(); revision++) {
+            assertEquals((revision - 1) % 3 == 0, revision(revision).isSnapshot(), "snapshot at revision " + revision);
+            assertEquals(contents.get(revision - 1), contentAt(service, revision), "content of revision " + revision);
+        }
+    }
+
+    @Test
+    void deltaLargerThanTheContentIsStoredAsSnapshot() {
+        DocumentRevisionService service = new DocumentRevisionService(20);
+
+        record(service, List.of(lines(1, 30), "short"));
+
+        assertTrue(revision(2).isSnapshot());
+        assertEquals("short", revision(2).getData());
+        assertEquals("short", contentAt(service, 2));
+    }
+
+    @Test
+    void unchangedContentRecordsNoRevision() {
+        DocumentRevisionService service = new DocumentRevisionService(20);
+        Document document = record(service, List.of("a\nb"));
+
+        List<LineDiff.Hunk> hunks = service.recordRevision(txEm, document, "a\nb");
+
+        assertTrue(hunks.isEmpty());
+        assertEquals(1, (int) document.getRevision());
+        assertEquals(1, stored.size());
+    }
+
+    @Test
+    void documentWithoutHistoryGetsItsPreviousContentAsRevisionOne() {
+        DocumentRevisionService service = new DocumentRevisionService(20);
+        Document document = new Document();
+        document.setId(1L);
+        document.setContent(lines(1, 10) + "\nnew");
+
+        service.recordRevision(txEm, document, lines(1, 10));
+
+        assertEquals(2, (int) document.getRevision());
+        assertTrue(revision(1).isSnapshot());
+        assertEquals(lines(1, 10), contentAt(service, 1));
+        assertEquals(lines(1, 10) + "\nnew", contentAt(service, 2));
+    }
+
+    @Test
+    void knownHunksAreStoredAsTheDelta() {
+        DocumentRevisionService service = new DocumentRevisionService(20);
+        Document document = record(service, List.of(lines(1, 20)));
+        List<String> newLines = LineDiff.splitLines(lines(1, 20));
+        newLines.set(4, "patched");
+        List<LineDiff.Hunk> hunks = List.of(new LineDiff.Hunk(4, 1, 4, List.of("patched")));
+
+        String previous = document.getContent();
+        document.setContent(LineDiff.joinLines(newLines));
+        List<LineDiff.Hunk> recorded = service.recordRevision(txEm, document, previous, hunks);
+
+        assertEquals(hunks, recorded);
+        assertFalse(revision(2).isSnapshot());
+        assertEquals(LineDiff.joinLines(newLines), contentAt(service, 2));
+    }
+
+    /**
+     * Create a document with the first content and edit it to each of the others
+     */
+    private Document record(DocumentRevisionService service, List<String> contents) {
+        Document document = new Document();
+        document.setId(1L);
+        document.setContent(contents.get(0));
+        service.recordInitialRevision(txEm, document);
+        for (String content : contents.subList(1, contents.size())) {
+            String previous = document.getContent();
+            document.setContent(content);
+            service.recordRevision(txEm, document, previous);
+        }
+        return document;
+    }
+
+    private DocumentRevision revision(int revision) {
+        return stored.stream().filter(r -> r.getRevision() == revision).findFirst().orElseThrow();
+    }
+
+    /**
+     * Rebuild a revision from the latest snapshot at or before it, as getContentAtRevision does
+     */
+    private String contentAt(DocumentRevisionService service, int revision) {
+        int snapshot = stored.stream()
+            .filter(r -> r.isSnapshot() && r.getRevision() <= revision)
+            .mapToInt(DocumentRevision::getRevision)
+            .max()
+            .orElseThrow();
+        List<DocumentRevision> chain = stored.stream()
+            .filter(r -> r.getRevision() >= snapshot && r.getRevision() <= revision)
+            .sorted(Comparator.comparing(DocumentRevision::getRevision))
+            .collect(Collectors.toList());
+        return LineDiff.joinLines(service.rebuildLines(chain));
+    }
+
+    private static String lines(int from, int to) {
+        return IntStream.rangeClosed(from, to).mapToObj(i -> "line " + i).collect(Collectors.joining("\n"));
+    }
+}
@@ -0,0 +1,91 @@
+package com.dockey.docs.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * comments-service has the same test for its copy of LineCountDigests. The pinned digests
+ * must match there, or the two services never agree on a range.
+ */
+class LineCountDigestsTest {
+
+    @Test
+    void digestsArePinned() {
+        LineCountDigests digests = new LineCountDigests(List.of(new long[]{1, 101}, new long[]{200, 203}), 4);
+        digests.add(1, 1, 3);
+        digests.add(42, 7, 1);
+        digests.add(100, 2, 5);
+        digests.add(201, 1, 2);
+
+        assertArrayEquals(new long[]{-347296600090844000L, 1936230574255947278L, 0, -5053012783576568007L},
+            digests.getDigests()[0]);
+        assertArrayEquals(new long[]{0, 5931609503158252538L, 0}, digests.getDigests()[1]);
+    }
+
+    @Test
+    void rangesAreCutIntoEvenBuckets() {
+        assertEquals(25, LineCountDigests.bucketSize(1, 101, 4));
+        assertEquals(4, LineCountDigests.bucketCount(1, 101, 4));
+        assertEquals(26, LineCountDigests.bucketSize(0, 101, 4));
+        assertEquals(4, LineCountDigests.bucketCount(0, 101, 4));
+        // No more documents than buckets: one bucket per document
+        assertEquals(1, LineCountDigests.bucketSize(200, 203, 4));
+        assertEquals(3, LineCountDigests.bucketCount(200, 203, 4));
+    }
+
+    @Test
+    void digestDoesNotDependOnOrder() {
+        LineCountDigests forward = new LineCountDigests(List.<long[]>of(new long[]{0, 10}), 1);
+        LineCountDigests backward = new LineCountDigests(List.<long[]>of(new long[]{0, 10}), 1);
+        for (int line = 1; line <= 5; line++) {
+            forward.add(3, line, line);
+            backward.add(3, 6 - line, 6 - line);
+        }
+
+        assertArrayEquals(forward.getDigests()[0], backward.getDigests()[0]);
+    }
+
+    @Test
+    void bucketDigestIsTheSumOfItsDocuments() {
+        LineCountDigests bucket = new LineCountDigests(List.<long[]>of(new long[]{0, 4}), 1);
+        LineCountDigests documents = new LineCountDigests(List.<long[]>of(new long[]{0, 4}), 4);
+        for (long docId = 0; docId < 4; docId++) {
+            bucket.add(docId, 1, (int) docId + 1);
+            documents.add(docId, 1, (int) docId + 1);
+        }
+
+        long sum = 0;
+        for (long digest : documents.getDigests()[0]) {
+            sum += digest;
+        }
+        assertEquals(sum, bucket.getDigests()[0][0]);
+    }
+
+    @Test
+    void emptyLinesAndDocumentsOutsideTheRangesAreIgnored() {
+        LineCountDigests digests = new LineCountDigests(List.of(new long[]{10, 20}, new long[]{30, 40}), 2);
+        digests.add(5, 1, 1);
+        digests.add(20, 1, 1);
+        digests.add(25, 1, 1);
+        digests.add(40, 1, 1);
+        digests.add(12, 1, 0);
+
+        assertArrayEquals(new long[]{0, 0}, digests.getDigests()[0]);
+        assertArrayEquals(new long[]{0, 0}, digests.getDigests()[1]);
+    }
+
+    @Test
+    void countChangesTheDigest() {
+        LineCountDigests one = new LineCountDigests(List.<long[]>of(new long[]{0, 10}), 1);
+        LineCountDigests two = new LineCountDigests(List.<long[]>of(new long[]{0, 10}), 1);
+        one.add(3, 1, 1);
+        two.add(3, 1, 2);
+
+        assertNotEquals(one.getDigests()[0][0], two.getDigests()[0][0]);
+    }
+}
@@ -0,0 +1,160 @@
+package com.dockey.docs.suggest;
+
+import com.dockey.docs.dto.DocumentSuggestion;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefixIndexTest {
+
+    @Test
+    void prefixMatchesAnyWordIgnoringCaseAndAccents() {
+        PrefixIndex index = PrefixIndex.build(List.of(
+            document(1, "Getting Started with React", 0),
+            document(2, "Caf\u00e9-Men\u00fc", 0),
+            document(3, "Kotlin basics", 0)));
+
+        assertEquals(List.of(1L), ids(index.top("get", 10)));
+        assertEquals(List.of(1L), ids(index.top("STARTED W", 10)));
+        assertEquals(List.of(1L), ids(index.top("react", 10)));
+        assertEquals(List.of(2L), ids(index.top("cafe me", 10)));
+        assertEquals(List.of(2L), ids(index.top("men\u00fc", 10)));
+        assertTrue(index.top("tarted", 10).isEmpty());
+        assertTrue(index.top("  ", 10).isEmpty());
+    }
+
+    @Test
+    void mostPopularComeFirstAndAtMostK() {
+        PrefixIndex index = PrefixIndex.build(List.of(
+            document(1, "react hooks", 5),
+            document(2, "react router", 20),
+            document(3, "react native", 10),
+            group(1, "react team", 15)));
+
+        List<DocumentSuggestion> top = index.top("react", 3);
+
+        assertEquals(3, top.size());
+        assertEquals(20, top.get(0).getPopularity());
+        assertEquals("GROUP", top.get(1).getType());
+        assertEquals(10, top.get(2).getPopularity());
+    }
+
+    @Test
+    void labelWithARepeatedWordIsSuggestedOnce() {
+        PrefixIndex index = PrefixIndex.build(List.of(document(1, "notes notes notes", 0)));
+
+        assertEquals(List.of(1L), ids(index.top("notes", 10)));
+    }
+
+    @Test
+    void prefixLongerThanTheKeysIsCheckedAgainstTheLabel() {
+        String shared = "a very long title that goes on and on past the key length ";
+        PrefixIndex index = PrefixIndex.build(List.of(
+            document(1, shared + "alpha", 0),
+            document(2, shared + "beta", 0)));
+
+        assertEquals(2, index.top(shared, 10).size());
+        assertEquals(List.of(2L), ids(index.top(shared + "be", 10)));
+    }
+
+    @Test
+    void upsertReplacesTheKeysOfTheOldLabel() {
+        PrefixIndex index = PrefixIndex.build(List.of(document(1, "draft notes", 0)));
+
+        PrefixIndex renamed = index.apply(List.of(document(1, "final report", 3)), Collections.emptyList());
+
+        assertTrue(renamed.top("draft", 10).isEmpty());
+        assertEquals(List.of(1L), ids(renamed.top("report", 10)));
+        assertEquals(3, renamed.get("DOCUMENT", 1L).getPopularity());
+        assertEquals(1, renamed.size());
+    }
+
+    @Test
+    void removedEntryIsGoneAndTheOldIndexIsUnchanged() {
+        PrefixIndex index = PrefixIndex.build(List.of(document(1, "draft notes", 0), document(2, "draft plan", 0)));
+
+        PrefixIndex next = index.apply(Collections.emptyList(), List.of(PrefixIndex.entryId("DOCUMENT", 1L)));
+
+        assertEquals(List.of(2L), ids(next.top("draft", 10)));
+        assertNull(next.get("DOCUMENT", 1L));
+        assertEquals(2, index.top("draft", 10).size());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void removingAnUnknownEntryChangesNothing() {
+        PrefixIndex index = PrefixIndex.build(List.of(document(1, "draft notes", 0)));
+
+        PrefixIndex next = index.apply(Collections.emptyList(), List.of(PrefixIndex.entryId("GROUP", 1L)));
+
+        assertEquals(1, next.size());
+        assertSame(index.get("DOCUMENT", 1L), next.get("DOCUMENT", 1L));
+    }
+
+    @Test
+    void mergedBatchesMatchABruteForceSearch() {
+        Random random = new Random(7);
+        String[] words = {"alpha", "beta", "gamma", "delta", "alp", "be", "gam"};
+        Map<Long, DocumentSuggestion> current = new HashMap<>();
+        PrefixIndex index = PrefixIndex.EMPTY;
+
+        for (int batch = 0; batch < 50; batch++) {
+            List<DocumentSuggestion> upserts = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            for (int change = 0; change < 5; change++) {
+                long id = random.nextInt(30);
+                if (random.nextInt(4) == 0) {
+                    removed.add(PrefixIndex.entryId("DOCUMENT", id));
+                    current.remove(id);
+                    upserts.removeIf(s -> s.getId() == id);
+                } else {
+                    String label = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+                    DocumentSuggestion suggestion = document(id, label, random.nextInt(100));
+                    upserts.removeIf(s -> s.getId() == id);
+                    upserts.add(suggestion);
+                    current.put(id, suggestion);
+                }
+            }
+            index = index.apply(upserts, removed);
+
+            assertEquals(current.size(), index.size());
+            for (String prefix : new String[]{"a", "al", "alpha", "b", "be", "g", "delta", "alpha be"}) {
+                assertEquals(bruteForce(current, prefix), ids(index.top(prefix, 100)), "batch " + batch + " prefix " + prefix);
+            }
+        }
+    }
+
+    private static List<Long> bruteForce(Map<Long, DocumentSuggestion> suggestions, String prefix) {
+        return suggestions.values().stream()
+            .filter(s -> (" " + s.getLabel()).contains(" " + prefix))
+            .sorted(Comparator.comparingLong(DocumentSuggestion::getPopularity).reversed()
+                .thenComparing(DocumentSuggestion::getLabel)
+                .thenComparing(DocumentSuggestion::getId))
+            .map(DocumentSuggestion::getId)
+            .collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<DocumentSuggestion> suggestions) {
+        return suggestions.stream().map(DocumentSuggestion::getId).collect(Collectors.toList());
+    }
+
+    private static DocumentSuggestion document(long id, String label, long popularity) {
+        return new DocumentSuggestion("DOCUMENT", id, label, null, popularity);
+    }
+
+    private static DocumentSuggestion group(long id, String label, long popularity) {
+        return new DocumentSuggestion("GROUP", id, label, null, popularity);
+    }
+}
@@ -60,6 +60,40 @@ export const CommentDialog: React.FC<CommentDialogProps> = ({
     }
   }, [initialComments]);
 
+  // Live updates for this line while the dialog is open
+  useEffect(() => {
+    if (!isOpen) return;
+    return commentService.subscribeToComments(
+      docId,
+      (delta) => {
+        switch (delta.type) {
+          case 'COMMENT_ADDED':
+            if (delta.comment) {
+              const added = delta.comment;
+              setComments(prev => (prev.some(c => c.id === added.id) ? prev : [...prev, added]));
+            }
+            break;
+          case 'COMMENT_DELETED':
+            setComments(prev => prev.filter(c => c.id !== delta.commentId));
+            break;
+          case 'COMMENT_LIKED':
+          case 'COMMENT_UNLIKED':
+            setComments(prev => prev.map(c => (c.id === delta.commentId
+              ? {
+                  ...c,
+                  likeCount: delta.likeCount ?? c.likeCount,
+                  likedByCurrentUser: delta.userId === user?.keycloakId
+                    ? delta.type === 'COMMENT_LIKED'
+                    : c.likedByCurrentUser,
+                }
+              : c)));
+            break;
+        }
+      },
+      { fromLine: lineNumber, toLine: lineNumber }
+    );
+  }, [isOpen, docId, lineNumber, user?.keycloakId]);
+
   // Close on escape key
   useEffect(() => {
     const handleEscape = (e: KeyboardEvent) => {
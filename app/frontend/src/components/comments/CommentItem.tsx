@@ -1,4 +1,4 @@
-import React, { useState } from 'react';
+import React, { useEffect, useState } from 'react';
 import { Link } from 'react-router-dom';
 import type { Comment } from '../../types';
 import { useAuth } from '../../context/AuthContext';
@@ -23,6 +23,12 @@ export const CommentItem: React.FC<CommentItemProps> = ({
   const [showDeleteConfirm, setShowDeleteConfirm] = useState(false);
   const [isDeleting, setIsDeleting] = useState(false);
 
+  // Pick up like changes pushed by other users
+  useEffect(() => {
+    setLocalLikeCount(comment.likeCount || 0);
+    setLocalLiked(comment.likedByCurrentUser || false);
+  }, [comment.likeCount, comment.likedByCurrentUser]);
+
   const isOwner = user?.keycloakId === comment.userId;
 
   const handleLikeToggle = async () => {
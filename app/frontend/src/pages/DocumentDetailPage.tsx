@@ -15,6 +15,33 @@ export const DocumentDetailPage: React.FC = () => {
     }
   }, [id]);
 
+  // Keep comment markers live without re-fetching the whole document
+  useEffect(() => {
+    if (!id) return;
+    const docId = parseInt(id);
+    return documentService.subscribeToLineCommentCounts(
+      docId,
+      (changed) => {
+        setDocument((prev) => {
+          if (!prev) return prev;
+          const lineCommentCounts = { ...prev.lineCommentCounts };
+          Object.entries(changed).forEach(([line, count]) => {
+            if (count > 0) {
+              lineCommentCounts[Number(line)] = count;
+            } else {
+              delete lineCommentCounts[Number(line)];
+            }
+          });
+          return { ...prev, lineCommentCounts };
+        });
+      },
+      async () => {
+        const counts = await documentService.getLineCommentCounts(docId);
+        setDocument((prev) => (prev ? { ...prev, lineCommentCounts: counts.lineCommentCounts } : prev));
+      }
+    );
+  }, [id]);
+
   const loadDocument = async (docId: number) => {
     try {
       setLoading(true);
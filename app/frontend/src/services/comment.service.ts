@@ -1,5 +1,6 @@
 import { commentsServiceApi } from './api.client';
-import type { Comment, CreateCommentRequest, LineCommentCountResponse } from '../types';
+import { API_CONFIG } from '../config/api.config';
+import type { Comment, CommentDelta, CreateCommentRequest, LineCommentCountResponse } from '../types';
 
 export const commentService = {
   /**
@@ -68,4 +69,49 @@ export const commentService = {
   async deleteComment(commentId: string): Promise<void> {
     await commentsServiceApi.delete(`/comments/${commentId}`);
   },
+
+  /**
+   * Subscribe to live comment changes for a document, optionally limited to a line range.
+   * Reconnects automatically; returns a function that closes the socket.
+   */
+  subscribeToComments(
+    docId: string,
+    onDelta: (delta: CommentDelta) => void,
+    range?: { fromLine?: number; toLine?: number }
+  ): () => void {
+    const params = new URLSearchParams({ docId });
+    if (range?.fromLine !== undefined) {
+      params.append('fromLine', range.fromLine.toString());
+    }
+    if (range?.toLine !== undefined) {
+      params.append('toLine', range.toLine.toString());
+    }
+    const base = new URL(API_CONFIG.COMMENTS_SERVICE_URL, window.location.href);
+    base.protocol = base.protocol === 'https:' ? 'wss:' : 'ws:';
+    const url = `${base.toString().replace(/\/$/, '')}/ws?${params.toString()}`;
+
+    let socket: WebSocket | null = null;
+    let closed = false;
+    let retryTimer: ReturnType<typeof setTimeout> | undefined;
+
+    const connect = () => {
+      socket = new WebSocket(url);
+      socket.onmessage = (event) => {
+        if (event.data === 'pong') return;
+        onDelta(JSON.parse(event.data) as CommentDelta);
+      };
+      socket.onclose = () => {
+        if (!closed) {
+          retryTimer = setTimeout(connect, 3000);
+        }
+      };
+    };
+    connect();
+
+    return () => {
+      closed = true;
+      clearTimeout(retryTimer);
+      socket?.close();
+    };
+  },
 };
@@ -1,10 +1,16 @@
 import { docsServiceApi } from './api.client';
+import { API_CONFIG } from '../config/api.config';
 import type {
   Document,
   DocumentResponse,
   DocumentMetadata,
   CreateDocumentRequest,
   UpdateDocumentRequest,
+  PatchDocumentRequest,
+  DraftAutosaveRequest,
+  DraftAutosaveResponse,
+  DocumentSearchResponse,
+  DocumentSuggestion,
   DocumentLineCommentCounts,
 } from '../types';
 
@@ -48,7 +54,7 @@ export const documentService = {
    */
   async getLineCommentCounts(docId: number): Promise<DocumentLineCommentCounts> {
     const response = await docsServiceApi.get<DocumentLineCommentCounts>(
-      `/documents/${docId}/line-comment-counts`
+      `/documents/${docId}/line-comments`
     );
     return response.data;
   },
@@ -69,10 +75,81 @@ export const documentService = {
     return response.data;
   },
 
+  /**
+   * Apply line edits or a unified diff on top of baseRevision.
+   * Fails with 409 if the document has been changed since.
+   */
+  async patchDocument(id: number, data: PatchDocumentRequest): Promise<Document> {
+    const response = await docsServiceApi.patch<Document>(`/documents/${id}`, data);
+    return response.data;
+  },
+
+  /**
+   * Full-text search, best match first. Pass the previous page's nextCursor to continue.
+   */
+  async searchDocuments(
+    query: string,
+    options: { groupId?: number; cursor?: string; limit?: number } = {}
+  ): Promise<DocumentSearchResponse> {
+    const params = new URLSearchParams({ q: query });
+    if (options.groupId !== undefined) {
+      params.append('groupId', options.groupId.toString());
+    }
+    if (options.cursor) {
+      params.append('cursor', options.cursor);
+    }
+    if (options.limit !== undefined) {
+      params.append('limit', options.limit.toString());
+    }
+    const response = await docsServiceApi.get<DocumentSearchResponse>(`/documents/search?${params.toString()}`);
+    return response.data;
+  },
+
+  /**
+   * Typeahead suggestions for document titles and group names, most popular first.
+   */
+  async suggestDocuments(prefix: string, limit?: number): Promise<DocumentSuggestion[]> {
+    const params = new URLSearchParams({ prefix });
+    if (limit !== undefined) {
+      params.append('limit', limit.toString());
+    }
+    const response = await docsServiceApi.get<DocumentSuggestion[]>(`/documents/suggest?${params.toString()}`);
+    return response.data;
+  },
+
+  /**
+   * Autosave the editor state of a draft. The server buffers it and writes it
+   * at most once per flush interval, or before the document is patched or published.
+   */
+  async autosaveDraft(id: number, data: DraftAutosaveRequest): Promise<DraftAutosaveResponse> {
+    const response = await docsServiceApi.put<DraftAutosaveResponse>(`/documents/${id}/draft`, data);
+    return response.data;
+  },
+
   /**
    * Delete a document
    */
   async deleteDocument(id: number): Promise<void> {
     await docsServiceApi.delete(`/documents/${id}`);
   },
+
+  /**
+   * Subscribe to live line comment count changes for a document.
+   * onCounts receives only the lines that changed (a count of 0 means the line has no comments);
+   * onResync is called when the server dropped updates and the counts must be reloaded.
+   * Returns a function that closes the stream.
+   */
+  subscribeToLineCommentCounts(
+    docId: number,
+    onCounts: (counts: Record<number, number>) => void,
+    onResync: () => void
+  ): () => void {
+    const source = new EventSource(`${API_CONFIG.DOCS_SERVICE_URL}/documents/${docId}/events`);
+    source.addEventListener('line-counts', (event) => {
+      const data = JSON.parse((event as MessageEvent).data) as DocumentLineCommentCounts;
+      onCounts(data.lineCommentCounts);
+    });
+    source.addEventListener('resync', onResync);
+    return () => source.close();
+  },
 };
@@ -13,16 +13,64 @@ const getAbsoluteUrl = (path: string): string => {
 
 const graphqlEndpoint = getAbsoluteUrl(`${API_CONFIG.USER_SERVICE_URL}/graphql`);
 
+const authHeaders = (): Record<string, string> => {
+  const token = localStorage.getItem('dockey_access_token');
+  if (token) {
+    return { Authorization: `Bearer ${token}` };
+  }
+  return {};
+};
+
 export const graphqlClient = new GraphQLClient(graphqlEndpoint, {
-  headers: (): Record<string, string> => {
-    const token = localStorage.getItem('dockey_access_token');
-    if (token) {
-      return { Authorization: `Bearer ${token}` };
-    }
-    return {};
-  },
+  headers: authHeaders,
 });
 
+// SHA-256 hashes of query strings, computed once per query
+const queryHashes = new Map<string, string>();
+
+const sha256 = async (text: string): Promise<string> => {
+  const cached = queryHashes.get(text);
+  if (cached) {
+    return cached;
+  }
+  const digest = await crypto.subtle.digest('SHA-256', new TextEncoder().encode(text));
+  const hash = Array.from(new Uint8Array(digest))
+    .map((b) => b.toString(16).padStart(2, '0'))
+    .join('');
+  queryHashes.set(text, hash);
+  return hash;
+};
+
+const postGraphQL = async (body: Record<string, unknown>): Promise<any> => {
+  const response = await fetch(graphqlEndpoint, {
+    method: 'POST',
+    headers: { 'Content-Type': 'application/json', ...authHeaders() },
+    body: JSON.stringify(body),
+  });
+  return response.json();
+};
+
+/**
+ * Automatic persisted query: send only the query hash and fall back to the
+ * full query text when the server has not seen it yet.
+ */
+export const persistedRequest = async <T>(query: string, variables?: Record<string, unknown>): Promise<T> => {
+  const extensions = { persistedQuery: { version: 1, sha256Hash: await sha256(query) } };
+
+  let result = await postGraphQL({ variables, extensions });
+  const notFound = result.errors?.some(
+    (e: any) => e.extensions?.code === 'PERSISTED_QUERY_NOT_FOUND'
+  );
+  if (notFound) {
+    result = await postGraphQL({ query, variables, extensions });
+  }
+
+  if (result.errors?.length) {
+    throw { response: { errors: result.errors } };
+  }
+  return result.data as T;
+};
+
 // Helper to handle GraphQL errors
 export const handleGraphQLError = (error: any) => {
   if (error.response?.errors) {
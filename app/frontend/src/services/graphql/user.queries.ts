@@ -12,12 +12,21 @@ export const USER_FIELDS = gql`
   }
 `;
 
-// Query to get all users
+// Query to get a page of users (Relay-style connection)
 export const GET_USERS = gql`
   ${USER_FIELDS}
-  query GetUsers {
-    users {
-      ...UserFields
+  query GetUsers($first: Int, $after: String, $prefix: String) {
+    users(first: $first, after: $after, prefix: $prefix) {
+      edges {
+        cursor
+        node {
+          ...UserFields
+        }
+      }
+      pageInfo {
+        hasNextPage
+        endCursor
+      }
     }
   }
 `;
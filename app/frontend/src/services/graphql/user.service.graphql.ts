@@ -1,4 +1,4 @@
-import { graphqlClient, handleGraphQLError } from '../graphql.client';
+import { persistedRequest, handleGraphQLError } from '../graphql.client';
 import { GET_USERS, GET_USER_BY_ID, GET_USER_BY_KEYCLOAK_ID } from './user.queries';
 
 export interface User {
@@ -10,8 +10,17 @@ export interface User {
   createdAt: string;
 }
 
-interface GetUsersResponse {
+export interface UserPage {
   users: User[];
+  hasNextPage: boolean;
+  endCursor: string | null;
+}
+
+interface GetUsersResponse {
+  users: {
+    edges: { cursor: string; node: User }[];
+    pageInfo: { hasNextPage: boolean; endCursor: string | null };
+  };
 }
 
 interface GetUserByIdResponse {
@@ -28,12 +37,24 @@ interface GetUserByKeycloakIdResponse {
  */
 export const UserServiceGraphQL = {
   /**
-   * Get all users
+   * Get the first page of users
+   */
+  async getUsers(first = 50, prefix?: string): Promise<User[]> {
+    const page = await this.getUsersPage(first, undefined, prefix);
+    return page.users;
+  },
+
+  /**
+   * Get a page of users, continuing after the given cursor
    */
-  async getUsers(): Promise<User[]> {
+  async getUsersPage(first = 50, after?: string, prefix?: string): Promise<UserPage> {
     try {
-      const data = await graphqlClient.request<GetUsersResponse>(GET_USERS);
-      return data.users;
+      const data = await persistedRequest<GetUsersResponse>(GET_USERS, { first, after, prefix });
+      return {
+        users: data.users.edges.map((edge) => edge.node),
+        hasNextPage: data.users.pageInfo.hasNextPage,
+        endCursor: data.users.pageInfo.endCursor,
+      };
     } catch (error) {
       handleGraphQLError(error);
       throw error;
@@ -45,7 +66,7 @@ export const UserServiceGraphQL = {
    */
   async getUserById(id: string): Promise<User> {
     try {
-      const data = await graphqlClient.request<GetUserByIdResponse>(GET_USER_BY_ID, { id });
+      const data = await persistedRequest<GetUserByIdResponse>(GET_USER_BY_ID, { id });
       return data.userById;
     } catch (error) {
       handleGraphQLError(error);
@@ -58,7 +79,7 @@ export const UserServiceGraphQL = {
    */
   async getUserByKeycloakId(keycloakId: string): Promise<User> {
     try {
-      const data = await graphqlClient.request<GetUserByKeycloakIdResponse>(GET_USER_BY_KEYCLOAK_ID, { keycloakId });
+      const data = await persistedRequest<GetUserByKeycloakIdResponse>(GET_USER_BY_KEYCLOAK_ID, { keycloakId });
       return data.userByKeycloakId;
     } catch (error) {
       handleGraphQLError(error);
@@ -32,3 +32,17 @@ export interface LineCommentState {
   isHovered: boolean;
   isOpen: boolean;
 }
+
+export type CommentEventType = 'COMMENT_ADDED' | 'COMMENT_DELETED' | 'COMMENT_LIKED' | 'COMMENT_UNLIKED';
+
+// Live update pushed over the comments WebSocket
+export interface CommentDelta {
+  type: CommentEventType;
+  commentId: string;
+  docId: string;
+  lineNumber: number;
+  userId: string;
+  lineCommentCount?: number;
+  likeCount?: number;
+  comment?: Comment;
+}
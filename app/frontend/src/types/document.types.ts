@@ -24,6 +24,7 @@ export interface Document {
   status: DocumentStatus;
   createdAt: string;
   updatedAt?: string;
+  revision?: number;
 }
 
 export interface DocumentMetadata {
@@ -41,6 +42,7 @@ export interface DocumentMetadata {
 
 export interface DocumentResponse extends Document {
   lineCommentCounts?: Record<number, number>;
+  draftPending?: boolean;
 }
 
 export interface CreateDocumentRequest {
@@ -59,6 +61,61 @@ export interface UpdateDocumentRequest {
   status?: DocumentStatus;
 }
 
+// Replace lines startLine..endLine (1-based, inclusive); endLine = startLine - 1 inserts
+export interface DocumentLineEdit {
+  startLine: number;
+  endLine: number;
+  lines: string[];
+}
+
+export interface PatchDocumentRequest {
+  baseRevision: number;
+  title?: string;
+  status?: DocumentStatus;
+  edits?: DocumentLineEdit[];
+  diff?: string;
+}
+
+export interface DocumentSearchSnippet {
+  lineNumber: number;
+  /** Matching line with matched words in <mark> tags; not HTML-escaped */
+  text: string;
+}
+
+export interface DocumentSearchResult {
+  id: number;
+  title: string;
+  groupId?: number;
+  status: DocumentStatus;
+  rank: number;
+  snippets: DocumentSearchSnippet[];
+}
+
+export interface DocumentSearchResponse {
+  query: string;
+  results: DocumentSearchResult[];
+  nextCursor?: string | null;
+}
+
+export interface DocumentSuggestion {
+  type: 'DOCUMENT' | 'GROUP';
+  id: number;
+  label: string;
+  groupId?: number | null;
+  popularity: number;
+}
+
+export interface DraftAutosaveRequest {
+  title?: string;
+  content: string;
+}
+
+export interface DraftAutosaveResponse {
+  documentId: number;
+  buffered: boolean;
+  flushBy?: string;
+}
+
 export interface CreateDocGroupRequest {
   name: string;
   displayName: string;
@@ -76,6 +133,6 @@ export interface UpdateDocGroupRequest {
 }
 
 export interface DocumentLineCommentCounts {
-  docId: number;
+  documentId: number;
   lineCommentCounts: Record<number, number>;
 }
@@ -25,6 +25,11 @@ export default defineConfig({
         changeOrigin: true,
         secure: false,
       },
+      // Comments service WebSocket - endpoint is @ServerEndpoint("/api/comments/ws")
+      '/api/comments/ws': {
+        target: 'ws://localhost:8082',
+        ws: true,
+      },
       // Comments service routes - backend has @ApplicationPath("/api/comments")
       '/api/comments': {
         target: 'http://localhost:8082',
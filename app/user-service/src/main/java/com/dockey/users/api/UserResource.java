@@ -1,6 +1,7 @@
 package com.dockey.users.api;
 
 import com.dockey.users.dto.UserLoginRequest;
+import com.dockey.users.dto.UserPage;
 import com.dockey.users.dto.UserLoginResponse;
 import com.dockey.users.dto.UserRegistrationRequest;
 import com.dockey.users.dto.UserRegistrationResponse;
@@ -9,6 +10,7 @@ import com.dockey.users.dto.TokenRefreshResponse;
 import com.dockey.users.entities.User;
 import com.dockey.users.security.AuthenticationService;
 import com.dockey.users.services.KeycloakAdminService;
+import com.dockey.users.services.RegistrationService;
 import com.dockey.users.services.UserService;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
@@ -28,9 +30,13 @@ import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
 
 @RequestScoped
 @Path("/users")
@@ -49,20 +55,53 @@ public class UserResource {
 
     @Inject
     private KeycloakAdminService keycloakAdminService;
+
+    @Inject
+    private RegistrationService registrationService;
     
     @GET
-    @Operation(summary = "Get all users", description = "Retrieve a list of all users")
+    @Operation(summary = "List users", description = "Retrieve one keyset-paginated page of users. " +
+        "The cursor for the next page is returned in the X-Next-Cursor header.")
     @APIResponses({
         @APIResponse(
             responseCode = "200",
-            description = "List of users retrieved successfully",
+            description = "Page of users retrieved successfully",
             content = @Content(schema = @Schema(implementation = User.class))
-        )
+        ),
+        @APIResponse(responseCode = "400", description = "Invalid cursor or field name")
     })
-    public Response getAllUsers() {
-        LOG.info("GET request for all users");
-        List<User> users = userService.getAllUsers();
-        return Response.ok(users).build();
+    public Response getAllUsers(
+        @Parameter(description = "Cursor returned by the previous page")
+        @QueryParam("cursor") String cursor,
+        @Parameter(description = "Page size (default 50, max 200)")
+        @QueryParam("limit") Integer limit,
+        @Parameter(description = "Case-insensitive username or full name prefix")
+        @QueryParam("q") String prefix,
+        @Parameter(description = "Comma-separated list of fields to return, e.g. id,username,fullName")
+        @QueryParam("fields") String fields
+    ) {
+        LOG.info("GET request for users page, cursor: {} limit: {} q: {}", cursor, limit, prefix);
+
+        List<String> fieldList = null;
+        if (fields != null && !fields.isBlank()) {
+            fieldList = Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(field -> !field.isEmpty())
+                .collect(Collectors.toList());
+        }
+
+        try {
+            UserPage page = userService.listUsers(cursor, limit, prefix, fieldList);
+            Response.ResponseBuilder builder = Response.ok(page.getUsers());
+            if (page.getNextCursor() != null) {
+                builder.header("X-Next-Cursor", page.getNextCursor());
+            }
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity("{\"error\": \"" + e.getMessage() + "\"}")
+                .build();
+        }
     }
     
     @GET
@@ -163,11 +202,24 @@ public class UserResource {
         ),
         @APIResponse(responseCode = "400", description = "Invalid input or user already exists")
     })
-    public Response registerUser(@Valid UserRegistrationRequest request) {
+    public CompletionStage<Response> registerUser(@Valid UserRegistrationRequest request) {
         LOG.info("POST request to register user: {}", request.getUsername());
         
-        try {
-            Map<String, Object> result = userService.registerUser(request);
+        return registrationService.registerUser(request).handle((result, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+                if (cause instanceof IllegalArgumentException) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("{\"error\": \"" + cause.getMessage() + "\"}")
+                        .build();
+                }
+                LOG.error("Error registering user: {}", cause.getMessage(), cause);
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("{\"error\": \"Failed to register user: " + cause.getMessage() + "\"}")
+                    .build();
+            }
+            
             User user = (User) result.get("user");
             String accessToken = (String) result.get("accessToken");
             String refreshToken = (String) result.get("refreshToken");
@@ -185,17 +237,7 @@ public class UserResource {
             );
             
             return Response.status(Response.Status.CREATED).entity(response).build();
-            
-        } catch (IllegalArgumentException e) {
-            return Response.status(Response.Status.BAD_REQUEST)
-                .entity("{\"error\": \"" + e.getMessage() + "\"}")
-                .build();
-        } catch (Exception e) {
-            LOG.error("Error registering user: {}", e.getMessage(), e);
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                .entity("{\"error\": \"Failed to register user: " + e.getMessage() + "\"}")
-                .build();
-        }
+        });
     }
     
     @POST
@@ -18,5 +18,7 @@ public class CorsFilter implements ContainerResponseFilter {
                 "origin, content-type, accept, authorization");
         responseContext.getHeaders().add("Access-Control-Allow-Methods",
                 "GET, POST, PUT, DELETE, OPTIONS, HEAD");
+        responseContext.getHeaders().add("Access-Control-Expose-Headers",
+                "X-Total-Count, X-Next-Cursor");
     }
 }
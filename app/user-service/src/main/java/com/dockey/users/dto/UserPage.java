@@ -0,0 +1,48 @@
+package com.dockey.users.dto;
+
+import com.dockey.users.entities.User;
+
+import java.util.List;
+
+/**
+ * One keyset page of users plus the cursor needed to fetch the next one
+ */
+public class UserPage {
+
+    private List<User> users;
+    private String nextCursor;
+    private boolean hasMore;
+
+    public UserPage() {
+    }
+
+    public UserPage(List<User> users, String nextCursor, boolean hasMore) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public void setUsers(List<User> users) {
+        this.users = users;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+}
@@ -0,0 +1,99 @@
+package com.dockey.users.entities;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * Cluster-wide bookkeeping for a background job run by {@code SingletonJobScheduler}
+ */
+@Entity
+@Table(name = "job_runs")
+public class JobRun {
+
+    @Id
+    @Column(name = "job_name", length = 100)
+    private String jobName;
+
+    @Column(name = "last_started_at")
+    private Instant lastStartedAt;
+
+    @Column(name = "last_finished_at")
+    private Instant lastFinishedAt;
+
+    @Column(name = "last_success_at")
+    private Instant lastSuccessAt;
+
+    @Column(name = "last_duration_ms")
+    private Long lastDurationMs;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(name = "last_owner")
+    private String lastOwner; // Replica (host name) that ran the job last
+
+    public JobRun() {
+    }
+
+    public JobRun(String jobName) {
+        this.jobName = jobName;
+    }
+
+    // Getters and Setters
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public void setJobName(String jobName) {
+        this.jobName = jobName;
+    }
+
+    public Instant getLastStartedAt() {
+        return lastStartedAt;
+    }
+
+    public void setLastStartedAt(Instant lastStartedAt) {
+        this.lastStartedAt = lastStartedAt;
+    }
+
+    public Instant getLastFinishedAt() {
+        return lastFinishedAt;
+    }
+
+    public void setLastFinishedAt(Instant lastFinishedAt) {
+        this.lastFinishedAt = lastFinishedAt;
+    }
+
+    public Instant getLastSuccessAt() {
+        return lastSuccessAt;
+    }
+
+    public void setLastSuccessAt(Instant lastSuccessAt) {
+        this.lastSuccessAt = lastSuccessAt;
+    }
+
+    public Long getLastDurationMs() {
+        return lastDurationMs;
+    }
+
+    public void setLastDurationMs(Long lastDurationMs) {
+        this.lastDurationMs = lastDurationMs;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public String getLastOwner() {
+        return lastOwner;
+    }
+
+    public void setLastOwner(String lastOwner) {
+        this.lastOwner = lastOwner;
+    }
+}
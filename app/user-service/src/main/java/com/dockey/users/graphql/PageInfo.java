@@ -0,0 +1,34 @@
+package com.dockey.users.graphql;
+
+import org.eclipse.microprofile.graphql.Type;
+
+@Type("PageInfo")
+public class PageInfo {
+    
+    private boolean hasNextPage;
+    private String endCursor;
+    
+    public PageInfo() {
+    }
+    
+    public PageInfo(boolean hasNextPage, String endCursor) {
+        this.hasNextPage = hasNextPage;
+        this.endCursor = endCursor;
+    }
+    
+    public boolean isHasNextPage() {
+        return hasNextPage;
+    }
+    
+    public void setHasNextPage(boolean hasNextPage) {
+        this.hasNextPage = hasNextPage;
+    }
+    
+    public String getEndCursor() {
+        return endCursor;
+    }
+    
+    public void setEndCursor(String endCursor) {
+        this.endCursor = endCursor;
+    }
+}
@@ -0,0 +1,252 @@
+package com.dockey.users.graphql;
+
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Automatic persisted queries (APQ) for the GraphQL endpoint.
+ * Clients send {"extensions": {"persistedQuery": {"version": 1, "sha256Hash": "..."}}} without the query text;
+ * the query is looked up in {@link QueryDocumentCache}. On a miss the client retries with the full query,
+ * which is parsed, checked against the depth/complexity limits and cached under its hash.
+ * Queries over the limits are rejected here, before they reach the GraphQL engine or the database.
+ * GET requests and application/graphql bodies are checked too; batches, other content types and
+ * bodies that cannot be read are refused, so no query reaches the engine unchecked.
+ */
+@WebFilter(urlPatterns = {"/graphql", "/graphql/*"})
+public class PersistedQueryFilter implements Filter {
+
+    private static final Logger LOG = LogManager.getLogger(PersistedQueryFilter.class.getName());
+
+    @Inject
+    private QueryDocumentCache queryCache;
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        // Preflights and the schema download run no query
+        if ("OPTIONS".equalsIgnoreCase(request.getMethod())
+                || ("GET".equalsIgnoreCase(request.getMethod()) && request.getRequestURI().endsWith("/schema.graphql"))) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        if ("GET".equalsIgnoreCase(request.getMethod())) {
+            String query = request.getParameter("query");
+            if (query == null) {
+                writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Query is required", "BAD_REQUEST");
+            } else if (checkLimits(queryCache.register(query), response)) {
+                chain.doFilter(servletRequest, servletResponse);
+            }
+            return;
+        }
+        if (!"POST".equalsIgnoreCase(request.getMethod())) {
+            writeError(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Use GET or POST", "BAD_REQUEST");
+            return;
+        }
+
+        // Every query that reaches the GraphQL engine is checked against the limits first, so
+        // request shapes the filter cannot analyse are rejected rather than passed on
+        String contentType = request.getContentType() != null ? request.getContentType().toLowerCase(Locale.ROOT) : "";
+        byte[] body = request.getInputStream().readAllBytes();
+        if (contentType.startsWith("application/graphql")) {
+            if (checkLimits(queryCache.register(new String(body, StandardCharsets.UTF_8)), response)) {
+                chain.doFilter(new CachedBodyRequest(request, body), servletResponse);
+            }
+            return;
+        }
+        if (!contentType.startsWith("application/json")) {
+            writeError(response, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+                    "Send application/json or application/graphql", "BAD_REQUEST");
+            return;
+        }
+
+        JsonObject payload;
+        try (JsonReader jsonReader = Json.createReader(new StringReader(new String(body, StandardCharsets.UTF_8)))) {
+            JsonValue value = jsonReader.readValue();
+            if (value.getValueType() != JsonValue.ValueType.OBJECT) {
+                writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Batched queries are not supported", "BAD_REQUEST");
+                return;
+            }
+            payload = value.asJsonObject();
+        } catch (Exception e) {
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Request body is not valid JSON", "BAD_REQUEST");
+            return;
+        }
+
+        JsonValue queryValue = payload.get("query");
+        if (queryValue != null && queryValue.getValueType() != JsonValue.ValueType.NULL
+                && queryValue.getValueType() != JsonValue.ValueType.STRING) {
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, "query must be a string", "BAD_REQUEST");
+            return;
+        }
+        String query = queryValue instanceof JsonString ? ((JsonString) queryValue).getString() : null;
+        String hash = persistedQueryHash(payload);
+
+        QueryDocumentCache.CachedQuery cached;
+        if (query == null) {
+            if (hash == null) {
+                writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Query is required", "BAD_REQUEST");
+                return;
+            }
+            cached = queryCache.get(hash);
+            if (cached == null) {
+                writeError(response, HttpServletResponse.SC_OK, "PersistedQueryNotFound", "PERSISTED_QUERY_NOT_FOUND");
+                return;
+            }
+        } else {
+            cached = queryCache.register(query);
+            if (hash != null && !hash.equalsIgnoreCase(cached.getHash())) {
+                writeError(response, HttpServletResponse.SC_OK, "provided sha does not match query", "INVALID_PERSISTED_QUERY_HASH");
+                return;
+            }
+        }
+
+        if (!checkLimits(cached, response)) {
+            return;
+        }
+
+        if (query != null) {
+            // Full query sent: nothing to rewrite
+            chain.doFilter(new CachedBodyRequest(request, body), servletResponse);
+            return;
+        }
+
+        JsonObjectBuilder rewritten = Json.createObjectBuilder(payload).add("query", cached.getQuery());
+        byte[] rewrittenBody = rewritten.build().toString().getBytes(StandardCharsets.UTF_8);
+        LOG.debug("Resolved persisted query {}", hash);
+        chain.doFilter(new CachedBodyRequest(request, rewrittenBody), servletResponse);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static String persistedQueryHash(JsonObject payload) {
+        JsonObject extensions = payload.containsKey("extensions")
+                && payload.get("extensions").getValueType() == JsonValue.ValueType.OBJECT
+                ? payload.getJsonObject("extensions") : null;
+        if (extensions == null || !extensions.containsKey("persistedQuery")
+                || extensions.get("persistedQuery").getValueType() != JsonValue.ValueType.OBJECT) {
+            return null;
+        }
+        return extensions.getJsonObject("persistedQuery").getString("sha256Hash", null);
+    }
+
+    /**
+     * Write the rejection of a query over the limits
+     *
+     * @return true if the query may run
+     */
+    private static boolean checkLimits(QueryDocumentCache.CachedQuery cached, HttpServletResponse response) throws IOException {
+        if (cached.isRejected()) {
+            writeError(response, HttpServletResponse.SC_OK, cached.getRejectionReason(), "QUERY_REJECTED");
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeError(HttpServletResponse response, int status, String message, String code) throws IOException {
+        JsonObject error = Json.createObjectBuilder()
+                .add("errors", Json.createArrayBuilder()
+                        .add(Json.createObjectBuilder()
+                                .add("message", message)
+                                .add("extensions", Json.createObjectBuilder().add("code", code))))
+                .build();
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(error.toString());
+    }
+
+    /**
+     * Request wrapper that replays an already consumed (or rewritten) body
+     */
+    private static class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return input.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+    }
+}
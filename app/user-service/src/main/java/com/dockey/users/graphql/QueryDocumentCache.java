@@ -0,0 +1,376 @@
+package com.dockey.users.graphql;
+
+import com.dockey.users.services.UserService;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import graphql.language.Argument;
+import graphql.language.Definition;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.FragmentDefinition;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.IntValue;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.language.VariableReference;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache of GraphQL documents keyed by the SHA-256 of the query text.
+ * Each query is parsed and checked against the depth and complexity limits once;
+ * later requests with the same hash (automatic persisted queries) reuse the result.
+ */
+@ApplicationScoped
+public class QueryDocumentCache {
+
+    private static final Logger LOG = LogManager.getLogger(QueryDocumentCache.class.getName());
+
+    @Inject
+    @ConfigProperty(name = "graphql.persisted-queries.cache-size", defaultValue = "1000")
+    private int cacheSize;
+
+    @Inject
+    @ConfigProperty(name = "graphql.limits.max-depth", defaultValue = "8")
+    private int maxDepth;
+
+    @Inject
+    @ConfigProperty(name = "graphql.limits.max-complexity", defaultValue = "5000")
+    private int maxComplexity;
+
+    private Map<String, CachedQuery> cache;
+
+    public QueryDocumentCache() {
+    }
+
+    QueryDocumentCache(int cacheSize, int maxDepth, int maxComplexity) {
+        this.cacheSize = cacheSize;
+        this.maxDepth = maxDepth;
+        this.maxComplexity = maxComplexity;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedQuery>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedQuery> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        LOG.info("GraphQL query cache initialized. Size: {} max depth: {} max complexity: {}",
+                cacheSize, maxDepth, maxComplexity);
+    }
+
+    /**
+     * Look up a previously registered query by its hash
+     */
+    public CachedQuery get(String sha256Hash) {
+        return cache.get(sha256Hash);
+    }
+
+    /**
+     * Parse and analyse a query, caching the result under its SHA-256 hash.
+     * Rejected queries are cached too, so repeated abusive requests are refused without re-parsing.
+     */
+    public CachedQuery register(String query) {
+        String hash = sha256(query);
+        CachedQuery cached = cache.get(hash);
+        if (cached != null) {
+            return cached;
+        }
+
+        cached = analyse(query, hash);
+        cache.put(hash, cached);
+        return cached;
+    }
+
+    public static String sha256(String query) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private CachedQuery analyse(String query, String hash) {
+        Document document;
+        try {
+            document = new Parser().parseDocument(query);
+        } catch (InvalidSyntaxException e) {
+            return CachedQuery.rejected(query, hash, "Invalid query syntax: " + e.getMessage());
+        }
+
+        Map<String, FragmentDefinition> fragments = new HashMap<>();
+        for (Definition<?> definition : document.getDefinitions()) {
+            if (definition instanceof FragmentDefinition) {
+                FragmentDefinition fragment = (FragmentDefinition) definition;
+                fragments.put(fragment.getName(), fragment);
+            }
+        }
+
+        String cycle = findFragmentCycle(fragments);
+        if (cycle != null) {
+            LOG.warn("Rejected GraphQL query {} with fragment cycle through {}", hash, cycle);
+            return CachedQuery.rejected(query, hash, "Fragment " + cycle + " spreads itself");
+        }
+
+        Analysis analysis = new Analysis(fragments);
+        int depth = 0;
+        long complexity = 0;
+        for (Definition<?> definition : document.getDefinitions()) {
+            if (definition instanceof OperationDefinition) {
+                SelectionSet selectionSet = ((OperationDefinition) definition).getSelectionSet();
+                depth = Math.max(depth, analysis.depth(selectionSet));
+                complexity = saturatedAdd(complexity, analysis.complexity(selectionSet));
+            }
+        }
+
+        if (depth > maxDepth) {
+            LOG.warn("Rejected GraphQL query {} with depth {} (max {})", hash, depth, maxDepth);
+            return CachedQuery.rejected(query, hash, "Query depth " + depth + " exceeds maximum of " + maxDepth);
+        }
+        if (complexity > maxComplexity) {
+            LOG.warn("Rejected GraphQL query {} with complexity {} (max {})", hash, complexity, maxComplexity);
+            return CachedQuery.rejected(query, hash,
+                    "Query complexity " + complexity + " exceeds maximum of " + maxComplexity);
+        }
+        return CachedQuery.accepted(query, hash, depth, complexity);
+    }
+
+    /**
+     * Name of a fragment that spreads itself, directly or through other fragments, or null.
+     * Such queries are invalid (NoFragmentCycles) and would never finish expanding.
+     */
+    private static String findFragmentCycle(Map<String, FragmentDefinition> fragments) {
+        Map<String, Set<String>> spreads = new HashMap<>();
+        for (FragmentDefinition fragment : fragments.values()) {
+            Set<String> names = new LinkedHashSet<>();
+            collectSpreads(fragment.getSelectionSet(), names);
+            spreads.put(fragment.getName(), names);
+        }
+
+        Set<String> done = new HashSet<>();
+        for (String name : fragments.keySet()) {
+            String cycle = findCycle(name, spreads, new HashSet<>(), done);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    private static String findCycle(String name, Map<String, Set<String>> spreads, Set<String> visiting, Set<String> done) {
+        if (done.contains(name) || !spreads.containsKey(name)) {
+            return null;
+        }
+        if (!visiting.add(name)) {
+            return name;
+        }
+        for (String spread : spreads.get(name)) {
+            String cycle = findCycle(spread, spreads, visiting, done);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        visiting.remove(name);
+        done.add(name);
+        return null;
+    }
+
+    private static void collectSpreads(SelectionSet selectionSet, Set<String> names) {
+        if (selectionSet == null) {
+            return;
+        }
+        for (Selection<?> selection : selectionSet.getSelections()) {
+            if (selection instanceof Field) {
+                collectSpreads(((Field) selection).getSelectionSet(), names);
+            } else if (selection instanceof InlineFragment) {
+                collectSpreads(((InlineFragment) selection).getSelectionSet(), names);
+            } else if (selection instanceof FragmentSpread) {
+                names.add(((FragmentSpread) selection).getName());
+            }
+        }
+    }
+
+    /**
+     * The number of items a field with a "first" argument returns. A variable can be bound to
+     * any value per request while the analysis is cached per query, so it counts as the
+     * largest page the resolvers serve.
+     */
+    private static long multiplier(Field field) {
+        for (Argument argument : field.getArguments()) {
+            if (!"first".equals(argument.getName())) {
+                continue;
+            }
+            if (argument.getValue() instanceof IntValue) {
+                return Math.max(1, ((IntValue) argument.getValue()).getValue().longValue());
+            }
+            if (argument.getValue() instanceof VariableReference) {
+                return UserService.MAX_PAGE_SIZE;
+            }
+        }
+        return 1;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    private static long saturatedMultiply(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Depth and complexity of the selection sets of one document. Each fragment is analysed
+     * once however often it is spread, so the work stays linear in the size of the query.
+     */
+    private static class Analysis {
+
+        private final Map<String, FragmentDefinition> fragments;
+        private final Map<String, Integer> fragmentDepths = new HashMap<>();
+        private final Map<String, Long> fragmentComplexities = new HashMap<>();
+
+        Analysis(Map<String, FragmentDefinition> fragments) {
+            this.fragments = fragments;
+        }
+
+        int depth(SelectionSet selectionSet) {
+            if (selectionSet == null) {
+                return 0;
+            }
+            int max = 0;
+            for (Selection<?> selection : selectionSet.getSelections()) {
+                if (selection instanceof Field) {
+                    max = Math.max(max, 1 + depth(((Field) selection).getSelectionSet()));
+                } else if (selection instanceof InlineFragment) {
+                    max = Math.max(max, depth(((InlineFragment) selection).getSelectionSet()));
+                } else if (selection instanceof FragmentSpread) {
+                    max = Math.max(max, fragmentDepth(((FragmentSpread) selection).getName()));
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Every field costs 1; the children of a field with a "first" argument are counted once per requested item.
+         */
+        long complexity(SelectionSet selectionSet) {
+            if (selectionSet == null) {
+                return 0;
+            }
+            long total = 0;
+            for (Selection<?> selection : selectionSet.getSelections()) {
+                if (selection instanceof Field) {
+                    Field field = (Field) selection;
+                    long children = saturatedMultiply(multiplier(field), complexity(field.getSelectionSet()));
+                    total = saturatedAdd(total, saturatedAdd(1, children));
+                } else if (selection instanceof InlineFragment) {
+                    total = saturatedAdd(total, complexity(((InlineFragment) selection).getSelectionSet()));
+                } else if (selection instanceof FragmentSpread) {
+                    total = saturatedAdd(total, fragmentComplexity(((FragmentSpread) selection).getName()));
+                }
+            }
+            return total;
+        }
+
+        private int fragmentDepth(String name) {
+            Integer depth = fragmentDepths.get(name);
+            if (depth == null) {
+                FragmentDefinition fragment = fragments.get(name);
+                depth = fragment != null ? depth(fragment.getSelectionSet()) : 0;
+                fragmentDepths.put(name, depth);
+            }
+            return depth;
+        }
+
+        private long fragmentComplexity(String name) {
+            Long complexity = fragmentComplexities.get(name);
+            if (complexity == null) {
+                FragmentDefinition fragment = fragments.get(name);
+                complexity = fragment != null ? complexity(fragment.getSelectionSet()) : 0;
+                fragmentComplexities.put(name, complexity);
+            }
+            return complexity;
+        }
+    }
+
+    /**
+     * Result of parsing and analysing one query
+     */
+    public static class CachedQuery {
+
+        private final String query;
+        private final String hash;
+        private final String rejectionReason;
+        private final int depth;
+        private final long complexity;
+
+        private CachedQuery(String query, String hash, String rejectionReason, int depth, long complexity) {
+            this.query = query;
+            this.hash = hash;
+            this.rejectionReason = rejectionReason;
+            this.depth = depth;
+            this.complexity = complexity;
+        }
+
+        static CachedQuery accepted(String query, String hash, int depth, long complexity) {
+            return new CachedQuery(query, hash, null, depth, complexity);
+        }
+
+        static CachedQuery rejected(String query, String hash, String reason) {
+            return new CachedQuery(query, hash, reason, 0, 0);
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public boolean isRejected() {
+            return rejectionReason != null;
+        }
+
+        public String getRejectionReason() {
+            return rejectionReason;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getComplexity() {
+            return complexity;
+        }
+    }
+}
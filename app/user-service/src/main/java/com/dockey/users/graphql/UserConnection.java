@@ -0,0 +1,47 @@
+package com.dockey.users.graphql;
+
+import com.dockey.users.dto.UserPage;
+import com.dockey.users.entities.User;
+import com.dockey.users.services.UserService;
+import org.eclipse.microprofile.graphql.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Relay-style connection over a keyset page of users
+ */
+@Type("UserConnection")
+public class UserConnection {
+    
+    private List<UserEdge> edges;
+    private PageInfo pageInfo;
+    
+    public UserConnection() {
+    }
+    
+    public UserConnection(UserPage page) {
+        this.edges = new ArrayList<>(page.getUsers().size());
+        for (User user : page.getUsers()) {
+            edges.add(new UserEdge(UserService.encodeCursor(user.getId()), user));
+        }
+        String endCursor = edges.isEmpty() ? null : edges.get(edges.size() - 1).getCursor();
+        this.pageInfo = new PageInfo(page.isHasMore(), endCursor);
+    }
+    
+    public List<UserEdge> getEdges() {
+        return edges;
+    }
+    
+    public void setEdges(List<UserEdge> edges) {
+        this.edges = edges;
+    }
+    
+    public PageInfo getPageInfo() {
+        return pageInfo;
+    }
+    
+    public void setPageInfo(PageInfo pageInfo) {
+        this.pageInfo = pageInfo;
+    }
+}
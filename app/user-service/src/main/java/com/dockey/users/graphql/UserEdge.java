@@ -0,0 +1,35 @@
+package com.dockey.users.graphql;
+
+import com.dockey.users.entities.User;
+import org.eclipse.microprofile.graphql.Type;
+
+@Type("UserEdge")
+public class UserEdge {
+    
+    private String cursor;
+    private User node;
+    
+    public UserEdge() {
+    }
+    
+    public UserEdge(String cursor, User node) {
+        this.cursor = cursor;
+        this.node = node;
+    }
+    
+    public String getCursor() {
+        return cursor;
+    }
+    
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+    
+    public User getNode() {
+        return node;
+    }
+    
+    public void setNode(User node) {
+        this.node = node;
+    }
+}
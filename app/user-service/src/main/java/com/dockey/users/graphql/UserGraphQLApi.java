@@ -2,6 +2,7 @@ package com.dockey.users.graphql;
 
 import com.dockey.users.entities.User;
 import com.dockey.users.services.UserService;
+import io.smallrye.graphql.api.Context;
 import org.eclipse.microprofile.graphql.Description;
 import org.eclipse.microprofile.graphql.GraphQLApi;
 import org.eclipse.microprofile.graphql.Mutation;
@@ -9,7 +10,13 @@ import org.eclipse.microprofile.graphql.Query;
 import org.eclipse.microprofile.graphql.Name;
 
 import javax.inject.Inject;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 @GraphQLApi
 public class UserGraphQLApi {
@@ -17,10 +24,21 @@ public class UserGraphQLApi {
     @Inject
     private UserService userService;
     
+    @Inject
+    private Context context;
+    
+    @Query("users")
+    @Description("Page through users with a Relay-style connection, optionally filtered by username/fullName prefix")
+    public UserConnection getUsers(@Name("first") Integer first,
+                                   @Name("after") String after,
+                                   @Name("prefix") String prefix) {
+        return new UserConnection(userService.listUsers(after, first, prefix, selectedNodeFields()));
+    }
+    
     @Query("allUsers")
-    @Description("Get all users")
-    public List<User> getAllUsers() {
-        return userService.getAllUsers();
+    @Description("Get the first page of users (use the users connection to paginate)")
+    public List<User> getAllUsers(@Name("first") Integer first, @Name("prefix") String prefix) {
+        return userService.listUsers(null, first, prefix, selectedFields(context.getSelectedFields())).getUsers();
     }
     
     @Query("user")
@@ -68,4 +86,43 @@ public class UserGraphQLApi {
     public Boolean deleteUser(@Name("id") Long id) {
         return userService.deleteUser(id);
     }
+    
+    /**
+     * Scalar fields selected under users { edges { node { ... } } }, so only those columns are loaded.
+     */
+    private Set<String> selectedNodeFields() {
+        JsonArray edges = nestedSelection(context.getSelectedFields(), "edges");
+        return selectedFields(nestedSelection(edges, "node"));
+    }
+    
+    private static JsonArray nestedSelection(JsonArray selection, String field) {
+        if (selection == null) {
+            return null;
+        }
+        for (JsonValue value : selection) {
+            if (value.getValueType() == JsonValue.ValueType.OBJECT) {
+                JsonObject object = value.asJsonObject();
+                if (object.containsKey(field)) {
+                    return object.getJsonArray(field);
+                }
+            }
+        }
+        return null;
+    }
+    
+    private static Set<String> selectedFields(JsonArray selection) {
+        Set<String> fields = new LinkedHashSet<>();
+        if (selection == null) {
+            return fields;
+        }
+        for (JsonValue value : selection) {
+            if (value.getValueType() == JsonValue.ValueType.STRING) {
+                String field = ((JsonString) value).getString();
+                if (!field.startsWith("__")) {
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
 }
@@ -0,0 +1,112 @@
+package com.dockey.users.services;
+
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Postgres advisory locks shared by the replicas of this service.
+ *
+ * Locks are named. A name is hashed into the second key of a two-key lock whose first key is
+ * fixed, so it cannot collide with other advisory lock users of the database. Locks are
+ * session-level and held on a pooled connection of their own, outside any transaction, so a
+ * long job keeps no connection idle in transaction; a replica that dies releases them with
+ * its connection.
+ */
+@ApplicationScoped
+public class AdvisoryLocks {
+
+    private static final Logger LOG = LogManager.getLogger(AdvisoryLocks.class.getName());
+    private static final int NAMESPACE = 0x55534552; // "USER"
+    private static final String DATASOURCE = "jdbc/UsersDS";
+
+    private volatile DataSource dataSource;
+
+    /**
+     * Take the exclusive lock if no other session holds it
+     *
+     * @return the held lock, released on close, or null if it is held elsewhere
+     */
+    public Held tryLock(String name) {
+        Connection connection = null;
+        try {
+            connection = dataSource().getConnection();
+            connection.setAutoCommit(true);
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_lock(?, hashtext(?))")) {
+                statement.setInt(1, NAMESPACE);
+                statement.setString(2, name);
+                try (ResultSet result = statement.executeQuery()) {
+                    result.next();
+                    if (result.getBoolean(1)) {
+                        return new Held(connection, name);
+                    }
+                }
+            }
+            connection.close();
+            return null;
+        } catch (SQLException e) {
+            if (connection != null) {
+                discard(connection);
+            }
+            throw new PersistenceException("Failed to take advisory lock " + name, e);
+        }
+    }
+
+    private DataSource dataSource() {
+        if (dataSource == null) {
+            try {
+                dataSource = (DataSource) new InitialContext().lookup(DATASOURCE);
+            } catch (NamingException e) {
+                throw new PersistenceException("Data source " + DATASOURCE + " not found", e);
+            }
+        }
+        return dataSource;
+    }
+
+    /**
+     * Close a connection that may still hold a lock, so the pool evicts it instead of handing
+     * the lock on to its next user
+     */
+    private static void discard(Connection connection) {
+        try {
+            connection.abort(Runnable::run);
+        } catch (SQLException e) {
+            LOG.warn("Failed to abort advisory lock connection", e);
+        }
+    }
+
+    /**
+     * An exclusive lock held on its own connection
+     */
+    public static final class Held implements AutoCloseable {
+        private final Connection connection;
+        private final String name;
+
+        private Held(Connection connection, String name) {
+            this.connection = connection;
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(?, hashtext(?))")) {
+                statement.setInt(1, NAMESPACE);
+                statement.setString(2, name);
+                statement.executeQuery().close();
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Failed to release advisory lock {}, dropping its connection", name, e);
+                discard(connection);
+            }
+        }
+    }
+}
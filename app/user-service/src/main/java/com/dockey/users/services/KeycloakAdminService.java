@@ -27,16 +27,37 @@ import java.util.Map;
 public class KeycloakAdminService {
 
     private static final Logger LOG = LogManager.getLogger(KeycloakAdminService.class.getName());
+    // Refresh the cached admin token this long before Keycloak expires it
+    private static final long ADMIN_TOKEN_EXPIRY_MARGIN_MS = 30_000;
 
     @Inject
     private KeycloakConfig keycloakConfig;
 
     private Client client = ClientBuilder.newClient();
 
+    private volatile String adminToken;
+    private volatile long adminTokenExpiresAt = 0;
+
     /**
-     * Get admin access token
+     * Get admin access token, reusing the cached one until it is close to expiry
      */
     private String getAdminToken() {
+        String token = adminToken;
+        if (token != null && System.currentTimeMillis() < adminTokenExpiresAt) {
+            return token;
+        }
+        synchronized (this) {
+            if (adminToken == null || System.currentTimeMillis() >= adminTokenExpiresAt) {
+                fetchAdminToken();
+            }
+            return adminToken;
+        }
+    }
+
+    /**
+     * Fetch a fresh admin access token from the master realm
+     */
+    private void fetchAdminToken() {
         Form form = new Form();
         form.param("grant_type", "password");
         form.param("client_id", "admin-cli");
@@ -53,7 +74,9 @@ public class KeycloakAdminService {
 
         JsonReader jsonReader = Json.createReader(new StringReader(jsonResponse));
         JsonObject tokenObject = jsonReader.readObject();
-        return tokenObject.getString("access_token");
+        adminToken = tokenObject.getString("access_token");
+        adminTokenExpiresAt = System.currentTimeMillis()
+                + tokenObject.getInt("expires_in", 60) * 1000L - ADMIN_TOKEN_EXPIRY_MARGIN_MS;
     }
 
     /**
@@ -67,7 +90,7 @@ public class KeycloakAdminService {
         try {
             String adminToken = getAdminToken();
 
-            // Create user JSON
+            // Create user JSON; the password is set in the same request instead of a separate reset-password call
             JsonObject userJson = Json.createObjectBuilder()
                     .add("username", username)
                     .add("email", email)
@@ -75,6 +98,11 @@ public class KeycloakAdminService {
                     .add("lastName", lastName != null ? lastName : "")
                     .add("enabled", true)
                     .add("emailVerified", true)
+                    .add("credentials", Json.createArrayBuilder()
+                            .add(Json.createObjectBuilder()
+                                    .add("type", "password")
+                                    .add("value", password)
+                                    .add("temporary", false)))
                     .build();
 
             Response response = client.target(keycloakConfig.getAuthServerUrl())
@@ -96,9 +124,6 @@ public class KeycloakAdminService {
             response.close();
             String userId = locationHeader.substring(locationHeader.lastIndexOf('/') + 1);
 
-            // Set password
-            setUserPassword(userId, password, false);
-
             LOG.info("Successfully created user in Keycloak with ID: {}", userId);
             return userId;
 
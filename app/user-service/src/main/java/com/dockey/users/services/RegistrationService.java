@@ -0,0 +1,170 @@
+package com.dockey.users.services;
+
+import com.dockey.users.dto.UserRegistrationRequest;
+import com.dockey.users.entities.User;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registration pipeline that runs independent steps concurrently off the request thread:
+ * the email check (DB) and the username check (Keycloak) run in parallel, and once the
+ * Keycloak user exists the DB insert and the password-grant login run in parallel too.
+ * Every DB step uses its own EntityManager because it runs on a worker thread.
+ */
+@ApplicationScoped
+public class RegistrationService {
+
+    private static final Logger LOG = LogManager.getLogger(RegistrationService.class.getName());
+
+    @PersistenceUnit(unitName = "users-jpa-unit")
+    private EntityManagerFactory emf;
+
+    @Inject
+    private KeycloakAdminService keycloakAdminService;
+
+    @Inject
+    @ConfigProperty(name = "registration.executor.threads", defaultValue = "16")
+    private int executorThreads;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(executorThreads, r -> {
+            Thread thread = new Thread(r, "registration-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Register a new user - creates both in Keycloak and local database.
+     * Completes with a map with "user", "accessToken", "refreshToken" and "expiresIn" keys,
+     * or exceptionally with IllegalArgumentException if the email or username is taken.
+     */
+    public CompletionStage<Map<String, Object>> registerUser(UserRegistrationRequest request) {
+        LOG.info("Registering new user: {}", request.getUsername());
+
+        CompletableFuture<Boolean> emailTaken = CompletableFuture.supplyAsync(
+            () -> emailExists(request.getEmail()), executor);
+        CompletableFuture<Boolean> usernameTaken = CompletableFuture.supplyAsync(
+            () -> keycloakAdminService.userExistsInKeycloak(request.getUsername()), executor);
+
+        return emailTaken.thenCombine(usernameTaken, (emailExists, usernameExists) -> {
+            if (emailExists) {
+                throw new IllegalArgumentException("User with email " + request.getEmail() + " already exists");
+            }
+            if (usernameExists) {
+                throw new IllegalArgumentException("Username " + request.getUsername() + " already exists");
+            }
+            return request;
+        }).thenComposeAsync(req -> {
+            String keycloakId = keycloakAdminService.createKeycloakUser(
+                req.getUsername(),
+                req.getEmail(),
+                req.getPassword(),
+                req.getFirstName(),
+                req.getLastName()
+            );
+
+            CompletableFuture<User> insert = CompletableFuture.supplyAsync(
+                () -> insertUser(req, keycloakId), executor);
+            CompletableFuture<Map<String, Object>> login = CompletableFuture.supplyAsync(
+                () -> keycloakAdminService.loginUser(req.getUsername(), req.getPassword()), executor);
+
+            return insert.handle((user, error) -> {
+                if (error != null) {
+                    // Rollback: delete from Keycloak if DB insert fails
+                    LOG.error("Failed to save user to database, rolling back Keycloak user creation");
+                    keycloakAdminService.deleteKeycloakUser(keycloakId);
+                    throw error instanceof CompletionException
+                        ? (CompletionException) error : new CompletionException(error);
+                }
+                return user;
+            }).thenCombine(login, (user, tokenData) -> {
+                LOG.info("User registered successfully: {}", user.getUsername());
+
+                Map<String, Object> result = new HashMap<>();
+                result.put("user", user);
+                result.put("accessToken", tokenData.get("accessToken"));
+                result.put("refreshToken", tokenData.get("refreshToken"));
+                result.put("expiresIn", tokenData.get("expiresIn"));
+                return result;
+            });
+        }, executor);
+    }
+
+    private boolean emailExists(String email) {
+        EntityManager localEm = emf.createEntityManager();
+        try {
+            return !localEm.createNamedQuery("User.findByEmail", User.class)
+                .setParameter("email", email)
+                .setMaxResults(1)
+                .getResultList()
+                .isEmpty();
+        } finally {
+            localEm.close();
+        }
+    }
+
+    private User insertUser(UserRegistrationRequest request, String keycloakId) {
+        User user = new User();
+        user.setKeycloakId(keycloakId);
+        user.setUsername(request.getUsername());
+        user.setEmail(request.getEmail());
+        user.setFullName(request.getFullName());
+        user.setRole(request.getRole() != null ? request.getRole() : "USER");
+
+        EntityManager localEm = emf.createEntityManager();
+        EntityTransaction tx = localEm.getTransaction();
+        try {
+            tx.begin();
+            localEm.persist(user);
+            localEm.flush();
+            tx.commit();
+            return user;
+        } catch (Exception e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            localEm.close();
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
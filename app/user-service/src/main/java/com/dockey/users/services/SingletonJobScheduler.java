@@ -0,0 +1,215 @@
+package com.dockey.users.services;
+
+import com.dockey.users.entities.JobRun;
+import com.kumuluz.ee.logs.LogManager;
+import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnit;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs background jobs on exactly one replica at a time.
+ *
+ * Every replica checks each job on a fixed interval. A check takes a session-level Postgres
+ * advisory lock for the job on a connection of its own ({@link AdvisoryLocks}); the replica that
+ * gets the lock runs the job if its last success (in job_runs) is older than the job's minimum
+ * interval, records the outcome and releases the lock. The run itself holds no transaction, so
+ * a long job such as a Keycloak sync keeps no pooled connection idle in transaction. If a
+ * replica dies mid-run its connection drops, Postgres releases the lock, and the next replica to
+ * check takes the job over.
+ */
+@ApplicationScoped
+public class SingletonJobScheduler {
+
+    private static final Logger LOG = LogManager.getLogger(SingletonJobScheduler.class.getName());
+
+    @PersistenceUnit(unitName = "users-jpa-unit")
+    private EntityManagerFactory emf;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    @Inject
+    private AdvisoryLocks advisoryLocks;
+
+    private ScheduledExecutorService scheduler;
+    private String owner;
+    private final Map<String, AtomicLong> lastSuccessEpochSeconds = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "singleton-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        owner = resolveOwner();
+        LOG.info("Singleton job scheduler initialized on replica: {}", owner);
+    }
+
+    /**
+     * Schedule a cluster-wide singleton job.
+     *
+     * @param name unique job name, also used as the advisory lock key
+     * @param checkInterval how often this replica tries to take the job
+     * @param minInterval minimum time between two successful runs across the cluster
+     * @param job the work to run
+     */
+    public void schedule(String name, Duration checkInterval, Duration minInterval, Runnable job) {
+        Tag jobTag = new Tag("job", name);
+        AtomicLong lastSuccess = lastSuccessEpochSeconds.computeIfAbsent(name, k -> new AtomicLong());
+
+        metricRegistry.register(Metadata.builder()
+                .withName("job_last_success_timestamp")
+                .withDescription("Epoch seconds of the last successful run seen by this replica")
+                .withType(MetricType.GAUGE)
+                .withUnit(MetricUnits.SECONDS)
+                .build(), (Gauge<Long>) lastSuccess::get, jobTag);
+
+        scheduler.scheduleWithFixedDelay(
+                () -> runIfDue(name, minInterval, job, jobTag),
+                0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+
+        LOG.info("Scheduled singleton job '{}' (check every {}s, at most every {}s)",
+                name, checkInterval.getSeconds(), minInterval.getSeconds());
+    }
+
+    private void runIfDue(String name, Duration minInterval, Runnable job, Tag jobTag) {
+        AdvisoryLocks.Held lock;
+        try {
+            lock = advisoryLocks.tryLock(name);
+        } catch (Exception e) {
+            LOG.error("Error while scheduling job '{}': {}", name, e.getMessage(), e);
+            return;
+        }
+        if (lock == null) {
+            LOG.debug("Job '{}' is running on another replica", name);
+            return;
+        }
+
+        try {
+            if (!startIfDue(name, minInterval)) {
+                return;
+            }
+
+            LOG.info("Running singleton job '{}' on replica {}", name, owner);
+            String error = null;
+            long start = System.nanoTime();
+            try {
+                job.run();
+            } catch (Exception e) {
+                LOG.error("Singleton job '{}' failed: {}", name, e.getMessage(), e);
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+                metricRegistry.counter("job_run_failures_total", jobTag).inc();
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            metricRegistry.timer("job_run_duration", jobTag).update(elapsedNanos, TimeUnit.NANOSECONDS);
+
+            recordOutcome(name, error, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        } catch (Exception e) {
+            LOG.error("Error while scheduling job '{}': {}", name, e.getMessage(), e);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Record the start of a run if the last success is older than minInterval
+     *
+     * @return whether the job is due
+     */
+    private boolean startIfDue(String name, Duration minInterval) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            JobRun run = em.find(JobRun.class, name);
+            if (run == null) {
+                run = new JobRun(name);
+                em.persist(run);
+            }
+
+            Instant now = Instant.now();
+            if (run.getLastSuccessAt() != null) {
+                lastSuccessEpochSeconds.get(name).set(run.getLastSuccessAt().getEpochSecond());
+                if (run.getLastSuccessAt().plus(minInterval).isAfter(now)) {
+                    tx.rollback();
+                    return false;
+                }
+            }
+
+            run.setLastStartedAt(now);
+            run.setLastOwner(owner);
+            tx.commit();
+            return true;
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            em.close();
+        }
+    }
+
+    private void recordOutcome(String name, String error, long durationMs) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            JobRun run = em.find(JobRun.class, name);
+            Instant now = Instant.now();
+            if (error == null) {
+                run.setLastSuccessAt(now);
+                lastSuccessEpochSeconds.get(name).set(now.getEpochSecond());
+            }
+            run.setLastError(error);
+            run.setLastFinishedAt(now);
+            run.setLastDurationMs(durationMs);
+            tx.commit();
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            em.close();
+        }
+    }
+
+    private static String resolveOwner() {
+        String hostname = System.getenv("HOSTNAME");
+        if (hostname != null && !hostname.isEmpty()) {
+            return hostname;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
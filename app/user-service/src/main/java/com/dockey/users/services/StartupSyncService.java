@@ -3,50 +3,72 @@ package com.dockey.users.services;
 import com.dockey.users.entities.User;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
 import javax.persistence.TypedQuery;
+import java.time.Duration;
 import java.util.List;
 
 /**
- * Service that runs on startup to sync database with Keycloak
+ * Job that syncs the database with Keycloak by removing users that no longer exist in Keycloak.
+ * It is registered with the {@link SingletonJobScheduler} on startup, so only one replica runs it.
  */
 @ApplicationScoped
 public class StartupSyncService {
 
     private static final Logger LOG = LogManager.getLogger(StartupSyncService.class.getName());
+    private static final String JOB_NAME = "keycloak-orphan-sync";
 
-    @PersistenceContext(unitName = "users-jpa-unit")
-    private EntityManager em;
+    @PersistenceUnit(unitName = "users-jpa-unit")
+    private EntityManagerFactory emf;
 
     @Inject
     private KeycloakAdminService keycloakAdminService;
 
-    @PostConstruct
-    public void init() {
+    @Inject
+    private SingletonJobScheduler jobScheduler;
+
+    @Inject
+    @ConfigProperty(name = "jobs.keycloak-orphan-sync.check-interval-seconds", defaultValue = "60")
+    private long checkIntervalSeconds;
+
+    @Inject
+    @ConfigProperty(name = "jobs.keycloak-orphan-sync.min-interval-seconds", defaultValue = "3600")
+    private long minIntervalSeconds;
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        jobScheduler.schedule(JOB_NAME, Duration.ofSeconds(checkIntervalSeconds),
+                Duration.ofSeconds(minIntervalSeconds), this::syncOrphanedUsers);
+    }
+
+    void syncOrphanedUsers() {
         LOG.info("Running startup sync: checking for orphaned users...");
-        
+
+        EntityManager em = emf.createEntityManager();
         try {
             // Get all users from database
             TypedQuery<User> query = em.createQuery("SELECT u FROM User u", User.class);
             List<User> users = query.getResultList();
 
             int orphanedCount = 0;
-            
+
             for (User user : users) {
                 if (user.getKeycloakId() != null) {
                     // Check if user exists in Keycloak
                     boolean existsInKeycloak = keycloakAdminService.userExistsInKeycloakById(user.getKeycloakId());
-                    
+
                     if (!existsInKeycloak) {
                         // User doesn't exist in Keycloak anymore - delete from database
-                        LOG.info("Found orphaned user: {} (keycloakId: {}). Removing from database.", 
+                        LOG.info("Found orphaned user: {} (keycloakId: {}). Removing from database.",
                                 user.getUsername(), user.getKeycloakId());
-                        
+
                         em.getTransaction().begin();
                         try {
                             User managedUser = em.find(User.class, user.getId());
@@ -64,15 +86,14 @@ public class StartupSyncService {
                     }
                 }
             }
-            
+
             if (orphanedCount > 0) {
                 LOG.info("Startup sync complete: Removed {} orphaned user(s)", orphanedCount);
             } else {
                 LOG.info("Startup sync complete: No orphaned users found");
             }
-            
-        } catch (Exception e) {
-            LOG.error("Error during startup sync: {}", e.getMessage(), e);
+        } finally {
+            em.close();
         }
     }
 }
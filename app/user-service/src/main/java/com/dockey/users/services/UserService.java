@@ -1,6 +1,6 @@
 package com.dockey.users.services;
 
-import com.dockey.users.dto.UserRegistrationRequest;
+import com.dockey.users.dto.UserPage;
 import com.dockey.users.entities.User;
 import com.kumuluz.ee.logs.LogManager;
 import com.kumuluz.ee.logs.Logger;
@@ -8,9 +8,17 @@ import com.kumuluz.ee.logs.Logger;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 @RequestScoped
@@ -24,10 +32,155 @@ public class UserService {
     @Inject
     private KeycloakAdminService keycloakAdminService;
     
-    public List<User> getAllUsers() {
-        LOG.info("Fetching all users");
-        TypedQuery<User> query = em.createNamedQuery("User.findAll", User.class);
-        return query.getResultList();
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
+    // Fields that may be requested by clients, mapped to their JPQL paths.
+    // The id is always selected because the keyset cursor is built from it.
+    private static final Map<String, String> PROJECTABLE_FIELDS = new LinkedHashMap<>();
+
+    static {
+        PROJECTABLE_FIELDS.put("id", "u.id");
+        PROJECTABLE_FIELDS.put("keycloakId", "u.keycloakId");
+        PROJECTABLE_FIELDS.put("username", "u.username");
+        PROJECTABLE_FIELDS.put("email", "u.email");
+        PROJECTABLE_FIELDS.put("fullName", "u.fullName");
+        PROJECTABLE_FIELDS.put("role", "u.role");
+        PROJECTABLE_FIELDS.put("createdAt", "u.createdAt");
+        PROJECTABLE_FIELDS.put("updatedAt", "u.updatedAt");
+    }
+
+    /**
+     * List users ordered by id using keyset pagination.
+     * Only the requested fields are selected (all fields when none are given), and the
+     * optional prefix matches the start of username or fullName case-insensitively,
+     * which is served by the lower(...) text_pattern_ops indexes in sql/users-indexes.sql.
+     *
+     * @param cursor opaque cursor from a previous page, or null for the first page
+     * @param limit page size, clamped to [1, MAX_PAGE_SIZE]
+     * @param prefix optional username/fullName prefix filter
+     * @param fields optional set of field names to select
+     */
+    public UserPage listUsers(String cursor, Integer limit, String prefix, Collection<String> fields) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        Long afterId = decodeCursor(cursor);
+        List<String> selected = resolveFields(fields);
+        LOG.info("Listing users after id: {} limit: {} prefix: {} fields: {}", afterId, pageSize, prefix, selected);
+
+        StringBuilder jpql = new StringBuilder("SELECT ");
+        for (int i = 0; i < selected.size(); i++) {
+            if (i > 0) {
+                jpql.append(", ");
+            }
+            jpql.append(PROJECTABLE_FIELDS.get(selected.get(i)));
+        }
+        jpql.append(" FROM User u WHERE u.id > :afterId");
+
+        boolean filtered = prefix != null && !prefix.isBlank();
+        if (filtered) {
+            jpql.append(" AND (LOWER(u.username) LIKE :prefix ESCAPE '!'")
+                .append(" OR LOWER(u.fullName) LIKE :prefix ESCAPE '!')");
+        }
+        jpql.append(" ORDER BY u.id");
+
+        Query query = em.createQuery(jpql.toString());
+        query.setParameter("afterId", afterId);
+        if (filtered) {
+            query.setParameter("prefix", escapeLike(prefix.trim().toLowerCase(Locale.ROOT)) + "%");
+        }
+        // Fetch one extra row to know whether another page exists without a COUNT
+        query.setMaxResults(pageSize + 1);
+
+        List<?> rows = query.getResultList();
+        boolean hasMore = rows.size() > pageSize;
+
+        List<User> users = new ArrayList<>(Math.min(rows.size(), pageSize));
+        for (int i = 0; i < rows.size() && i < pageSize; i++) {
+            // A single selected column comes back as a scalar rather than an array
+            Object row = rows.get(i);
+            users.add(toUser(selected, row instanceof Object[] ? (Object[]) row : new Object[]{row}));
+        }
+
+        String nextCursor = hasMore ? encodeCursor(users.get(users.size() - 1).getId()) : null;
+        return new UserPage(users, nextCursor, hasMore);
+    }
+
+    public static String encodeCursor(Long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    private static List<String> resolveFields(Collection<String> fields) {
+        List<String> selected = new ArrayList<>();
+        selected.add("id");
+        if (fields == null || fields.isEmpty()) {
+            for (String field : PROJECTABLE_FIELDS.keySet()) {
+                if (!selected.contains(field)) {
+                    selected.add(field);
+                }
+            }
+            return selected;
+        }
+        for (String field : fields) {
+            if (!PROJECTABLE_FIELDS.containsKey(field)) {
+                throw new IllegalArgumentException("Unknown user field: " + field);
+            }
+            if (!selected.contains(field)) {
+                selected.add(field);
+            }
+        }
+        return selected;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    private static User toUser(List<String> selected, Object[] row) {
+        User user = new User();
+        for (int i = 0; i < selected.size(); i++) {
+            Object value = row[i];
+            switch (selected.get(i)) {
+                case "id":
+                    user.setId((Long) value);
+                    break;
+                case "keycloakId":
+                    user.setKeycloakId((String) value);
+                    break;
+                case "username":
+                    user.setUsername((String) value);
+                    break;
+                case "email":
+                    user.setEmail((String) value);
+                    break;
+                case "fullName":
+                    user.setFullName((String) value);
+                    break;
+                case "role":
+                    user.setRole((String) value);
+                    break;
+                case "createdAt":
+                    user.setCreatedAt((Instant) value);
+                    break;
+                case "updatedAt":
+                    user.setUpdatedAt((Instant) value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return user;
     }
     
     public User getUser(Long id) {
@@ -89,78 +242,6 @@ public class UserService {
         }
     }
 
-    /**
-     * Register a new user - creates both in Keycloak and local database
-     * Returns a map with "user" and "accessToken" keys
-     */
-    public Map<String, Object> registerUser(UserRegistrationRequest request) {
-        LOG.info("Registering new user: {}", request.getUsername());
-
-        // Check if user already exists in database
-        User existingUser = getUserByEmail(request.getEmail());
-        if (existingUser != null) {
-            throw new IllegalArgumentException("User with email " + request.getEmail() + " already exists");
-        }
-
-        // Check if username exists in Keycloak
-        if (keycloakAdminService.userExistsInKeycloak(request.getUsername())) {
-            throw new IllegalArgumentException("Username " + request.getUsername() + " already exists");
-        }
-
-        try {
-            // 1. Create user in Keycloak first
-            String keycloakId = keycloakAdminService.createKeycloakUser(
-                request.getUsername(),
-                request.getEmail(),
-                request.getPassword(),
-                request.getFirstName(),
-                request.getLastName()
-            );
-
-            // 2. Create user in local database
-            User user = new User();
-            user.setKeycloakId(keycloakId);
-            user.setUsername(request.getUsername());
-            user.setEmail(request.getEmail());
-            user.setFullName(request.getFullName());
-            user.setRole(request.getRole() != null ? request.getRole() : "USER");
-
-            em.getTransaction().begin();
-            try {
-                em.persist(user);
-                em.flush();
-                em.getTransaction().commit();
-                
-                // 3. Get tokens for the newly created user
-                Map<String, Object> tokenData = keycloakAdminService.loginUser(
-                    request.getUsername(),
-                    request.getPassword()
-                );
-                
-                LOG.info("User registered successfully: {}", user.getUsername());
-                
-                // Return user and tokens
-                Map<String, Object> result = new HashMap<>();
-                result.put("user", user);
-                result.put("accessToken", tokenData.get("accessToken"));
-                result.put("refreshToken", tokenData.get("refreshToken"));
-                result.put("expiresIn", tokenData.get("expiresIn"));
-                return result;
-                
-            } catch (Exception e) {
-                em.getTransaction().rollback();
-                // Rollback: delete from Keycloak if DB insert fails
-                LOG.error("Failed to save user to database, rolling back Keycloak user creation");
-                keycloakAdminService.deleteKeycloakUser(keycloakId);
-                throw e;
-            }
-
-        } catch (Exception e) {
-            LOG.error("Failed to register user: {}", e.getMessage(), e);
-            throw new RuntimeException("Failed to register user: " + e.getMessage(), e);
-        }
-    }
-    
     public User createUser(User user) {
         LOG.info("Creating new user: {}", user.getUsername());
         em.getTransaction().begin();
@@ -0,0 +1,150 @@
+package com.dockey.users.graphql;
+
+import com.dockey.users.services.UserService;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryDocumentCacheTest {
+
+    private static final String USERS = "{ users { edges { node { id } } } }";
+
+    @Test
+    void queryWithinTheLimitsIsAccepted() {
+        QueryDocumentCache.CachedQuery query = new QueryDocumentCache(10, 4, 5000).register(USERS);
+
+        assertFalse(query.isRejected());
+        assertEquals(4, query.getDepth());
+        assertEquals(4, query.getComplexity());
+    }
+
+    @Test
+    void queryDeeperThanTheLimitIsRejected() {
+        QueryDocumentCache.CachedQuery query = new QueryDocumentCache(10, 3, 5000).register(USERS);
+
+        assertTrue(query.isRejected());
+        assertEquals("Query depth 4 exceeds maximum of 3", query.getRejectionReason());
+    }
+
+    @Test
+    void childrenOfAPagedFieldCountOncePerItem() {
+        QueryDocumentCache cache = new QueryDocumentCache(10, 8, 5000);
+
+        QueryDocumentCache.CachedQuery query = cache.register("{ users(first: 10) { edges { node { id name } } } }");
+
+        assertEquals(1 + 10 * (1 + (1 + 2)), query.getComplexity());
+    }
+
+    @Test
+    void variablePageSizeCountsAsTheLargestPage() {
+        QueryDocumentCache cache = new QueryDocumentCache(10, 8, 5000);
+
+        QueryDocumentCache.CachedQuery query = cache.register(
+            "query Users($n: Int) { users(first: $n) { edges { node { id } } } }");
+
+        assertEquals(1 + UserService.MAX_PAGE_SIZE * (1 + (1 + 1)), query.getComplexity());
+    }
+
+    @Test
+    void complexityOverTheLimitIsRejected() {
+        QueryDocumentCache cache = new QueryDocumentCache(10, 8, 600);
+
+        QueryDocumentCache.CachedQuery query = cache.register(
+            "query Users($n: Int) { users(first: $n) { edges { node { id } } } }");
+
+        assertTrue(query.isRejected());
+        assertEquals("Query complexity 601 exceeds maximum of 600", query.getRejectionReason());
+    }
+
+    @Test
+    void nestedPagesSaturateInsteadOfOverflowing() {
+        QueryDocumentCache cache = new QueryDocumentCache(10, 8, 5000);
+
+        QueryDocumentCache.CachedQuery query = cache.register(
+            "{ a(first: 1000000000) { b(first: 1000000000) { c(first: 1000000000) { d } } } }");
+
+        assertTrue(query.isRejected());
+        assertEquals("Query complexity " + Long.MAX_VALUE + " exceeds maximum of 5000", query.getRejectionReason());
+    }
+
+    @Test
+    void fragmentsCountWhereverTheyAreSpread() {
+        QueryDocumentCache cache = new QueryDocumentCache(10, 8, 5000);
+
+        QueryDocumentCache.CachedQuery query = cache.register(
+            "{ a: user(id: 1) { ...f } b: user(id: 2) { ... on User { ...f } } } fragment f on User { id name }");
+
+        assertFalse(query.isRejected());
+        assertEquals(2, query.getDepth());
+        assertEquals(2 * (1 + 2), query.getComplexity());
+    }
+
+    @Test
+    void operationsAreSummedAndTheDeepestCounts() {
+        QueryDocumentCache cache = new QueryDocumentCache(10, 8, 5000);
+
+        QueryDocumentCache.CachedQuery query = cache.register(
+            "query A { me { id } } query B { users { edges { node { id } } } }");
+
+        assertEquals(4, query.getDepth());
+        assertEquals(2 + 4, query.getComplexity());
+    }
+
+    @Test
+    void fragmentCycleIsRejected() {
+        QueryDocumentCache cache = new QueryDocumentCache(10, 8, 5000);
+
+        QueryDocumentCache.CachedQuery query = cache.register(
+            "{ user(id: 1) { ...a } } fragment a on User { id ...b } fragment b on User { name ...a }");
+
+        assertTrue(query.isRejected());
+        assertTrue(query.getRejectionReason().endsWith("spreads itself"), query.getRejectionReason());
+    }
+
+    @Test
+    void invalidSyntaxIsRejected() {
+        QueryDocumentCache.CachedQuery query = new QueryDocumentCache(10, 8, 5000).register("{ users(");
+
+        assertTrue(query.isRejected());
+        assertTrue(query.getRejectionReason().startsWith("Invalid query syntax"), query.getRejectionReason());
+    }
+
+    @Test
+    void queriesAreCachedByHashIncludingRejectedOnes() {
+        QueryDocumentCache cache = new QueryDocumentCache(10, 3, 5000);
+
+        QueryDocumentCache.CachedQuery query = cache.register(USERS);
+
+        assertTrue(query.isRejected());
+        assertSame(query, cache.register(USERS));
+        assertSame(query, cache.get(QueryDocumentCache.sha256(USERS)));
+        assertEquals(QueryDocumentCache.sha256(USERS), query.getHash());
+    }
+
+    @Test
+    void leastRecentlyUsedQueryIsEvicted() {
+        QueryDocumentCache cache = new QueryDocumentCache(2, 8, 5000);
+        String first = "{ me { id } }";
+        String second = "{ me { name } }";
+        String third = "{ me { email } }";
+
+        cache.register(first);
+        cache.register(second);
+        assertNotNull(cache.get(QueryDocumentCache.sha256(first)));
+        cache.register(third);
+
+        assertNotNull(cache.get(QueryDocumentCache.sha256(first)));
+        assertNull(cache.get(QueryDocumentCache.sha256(second)));
+        assertNotNull(cache.get(QueryDocumentCache.sha256(third)));
+    }
+
+    @Test
+    void hashIsTheHexSha256OfTheQuery() {
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", QueryDocumentCache.sha256(""));
+    }
+}